@@ -5,12 +5,31 @@ import android.content.SharedPreferences;
 
 import com.google.firebase.FirebaseApp;
 
+import java.io.File;
 import java.util.UUID;
 
+import dev.nimrod.locafi.data.DeviceRepository;
+import dev.nimrod.locafi.data.DeviceStore;
+import dev.nimrod.locafi.data.ObservationLog;
+import dev.nimrod.locafi.localization.AccessPointTable;
+import dev.nimrod.locafi.localization.FingerprintDatabase;
+import dev.nimrod.locafi.localization.KalmanTracker;
+import dev.nimrod.locafi.localization.LikelihoodGrid;
+import dev.nimrod.locafi.managers.PreferencesManager;
 import dev.nimrod.locafi.models.User;
+import dev.nimrod.locafi.utils.FirebaseRepo;
+import dev.nimrod.locafi.utils.LastWriteIndex;
 
 public class LocaFiApp extends Application {
     private static User currentUser;
+    private static final KalmanTracker locationTracker = new KalmanTracker();
+    private static final AccessPointTable accessPointTable = new AccessPointTable();
+    private static final FingerprintDatabase fingerprintDatabase = new FingerprintDatabase();
+    private static LikelihoodGrid likelihoodGrid;
+    private static LastWriteIndex lastWriteIndex;
+    private static DeviceRepository deviceRepository;
+    // Keeps compaction out of the way of app startup
+    private static final long COMPACTION_STARTUP_DELAY_MS = 60 * 1000;
 
     @Override
     public void onCreate() {
@@ -19,6 +38,11 @@ public class LocaFiApp extends Application {
             FirebaseApp.initializeApp(this);
         }
         loadOrGenerateUserId();
+        lastWriteIndex = LastWriteIndex.load(new File(getFilesDir(), "last_write_index.bin"));
+        FirebaseRepo firebaseRepo = new FirebaseRepo();
+        deviceRepository = new DeviceRepository(new DeviceStore(this), new ObservationLog(this),
+                firebaseRepo);
+        migrateStorageLayout(firebaseRepo);
     }
 
     private void loadOrGenerateUserId() {
@@ -35,6 +59,42 @@ public class LocaFiApp extends Application {
     }
 
 
+    private void migrateStorageLayout(FirebaseRepo firebaseRepo) {
+        int layout = PreferencesManager.getStorageLayout(this);
+        if (layout >= PreferencesManager.STORAGE_LAYOUT_TIME_INDEX) {
+            scheduleCompaction();
+            return;
+        }
+        FirebaseRepo.ClearAllDevicesCallback onMigrated = success -> {
+            if (success) {
+                PreferencesManager.setStorageLayout(this, PreferencesManager.STORAGE_LAYOUT_TIME_INDEX);
+                scheduleCompaction();
+            }
+        };
+        // Moving legacy devices writes their index entries too
+        if (layout < PreferencesManager.STORAGE_LAYOUT_CELLS) {
+            firebaseRepo.migrateLegacyLayout(onMigrated);
+        } else {
+            firebaseRepo.rebuildTimeIndex(onMigrated);
+        }
+    }
+
+    // Eviction reads the time index, so it only starts once the layout is current.
+    // The last run is remembered so restarts do not compact more than once a day.
+    private void scheduleCompaction() {
+        long ttlMs = PreferencesManager.getDeviceTtlDays(this) * 24L * 60 * 60 * 1000;
+        long interval = DeviceRepository.DEFAULT_COMPACTION_INTERVAL_MS;
+        long lastCompaction = PreferencesManager.getLastCompactionTime(this);
+        long sinceLast = System.currentTimeMillis() - lastCompaction;
+        long initialDelay = Math.max(COMPACTION_STARTUP_DELAY_MS, interval - sinceLast);
+        deviceRepository.startPeriodicCompaction(ttlMs, interval, initialDelay, lastCompaction,
+                (localEvicted, remoteEvicted, duplicatesRemoved) -> {
+                    if (remoteEvicted >= 0 && duplicatesRemoved >= 0) {
+                        PreferencesManager.setLastCompactionTime(this, System.currentTimeMillis());
+                    }
+                });
+    }
+
     public static User getCurrentUser() {
         return currentUser;
     }
@@ -42,4 +102,33 @@ public class LocaFiApp extends Application {
     public static void setCurrentUser(User user) {
         currentUser = user;
     }
+
+    public static KalmanTracker getLocationTracker() {
+        return locationTracker;
+    }
+
+    public static AccessPointTable getAccessPointTable() {
+        return accessPointTable;
+    }
+
+    // One fingerprint per scan processed in this process
+    public static FingerprintDatabase getFingerprintDatabase() {
+        return fingerprintDatabase;
+    }
+
+    public static DeviceRepository getDeviceRepository() {
+        return deviceRepository;
+    }
+
+    public static LastWriteIndex getLastWriteIndex() {
+        return lastWriteIndex;
+    }
+
+    // Created on first use: the 1M-cell grid is only worth its memory once scanning starts
+    public static synchronized LikelihoodGrid getLikelihoodGrid() {
+        if (likelihoodGrid == null) {
+            likelihoodGrid = new LikelihoodGrid();
+        }
+        return likelihoodGrid;
+    }
 }
\ No newline at end of file
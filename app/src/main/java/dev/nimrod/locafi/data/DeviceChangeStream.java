@@ -0,0 +1,171 @@
+package dev.nimrod.locafi.data;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import dev.nimrod.locafi.models.WiFiDevice;
+import dev.nimrod.locafi.utils.FirebaseRepo;
+
+// One shared child-event subscription to the remote devices in the watched cells,
+// ref-counted across observers. Events are coalesced and handed out as deltas on the main thread;
+// a late observer first gets the current snapshot as a single delta. The remote
+// listener is detached when the last observer leaves.
+public class DeviceChangeStream implements DeviceRemote.ChangeListener {
+    private final DeviceRemote remote;
+    private final Observer storeSink;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<Observer> observers = new ArrayList<>();
+
+    // Current remote state in the watched cells while subscribed
+    private final Map<String, WiFiDevice> snapshot = new LinkedHashMap<>();
+    // Cells or cell prefixes being followed; null until the first watchCells()
+    private List<String> watchedCells = null;
+    // Events not yet dispatched
+    private final Map<String, WiFiDevice> pendingUpserts = new LinkedHashMap<>();
+    private final Set<String> pendingRemovals = new LinkedHashSet<>();
+    private boolean dispatchPosted = false;
+    private long deliveredDeltas = 0;
+
+    private final Runnable dispatchRunnable = this::dispatch;
+
+    // storeSink sees every delta before observers do, e.g. to merge it into the local store
+    public DeviceChangeStream(DeviceRemote remote, Observer storeSink) {
+        this.remote = remote;
+        this.storeSink = storeSink;
+    }
+
+    public void subscribe(Observer observer) {
+        boolean first;
+        synchronized (this) {
+            if (observers.contains(observer)) return;
+            first = observers.isEmpty();
+            observers.add(observer);
+        }
+        if (first) {
+            remote.addChangeListener(this);
+        } else {
+            List<WiFiDevice> current;
+            synchronized (this) {
+                current = new ArrayList<>(snapshot.values());
+            }
+            if (!current.isEmpty()) {
+                observer.onDevicesChanged(new DeviceDelta(current, new ArrayList<>()));
+            }
+        }
+    }
+
+    public void unsubscribe(Observer observer) {
+        synchronized (this) {
+            if (!observers.remove(observer) || !observers.isEmpty()) return;
+            snapshot.clear();
+            pendingUpserts.clear();
+            pendingRemovals.clear();
+            mainHandler.removeCallbacks(dispatchRunnable);
+            dispatchPosted = false;
+        }
+        remote.removeChangeListener(this);
+    }
+
+    // Follows only these cells from now on. Devices outside them leave the snapshot, so it
+    // stays the size of the viewport and late observers are not replayed off-screen devices.
+    public void watchCells(List<String> cells) {
+        synchronized (this) {
+            watchedCells = new ArrayList<>(cells);
+            snapshot.values().removeIf(device -> !isWatched(device));
+        }
+        remote.setChangeCells(cells);
+    }
+
+    private boolean isWatched(WiFiDevice device) {
+        if (watchedCells == null) return true;
+        String cell = FirebaseRepo.cellOf(device);
+        for (String watched : watchedCells) {
+            if (cell.startsWith(watched)) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized void onDeviceUpserted(WiFiDevice device) {
+        pendingRemovals.remove(device.getBssid());
+        pendingUpserts.put(device.getBssid(), device);
+        postDispatch();
+    }
+
+    @Override
+    public synchronized void onDeviceRemoved(String bssid) {
+        pendingUpserts.remove(bssid);
+        pendingRemovals.add(bssid);
+        postDispatch();
+    }
+
+    // Devices just written locally, shown right away instead of after the upload is
+    // echoed back. The store sink re-merging them is a no-op (same timestamp).
+    public synchronized void publishLocal(List<WiFiDevice> devices) {
+        if (observers.isEmpty() || devices.isEmpty()) return;
+        for (WiFiDevice device : devices) {
+            pendingRemovals.remove(device.getBssid());
+            pendingUpserts.put(device.getBssid(), device);
+        }
+        postDispatch();
+    }
+
+    private void postDispatch() {
+        if (!dispatchPosted) {
+            dispatchPosted = true;
+            mainHandler.post(dispatchRunnable);
+        }
+    }
+
+    private void dispatch() {
+        DeviceDelta delta;
+        List<Observer> targets;
+        synchronized (this) {
+            dispatchPosted = false;
+            if (observers.isEmpty()) return;
+            for (String bssid : pendingRemovals) {
+                snapshot.remove(bssid);
+            }
+            for (WiFiDevice device : pendingUpserts.values()) {
+                if (isWatched(device)) {
+                    snapshot.put(device.getBssid(), device);
+                }
+            }
+            delta = new DeviceDelta(new ArrayList<>(pendingUpserts.values()), new ArrayList<>(pendingRemovals));
+            pendingUpserts.clear();
+            pendingRemovals.clear();
+            targets = new ArrayList<>(observers);
+            deliveredDeltas++;
+        }
+        if (delta.isEmpty()) return;
+        if (storeSink != null) {
+            storeSink.onDevicesChanged(delta);
+        }
+        for (Observer observer : targets) {
+            observer.onDevicesChanged(delta);
+        }
+    }
+
+    public synchronized int getObserverCount() {
+        return observers.size();
+    }
+
+    public synchronized int getSnapshotSize() {
+        return snapshot.size();
+    }
+
+    public synchronized long getDeliveredDeltas() {
+        return deliveredDeltas;
+    }
+
+    public interface Observer {
+        void onDevicesChanged(DeviceDelta delta);
+    }
+}
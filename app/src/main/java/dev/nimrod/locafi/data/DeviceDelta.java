@@ -0,0 +1,29 @@
+package dev.nimrod.locafi.data;
+
+import java.util.Collections;
+import java.util.List;
+
+import dev.nimrod.locafi.models.WiFiDevice;
+
+// One batch of remote changes: devices added or updated, and BSSIDs removed
+public class DeviceDelta {
+    private final List<WiFiDevice> upserted;
+    private final List<String> removed;
+
+    public DeviceDelta(List<WiFiDevice> upserted, List<String> removed) {
+        this.upserted = Collections.unmodifiableList(upserted);
+        this.removed = Collections.unmodifiableList(removed);
+    }
+
+    public List<WiFiDevice> getUpserted() {
+        return upserted;
+    }
+
+    public List<String> getRemoved() {
+        return removed;
+    }
+
+    public boolean isEmpty() {
+        return upserted.isEmpty() && removed.isEmpty();
+    }
+}
@@ -0,0 +1,26 @@
+package dev.nimrod.locafi.data;
+
+public enum DeviceExportFormat {
+    // One JSON object per line, field names as stored remotely
+    NDJSON("ndjson", "application/x-ndjson"),
+    // Header row, then bssid,ssid,signalStrength,latitude,longitude,timestamp
+    CSV("csv", "text/csv"),
+    // DeviceCodec stream
+    BINARY("lfd", "application/octet-stream");
+
+    private final String extension;
+    private final String mimeType;
+
+    DeviceExportFormat(String extension, String mimeType) {
+        this.extension = extension;
+        this.mimeType = mimeType;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+}
@@ -0,0 +1,141 @@
+package dev.nimrod.locafi.data;
+
+import org.json.JSONObject;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+
+import dev.nimrod.locafi.models.WiFiDevice;
+import dev.nimrod.locafi.utils.DeviceCodec;
+
+// Writes devices one at a time in an export format; nothing is held beyond the
+// output buffer (and the binary codec's SSID dictionary). close() closes the stream.
+public abstract class DeviceExportWriter implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    static final String[] CSV_HEADER = {
+            "bssid", "ssid", "signalStrength", "latitude", "longitude", "timestamp"
+    };
+
+    protected long written = 0;
+
+    public static DeviceExportWriter create(DeviceExportFormat format, OutputStream out) throws IOException {
+        switch (format) {
+            case NDJSON:
+                return new NdjsonWriter(out);
+            case CSV:
+                return new CsvWriter(out);
+            default:
+                return new BinaryWriter(out);
+        }
+    }
+
+    public abstract void write(WiFiDevice device) throws IOException;
+
+    public long getWritten() {
+        return written;
+    }
+
+    private static class NdjsonWriter extends DeviceExportWriter {
+        private final BufferedWriter writer;
+        private final StringBuilder line = new StringBuilder(160);
+
+        NdjsonWriter(OutputStream out) {
+            writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+        }
+
+        @Override
+        public void write(WiFiDevice device) throws IOException {
+            line.setLength(0);
+            line.append("{\"bssid\":").append(JSONObject.quote(device.getBssid()));
+            if (device.getSsid() != null) {
+                line.append(",\"ssid\":").append(JSONObject.quote(device.getSsid()));
+            }
+            line.append(",\"signalStrength\":").append(device.getSignalStrength());
+            if (device.getLatitude() != null && device.getLongitude() != null) {
+                line.append(",\"latitude\":").append(device.getLatitude().doubleValue());
+                line.append(",\"longitude\":").append(device.getLongitude().doubleValue());
+            }
+            line.append(",\"timestamp\":").append(device.getTimestamp()).append("}\n");
+            writer.append(line);
+            written++;
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+
+    private static class CsvWriter extends DeviceExportWriter {
+        private final BufferedWriter writer;
+        private final StringBuilder line = new StringBuilder(128);
+
+        CsvWriter(OutputStream out) throws IOException {
+            writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+            writer.write(String.join(",", CSV_HEADER));
+            writer.write('\n');
+        }
+
+        @Override
+        public void write(WiFiDevice device) throws IOException {
+            line.setLength(0);
+            line.append(device.getBssid()).append(',');
+            if (device.getSsid() != null) {
+                appendQuoted(device.getSsid());
+            }
+            line.append(',').append(device.getSignalStrength()).append(',');
+            if (device.getLatitude() != null && device.getLongitude() != null) {
+                line.append(device.getLatitude().doubleValue()).append(',')
+                        .append(device.getLongitude().doubleValue());
+            } else {
+                line.append(',');
+            }
+            line.append(',').append(device.getTimestamp()).append('\n');
+            writer.append(line);
+            written++;
+        }
+
+        // SSIDs are always quoted, so an empty SSID ("") stays distinct from none
+        private void appendQuoted(String value) {
+            line.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') line.append('"');
+                line.append(c);
+            }
+            line.append('"');
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+
+    private static class BinaryWriter extends DeviceExportWriter {
+        private final OutputStream out;
+        private final DeviceCodec.Writer writer;
+
+        BinaryWriter(OutputStream out) throws IOException {
+            this.out = new BufferedOutputStream(out, BUFFER_SIZE);
+            writer = new DeviceCodec.Writer(this.out);
+        }
+
+        @Override
+        public void write(WiFiDevice device) throws IOException {
+            if (writer.write(device)) {
+                written++;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package dev.nimrod.locafi.data;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import dev.nimrod.locafi.models.WiFiDevice;
+import dev.nimrod.locafi.utils.BssidUtils;
+import dev.nimrod.locafi.utils.DeviceCodec;
+
+// Reads devices one at a time from an export file. Malformed text records are
+// counted and skipped; a corrupt binary stream ends the read with an IOException.
+// close() closes the stream.
+public abstract class DeviceImportReader implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Bounds memory on an unterminated quote or a file that is not CSV at all
+    private static final int MAX_CSV_FIELD_LENGTH = 4096;
+    private static final int MAX_CSV_FIELDS = 64;
+
+    protected long skipped = 0;
+
+    public static DeviceImportReader create(DeviceExportFormat format, InputStream in) throws IOException {
+        switch (format) {
+            case NDJSON:
+                return new NdjsonReader(in);
+            case CSV:
+                return new CsvReader(in);
+            default:
+                return new BinaryReader(in);
+        }
+    }
+
+    // Next device, or null at the end of the input
+    public abstract WiFiDevice read() throws IOException;
+
+    public long getSkipped() {
+        return skipped;
+    }
+
+    static boolean isValid(WiFiDevice device) {
+        return BssidUtils.toLong(device.getBssid()) != BssidUtils.INVALID && device.getTimestamp() > 0;
+    }
+
+    private static class NdjsonReader extends DeviceImportReader {
+        private final BufferedReader reader;
+
+        NdjsonReader(InputStream in) {
+            reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), BUFFER_SIZE);
+        }
+
+        @Override
+        public WiFiDevice read() throws IOException {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) continue;
+                try {
+                    JSONObject json = new JSONObject(line);
+                    WiFiDevice device = new WiFiDevice();
+                    device.setBssid(json.getString("bssid"));
+                    if (json.has("ssid") && !json.isNull("ssid")) {
+                        device.setSsid(json.getString("ssid"));
+                    }
+                    device.setSignalStrength(json.getInt("signalStrength"));
+                    if (json.has("latitude") && json.has("longitude")
+                            && !json.isNull("latitude") && !json.isNull("longitude")) {
+                        device.setLatitude(json.getDouble("latitude"));
+                        device.setLongitude(json.getDouble("longitude"));
+                    }
+                    device.setTimestamp(json.getLong("timestamp"));
+                    if (isValid(device)) {
+                        return device;
+                    }
+                } catch (JSONException e) {
+                    // Counted below
+                }
+                skipped++;
+            }
+            return null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    private static class CsvReader extends DeviceImportReader {
+        private final BufferedReader reader;
+        private final List<String> fields = new ArrayList<>(6);
+        // Parallel to fields: whether the field was quoted, so "" (empty SSID) differs from none
+        private final List<Boolean> quoted = new ArrayList<>(6);
+        private final StringBuilder field = new StringBuilder(64);
+        private boolean headerSkipped = false;
+
+        CsvReader(InputStream in) {
+            reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), BUFFER_SIZE);
+        }
+
+        @Override
+        public WiFiDevice read() throws IOException {
+            while (readRecord()) {
+                if (!headerSkipped) {
+                    headerSkipped = true;
+                    if (!fields.isEmpty() && fields.get(0).equals(DeviceExportWriter.CSV_HEADER[0])) continue;
+                }
+                if (fields.size() == 1 && fields.get(0).isEmpty()) continue;
+                WiFiDevice device = parse();
+                if (device != null && isValid(device)) {
+                    return device;
+                }
+                skipped++;
+            }
+            return null;
+        }
+
+        private WiFiDevice parse() {
+            if (fields.size() != DeviceExportWriter.CSV_HEADER.length) return null;
+            try {
+                WiFiDevice device = new WiFiDevice();
+                device.setBssid(fields.get(0));
+                if (quoted.get(1) || !fields.get(1).isEmpty()) {
+                    device.setSsid(fields.get(1));
+                }
+                device.setSignalStrength(Integer.parseInt(fields.get(2)));
+                if (!fields.get(3).isEmpty() && !fields.get(4).isEmpty()) {
+                    device.setLatitude(Double.parseDouble(fields.get(3)));
+                    device.setLongitude(Double.parseDouble(fields.get(4)));
+                }
+                device.setTimestamp(Long.parseLong(fields.get(5)));
+                return device;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        // RFC 4180 record: quoted fields may hold commas, doubled quotes and line breaks
+        private boolean readRecord() throws IOException {
+            fields.clear();
+            quoted.clear();
+            field.setLength(0);
+            boolean inQuotes = false;
+            boolean wasQuoted = false;
+            int c = reader.read();
+            if (c < 0) return false;
+            while (true) {
+                if (inQuotes) {
+                    if (c < 0) break;
+                    if (c == '"') {
+                        reader.mark(1);
+                        int next = reader.read();
+                        if (next == '"') {
+                            field.append('"');
+                        } else {
+                            inQuotes = false;
+                            reader.reset();
+                        }
+                    } else {
+                        field.append((char) c);
+                    }
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    quoted.add(wasQuoted);
+                    field.setLength(0);
+                    wasQuoted = false;
+                } else if (c == '\n' || c < 0) {
+                    break;
+                } else if (c == '"' && field.length() == 0) {
+                    inQuotes = true;
+                    wasQuoted = true;
+                } else if (c != '\r') {
+                    field.append((char) c);
+                }
+                if (field.length() > MAX_CSV_FIELD_LENGTH || fields.size() > MAX_CSV_FIELDS) {
+                    throw new IOException("Malformed CSV record");
+                }
+                c = reader.read();
+            }
+            fields.add(field.toString());
+            quoted.add(wasQuoted);
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    private static class BinaryReader extends DeviceImportReader {
+        private final InputStream in;
+        private final DeviceCodec.Reader reader;
+
+        BinaryReader(InputStream in) throws IOException {
+            this.in = new BufferedInputStream(in, BUFFER_SIZE);
+            reader = new DeviceCodec.Reader(this.in);
+        }
+
+        @Override
+        public WiFiDevice read() throws IOException {
+            return reader.read();
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
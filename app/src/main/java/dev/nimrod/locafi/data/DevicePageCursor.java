@@ -0,0 +1,20 @@
+package dev.nimrod.locafi.data;
+
+// Keyset position in the newest-first device order: the last (timestamp, bssid) returned
+public class DevicePageCursor {
+    private final long timestamp;
+    private final String bssid;
+
+    public DevicePageCursor(long timestamp, String bssid) {
+        this.timestamp = timestamp;
+        this.bssid = bssid;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getBssid() {
+        return bssid;
+    }
+}
@@ -0,0 +1,74 @@
+package dev.nimrod.locafi.data;
+
+import java.util.Collection;
+import java.util.List;
+
+import dev.nimrod.locafi.models.WiFiDevice;
+import dev.nimrod.locafi.utils.FirebaseRepo;
+
+// What the sync engine needs from the remote side. FirebaseRepo is the real
+// implementation; FakeDeviceRemote stands in for it in tests.
+public interface DeviceRemote {
+    // Queues devices for upload; the listener is told once they are acknowledged
+    void pushDevices(Collection<WiFiDevice> devices);
+
+    void flush();
+
+    void setOnDevicesWrittenListener(OnDevicesWrittenListener listener);
+
+    void getDevicesOnce(FirebaseRepo.GetAllDevicesCallback callback);
+
+    // Devices stored under the given geohash cells (or cell prefixes)
+    void getDevicesInCells(List<String> cells, FirebaseRepo.GetAllDevicesCallback callback);
+
+    // Newest-first page of devices seen at or after sinceMs (0 for all), continuing after
+    // cursor (null for the first page); the page's next cursor is null on the last page
+    void getDevicesPage(long sinceMs, DevicePageCursor cursor, int limit, PageCallback callback);
+
+    void getDevicesSince(long sinceMs, FirebaseRepo.GetAllDevicesCallback callback);
+
+    // Number of devices seen at or after sinceMs, -1 on failure
+    void countDevices(long sinceMs, CountCallback callback);
+
+    // Deletes devices last seen before cutoffMs, skipping any rewritten since they were
+    // read; reports how many were removed, -1 on failure
+    void evictDevicesOlderThan(long cutoffMs, CountCallback callback);
+
+    // Removes extra copies of a device stored under more than one key, keeping the
+    // one the remote considers current. Only devices seen at or after sinceMs are
+    // checked; reports how many copies were removed, -1 on failure
+    void mergeDuplicateCopies(long sinceMs, CountCallback callback);
+
+    void clearAllDevices(FirebaseRepo.ClearAllDevicesCallback callback);
+
+    String getMetricsSummary();
+
+    // Child-level change feed over the cells set with setChangeCells; a single listener
+    // is expected (see DeviceChangeStream)
+    void addChangeListener(ChangeListener listener);
+
+    void removeChangeListener(ChangeListener listener);
+
+    // Geohash cells (or cell prefixes) the change feed covers, e.g. the map viewport;
+    // nothing is watched until this is called
+    void setChangeCells(List<String> cells);
+
+    interface OnDevicesWrittenListener {
+        void onDevicesWritten(Collection<WiFiDevice> devices);
+    }
+
+    interface PageCallback {
+        // devices is null when the page could not be loaded
+        void onPage(List<WiFiDevice> devices, DevicePageCursor next);
+    }
+
+    interface CountCallback {
+        void onCount(long count);
+    }
+
+    interface ChangeListener {
+        void onDeviceUpserted(WiFiDevice device);
+
+        void onDeviceRemoved(String bssid);
+    }
+}
@@ -0,0 +1,557 @@
+package dev.nimrod.locafi.data;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import dev.nimrod.locafi.models.WiFiDevice;
+import dev.nimrod.locafi.utils.FirebaseRepo;
+
+// Offline-first access to the user's devices. Reads and writes hit the local
+// DeviceStore on a single background thread and answer on the main thread; the
+// sync engine replicates dirty rows to the remote and merges remote rows back
+// (newest timestamp wins on both sides).
+public class DeviceRepository {
+    private static final String TAG = "DeviceRepository";
+    public static final long DEFAULT_SYNC_INTERVAL_MS = 60000;
+    private static final int MAX_PUSH_BATCH = 5000;
+    private static final int EXPORT_PAGE_SIZE = 1000;
+    private static final int IMPORT_BATCH_SIZE = 1000;
+    // A remote cell fetched this recently is served from the store alone
+    private static final long CELL_REFRESH_MS = 5 * 60 * 1000;
+    public static final long DEFAULT_COMPACTION_INTERVAL_MS = 24 * 60 * 60 * 1000L;
+
+    private final DeviceStore store;
+    private final ObservationLog observations;
+    private final DeviceRemote remote;
+    private final DeviceChangeStream changeStream;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Map<String, Long> cellFetchTimes = new HashMap<>();
+
+    private long syncIntervalMs = DEFAULT_SYNC_INTERVAL_MS;
+    private boolean periodicSync = false;
+    private final Runnable syncRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (periodicSync) {
+                sync(null);
+                mainHandler.postDelayed(this, syncIntervalMs);
+            }
+        }
+    };
+
+    private long compactionTtlMs;
+    private long compactionIntervalMs = DEFAULT_COMPACTION_INTERVAL_MS;
+    // Duplicate merging only reads devices seen since the last successful run, minus
+    // DUPLICATE_LOOKBACK_MS: an install that was offline uploads scans with their own,
+    // older timestamps
+    private static final long DUPLICATE_LOOKBACK_MS = 24 * 60 * 60 * 1000L;
+    private volatile long mergedThroughMs = 0;
+    private CompactionCallback compactionCallback;
+    private final Runnable compactionRunnable = new Runnable() {
+        @Override
+        public void run() {
+            compact(compactionTtlMs, compactionCallback);
+            mainHandler.postDelayed(this, compactionIntervalMs);
+        }
+    };
+
+    // Newest remote timestamp merged so far; the next pull starts there. UNSEEDED until
+    // the first sync reads it from the store, so a cold start does not pull everything.
+    private static final long UNSEEDED = -1;
+    private volatile long pullWatermark = UNSEEDED;
+
+    // Sync metrics
+    private volatile long lastSyncTime;
+    private volatile long lastSyncDurationMs;
+    private volatile int lastPulledChanges;
+    private volatile int lastPushedCount;
+
+    public DeviceRepository(DeviceStore store, ObservationLog observations, DeviceRemote remote) {
+        this.store = store;
+        this.observations = observations;
+        this.remote = remote;
+        remote.setOnDevicesWrittenListener(devices -> executor.execute(() -> store.markClean(devices)));
+        changeStream = new DeviceChangeStream(remote, this::mergeRemoteDelta);
+    }
+
+    // Live remote deltas; pair every observe with stopObserving when the observer's lifecycle ends
+    public void observeDevices(DeviceChangeStream.Observer observer) {
+        changeStream.subscribe(observer);
+    }
+
+    public void stopObservingDevices(DeviceChangeStream.Observer observer) {
+        changeStream.unsubscribe(observer);
+    }
+
+    // Limits remote change events to these geohash cells, e.g. the ones on screen
+    public void watchCells(List<String> cells) {
+        changeStream.watchCells(cells);
+    }
+
+    private void mergeRemoteDelta(DeviceDelta delta) {
+        executor.execute(() -> {
+            store.upsert(delta.getUpserted(), false);
+            if (!delta.getRemoved().isEmpty()) {
+                store.deleteClean(delta.getRemoved());
+            }
+        });
+    }
+
+    public void saveDevices(List<WiFiDevice> devices, Runnable onSaved) {
+        final List<WiFiDevice> batch = new ArrayList<>(devices);
+        executor.execute(() -> {
+            store.upsert(batch, true);
+            observations.append(batch);
+            observations.compactIfDue(System.currentTimeMillis());
+            mainHandler.post(() -> {
+                remote.pushDevices(batch);
+                if (onSaved != null) {
+                    onSaved.run();
+                }
+            });
+        });
+    }
+
+    // Same as saveDevices, for worker threads that wait for the local write; the future
+    // yields how many rows changed
+    public Future<Integer> submitDevices(List<WiFiDevice> devices) {
+        final List<WiFiDevice> batch = new ArrayList<>(devices);
+        return executor.submit(() -> {
+            int changed = store.upsert(batch, true);
+            observations.append(batch);
+            observations.compactIfDue(System.currentTimeMillis());
+            mainHandler.post(() -> remote.pushDevices(batch));
+            return changed;
+        });
+    }
+
+    // For a diffed scan: the observation log gets every device heard, while only the
+    // changed ones are merged into the store and uploaded. The future yields how many
+    // rows changed.
+    public Future<Integer> submitScan(List<WiFiDevice> scan, List<WiFiDevice> changed) {
+        final List<WiFiDevice> heard = new ArrayList<>(scan);
+        final List<WiFiDevice> batch = new ArrayList<>(changed);
+        return executor.submit(() -> {
+            int rows = batch.isEmpty() ? 0 : store.upsert(batch, true);
+            observations.append(heard);
+            observations.compactIfDue(System.currentTimeMillis());
+            if (!batch.isEmpty()) {
+                mainHandler.post(() -> remote.pushDevices(batch));
+            }
+            return rows;
+        });
+    }
+
+    // For blocking reads the UI must not make itself (e.g. binder calls): runs work on the
+    // repository thread, in order with store work, and hands the result to the main thread
+    public <T> void runInBackground(Supplier<T> work, Consumer<T> callback) {
+        executor.execute(() -> {
+            T result = work.get();
+            mainHandler.post(() -> callback.accept(result));
+        });
+    }
+
+    public void getDevices(FirebaseRepo.GetAllDevicesCallback callback) {
+        executor.execute(() -> {
+            List<WiFiDevice> devices = store.getAll();
+            mainHandler.post(() -> callback.onComplete(devices));
+        });
+    }
+
+    // Streams the store newest first, one page per main-loop callback, so the first
+    // page can render before the rest is read. The consumer returns false to stop.
+    public void loadDevicesPaged(long sinceMs, int pageSize, PageConsumer consumer) {
+        executor.execute(() -> loadPage(sinceMs, null, pageSize, consumer));
+    }
+
+    private void loadPage(long sinceMs, DevicePageCursor cursor, int pageSize, PageConsumer consumer) {
+        List<WiFiDevice> page = store.getPage(sinceMs, cursor, pageSize);
+        boolean last = page.size() < pageSize;
+        mainHandler.post(() -> {
+            if (consumer.onPage(page, cursor == null, last) && !last) {
+                WiFiDevice tail = page.get(page.size() - 1);
+                DevicePageCursor next = new DevicePageCursor(tail.getTimestamp(), tail.getBssid());
+                executor.execute(() -> loadPage(sinceMs, next, pageSize, consumer));
+            }
+        });
+    }
+
+    public void countDevices(long sinceMs, DeviceRemote.CountCallback callback) {
+        executor.execute(() -> {
+            long count = store.countSince(sinceMs);
+            mainHandler.post(() -> callback.onCount(count));
+        });
+    }
+
+    public void getDevicesInBounds(double minLat, double minLon, double maxLat, double maxLon,
+                                   FirebaseRepo.GetAllDevicesCallback callback) {
+        executor.execute(() -> {
+            List<WiFiDevice> devices = store.getInBounds(minLat, minLon, maxLat, maxLon);
+            mainHandler.post(() -> callback.onComplete(devices));
+        });
+    }
+
+    public void getLatestDevice(DeviceCallback callback) {
+        executor.execute(() -> {
+            WiFiDevice device = store.getLatest();
+            mainHandler.post(() -> callback.onDevice(device));
+        });
+    }
+
+    // Answers from the store right away, then fetches the remote cells covering the
+    // box (unless fetched recently) and answers again if that changed anything
+    public void getDevicesInViewport(double minLat, double minLon, double maxLat, double maxLon,
+                                     List<String> cells, FirebaseRepo.GetAllDevicesCallback callback) {
+        getDevicesInBounds(minLat, minLon, maxLat, maxLon, callback);
+
+        List<String> stale = new ArrayList<>();
+        long now = SystemClock.elapsedRealtime();
+        synchronized (cellFetchTimes) {
+            for (String cell : cells) {
+                Long fetchedAt = cellFetchTimes.get(cell);
+                if (fetchedAt == null || now - fetchedAt > CELL_REFRESH_MS) {
+                    stale.add(cell);
+                }
+            }
+        }
+        if (stale.isEmpty()) return;
+
+        remote.getDevicesInCells(stale, devices -> {
+            if (devices == null) return;
+            synchronized (cellFetchTimes) {
+                for (String cell : stale) {
+                    cellFetchTimes.put(cell, now);
+                }
+            }
+            executor.execute(() -> {
+                if (store.upsert(devices, false) > 0) {
+                    List<WiFiDevice> visible = store.getInBounds(minLat, minLon, maxLat, maxLon);
+                    mainHandler.post(() -> callback.onComplete(visible));
+                }
+            });
+        });
+    }
+
+    // Pushes pending local rows, then pulls and merges remote rows newer than the last pull
+    public void sync(SyncCallback callback) {
+        final long startedAt = SystemClock.elapsedRealtime();
+        pushPending();
+        executor.execute(() -> {
+            if (pullWatermark == UNSEEDED) {
+                WiFiDevice latest = store.getLatestClean();
+                pullWatermark = latest != null ? latest.getTimestamp() : 0;
+            }
+            final long since = pullWatermark;
+            mainHandler.post(() -> pull(since, startedAt, callback));
+        });
+    }
+
+    private void pull(long since, long startedAt, SyncCallback callback) {
+        remote.getDevicesSince(since, devices -> {
+            if (devices == null) {
+                Log.w(TAG, "Sync: remote unavailable, staying on local data");
+                if (callback != null) {
+                    mainHandler.post(() -> callback.onSynced(0));
+                }
+                return;
+            }
+            executor.execute(() -> {
+                int changed = store.upsert(devices, false);
+                for (WiFiDevice device : devices) {
+                    pullWatermark = Math.max(pullWatermark, device.getTimestamp());
+                }
+                lastPulledChanges = changed;
+                lastSyncTime = System.currentTimeMillis();
+                lastSyncDurationMs = SystemClock.elapsedRealtime() - startedAt;
+                Log.d(TAG, "Sync: merged " + changed + " of " + devices.size() + " remote devices in "
+                        + lastSyncDurationMs + " ms");
+                if (callback != null) {
+                    mainHandler.post(() -> callback.onSynced(changed));
+                }
+            });
+        });
+    }
+
+    // Re-sends rows that were saved while offline or never acknowledged
+    public void pushPending() {
+        executor.execute(() -> {
+            List<WiFiDevice> dirty = store.getDirty(MAX_PUSH_BATCH);
+            lastPushedCount = dirty.size();
+            if (dirty.isEmpty()) return;
+            mainHandler.post(() -> {
+                remote.pushDevices(dirty);
+                remote.flush();
+            });
+        });
+    }
+
+    public void flush() {
+        remote.flush();
+    }
+
+    public void startPeriodicSync(long intervalMs) {
+        syncIntervalMs = intervalMs;
+        if (!periodicSync) {
+            periodicSync = true;
+            mainHandler.post(syncRunnable);
+        }
+    }
+
+    public void stopPeriodicSync() {
+        periodicSync = false;
+        mainHandler.removeCallbacks(syncRunnable);
+    }
+
+    // Expires devices not seen within ttlMs, locally and remotely, compacts the
+    // observation log and removes duplicate remote copies. Local work runs on the
+    // store thread; the callback gets -1 for a remote step that failed.
+    public void compact(long ttlMs, CompactionCallback callback) {
+        final long startedAt = SystemClock.elapsedRealtime();
+        final long now = System.currentTimeMillis();
+        final long cutoff = now - ttlMs;
+        executor.execute(() -> {
+            int localEvicted = store.deleteOlderThan(cutoff);
+            int observationsRemoved = observations.compact(now);
+            long mergeSince = Math.max(0, mergedThroughMs - DUPLICATE_LOOKBACK_MS);
+            mainHandler.post(() -> remote.evictDevicesOlderThan(cutoff, remoteEvicted ->
+                    remote.mergeDuplicateCopies(mergeSince, duplicatesRemoved -> {
+                        if (duplicatesRemoved >= 0) {
+                            mergedThroughMs = now;
+                        }
+                        Log.d(TAG, "Compaction: local=" + localEvicted + " remote=" + remoteEvicted
+                                + " duplicates=" + duplicatesRemoved + " observations=" + observationsRemoved
+                                + " in " + (SystemClock.elapsedRealtime() - startedAt) + " ms");
+                        if (callback != null) {
+                            callback.onCompacted(localEvicted, remoteEvicted, duplicatesRemoved);
+                        }
+                    })));
+        });
+    }
+
+    // First run after initialDelayMs, then every intervalMs while the process lives.
+    // lastCompactedMs is when the last run finished (0 for never), where duplicate
+    // merging resumes.
+    public void startPeriodicCompaction(long ttlMs, long intervalMs, long initialDelayMs,
+                                        long lastCompactedMs, CompactionCallback callback) {
+        compactionTtlMs = ttlMs;
+        mergedThroughMs = lastCompactedMs;
+        compactionIntervalMs = intervalMs;
+        compactionCallback = callback;
+        mainHandler.removeCallbacks(compactionRunnable);
+        mainHandler.postDelayed(compactionRunnable, initialDelayMs);
+    }
+
+    public void stopPeriodicCompaction() {
+        mainHandler.removeCallbacks(compactionRunnable);
+    }
+
+    // Streams the whole store newest first, one keyset page per store-thread task, so
+    // memory stays at one page and scans saved meanwhile are not held up. Closes out.
+    public void exportDevices(OutputStream out, DeviceExportFormat format, TransferCallback callback) {
+        executor.execute(() -> {
+            DeviceExportWriter writer;
+            try {
+                writer = DeviceExportWriter.create(format, out);
+            } catch (IOException e) {
+                Log.e(TAG, "Export failed to start", e);
+                closeQuietly(out);
+                mainHandler.post(() -> callback.onComplete(false, 0, 0));
+                return;
+            }
+            exportPage(writer, null, SystemClock.elapsedRealtime(), callback);
+        });
+    }
+
+    private void exportPage(DeviceExportWriter writer, DevicePageCursor cursor, long startedAt,
+                            TransferCallback callback) {
+        boolean success = true;
+        boolean last;
+        try {
+            List<WiFiDevice> page = store.getPage(0, cursor, EXPORT_PAGE_SIZE);
+            for (WiFiDevice device : page) {
+                writer.write(device);
+            }
+            last = page.size() < EXPORT_PAGE_SIZE;
+            if (!last) {
+                WiFiDevice tail = page.get(page.size() - 1);
+                DevicePageCursor next = new DevicePageCursor(tail.getTimestamp(), tail.getBssid());
+                executor.execute(() -> exportPage(writer, next, startedAt, callback));
+                return;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Export failed after " + writer.getWritten() + " devices", e);
+            success = false;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Export failed to close", e);
+            success = false;
+        }
+        final boolean exported = success;
+        final long count = writer.getWritten();
+        Log.d(TAG, "Exported " + count + " devices in " + (SystemClock.elapsedRealtime() - startedAt) + " ms");
+        mainHandler.post(() -> callback.onComplete(exported, count, 0));
+    }
+
+    // Reads the input in batches of IMPORT_BATCH_SIZE, each merged (newest wins) in its
+    // own store transaction and marked dirty, so the sync engine uploads them in its
+    // usual bounded batches. Like export, every batch is its own executor task so other
+    // store work is not held up behind a large file. Closes in.
+    public void importDevices(InputStream in, DeviceExportFormat format, TransferCallback callback) {
+        executor.execute(() -> {
+            DeviceImportReader reader;
+            try {
+                reader = DeviceImportReader.create(format, in);
+            } catch (IOException e) {
+                Log.e(TAG, "Import failed to start", e);
+                closeQuietly(in);
+                mainHandler.post(() -> callback.onComplete(false, 0, 0));
+                return;
+            }
+            importBatch(reader, 0, SystemClock.elapsedRealtime(), callback);
+        });
+    }
+
+    private void importBatch(DeviceImportReader reader, long readSoFar, long startedAt, TransferCallback callback) {
+        long read = readSoFar;
+        boolean success = true;
+        try {
+            List<WiFiDevice> batch = new ArrayList<>(IMPORT_BATCH_SIZE);
+            WiFiDevice device;
+            while (batch.size() < IMPORT_BATCH_SIZE && (device = reader.read()) != null) {
+                batch.add(device);
+            }
+            store.upsert(batch, true);
+            read += batch.size();
+            if (batch.size() == IMPORT_BATCH_SIZE) {
+                final long next = read;
+                executor.execute(() -> importBatch(reader, next, startedAt, callback));
+                return;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Import stopped after " + read + " devices", e);
+            success = false;
+        }
+        closeQuietly(reader);
+        final boolean imported = success;
+        final long count = read;
+        final long skippedCount = reader.getSkipped();
+        Log.d(TAG, "Imported " + count + " devices (" + skippedCount + " skipped) in "
+                + (SystemClock.elapsedRealtime() - startedAt) + " ms");
+        mainHandler.post(() -> callback.onComplete(imported, count, skippedCount));
+        if (count > 0) {
+            pushPending();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    public void clearAllDevices(FirebaseRepo.ClearAllDevicesCallback callback) {
+        remote.clearAllDevices(success -> {
+            if (!success) {
+                if (callback != null) callback.onComplete(false);
+                return;
+            }
+            synchronized (cellFetchTimes) {
+                cellFetchTimes.clear();
+            }
+            pullWatermark = 0;
+            executor.execute(() -> {
+                store.clear();
+                observations.clear();
+                if (callback != null) {
+                    mainHandler.post(() -> callback.onComplete(true));
+                }
+            });
+        });
+    }
+
+    public DeviceStore getStore() {
+        return store;
+    }
+
+    public void getObservations(String bssid, long fromMs, long toMs, ObservationsCallback callback) {
+        executor.execute(() -> {
+            List<Observation> result = observations.getObservations(bssid, fromMs, toMs);
+            mainHandler.post(() -> callback.onObservations(result));
+        });
+    }
+
+    public void getRollups(String bssid, long resolutionMs, long fromMs, long toMs,
+                           RollupsCallback callback) {
+        executor.execute(() -> {
+            List<ObservationRollup> result = observations.getRollups(bssid, resolutionMs, fromMs, toMs);
+            mainHandler.post(() -> callback.onRollups(result));
+        });
+    }
+
+    // Hands freshly saved devices to the live observers (list, map) without a reload
+    public void publishLocalChanges(List<WiFiDevice> devices) {
+        changeStream.publishLocal(devices);
+    }
+
+    public DeviceChangeStream getChangeStream() {
+        return changeStream;
+    }
+
+    public DeviceRemote getRemote() {
+        return remote;
+    }
+
+    public String getSyncSummary() {
+        return "lastSync=" + lastSyncTime + " durationMs=" + lastSyncDurationMs
+                + " pulledChanges=" + lastPulledChanges + " pushed=" + lastPushedCount;
+    }
+
+    public interface PageConsumer {
+        boolean onPage(List<WiFiDevice> page, boolean first, boolean last);
+    }
+
+    public interface ObservationsCallback {
+        void onObservations(List<Observation> observations);
+    }
+
+    public interface RollupsCallback {
+        void onRollups(List<ObservationRollup> rollups);
+    }
+
+    public interface CompactionCallback {
+        void onCompacted(int localEvicted, long remoteEvicted, long duplicatesRemoved);
+    }
+
+    public interface TransferCallback {
+        // devices written or read; skipped counts malformed import records
+        void onComplete(boolean success, long devices, long skipped);
+    }
+
+    public interface DeviceCallback {
+        void onDevice(WiFiDevice device);
+    }
+
+    public interface SyncCallback {
+        void onSynced(int changedDevices);
+    }
+}
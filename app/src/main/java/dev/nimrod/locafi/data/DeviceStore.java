@@ -0,0 +1,296 @@
+package dev.nimrod.locafi.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import dev.nimrod.locafi.models.WiFiDevice;
+
+// Local SQLite copy of the user's WiFi devices and the source of truth for the UI.
+// Rows written locally stay dirty until the remote acknowledges them. Not
+// thread-safe on its own; DeviceRepository serializes access on one thread.
+public class DeviceStore extends SQLiteOpenHelper {
+    private static final String DB_NAME = "locafi_devices.db";
+    private static final int DB_VERSION = 2;
+
+    static final String TABLE_DEVICES = "devices";
+    static final String COL_BSSID = "bssid";
+    static final String COL_SSID = "ssid";
+    static final String COL_SIGNAL = "signal_strength";
+    static final String COL_LAT = "latitude";
+    static final String COL_LON = "longitude";
+    static final String COL_TIMESTAMP = "timestamp";
+    static final String COL_CELL = "cell";
+    static final String COL_DIRTY = "dirty";
+
+    // Spatial key: ~110 m cells, row-major so a latitude band is one index range
+    private static final double CELLS_PER_DEGREE = 1000.0;
+    public static final long NO_CELL = -1L;
+
+    private static final String[] DEVICE_COLUMNS = {
+            COL_BSSID, COL_SSID, COL_SIGNAL, COL_LAT, COL_LON, COL_TIMESTAMP
+    };
+
+    private SQLiteStatement updateIfNewer;
+    private SQLiteStatement insertIfAbsent;
+    private SQLiteStatement markClean;
+
+    public DeviceStore(Context context) {
+        super(context.getApplicationContext(), DB_NAME, null, DB_VERSION);
+    }
+
+    // name == null gives an in-memory database, handy for tests
+    public DeviceStore(Context context, String name) {
+        super(context.getApplicationContext(), name, null, DB_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_DEVICES + " ("
+                + COL_BSSID + " TEXT PRIMARY KEY NOT NULL, "
+                + COL_SSID + " TEXT, "
+                + COL_SIGNAL + " INTEGER NOT NULL, "
+                + COL_LAT + " REAL, "
+                + COL_LON + " REAL, "
+                + COL_TIMESTAMP + " INTEGER NOT NULL, "
+                + COL_CELL + " INTEGER NOT NULL, "
+                + COL_DIRTY + " INTEGER NOT NULL DEFAULT 0)");
+        // (timestamp, bssid) serves both time windows and the keyset order of getPage()
+        db.execSQL("CREATE INDEX idx_devices_time_bssid ON " + TABLE_DEVICES + "("
+                + COL_TIMESTAMP + ", " + COL_BSSID + ")");
+        db.execSQL("CREATE INDEX idx_devices_cell ON " + TABLE_DEVICES + "(" + COL_CELL + ")");
+        db.execSQL("CREATE INDEX idx_devices_dirty ON " + TABLE_DEVICES + "(" + COL_DIRTY + ") WHERE "
+                + COL_DIRTY + " = 1");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            db.execSQL("DROP INDEX IF EXISTS idx_devices_timestamp");
+            db.execSQL("CREATE INDEX idx_devices_time_bssid ON " + TABLE_DEVICES + "("
+                    + COL_TIMESTAMP + ", " + COL_BSSID + ")");
+        }
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        db.enableWriteAheadLogging();
+    }
+
+    private void prepareStatements(SQLiteDatabase db) {
+        if (updateIfNewer != null) return;
+        updateIfNewer = db.compileStatement("UPDATE " + TABLE_DEVICES + " SET "
+                + COL_SSID + " = ?, " + COL_SIGNAL + " = ?, " + COL_LAT + " = ?, " + COL_LON + " = ?, "
+                + COL_TIMESTAMP + " = ?, " + COL_CELL + " = ?, " + COL_DIRTY + " = ? WHERE "
+                + COL_BSSID + " = ? AND " + COL_TIMESTAMP + " < ?");
+        insertIfAbsent = db.compileStatement("INSERT OR IGNORE INTO " + TABLE_DEVICES + " ("
+                + COL_SSID + ", " + COL_SIGNAL + ", " + COL_LAT + ", " + COL_LON + ", "
+                + COL_TIMESTAMP + ", " + COL_CELL + ", " + COL_DIRTY + ", " + COL_BSSID
+                + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+        markClean = db.compileStatement("UPDATE " + TABLE_DEVICES + " SET " + COL_DIRTY + " = 0 WHERE "
+                + COL_BSSID + " = ? AND " + COL_TIMESTAMP + " = ?");
+    }
+
+    // Newest timestamp wins. Local writes are dirty (pending upload), remote merges are clean.
+    // Returns how many rows actually changed.
+    public int upsert(Collection<WiFiDevice> devices, boolean dirty) {
+        SQLiteDatabase db = getWritableDatabase();
+        prepareStatements(db);
+        int changed = 0;
+        db.beginTransaction();
+        try {
+            for (WiFiDevice device : devices) {
+                if (device.getBssid() == null || device.getBssid().isEmpty()) continue;
+                bindDevice(updateIfNewer, device, dirty);
+                updateIfNewer.bindLong(9, device.getTimestamp());
+                if (updateIfNewer.executeUpdateDelete() > 0) {
+                    changed++;
+                    continue;
+                }
+                bindDevice(insertIfAbsent, device, dirty);
+                if (insertIfAbsent.executeInsert() != -1) {
+                    changed++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return changed;
+    }
+
+    private static void bindDevice(SQLiteStatement statement, WiFiDevice device, boolean dirty) {
+        statement.clearBindings();
+        if (device.getSsid() != null) {
+            statement.bindString(1, device.getSsid());
+        } else {
+            statement.bindNull(1);
+        }
+        statement.bindLong(2, device.getSignalStrength());
+        if (device.getLatitude() != null && device.getLongitude() != null) {
+            statement.bindDouble(3, device.getLatitude());
+            statement.bindDouble(4, device.getLongitude());
+        } else {
+            statement.bindNull(3);
+            statement.bindNull(4);
+        }
+        statement.bindLong(5, device.getTimestamp());
+        statement.bindLong(6, cellKey(device.getLatitude(), device.getLongitude()));
+        statement.bindLong(7, dirty ? 1 : 0);
+        statement.bindString(8, device.getBssid());
+    }
+
+    public static long cellKey(Double lat, Double lon) {
+        if (lat == null || lon == null) return NO_CELL;
+        return ((long) cellRow(lat) << 32) | cellColumn(lon);
+    }
+
+    private static int cellRow(double lat) {
+        return (int) Math.floor((lat + 90.0) * CELLS_PER_DEGREE);
+    }
+
+    private static int cellColumn(double lon) {
+        return (int) Math.floor((lon + 180.0) * CELLS_PER_DEGREE);
+    }
+
+    public List<WiFiDevice> getAll() {
+        return query(null, null, COL_TIMESTAMP + " DESC", null);
+    }
+
+    public List<WiFiDevice> getSince(long sinceTimestamp) {
+        return query(COL_TIMESTAMP + " >= ?", new String[]{String.valueOf(sinceTimestamp)},
+                COL_TIMESTAMP + " DESC", null);
+    }
+
+    // Newest-first page after the cursor (null for the first page), limited to devices
+    // seen at or after sinceMs
+    public List<WiFiDevice> getPage(long sinceMs, DevicePageCursor cursor, int limit) {
+        if (cursor == null) {
+            return query(COL_TIMESTAMP + " >= ?", new String[]{String.valueOf(sinceMs)},
+                    COL_TIMESTAMP + " DESC, " + COL_BSSID + " DESC", String.valueOf(limit));
+        }
+        return query(COL_TIMESTAMP + " >= ? AND (" + COL_TIMESTAMP + " < ? OR ("
+                        + COL_TIMESTAMP + " = ? AND " + COL_BSSID + " < ?))",
+                new String[]{String.valueOf(sinceMs), String.valueOf(cursor.getTimestamp()),
+                        String.valueOf(cursor.getTimestamp()), cursor.getBssid()},
+                COL_TIMESTAMP + " DESC, " + COL_BSSID + " DESC", String.valueOf(limit));
+    }
+
+    public long countSince(long sinceMs) {
+        return android.database.DatabaseUtils.queryNumEntries(getReadableDatabase(), TABLE_DEVICES,
+                COL_TIMESTAMP + " >= ?", new String[]{String.valueOf(sinceMs)});
+    }
+
+    // The cell index narrows the scan to the latitude band; the exact box is checked per row
+    public List<WiFiDevice> getInBounds(double minLat, double minLon, double maxLat, double maxLon) {
+        long fromCell = (long) cellRow(minLat) << 32;
+        long toCell = ((long) cellRow(maxLat) << 32) | 0xFFFFFFFFL;
+        return query(COL_CELL + " BETWEEN ? AND ? AND " + COL_LAT + " BETWEEN ? AND ? AND "
+                        + COL_LON + " BETWEEN ? AND ?",
+                new String[]{String.valueOf(fromCell), String.valueOf(toCell),
+                        String.valueOf(minLat), String.valueOf(maxLat),
+                        String.valueOf(minLon), String.valueOf(maxLon)},
+                null, null);
+    }
+
+    public WiFiDevice getLatest() {
+        List<WiFiDevice> devices = query(null, null, COL_TIMESTAMP + " DESC", "1");
+        return devices.isEmpty() ? null : devices.get(0);
+    }
+
+    // Newest row that is in sync with the remote, null if there is none
+    public WiFiDevice getLatestClean() {
+        List<WiFiDevice> devices = query(COL_DIRTY + " = 0", null, COL_TIMESTAMP + " DESC", "1");
+        return devices.isEmpty() ? null : devices.get(0);
+    }
+
+    public List<WiFiDevice> getDirty(int limit) {
+        return query(COL_DIRTY + " = 1", null, null, String.valueOf(limit));
+    }
+
+    public WiFiDevice get(String bssid) {
+        List<WiFiDevice> devices = query(COL_BSSID + " = ?", new String[]{bssid}, null, "1");
+        return devices.isEmpty() ? null : devices.get(0);
+    }
+
+    private List<WiFiDevice> query(String selection, String[] args, String orderBy, String limit) {
+        List<WiFiDevice> devices = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().query(TABLE_DEVICES, DEVICE_COLUMNS,
+                selection, args, null, null, orderBy, limit)) {
+            while (cursor.moveToNext()) {
+                WiFiDevice device = new WiFiDevice();
+                device.setBssid(cursor.getString(0));
+                device.setSsid(cursor.isNull(1) ? null : cursor.getString(1));
+                device.setSignalStrength(cursor.getInt(2));
+                if (!cursor.isNull(3)) {
+                    device.setLatitude(cursor.getDouble(3));
+                    device.setLongitude(cursor.getDouble(4));
+                }
+                device.setTimestamp(cursor.getLong(5));
+                devices.add(device);
+            }
+        }
+        return devices;
+    }
+
+    // Clears the dirty flag only for rows that were not overwritten since they were sent
+    public void markClean(Collection<WiFiDevice> written) {
+        SQLiteDatabase db = getWritableDatabase();
+        prepareStatements(db);
+        db.beginTransaction();
+        try {
+            for (WiFiDevice device : written) {
+                markClean.clearBindings();
+                markClean.bindString(1, device.getBssid());
+                markClean.bindLong(2, device.getTimestamp());
+                markClean.executeUpdateDelete();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // Remote deletions; rows with unsent local changes are kept and will be re-uploaded
+    public int deleteClean(Collection<String> bssids) {
+        SQLiteDatabase db = getWritableDatabase();
+        int deleted = 0;
+        db.beginTransaction();
+        try {
+            for (String bssid : bssids) {
+                deleted += db.delete(TABLE_DEVICES, COL_BSSID + " = ? AND " + COL_DIRTY + " = 0",
+                        new String[]{bssid});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return deleted;
+    }
+
+    // TTL eviction: drops every row last seen before the cutoff, pending or not, since
+    // the remote drops the same ones
+    public int deleteOlderThan(long cutoffMs) {
+        return getWritableDatabase().delete(TABLE_DEVICES, COL_TIMESTAMP + " < ?",
+                new String[]{String.valueOf(cutoffMs)});
+    }
+
+    public long count() {
+        return android.database.DatabaseUtils.queryNumEntries(getReadableDatabase(), TABLE_DEVICES);
+    }
+
+    public long countDirty() {
+        return android.database.DatabaseUtils.queryNumEntries(getReadableDatabase(), TABLE_DEVICES,
+                COL_DIRTY + " = 1");
+    }
+
+    public void clear() {
+        getWritableDatabase().delete(TABLE_DEVICES, null, null);
+    }
+}
@@ -0,0 +1,38 @@
+package dev.nimrod.locafi.data;
+
+// One raw reading of one BSSID in one scan; position is null when the scan had no fix
+public class Observation {
+    private final String bssid;
+    private final long timestamp;
+    private final int rssi;
+    private final Double latitude;
+    private final Double longitude;
+
+    public Observation(String bssid, long timestamp, int rssi, Double latitude, Double longitude) {
+        this.bssid = bssid;
+        this.timestamp = timestamp;
+        this.rssi = rssi;
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+
+    public String getBssid() {
+        return bssid;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int getRssi() {
+        return rssi;
+    }
+
+    public Double getLatitude() {
+        return latitude;
+    }
+
+    public Double getLongitude() {
+        return longitude;
+    }
+}
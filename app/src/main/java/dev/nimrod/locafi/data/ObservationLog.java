@@ -0,0 +1,297 @@
+package dev.nimrod.locafi.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import dev.nimrod.locafi.models.WiFiDevice;
+import dev.nimrod.locafi.utils.BssidUtils;
+
+// Append-only log of every reading of every BSSID, next to the per-minute and
+// per-hour rollups (min/max/mean RSSI and mean position) kept up to date on append.
+// Rows are integers only: packed 48-bit BSSID, E7 fixed-point lat/lon, so SQLite
+// stores each one in a few varint bytes. compact() drops each level past its
+// retention, which bounds the file while the coarser levels keep the history.
+// Not thread-safe on its own; DeviceRepository serializes access on one thread.
+public class ObservationLog extends SQLiteOpenHelper {
+    private static final String TAG = "ObservationLog";
+    private static final String DB_NAME = "locafi_observations.db";
+    private static final int DB_VERSION = 1;
+
+    public static final long MINUTE_MS = 60 * 1000L;
+    public static final long HOUR_MS = 60 * MINUTE_MS;
+    private static final long DAY_MS = 24 * HOUR_MS;
+
+    public static final long DEFAULT_RAW_RETENTION_MS = 2 * DAY_MS;
+    public static final long DEFAULT_MINUTE_RETENTION_MS = 14 * DAY_MS;
+    public static final long DEFAULT_HOUR_RETENTION_MS = 365 * DAY_MS;
+    private static final long COMPACTION_INTERVAL_MS = HOUR_MS;
+    private static final double E7 = 1e7;
+
+    private static final String TABLE_OBSERVATIONS = "observations";
+    private static final String TABLE_ROLLUPS = "rollups";
+    private static final String COL_BSSID = "bssid";
+    private static final String COL_TIMESTAMP = "timestamp";
+    private static final String COL_RSSI = "rssi";
+    private static final String COL_LAT = "lat_e7";
+    private static final String COL_LON = "lon_e7";
+    private static final String COL_RESOLUTION = "resolution";
+    private static final String COL_BUCKET = "bucket";
+    private static final String COL_COUNT = "count";
+    private static final String COL_RSSI_MIN = "rssi_min";
+    private static final String COL_RSSI_MAX = "rssi_max";
+    private static final String COL_RSSI_SUM = "rssi_sum";
+    private static final String COL_POS_COUNT = "pos_count";
+    private static final String COL_LAT_SUM = "lat_sum_e7";
+    private static final String COL_LON_SUM = "lon_sum_e7";
+
+    private static final long[] RESOLUTIONS = {MINUTE_MS, HOUR_MS};
+
+    private long rawRetentionMs = DEFAULT_RAW_RETENTION_MS;
+    private long minuteRetentionMs = DEFAULT_MINUTE_RETENTION_MS;
+    private long hourRetentionMs = DEFAULT_HOUR_RETENTION_MS;
+    private long lastCompactionTime = 0;
+
+    private SQLiteStatement insertObservation;
+    private SQLiteStatement updateRollup;
+    private SQLiteStatement insertRollup;
+
+    public ObservationLog(Context context) {
+        super(context.getApplicationContext(), DB_NAME, null, DB_VERSION);
+    }
+
+    // name == null gives an in-memory database, handy for tests
+    public ObservationLog(Context context, String name) {
+        super(context.getApplicationContext(), name, null, DB_VERSION);
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // Only takes effect before the first table exists; lets compact() hand pages back
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+        db.enableWriteAheadLogging();
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        // Clustered by BSSID, so one AP's history is one contiguous range
+        db.execSQL("CREATE TABLE " + TABLE_OBSERVATIONS + " ("
+                + COL_BSSID + " INTEGER NOT NULL, "
+                + COL_TIMESTAMP + " INTEGER NOT NULL, "
+                + COL_RSSI + " INTEGER NOT NULL, "
+                + COL_LAT + " INTEGER, "
+                + COL_LON + " INTEGER, "
+                + "PRIMARY KEY (" + COL_BSSID + ", " + COL_TIMESTAMP + ")) WITHOUT ROWID");
+        db.execSQL("CREATE TABLE " + TABLE_ROLLUPS + " ("
+                + COL_RESOLUTION + " INTEGER NOT NULL, "
+                + COL_BSSID + " INTEGER NOT NULL, "
+                + COL_BUCKET + " INTEGER NOT NULL, "
+                + COL_COUNT + " INTEGER NOT NULL, "
+                + COL_RSSI_MIN + " INTEGER NOT NULL, "
+                + COL_RSSI_MAX + " INTEGER NOT NULL, "
+                + COL_RSSI_SUM + " INTEGER NOT NULL, "
+                + COL_POS_COUNT + " INTEGER NOT NULL, "
+                + COL_LAT_SUM + " INTEGER NOT NULL, "
+                + COL_LON_SUM + " INTEGER NOT NULL, "
+                + "PRIMARY KEY (" + COL_RESOLUTION + ", " + COL_BSSID + ", " + COL_BUCKET
+                + ")) WITHOUT ROWID");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+    }
+
+    private void prepareStatements(SQLiteDatabase db) {
+        if (insertObservation != null) return;
+        insertObservation = db.compileStatement("INSERT OR IGNORE INTO " + TABLE_OBSERVATIONS + " ("
+                + COL_BSSID + ", " + COL_TIMESTAMP + ", " + COL_RSSI + ", " + COL_LAT + ", " + COL_LON
+                + ") VALUES (?, ?, ?, ?, ?)");
+        updateRollup = db.compileStatement("UPDATE " + TABLE_ROLLUPS + " SET "
+                + COL_COUNT + " = " + COL_COUNT + " + 1, "
+                + COL_RSSI_MIN + " = MIN(" + COL_RSSI_MIN + ", ?1), "
+                + COL_RSSI_MAX + " = MAX(" + COL_RSSI_MAX + ", ?1), "
+                + COL_RSSI_SUM + " = " + COL_RSSI_SUM + " + ?1, "
+                + COL_POS_COUNT + " = " + COL_POS_COUNT + " + ?2, "
+                + COL_LAT_SUM + " = " + COL_LAT_SUM + " + ?3, "
+                + COL_LON_SUM + " = " + COL_LON_SUM + " + ?4 WHERE "
+                + COL_RESOLUTION + " = ?5 AND " + COL_BSSID + " = ?6 AND " + COL_BUCKET + " = ?7");
+        insertRollup = db.compileStatement("INSERT INTO " + TABLE_ROLLUPS + " ("
+                + COL_RSSI_MIN + ", " + COL_POS_COUNT + ", " + COL_LAT_SUM + ", " + COL_LON_SUM + ", "
+                + COL_RESOLUTION + ", " + COL_BSSID + ", " + COL_BUCKET + ", "
+                + COL_COUNT + ", " + COL_RSSI_MAX + ", " + COL_RSSI_SUM
+                + ") VALUES (?1, ?2, ?3, ?4, ?5, ?6, ?7, 1, ?1, ?1)");
+    }
+
+    public void setRetention(long rawMs, long minuteMs, long hourMs) {
+        rawRetentionMs = rawMs;
+        minuteRetentionMs = minuteMs;
+        hourRetentionMs = hourMs;
+    }
+
+    // Appends one reading per device and folds it into its rollups. A reading already
+    // logged (same BSSID and timestamp) is ignored, so re-appending a batch is harmless.
+    // Returns how many readings were new.
+    public int append(Collection<WiFiDevice> devices) {
+        SQLiteDatabase db = getWritableDatabase();
+        prepareStatements(db);
+        int appended = 0;
+        db.beginTransaction();
+        try {
+            for (WiFiDevice device : devices) {
+                long bssid = BssidUtils.toLong(device.getBssid());
+                if (bssid == BssidUtils.INVALID) continue;
+                boolean hasPosition = device.getLatitude() != null && device.getLongitude() != null;
+                long latE7 = hasPosition ? Math.round(device.getLatitude() * E7) : 0;
+                long lonE7 = hasPosition ? Math.round(device.getLongitude() * E7) : 0;
+
+                insertObservation.clearBindings();
+                insertObservation.bindLong(1, bssid);
+                insertObservation.bindLong(2, device.getTimestamp());
+                insertObservation.bindLong(3, device.getSignalStrength());
+                if (hasPosition) {
+                    insertObservation.bindLong(4, latE7);
+                    insertObservation.bindLong(5, lonE7);
+                } else {
+                    insertObservation.bindNull(4);
+                    insertObservation.bindNull(5);
+                }
+                if (insertObservation.executeInsert() == -1) continue;
+                appended++;
+
+                for (long resolution : RESOLUTIONS) {
+                    long bucket = device.getTimestamp() - Math.floorMod(device.getTimestamp(), resolution);
+                    bindRollup(updateRollup, resolution, bssid, bucket, device.getSignalStrength(),
+                            hasPosition, latE7, lonE7);
+                    if (updateRollup.executeUpdateDelete() == 0) {
+                        bindRollup(insertRollup, resolution, bssid, bucket, device.getSignalStrength(),
+                                hasPosition, latE7, lonE7);
+                        insertRollup.executeInsert();
+                    }
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return appended;
+    }
+
+    private static void bindRollup(SQLiteStatement statement, long resolution, long bssid,
+                                   long bucket, int rssi, boolean hasPosition, long latE7, long lonE7) {
+        statement.clearBindings();
+        statement.bindLong(1, rssi);
+        statement.bindLong(2, hasPosition ? 1 : 0);
+        statement.bindLong(3, latE7);
+        statement.bindLong(4, lonE7);
+        statement.bindLong(5, resolution);
+        statement.bindLong(6, bssid);
+        statement.bindLong(7, bucket);
+    }
+
+    // Runs compact() at most once per interval; cheap to call after every append
+    public int compactIfDue(long now) {
+        if (now - lastCompactionTime < COMPACTION_INTERVAL_MS) return 0;
+        return compact(now);
+    }
+
+    // Drops raw readings and rollups past their retention. Every raw reading is already
+    // in both rollup levels, so nothing older than the raw window is lost beyond its
+    // summary. Returns how many rows were removed.
+    public int compact(long now) {
+        lastCompactionTime = now;
+        SQLiteDatabase db = getWritableDatabase();
+        int removed;
+        db.beginTransaction();
+        try {
+            removed = db.delete(TABLE_OBSERVATIONS, COL_TIMESTAMP + " < ?",
+                    new String[]{String.valueOf(now - rawRetentionMs)});
+            removed += deleteRollupsBefore(db, MINUTE_MS, now - minuteRetentionMs);
+            removed += deleteRollupsBefore(db, HOUR_MS, now - hourRetentionMs);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (removed > 0) {
+            try (Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum", null)) {
+                while (cursor.moveToNext()) {
+                    // Each step frees one page
+                }
+            }
+            Log.d(TAG, "Compacted " + removed + " rows");
+        }
+        return removed;
+    }
+
+    private static int deleteRollupsBefore(SQLiteDatabase db, long resolution, long cutoff) {
+        return db.delete(TABLE_ROLLUPS, COL_RESOLUTION + " = ? AND " + COL_BUCKET + " < ?",
+                new String[]{String.valueOf(resolution), String.valueOf(cutoff)});
+    }
+
+    // Raw readings of one BSSID in [fromMs, toMs), oldest first
+    public List<Observation> getObservations(String bssid, long fromMs, long toMs) {
+        List<Observation> observations = new ArrayList<>();
+        long packed = BssidUtils.toLong(bssid);
+        if (packed == BssidUtils.INVALID) return observations;
+        try (Cursor cursor = getReadableDatabase().query(TABLE_OBSERVATIONS,
+                new String[]{COL_TIMESTAMP, COL_RSSI, COL_LAT, COL_LON},
+                COL_BSSID + " = ? AND " + COL_TIMESTAMP + " >= ? AND " + COL_TIMESTAMP + " < ?",
+                new String[]{String.valueOf(packed), String.valueOf(fromMs), String.valueOf(toMs)},
+                null, null, COL_TIMESTAMP)) {
+            while (cursor.moveToNext()) {
+                boolean hasPosition = !cursor.isNull(2);
+                observations.add(new Observation(bssid, cursor.getLong(0), cursor.getInt(1),
+                        hasPosition ? cursor.getLong(2) / E7 : null,
+                        hasPosition ? cursor.getLong(3) / E7 : null));
+            }
+        }
+        return observations;
+    }
+
+    // Rollups of one BSSID at MINUTE_MS or HOUR_MS whose bucket starts in [fromMs, toMs), oldest first
+    public List<ObservationRollup> getRollups(String bssid, long resolutionMs, long fromMs, long toMs) {
+        List<ObservationRollup> rollups = new ArrayList<>();
+        long packed = BssidUtils.toLong(bssid);
+        if (packed == BssidUtils.INVALID) return rollups;
+        try (Cursor cursor = getReadableDatabase().query(TABLE_ROLLUPS,
+                new String[]{COL_BUCKET, COL_COUNT, COL_RSSI_MIN, COL_RSSI_MAX, COL_RSSI_SUM,
+                        COL_POS_COUNT, COL_LAT_SUM, COL_LON_SUM},
+                COL_RESOLUTION + " = ? AND " + COL_BSSID + " = ? AND " + COL_BUCKET + " >= ? AND "
+                        + COL_BUCKET + " < ?",
+                new String[]{String.valueOf(resolutionMs), String.valueOf(packed),
+                        String.valueOf(fromMs), String.valueOf(toMs)},
+                null, null, COL_BUCKET)) {
+            while (cursor.moveToNext()) {
+                int count = cursor.getInt(1);
+                int positionCount = cursor.getInt(5);
+                rollups.add(new ObservationRollup(bssid, cursor.getLong(0), resolutionMs, count,
+                        cursor.getInt(2), cursor.getInt(3), (double) cursor.getLong(4) / count,
+                        positionCount,
+                        positionCount > 0 ? cursor.getLong(6) / E7 / positionCount : null,
+                        positionCount > 0 ? cursor.getLong(7) / E7 / positionCount : null));
+            }
+        }
+        return rollups;
+    }
+
+    public long countObservations() {
+        return DatabaseUtils.queryNumEntries(getReadableDatabase(), TABLE_OBSERVATIONS);
+    }
+
+    public long countRollups() {
+        return DatabaseUtils.queryNumEntries(getReadableDatabase(), TABLE_ROLLUPS);
+    }
+
+    public void clear() {
+        SQLiteDatabase db = getWritableDatabase();
+        db.delete(TABLE_OBSERVATIONS, null, null);
+        db.delete(TABLE_ROLLUPS, null, null);
+    }
+}
@@ -0,0 +1,71 @@
+package dev.nimrod.locafi.data;
+
+// RSSI and position summary of one BSSID over one minute or hour bucket.
+// Position means only cover the readings that had a fix (positionCount of them).
+public class ObservationRollup {
+    private final String bssid;
+    private final long bucketStart;
+    private final long resolutionMs;
+    private final int count;
+    private final int minRssi;
+    private final int maxRssi;
+    private final double meanRssi;
+    private final int positionCount;
+    private final Double meanLatitude;
+    private final Double meanLongitude;
+
+    public ObservationRollup(String bssid, long bucketStart, long resolutionMs, int count,
+                             int minRssi, int maxRssi, double meanRssi, int positionCount,
+                             Double meanLatitude, Double meanLongitude) {
+        this.bssid = bssid;
+        this.bucketStart = bucketStart;
+        this.resolutionMs = resolutionMs;
+        this.count = count;
+        this.minRssi = minRssi;
+        this.maxRssi = maxRssi;
+        this.meanRssi = meanRssi;
+        this.positionCount = positionCount;
+        this.meanLatitude = meanLatitude;
+        this.meanLongitude = meanLongitude;
+    }
+
+    public String getBssid() {
+        return bssid;
+    }
+
+    public long getBucketStart() {
+        return bucketStart;
+    }
+
+    public long getResolutionMs() {
+        return resolutionMs;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getMinRssi() {
+        return minRssi;
+    }
+
+    public int getMaxRssi() {
+        return maxRssi;
+    }
+
+    public double getMeanRssi() {
+        return meanRssi;
+    }
+
+    public int getPositionCount() {
+        return positionCount;
+    }
+
+    public Double getMeanLatitude() {
+        return meanLatitude;
+    }
+
+    public Double getMeanLongitude() {
+        return meanLongitude;
+    }
+}
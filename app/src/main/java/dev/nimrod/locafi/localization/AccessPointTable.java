@@ -0,0 +1,179 @@
+package dev.nimrod.locafi.localization;
+
+import java.util.Arrays;
+
+import dev.nimrod.locafi.models.WiFiDevice;
+import dev.nimrod.locafi.utils.BssidUtils;
+import dev.nimrod.locafi.utils.LongIntHashMap;
+
+// Learned AP positions. Every observation (phone position + RSSI) is folded
+// into a fixed-size row per BSSID: signal-weighted running mean, weighted
+// variance (West's algorithm), observation count, max RSSI and last-seen time.
+public class AccessPointTable {
+    private static final double METERS_PER_DEGREE = GeoProjection.EARTH_RADIUS_METERS * Math.PI / 180.0;
+    // Keeps very weak observations from being ignored entirely
+    private static final double MIN_WEIGHT = 1e-3;
+
+    private final LongIntHashMap rows = new LongIntHashMap(256);
+    private long[] bssid = new long[64];
+    private double[] weightSum = new double[64];
+    private double[] meanLat = new double[64];
+    private double[] meanLon = new double[64];
+    private double[] m2Lat = new double[64];
+    private double[] m2Lon = new double[64];
+    private int[] count = new int[64];
+    private int[] maxRssi = new int[64];
+    private long[] lastSeen = new long[64];
+    private int size;
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized boolean observe(WiFiDevice device) {
+        if (device.getLatitude() == null || device.getLongitude() == null) {
+            return false;
+        }
+        return observe(BssidUtils.toLong(device.getBssid()), device.getSignalStrength(),
+                device.getLatitude(), device.getLongitude(), device.getTimestamp());
+    }
+
+    public synchronized boolean observe(long key, int rssi, double lat, double lon, long timestamp) {
+        if (key == BssidUtils.INVALID) {
+            return false;
+        }
+        int row = rows.get(key, -1);
+        if (row < 0) {
+            row = addRow(key);
+        }
+
+        double w = Math.max(WeightedCentroid.weight(rssi), MIN_WEIGHT);
+        double total = weightSum[row] + w;
+        double dLat = lat - meanLat[row];
+        double dLon = lon - meanLon[row];
+        double newLat = meanLat[row] + dLat * (w / total);
+        double newLon = meanLon[row] + dLon * (w / total);
+        m2Lat[row] += w * dLat * (lat - newLat);
+        m2Lon[row] += w * dLon * (lon - newLon);
+        meanLat[row] = newLat;
+        meanLon[row] = newLon;
+        weightSum[row] = total;
+
+        if (count[row] == 0 || rssi > maxRssi[row]) {
+            maxRssi[row] = rssi;
+        }
+        count[row]++;
+        if (timestamp > lastSeen[row]) {
+            lastSeen[row] = timestamp;
+        }
+        return true;
+    }
+
+    private int addRow(long key) {
+        if (size == bssid.length) {
+            int capacity = size * 2;
+            bssid = Arrays.copyOf(bssid, capacity);
+            weightSum = Arrays.copyOf(weightSum, capacity);
+            meanLat = Arrays.copyOf(meanLat, capacity);
+            meanLon = Arrays.copyOf(meanLon, capacity);
+            m2Lat = Arrays.copyOf(m2Lat, capacity);
+            m2Lon = Arrays.copyOf(m2Lon, capacity);
+            count = Arrays.copyOf(count, capacity);
+            maxRssi = Arrays.copyOf(maxRssi, capacity);
+            lastSeen = Arrays.copyOf(lastSeen, capacity);
+        }
+        int row = size++;
+        bssid[row] = key;
+        weightSum[row] = 0;
+        meanLat[row] = 0;
+        meanLon[row] = 0;
+        m2Lat[row] = 0;
+        m2Lon[row] = 0;
+        count[row] = 0;
+        maxRssi[row] = 0;
+        lastSeen[row] = 0;
+        rows.put(key, row);
+        return row;
+    }
+
+    // Independent copy, e.g. one per worker thread so batch jobs never contend on this lock
+    public synchronized AccessPointTable copy() {
+        AccessPointTable copy = new AccessPointTable();
+        copy.bssid = Arrays.copyOf(bssid, Math.max(size, 1));
+        copy.weightSum = Arrays.copyOf(weightSum, Math.max(size, 1));
+        copy.meanLat = Arrays.copyOf(meanLat, Math.max(size, 1));
+        copy.meanLon = Arrays.copyOf(meanLon, Math.max(size, 1));
+        copy.m2Lat = Arrays.copyOf(m2Lat, Math.max(size, 1));
+        copy.m2Lon = Arrays.copyOf(m2Lon, Math.max(size, 1));
+        copy.count = Arrays.copyOf(count, Math.max(size, 1));
+        copy.maxRssi = Arrays.copyOf(maxRssi, Math.max(size, 1));
+        copy.lastSeen = Arrays.copyOf(lastSeen, Math.max(size, 1));
+        copy.size = size;
+        for (int row = 0; row < size; row++) {
+            copy.rows.put(bssid[row], row);
+        }
+        return copy;
+    }
+
+    public synchronized void clear() {
+        rows.clear();
+        size = 0;
+    }
+
+    // Hash join of a live scan against the learned positions. Writes the matched
+    // APs (learned position, live RSSI) into the out arrays and returns how many matched.
+    public synchronized int join(long[] keys, int[] rssi, int count,
+                                 long[] outBssid, double[] outLat, double[] outLon, int[] outRssi) {
+        int joined = 0;
+        for (int i = 0; i < count; i++) {
+            int row = rows.get(keys[i], -1);
+            if (row < 0) {
+                continue;
+            }
+            outBssid[joined] = keys[i];
+            outLat[joined] = meanLat[row];
+            outLon[joined] = meanLon[row];
+            outRssi[joined] = rssi[i];
+            joined++;
+        }
+        return joined;
+    }
+
+    // Row index for a BSSID, or -1 when the AP has never been observed
+    public synchronized int indexOf(long key) {
+        return rows.get(key, -1);
+    }
+
+    public synchronized long getBssid(int row) {
+        return bssid[row];
+    }
+
+    public synchronized double getLatitude(int row) {
+        return meanLat[row];
+    }
+
+    public synchronized double getLongitude(int row) {
+        return meanLon[row];
+    }
+
+    // Weighted horizontal position variance in square meters
+    public synchronized double getVarianceMeters2(int row) {
+        if (weightSum[row] <= 0) return 0;
+        double cosLat = Math.cos(Math.toRadians(meanLat[row]));
+        double latVar = m2Lat[row] / weightSum[row] * METERS_PER_DEGREE * METERS_PER_DEGREE;
+        double lonVar = m2Lon[row] / weightSum[row] * METERS_PER_DEGREE * METERS_PER_DEGREE * cosLat * cosLat;
+        return Math.max(0, latVar + lonVar);
+    }
+
+    public synchronized int getObservationCount(int row) {
+        return count[row];
+    }
+
+    public synchronized int getMaxRssi(int row) {
+        return maxRssi[row];
+    }
+
+    public synchronized long getLastSeen(int row) {
+        return lastSeen[row];
+    }
+}
@@ -0,0 +1,173 @@
+package dev.nimrod.locafi.localization;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+import dev.nimrod.locafi.utils.LocationCalculator;
+
+// Offline re-localization of recorded sessions. Every scan is joined against a
+// known-AP table, optionally outlier-filtered (median consensus or RANSAC) and solved with the same engines
+// LocationCalculator uses; scans are independent, so the trajectory is computed
+// with a parallel stream on a dedicated ForkJoinPool.
+public class BatchLocalizer {
+    private final ForkJoinPool pool;
+    private final LocationCalculator.Mode mode;
+    private final Supplier<OutlierFilter> filterFactory;
+
+    // filterFactory makes one filter per worker thread (filters keep scratch state); null
+    // skips outlier rejection, e.g. MedianConsensusFilter::new or RansacFilter::new
+    public BatchLocalizer(ForkJoinPool pool, LocationCalculator.Mode mode, Supplier<OutlierFilter> filterFactory) {
+        this.pool = pool;
+        this.mode = mode;
+        this.filterFactory = filterFactory;
+    }
+
+    public Result run(ScanSession session, AccessPointTable table) {
+        int scans = session.size();
+        int maxAps = Math.max(1, session.getMaxApCount());
+        double[] estimateLat = new double[scans];
+        double[] estimateLon = new double[scans];
+        double[] error = new double[scans];
+
+        // Each worker gets its own table copy and buffers, so the hot loop shares nothing
+        ThreadLocal<Workspace> workspace = ThreadLocal.withInitial(
+                () -> new Workspace(table.copy(), maxAps, filterFactory));
+
+        long start = System.nanoTime();
+        try {
+            pool.submit(() -> IntStream.range(0, scans).parallel().forEach(scan -> {
+                Workspace ws = workspace.get();
+                int count = session.copyScan(scan, ws.scanBssid, ws.scanRssi);
+                ws.join.join(ws.scanBssid, ws.scanRssi, count, ws.table);
+                int joined = ws.join.applyFilter(ws.filter);
+                if (joined > 0 && LocationCalculator.calculateLocation(ws.join.getLatitudes(),
+                        ws.join.getLongitudes(), ws.join.getRssi(), joined, mode, ws.out)) {
+                    estimateLat[scan] = ws.out[0];
+                    estimateLon[scan] = ws.out[1];
+                    error[scan] = GeoProjection.distanceMeters(ws.out[0], ws.out[1],
+                            session.getGpsLatitude(scan), session.getGpsLongitude(scan));
+                } else {
+                    estimateLat[scan] = Double.NaN;
+                    estimateLon[scan] = Double.NaN;
+                    error[scan] = Double.NaN;
+                }
+            })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Batch localization interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Batch localization failed", e.getCause());
+        }
+        long elapsed = System.nanoTime() - start;
+
+        return new Result(estimateLat, estimateLon, error, elapsed);
+    }
+
+    private static final class Workspace {
+        final AccessPointTable table;
+        final ScanJoin join = new ScanJoin();
+        final OutlierFilter filter;
+        final long[] scanBssid;
+        final int[] scanRssi;
+        final double[] out = new double[TrilaterationSolver.OUT_SIZE];
+
+        Workspace(AccessPointTable table, int maxAps, Supplier<OutlierFilter> filterFactory) {
+            this.table = table;
+            this.filter = filterFactory != null ? filterFactory.get() : null;
+            this.scanBssid = new long[maxAps];
+            this.scanRssi = new int[maxAps];
+        }
+    }
+
+    public static class Result {
+        private final double[] latitude;
+        private final double[] longitude;
+        private final double[] error;
+        private final long elapsedNanos;
+        private final int estimated;
+        private final double meanError;
+        private final double medianError;
+        private final double p95Error;
+        private final double maxError;
+
+        Result(double[] latitude, double[] longitude, double[] error, long elapsedNanos) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.error = error;
+            this.elapsedNanos = elapsedNanos;
+
+            double[] valid = new double[error.length];
+            int n = 0;
+            double sum = 0;
+            for (double e : error) {
+                if (!Double.isNaN(e)) {
+                    valid[n++] = e;
+                    sum += e;
+                }
+            }
+            Arrays.sort(valid, 0, n);
+            this.estimated = n;
+            this.meanError = n > 0 ? sum / n : Double.NaN;
+            this.medianError = n > 0 ? valid[n / 2] : Double.NaN;
+            this.p95Error = n > 0 ? valid[Math.min(n - 1, (int) Math.ceil(0.95 * n) - 1)] : Double.NaN;
+            this.maxError = n > 0 ? valid[n - 1] : Double.NaN;
+        }
+
+        // Trajectory arrays are indexed like the session; NaN where no known AP was heard
+        public double[] getLatitudes() {
+            return latitude;
+        }
+
+        public double[] getLongitudes() {
+            return longitude;
+        }
+
+        public double[] getErrors() {
+            return error;
+        }
+
+        public int getScanCount() {
+            return latitude.length;
+        }
+
+        public int getEstimatedCount() {
+            return estimated;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double getEstimatesPerSecond() {
+            return elapsedNanos > 0 ? estimated * 1e9 / elapsedNanos : 0;
+        }
+
+        public double getMeanError() {
+            return meanError;
+        }
+
+        public double getMedianError() {
+            return medianError;
+        }
+
+        public double getP95Error() {
+            return p95Error;
+        }
+
+        public double getMaxError() {
+            return maxError;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%d/%d scans in %.1f s (%.0f estimates/s), error mean=%.1f m median=%.1f m p95=%.1f m max=%.1f m",
+                    estimated, latitude.length, elapsedNanos / 1e9, getEstimatesPerSecond(),
+                    meanError, medianError, p95Error, maxError);
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package dev.nimrod.locafi.localization;
+
+import java.util.Arrays;
+import java.util.List;
+
+import dev.nimrod.locafi.models.WiFiDevice;
+import dev.nimrod.locafi.utils.BssidUtils;
+import dev.nimrod.locafi.utils.LongIntHashMap;
+
+// RSSI fingerprints (a position plus the APs heard there) with a BSSID inverted
+// index and a uniform spatial grid. Weighted-kNN matching only visits the
+// fingerprints that share at least one AP with the live scan, optionally
+// restricted to grid cells around a prior position. Synchronized, since the scan
+// pipeline adds fingerprints while estimates are matched against them.
+public class FingerprintDatabase {
+    public static final int DEFAULT_K = 4;
+    public static final int OUT_LAT = 0;
+    public static final int OUT_LON = 1;
+    public static final int OUT_DISTANCE = 2;
+    public static final int OUT_SIZE = 3;
+
+    private static final int MIN_SIGNAL = WeightedCentroid.MIN_SIGNAL;
+    private static final double DEFAULT_CELL_METERS = 25.0;
+
+    private final double cellMeters;
+    private final GeoProjection projection = new GeoProjection();
+    private boolean hasOrigin = false;
+
+    // Fingerprints
+    private double[] fpLat = new double[256];
+    private double[] fpLon = new double[256];
+    private double[] fpEnergy = new double[256];
+    private int fpCount;
+
+    // BSSID -> posting list of (fingerprint, rssi)
+    private final LongIntHashMap bssidLists = new LongIntHashMap(1024);
+    private int[][] postFp = new int[64][];
+    private byte[][] postRssi = new byte[64][];
+    private int[] postSize = new int[64];
+    private int postListCount;
+
+    // Grid cell -> fingerprint ids
+    private final LongIntHashMap cellLists = new LongIntHashMap(1024);
+    private int[][] cellFp = new int[64][];
+    private int[] cellSize = new int[64];
+    private int cellListCount;
+
+    // Match scratch, indexed by fingerprint and reset lazily through generation stamps
+    private double[] score = new double[256];
+    private int[] scoreStamp = new int[256];
+    private int[] allowStamp = new int[256];
+    private int[] touched = new int[256];
+    private int generation;
+    // Query BSSID -> index of its strongest reading, so repeats are scored once
+    private final LongIntHashMap queryIndex = new LongIntHashMap(64);
+    private int[] bestFp = new int[DEFAULT_K];
+    private double[] bestDistance = new double[DEFAULT_K];
+    private int lastCandidates;
+
+    public FingerprintDatabase() {
+        this(DEFAULT_CELL_METERS);
+    }
+
+    public FingerprintDatabase(double cellMeters) {
+        this.cellMeters = cellMeters;
+    }
+
+    public synchronized int size() {
+        return fpCount;
+    }
+
+    public synchronized int getAccessPointCount() {
+        return bssidLists.size();
+    }
+
+    public synchronized int getLastCandidateCount() {
+        return lastCandidates;
+    }
+
+    public synchronized void clear() {
+        hasOrigin = false;
+        fpCount = 0;
+        bssidLists.clear();
+        postListCount = 0;
+        Arrays.fill(postSize, 0);
+        cellLists.clear();
+        cellListCount = 0;
+        Arrays.fill(cellSize, 0);
+        lastCandidates = 0;
+    }
+
+    public synchronized int add(double lat, double lon, long[] bssids, int[] rssi, int count) {
+        if (!hasOrigin) {
+            projection.setOrigin(lat, lon);
+            hasOrigin = true;
+        }
+        int id = fpCount++;
+        if (id == fpLat.length) {
+            int capacity = fpLat.length * 2;
+            fpLat = Arrays.copyOf(fpLat, capacity);
+            fpLon = Arrays.copyOf(fpLon, capacity);
+            fpEnergy = Arrays.copyOf(fpEnergy, capacity);
+            score = new double[capacity];
+            scoreStamp = new int[capacity];
+            allowStamp = new int[capacity];
+            touched = new int[capacity];
+            generation = 0;
+        }
+        fpLat[id] = lat;
+        fpLon[id] = lon;
+
+        double energy = 0;
+        for (int i = 0; i < count; i++) {
+            if (bssids[i] == BssidUtils.INVALID) continue;
+            int level = clampRssi(rssi[i]);
+            energy += (double) (level - MIN_SIGNAL) * (level - MIN_SIGNAL);
+            int list = bssidLists.get(bssids[i], -1);
+            if (list < 0) {
+                list = newPostingList();
+                bssidLists.put(bssids[i], list);
+            }
+            appendPosting(list, id, level);
+        }
+        fpEnergy[id] = energy;
+
+        long cell = cellKey(cellX(projection.toEast(lon)), cellY(projection.toNorth(lat)));
+        int cellList = cellLists.get(cell, -1);
+        if (cellList < 0) {
+            cellList = newCellList();
+            cellLists.put(cell, cellList);
+        }
+        appendCell(cellList, id);
+        return id;
+    }
+
+    // One fingerprint per scan, placed at the mean of the positions its APs were heard at
+    // (after placement by fix interpolation these differ only by the scan's own duration).
+    // Returns the fingerprint id, or -1 when nothing in the scan is placed.
+    public synchronized int addScan(List<WiFiDevice> scan) {
+        long[] bssids = new long[scan.size()];
+        int[] rssi = new int[scan.size()];
+        double lat = 0, lon = 0;
+        int count = 0;
+        for (WiFiDevice device : scan) {
+            if (device.getLatitude() == null || device.getLongitude() == null) continue;
+            long key = BssidUtils.toLong(device.getBssid());
+            if (key == BssidUtils.INVALID) continue;
+            bssids[count] = key;
+            rssi[count] = device.getSignalStrength();
+            lat += device.getLatitude();
+            lon += device.getLongitude();
+            count++;
+        }
+        if (count == 0) {
+            return -1;
+        }
+        return add(lat / count, lon / count, bssids, rssi, count);
+    }
+
+    public synchronized boolean match(long[] bssids, int[] rssi, int count, int k, double[] out) {
+        return match(bssids, rssi, count, k, Double.NaN, Double.NaN, 0, out);
+    }
+
+    // Weighted kNN in signal space; a finite prior and radius limit candidates to nearby grid cells
+    public synchronized boolean match(long[] bssids, int[] rssi, int count, int k,
+                                      double priorLat, double priorLon, double radiusMeters, double[] out) {
+        lastCandidates = 0;
+        if (fpCount == 0 || count <= 0 || k <= 0) {
+            return false;
+        }
+        if (++generation == Integer.MAX_VALUE) {
+            Arrays.fill(scoreStamp, 0);
+            Arrays.fill(allowStamp, 0);
+            generation = 1;
+        }
+        boolean restricted = !Double.isNaN(priorLat) && !Double.isNaN(priorLon) && radiusMeters > 0;
+        if (restricted) {
+            markCellsAround(priorLat, priorLon, radiusMeters);
+        }
+
+        queryIndex.clear();
+        for (int i = 0; i < count; i++) {
+            int first = queryIndex.get(bssids[i], -1);
+            if (first < 0 || rssi[i] > rssi[first]) {
+                queryIndex.put(bssids[i], i);
+            }
+        }
+
+        double scanEnergy = 0;
+        int touchedCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (queryIndex.get(bssids[i], -1) != i) continue;
+            int s = clampRssi(rssi[i]);
+            double sEnergy = (double) (s - MIN_SIGNAL) * (s - MIN_SIGNAL);
+            scanEnergy += sEnergy;
+            int list = bssidLists.get(bssids[i], -1);
+            if (list < 0) continue;
+
+            int[] fps = postFp[list];
+            byte[] levels = postRssi[list];
+            int size = postSize[list];
+            for (int j = 0; j < size; j++) {
+                int fp = fps[j];
+                if (restricted && allowStamp[fp] != generation) continue;
+                int f = levels[j];
+                double fEnergy = (double) (f - MIN_SIGNAL) * (f - MIN_SIGNAL);
+                // Replace the "unheard on one side" terms with the real squared difference
+                double delta = (double) (s - f) * (s - f) - sEnergy - fEnergy;
+                if (scoreStamp[fp] != generation) {
+                    scoreStamp[fp] = generation;
+                    score[fp] = delta;
+                    touched[touchedCount++] = fp;
+                } else {
+                    score[fp] += delta;
+                }
+            }
+        }
+        lastCandidates = touchedCount;
+        if (touchedCount == 0) {
+            return false;
+        }
+
+        if (bestFp.length < k) {
+            bestFp = new int[k];
+            bestDistance = new double[k];
+        }
+        int found = 0;
+        for (int t = 0; t < touchedCount; t++) {
+            int fp = touched[t];
+            double distance = Math.sqrt(Math.max(0, scanEnergy + fpEnergy[fp] + score[fp]));
+            if (found < k) {
+                insertBest(found++, fp, distance);
+            } else if (distance < bestDistance[k - 1]) {
+                insertBest(k - 1, fp, distance);
+            }
+        }
+
+        double totalWeight = 0, lat = 0, lon = 0;
+        for (int i = 0; i < found; i++) {
+            double w = 1.0 / (bestDistance[i] + 1e-3);
+            lat += fpLat[bestFp[i]] * w;
+            lon += fpLon[bestFp[i]] * w;
+            totalWeight += w;
+        }
+        out[OUT_LAT] = lat / totalWeight;
+        out[OUT_LON] = lon / totalWeight;
+        out[OUT_DISTANCE] = bestDistance[0];
+        return true;
+    }
+
+    // Insertion into the sorted best-k arrays, replacing the entry at position 'from'
+    private void insertBest(int from, int fp, double distance) {
+        int i = from;
+        while (i > 0 && bestDistance[i - 1] > distance) {
+            bestDistance[i] = bestDistance[i - 1];
+            bestFp[i] = bestFp[i - 1];
+            i--;
+        }
+        bestDistance[i] = distance;
+        bestFp[i] = fp;
+    }
+
+    private void markCellsAround(double lat, double lon, double radiusMeters) {
+        double east = projection.toEast(lon);
+        double north = projection.toNorth(lat);
+        int minX = cellX(east - radiusMeters), maxX = cellX(east + radiusMeters);
+        int minY = cellY(north - radiusMeters), maxY = cellY(north + radiusMeters);
+        for (int cx = minX; cx <= maxX; cx++) {
+            for (int cy = minY; cy <= maxY; cy++) {
+                int list = cellLists.get(cellKey(cx, cy), -1);
+                if (list < 0) continue;
+                int[] fps = cellFp[list];
+                for (int j = 0; j < cellSize[list]; j++) {
+                    allowStamp[fps[j]] = generation;
+                }
+            }
+        }
+    }
+
+    private int cellX(double east) {
+        return (int) Math.floor(east / cellMeters);
+    }
+
+    private int cellY(double north) {
+        return (int) Math.floor(north / cellMeters);
+    }
+
+    private static long cellKey(int cx, int cy) {
+        // Both halves as unsigned 31-bit offsets so the key stays non-negative
+        return ((long) (cx + (1 << 30)) << 31) | (cy + (1 << 30));
+    }
+
+    private static int clampRssi(int rssi) {
+        return Math.max(MIN_SIGNAL, Math.min(0, rssi));
+    }
+
+    private int newPostingList() {
+        if (postListCount == postFp.length) {
+            int capacity = postFp.length * 2;
+            postFp = Arrays.copyOf(postFp, capacity);
+            postRssi = Arrays.copyOf(postRssi, capacity);
+            postSize = Arrays.copyOf(postSize, capacity);
+        }
+        postFp[postListCount] = new int[4];
+        postRssi[postListCount] = new byte[4];
+        return postListCount++;
+    }
+
+    private void appendPosting(int list, int fp, int rssi) {
+        int size = postSize[list];
+        if (size == postFp[list].length) {
+            postFp[list] = Arrays.copyOf(postFp[list], size * 2);
+            postRssi[list] = Arrays.copyOf(postRssi[list], size * 2);
+        }
+        postFp[list][size] = fp;
+        postRssi[list][size] = (byte) rssi;
+        postSize[list] = size + 1;
+    }
+
+    private int newCellList() {
+        if (cellListCount == cellFp.length) {
+            int capacity = cellFp.length * 2;
+            cellFp = Arrays.copyOf(cellFp, capacity);
+            cellSize = Arrays.copyOf(cellSize, capacity);
+        }
+        cellFp[cellListCount] = new int[4];
+        return cellListCount++;
+    }
+
+    private void appendCell(int list, int fp) {
+        int size = cellSize[list];
+        if (size == cellFp[list].length) {
+            cellFp[list] = Arrays.copyOf(cellFp[list], size * 2);
+        }
+        cellFp[list][size] = fp;
+        cellSize[list] = size + 1;
+    }
+}
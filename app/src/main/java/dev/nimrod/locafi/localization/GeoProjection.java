@@ -0,0 +1,59 @@
+package dev.nimrod.locafi.localization;
+
+public final class GeoProjection {
+    public static final double EARTH_RADIUS_METERS = 6371008.8;
+    private static final double DEG_TO_RAD = Math.PI / 180.0;
+    private static final double METERS_PER_DEGREE = EARTH_RADIUS_METERS * DEG_TO_RAD;
+
+    private double originLat;
+    private double originLon;
+    private double metersPerDegreeLon;
+
+    public GeoProjection() {
+    }
+
+    public GeoProjection(double originLat, double originLon) {
+        setOrigin(originLat, originLon);
+    }
+
+    // Local east/north tangent plane, accurate to well under a meter across a few kilometers
+    public void setOrigin(double originLat, double originLon) {
+        this.originLat = originLat;
+        this.originLon = originLon;
+        this.metersPerDegreeLon = METERS_PER_DEGREE * Math.cos(originLat * DEG_TO_RAD);
+    }
+
+    public double getOriginLat() {
+        return originLat;
+    }
+
+    public double getOriginLon() {
+        return originLon;
+    }
+
+    public double toEast(double lon) {
+        return (lon - originLon) * metersPerDegreeLon;
+    }
+
+    public double toNorth(double lat) {
+        return (lat - originLat) * METERS_PER_DEGREE;
+    }
+
+    public double toLon(double east) {
+        return originLon + east / metersPerDegreeLon;
+    }
+
+    public double toLat(double north) {
+        return originLat + north / METERS_PER_DEGREE;
+    }
+
+    public static double distanceMeters(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = (lat2 - lat1) * DEG_TO_RAD;
+        double dLon = (lon2 - lon1) * DEG_TO_RAD;
+        double sinLat = Math.sin(dLat / 2);
+        double sinLon = Math.sin(dLon / 2);
+        double a = sinLat * sinLat
+                + Math.cos(lat1 * DEG_TO_RAD) * Math.cos(lat2 * DEG_TO_RAD) * sinLon * sinLon;
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1.0, Math.sqrt(a)));
+    }
+}
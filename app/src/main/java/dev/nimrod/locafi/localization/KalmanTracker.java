@@ -0,0 +1,208 @@
+package dev.nimrod.locafi.localization;
+
+// Constant-velocity Kalman filter over a local east/north plane. State is
+// {east, north, vEast, vNorth} in meters and m/s; each scan is folded in as a
+// position measurement, so the cost per scan is the cost of solving that scan
+// and never depends on stored history.
+public class KalmanTracker {
+    public static final int STATE_SIZE = 4;
+
+    private static final double DEFAULT_ACCELERATION_NOISE = 1.0; // m/s^2, walking pace changes
+    private static final double MIN_MEASUREMENT_STD = 3.0;         // meters
+    private static final double INITIAL_VELOCITY_VARIANCE = 4.0;   // (m/s)^2
+    private static final double MAX_DT_SECONDS = 60.0;
+
+    private final double accelerationNoise;
+    private final GeoProjection projection = new GeoProjection();
+    private final TrilaterationSolver solver;
+    private final double[] solution = new double[TrilaterationSolver.OUT_SIZE];
+
+    private final double[] state = new double[STATE_SIZE];
+    // Row-major 4x4 covariance
+    private final double[] p = new double[STATE_SIZE * STATE_SIZE];
+    private final double[] gain0 = new double[STATE_SIZE];
+    private final double[] gain1 = new double[STATE_SIZE];
+    private boolean initialized = false;
+    private long lastTimestamp;
+    private int updateCount;
+
+    public KalmanTracker() {
+        this(DEFAULT_ACCELERATION_NOISE, new TrilaterationSolver());
+    }
+
+    public KalmanTracker(double accelerationNoise, TrilaterationSolver solver) {
+        this.accelerationNoise = accelerationNoise;
+        this.solver = solver;
+    }
+
+    public synchronized void reset() {
+        initialized = false;
+        updateCount = 0;
+    }
+
+    // Solves the visible APs of one scan and folds the fix into the track
+    public synchronized boolean updateFromScan(double[] lat, double[] lon, int[] rssi, int count,
+                                               long timestampMillis) {
+        if (!solver.solve(lat, lon, rssi, count, solution)) {
+            return false;
+        }
+        double std = Math.max(solution[TrilaterationSolver.OUT_RMS_ERROR], MIN_MEASUREMENT_STD);
+        update(solution[TrilaterationSolver.OUT_LAT], solution[TrilaterationSolver.OUT_LON],
+                std * std, timestampMillis);
+        return true;
+    }
+
+    public synchronized void update(double lat, double lon, double varianceMeters2, long timestampMillis) {
+        if (!initialized) {
+            projection.setOrigin(lat, lon);
+            state[0] = 0;
+            state[1] = 0;
+            state[2] = 0;
+            state[3] = 0;
+            for (int i = 0; i < p.length; i++) p[i] = 0;
+            p[0] = varianceMeters2;
+            p[5] = varianceMeters2;
+            p[10] = INITIAL_VELOCITY_VARIANCE;
+            p[15] = INITIAL_VELOCITY_VARIANCE;
+            lastTimestamp = timestampMillis;
+            initialized = true;
+            updateCount = 1;
+            return;
+        }
+
+        double dt = (timestampMillis - lastTimestamp) / 1000.0;
+        if (dt > 0) {
+            predict(Math.min(dt, MAX_DT_SECONDS));
+            lastTimestamp = timestampMillis;
+        }
+
+        double zx = projection.toEast(lon);
+        double zy = projection.toNorth(lat);
+
+        // Innovation and its covariance S = H P H^T + R, with H selecting the position
+        double yx = zx - state[0];
+        double yy = zy - state[1];
+        double s00 = p[0] + varianceMeters2;
+        double s01 = p[1];
+        double s10 = p[4];
+        double s11 = p[5] + varianceMeters2;
+        double det = s00 * s11 - s01 * s10;
+        if (Math.abs(det) < 1e-12) {
+            return;
+        }
+        double i00 = s11 / det;
+        double i01 = -s01 / det;
+        double i10 = -s10 / det;
+        double i11 = s00 / det;
+
+        // Gain K = P H^T S^-1 (4x2), P H^T is the first two columns of P
+        double k00 = p[0] * i00 + p[1] * i10, k01 = p[0] * i01 + p[1] * i11;
+        double k10 = p[4] * i00 + p[5] * i10, k11 = p[4] * i01 + p[5] * i11;
+        double k20 = p[8] * i00 + p[9] * i10, k21 = p[8] * i01 + p[9] * i11;
+        double k30 = p[12] * i00 + p[13] * i10, k31 = p[12] * i01 + p[13] * i11;
+
+        state[0] += k00 * yx + k01 * yy;
+        state[1] += k10 * yx + k11 * yy;
+        state[2] += k20 * yx + k21 * yy;
+        state[3] += k30 * yx + k31 * yy;
+
+        // P = (I - K H) P, where row r of (K H) P is k_r0 * P[0][c] + k_r1 * P[1][c]
+        gain0[0] = k00; gain0[1] = k10; gain0[2] = k20; gain0[3] = k30;
+        gain1[0] = k01; gain1[1] = k11; gain1[2] = k21; gain1[3] = k31;
+        double r00 = p[0], r01 = p[1], r02 = p[2], r03 = p[3];
+        double r10 = p[4], r11 = p[5], r12 = p[6], r13 = p[7];
+        for (int r = 0; r < STATE_SIZE; r++) {
+            int base = r * STATE_SIZE;
+            p[base] -= gain0[r] * r00 + gain1[r] * r10;
+            p[base + 1] -= gain0[r] * r01 + gain1[r] * r11;
+            p[base + 2] -= gain0[r] * r02 + gain1[r] * r12;
+            p[base + 3] -= gain0[r] * r03 + gain1[r] * r13;
+        }
+        symmetrize();
+        updateCount++;
+    }
+
+    private void predict(double dt) {
+        state[0] += state[2] * dt;
+        state[1] += state[3] * dt;
+
+        // P = F P F^T with F = [[I, dt I], [0, I]], applied per axis pair
+        for (int axis = 0; axis < 2; axis++) {
+            int pos = axis;
+            int vel = axis + 2;
+            for (int c = 0; c < STATE_SIZE; c++) {
+                p[pos * STATE_SIZE + c] += dt * p[vel * STATE_SIZE + c];
+            }
+        }
+        for (int axis = 0; axis < 2; axis++) {
+            int pos = axis;
+            int vel = axis + 2;
+            for (int r = 0; r < STATE_SIZE; r++) {
+                p[r * STATE_SIZE + pos] += dt * p[r * STATE_SIZE + vel];
+            }
+        }
+
+        // Discrete white-noise acceleration model
+        double q = accelerationNoise * accelerationNoise;
+        double dt2 = dt * dt;
+        double qPos = q * dt2 * dt2 / 4;
+        double qCross = q * dt2 * dt / 2;
+        double qVel = q * dt2;
+        for (int axis = 0; axis < 2; axis++) {
+            int pos = axis;
+            int vel = axis + 2;
+            p[pos * STATE_SIZE + pos] += qPos;
+            p[pos * STATE_SIZE + vel] += qCross;
+            p[vel * STATE_SIZE + pos] += qCross;
+            p[vel * STATE_SIZE + vel] += qVel;
+        }
+    }
+
+    private void symmetrize() {
+        for (int r = 0; r < STATE_SIZE; r++) {
+            for (int c = r + 1; c < STATE_SIZE; c++) {
+                double avg = (p[r * STATE_SIZE + c] + p[c * STATE_SIZE + r]) / 2;
+                p[r * STATE_SIZE + c] = avg;
+                p[c * STATE_SIZE + r] = avg;
+            }
+        }
+    }
+
+    public synchronized boolean hasEstimate() {
+        return initialized;
+    }
+
+    public synchronized double getLatitude() {
+        return projection.toLat(state[1]);
+    }
+
+    public synchronized double getLongitude() {
+        return projection.toLon(state[0]);
+    }
+
+    public synchronized double getVelocityEast() {
+        return state[2];
+    }
+
+    public synchronized double getVelocityNorth() {
+        return state[3];
+    }
+
+    // 1-sigma horizontal uncertainty in meters
+    public synchronized double getPositionStdMeters() {
+        return Math.sqrt(Math.max(0, (p[0] + p[5]) / 2));
+    }
+
+    // Copies the row-major 4x4 covariance in east/north meters into out
+    public synchronized void getCovariance(double[] out) {
+        System.arraycopy(p, 0, out, 0, p.length);
+    }
+
+    public synchronized long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    public synchronized int getUpdateCount() {
+        return updateCount;
+    }
+}
@@ -0,0 +1,256 @@
+package dev.nimrod.locafi.localization;
+
+import java.util.Arrays;
+
+import dev.nimrod.locafi.utils.SignalStrengthHelper;
+
+// Log-likelihood grid over a local east/north square, stored row-major in a flat
+// float[] with row 0 at the north edge so it maps straight onto a bitmap.
+// A scan only touches the cells inside each AP's coverage circle; older evidence
+// fades by growing the increment instead of rescaling every cell, with a rare
+// full renormalization when the increment gets large. When a scan's APs drift out
+// of the central half of the square, the grid re-centers on them by whole cells.
+public class LikelihoodGrid {
+    public static final int DEFAULT_SIZE = 1000;          // 1000 x 1000 = 1M cells
+    public static final double DEFAULT_CELL_METERS = 1.0;
+
+    private static final double DEFAULT_FORGETTING = 0.9;  // evidence weight kept per scan
+    private static final float RENORMALIZE_AT = 1e6f;
+    // Re-center once the scan lies further than this fraction of the half-size from the center
+    private static final double RECENTER_AT = 0.5;
+
+    private final int width;
+    private final int height;
+    private final double cellMeters;
+    private final float[] cells;
+    private final double growth;
+    private final GeoProjection projection = new GeoProjection();
+
+    private boolean hasOrigin = false;
+    private float increment = 1f;
+    private float maxValue = 0f;
+    private int maxCell = -1;
+    private int updateCount;
+    private long lastUpdateNanos;
+    private int lastTouchedCells;
+
+    public LikelihoodGrid() {
+        this(DEFAULT_SIZE, DEFAULT_SIZE, DEFAULT_CELL_METERS, DEFAULT_FORGETTING);
+    }
+
+    public LikelihoodGrid(int width, int height, double cellMeters, double forgetting) {
+        if (forgetting <= 0 || forgetting > 1) {
+            throw new IllegalArgumentException("Forgetting factor must be in (0, 1]: " + forgetting);
+        }
+        this.width = width;
+        this.height = height;
+        this.cellMeters = cellMeters;
+        this.cells = new float[width * height];
+        this.growth = 1.0 / forgetting;
+    }
+
+    public synchronized void reset(double centerLat, double centerLon) {
+        projection.setOrigin(centerLat, centerLon);
+        Arrays.fill(cells, 0f);
+        hasOrigin = true;
+        increment = 1f;
+        maxValue = 0f;
+        maxCell = -1;
+        updateCount = 0;
+    }
+
+    // Drops all evidence; the next update picks a new origin
+    public synchronized void reset() {
+        Arrays.fill(cells, 0f);
+        hasOrigin = false;
+        increment = 1f;
+        maxValue = 0f;
+        maxCell = -1;
+        updateCount = 0;
+    }
+
+    // Adds the coverage evidence of one scan's known APs
+    public synchronized void update(double[] lat, double[] lon, int[] rssi, int count) {
+        if (count <= 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        if (!hasOrigin) {
+            reset(lat[0], lon[0]);
+        } else {
+            recenterIfNeeded(lat, lon, count);
+        }
+
+        int touched = 0;
+        for (int i = 0; i < count; i++) {
+            double radius = SignalStrengthHelper.getCircleRadius(rssi[i]);
+            double strength = increment * Math.max(WeightedCentroid.weight(rssi[i]), 1e-3);
+            double east = projection.toEast(lon[i]);
+            double north = projection.toNorth(lat[i]);
+
+            int minCol = Math.max(0, column(east - radius));
+            int maxCol = Math.min(width - 1, column(east + radius));
+            int minRow = Math.max(0, row(north + radius));
+            int maxRow = Math.min(height - 1, row(north - radius));
+            double invR2 = 1.0 / (radius * radius);
+
+            for (int r = minRow; r <= maxRow; r++) {
+                double dy = cellNorth(r) - north;
+                double dy2 = dy * dy;
+                int base = r * width;
+                for (int c = minCol; c <= maxCol; c++) {
+                    double dx = cellEast(c) - east;
+                    double d2 = dx * dx + dy2;
+                    if (d2 > radius * radius) continue;
+                    // Strongest at the AP, fading to zero at the coverage edge
+                    float value = cells[base + c] + (float) (strength * (1.0 - d2 * invR2));
+                    cells[base + c] = value;
+                    if (value > maxValue) {
+                        maxValue = value;
+                        maxCell = base + c;
+                    }
+                    touched++;
+                }
+            }
+        }
+
+        updateCount++;
+        increment *= (float) growth;
+        if (increment > RENORMALIZE_AT) {
+            renormalize();
+        }
+        lastTouchedCells = touched;
+        lastUpdateNanos = System.nanoTime() - start;
+    }
+
+    private void recenterIfNeeded(double[] lat, double[] lon, int count) {
+        double east = 0;
+        double north = 0;
+        for (int i = 0; i < count; i++) {
+            east += projection.toEast(lon[i]);
+            north += projection.toNorth(lat[i]);
+        }
+        east /= count;
+        north /= count;
+        if (Math.abs(east) <= RECENTER_AT * width / 2.0 * cellMeters
+                && Math.abs(north) <= RECENTER_AT * height / 2.0 * cellMeters) {
+            return;
+        }
+        shift((int) Math.round(east / cellMeters), (int) Math.round(-north / cellMeters));
+    }
+
+    // Moves the origin by whole cells so the evidence that stays inside keeps its alignment.
+    // New cell (r, c) takes old cell (r + dRow, c + dCol); cells shifted in start empty.
+    private void shift(int dCol, int dRow) {
+        if (Math.abs(dCol) >= width || Math.abs(dRow) >= height) {
+            Arrays.fill(cells, 0f);
+        } else {
+            int keep = width - Math.abs(dCol);
+            // Copy in the direction that reads each source row before it is overwritten
+            for (int i = 0; i < height; i++) {
+                int r = dRow >= 0 ? i : height - 1 - i;
+                int base = r * width;
+                int source = r + dRow;
+                if (source < 0 || source >= height) {
+                    Arrays.fill(cells, base, base + width, 0f);
+                    continue;
+                }
+                System.arraycopy(cells, source * width + Math.max(0, dCol), cells, base + Math.max(0, -dCol), keep);
+                if (dCol > 0) {
+                    Arrays.fill(cells, base + keep, base + width, 0f);
+                } else if (dCol < 0) {
+                    Arrays.fill(cells, base, base - dCol, 0f);
+                }
+            }
+        }
+        projection.setOrigin(projection.toLat(-dRow * cellMeters), projection.toLon(dCol * cellMeters));
+
+        maxValue = 0f;
+        maxCell = -1;
+        for (int i = 0; i < cells.length; i++) {
+            if (cells[i] > maxValue) {
+                maxValue = cells[i];
+                maxCell = i;
+            }
+        }
+    }
+
+    private void renormalize() {
+        float scale = 1f / increment;
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] *= scale;
+        }
+        maxValue *= scale;
+        increment = 1f;
+    }
+
+    private int column(double east) {
+        return (int) Math.floor(east / cellMeters + width / 2.0);
+    }
+
+    private int row(double north) {
+        return (int) Math.floor(height / 2.0 - north / cellMeters);
+    }
+
+    private double cellEast(int column) {
+        return (column + 0.5 - width / 2.0) * cellMeters;
+    }
+
+    private double cellNorth(int row) {
+        return (height / 2.0 - row - 0.5) * cellMeters;
+    }
+
+    public synchronized boolean hasEstimate() {
+        return maxCell >= 0;
+    }
+
+    public synchronized double getMostLikelyLatitude() {
+        return projection.toLat(cellNorth(maxCell / width));
+    }
+
+    public synchronized double getMostLikelyLongitude() {
+        return projection.toLon(cellEast(maxCell % width));
+    }
+
+    // Bounds of the grid as {south, west, north, east} in degrees
+    public synchronized void getBounds(double[] out) {
+        out[0] = projection.toLat(-height / 2.0 * cellMeters);
+        out[1] = projection.toLon(-width / 2.0 * cellMeters);
+        out[2] = projection.toLat(height / 2.0 * cellMeters);
+        out[3] = projection.toLon(width / 2.0 * cellMeters);
+    }
+
+    // Heat map into an ARGB pixel buffer of width * height, relative to the current maximum
+    public synchronized void render(int[] argb, int rgb) {
+        float scale = maxValue > 0 ? 255f / maxValue : 0f;
+        int color = rgb & 0x00FFFFFF;
+        for (int i = 0; i < cells.length; i++) {
+            int alpha = (int) (cells[i] * scale);
+            argb[i] = (Math.min(alpha, 255) << 24) | color;
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public double getCellMeters() {
+        return cellMeters;
+    }
+
+    public synchronized int getUpdateCount() {
+        return updateCount;
+    }
+
+    public synchronized long getLastUpdateNanos() {
+        return lastUpdateNanos;
+    }
+
+    public synchronized int getLastTouchedCells() {
+        return lastTouchedCells;
+    }
+}
@@ -0,0 +1,89 @@
+package dev.nimrod.locafi.localization;
+
+// Ring of the most recent location fixes, keyed by elapsed-realtime microseconds (the
+// clock of ScanResult.timestamp). positionAt() binary-searches the two fixes around a
+// time and interpolates between them, so each AP is placed where the user was when it
+// was heard rather than where they were when the scan was processed.
+public class LocationHistory {
+    public static final int CAPACITY = 128;
+    // Fixes further apart than this are not interpolated; the user may have stopped or turned
+    private static final long MAX_GAP_US = 30 * 1000 * 1000L;
+    // How far a time may lie from the nearest fix and still be given that fix
+    private static final long MAX_HOLD_US = 10 * 1000 * 1000L;
+
+    private final long[] times = new long[CAPACITY];
+    private final double[] lats = new double[CAPACITY];
+    private final double[] lons = new double[CAPACITY];
+    private int head = 0;
+    private int count = 0;
+
+    // Fixes must arrive in time order; late or duplicate ones are ignored
+    public synchronized void add(long elapsedMicros, double lat, double lon) {
+        if (count > 0 && elapsedMicros <= times[index(count - 1)]) return;
+        int slot;
+        if (count == CAPACITY) {
+            slot = head;
+            head = (head + 1) % CAPACITY;
+        } else {
+            slot = index(count);
+            count++;
+        }
+        times[slot] = elapsedMicros;
+        lats[slot] = lat;
+        lons[slot] = lon;
+    }
+
+    // Writes {lat, lon} at the given time into out; false when no fix is close enough
+    public synchronized boolean positionAt(long elapsedMicros, double[] out) {
+        if (count == 0) return false;
+        // First fix later than the requested time
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (times[index(mid)] <= elapsedMicros) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (low == 0) {
+            return hold(index(0), elapsedMicros, out);
+        }
+        if (low == count) {
+            return hold(index(count - 1), elapsedMicros, out);
+        }
+        int before = index(low - 1);
+        int after = index(low);
+        long gap = times[after] - times[before];
+        // Across the antimeridian a straight blend of longitudes would be wrong
+        if (gap > MAX_GAP_US || Math.abs(lons[after] - lons[before]) > 180) {
+            int nearer = elapsedMicros - times[before] <= times[after] - elapsedMicros ? before : after;
+            return hold(nearer, elapsedMicros, out);
+        }
+        double fraction = (double) (elapsedMicros - times[before]) / gap;
+        out[0] = lats[before] + (lats[after] - lats[before]) * fraction;
+        out[1] = lons[before] + (lons[after] - lons[before]) * fraction;
+        return true;
+    }
+
+    private boolean hold(int slot, long elapsedMicros, double[] out) {
+        if (Math.abs(elapsedMicros - times[slot]) > MAX_HOLD_US) return false;
+        out[0] = lats[slot];
+        out[1] = lons[slot];
+        return true;
+    }
+
+    private int index(int i) {
+        return (head + i) % CAPACITY;
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    public synchronized void clear() {
+        head = 0;
+        count = 0;
+    }
+}
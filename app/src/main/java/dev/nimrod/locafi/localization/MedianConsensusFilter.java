@@ -0,0 +1,77 @@
+package dev.nimrod.locafi.localization;
+
+// Rejects APs whose distance from the coordinate-wise median position is far
+// beyond the range implied by their RSSI, using a MAD threshold on the residuals.
+public class MedianConsensusFilter implements OutlierFilter {
+    private static final double DEFAULT_MAD_SCALE = 3.0;
+    private static final double DEFAULT_MIN_TOLERANCE = 25.0; // meters
+
+    private final PathLossModel model;
+    private final double madScale;
+    private final double minTolerance;
+    private final GeoProjection projection = new GeoProjection();
+
+    private double[] x = new double[0];
+    private double[] y = new double[0];
+    private double[] residual = new double[0];
+    private double[] scratch = new double[0];
+
+    public MedianConsensusFilter() {
+        this(PathLossModel.DEFAULT, DEFAULT_MAD_SCALE, DEFAULT_MIN_TOLERANCE);
+    }
+
+    public MedianConsensusFilter(PathLossModel model, double madScale, double minTolerance) {
+        this.model = model;
+        this.madScale = madScale;
+        this.minTolerance = minTolerance;
+    }
+
+    @Override
+    public int filter(double[] lat, double[] lon, int[] rssi, int count, boolean[] keep) {
+        for (int i = 0; i < count; i++) keep[i] = true;
+        if (count < 3) {
+            return count;
+        }
+        ensureCapacity(count);
+
+        projection.setOrigin(lat[0], lon[0]);
+        for (int i = 0; i < count; i++) {
+            x[i] = projection.toEast(lon[i]);
+            y[i] = projection.toNorth(lat[i]);
+        }
+        System.arraycopy(x, 0, scratch, 0, count);
+        double medianX = Selection.median(scratch, count);
+        System.arraycopy(y, 0, scratch, 0, count);
+        double medianY = Selection.median(scratch, count);
+
+        // Only "farther than the signal allows" is suspicious; being closer is just attenuation
+        for (int i = 0; i < count; i++) {
+            double dx = x[i] - medianX;
+            double dy = y[i] - medianY;
+            residual[i] = Math.sqrt(dx * dx + dy * dy) - model.distanceMeters(rssi[i]);
+        }
+        System.arraycopy(residual, 0, scratch, 0, count);
+        double medianResidual = Selection.median(scratch, count);
+        for (int i = 0; i < count; i++) {
+            scratch[i] = Math.abs(residual[i] - medianResidual);
+        }
+        double mad = Selection.median(scratch, count);
+        double threshold = Math.max(minTolerance, medianResidual + madScale * 1.4826 * mad);
+
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            keep[i] = residual[i] <= threshold;
+            if (keep[i]) kept++;
+        }
+        return kept;
+    }
+
+    private void ensureCapacity(int count) {
+        if (x.length < count) {
+            x = new double[count];
+            y = new double[count];
+            residual = new double[count];
+            scratch = new double[count];
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package dev.nimrod.locafi.localization;
+
+// Pre-estimation stage that drops APs whose position disagrees with the rest of
+// the scan (moved routers, mobile hotspots). Implementations reuse their own
+// buffers and must not allocate per call.
+public interface OutlierFilter {
+    // Sets keep[i] for every AP that should reach the estimator and returns how many were kept
+    int filter(double[] lat, double[] lon, int[] rssi, int count, boolean[] keep);
+}
@@ -0,0 +1,414 @@
+package dev.nimrod.locafi.localization;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Sequential Monte Carlo localizer. Particles live in flat arrays in a local
+// east/north plane; the predict/weight pass, normalization and systematic
+// resampling run in fixed-size chunks on a ForkJoinPool. Not thread-safe:
+// call step() from one thread at a time.
+// Offline and benchmark use only: the app tracks with KalmanTracker, which costs one
+// solve per scan, and this is kept to compare estimators against it.
+public class ParticleFilter {
+    public static final int MIN_PARTICLES = 1_000;
+    public static final int MAX_PARTICLES = 100_000;
+    public static final int DEFAULT_PARTICLES = 5_000;
+
+    private static final int CHUNK_SIZE = 2048;
+    private static final double RSSI_NOISE_DB = 6.0;
+    private static final double MIN_MOTION_STD = 0.5;   // meters per step
+    private static final double WALKING_SPEED = 1.5;    // m/s
+    private static final double RESAMPLE_THRESHOLD = 0.5;
+
+    private final int particleCount;
+    private final int chunkCount;
+    private final ForkJoinPool pool;
+    private final PathLossModel model;
+    private final GeoProjection projection = new GeoProjection();
+    private final SplittableRandom[] chunkRandom;
+    private final double dbPerLn;
+
+    private double[] px;
+    private double[] py;
+    private double[] nextX;
+    private double[] nextY;
+    private final double[] weight;
+    private final double[] chunkMax;
+    private final double[] chunkSum;
+    private final double[] chunkSumSq;
+    private final double[] chunkMeanX;
+    private final double[] chunkMeanY;
+
+    private double[] apX = new double[0];
+    private double[] apY = new double[0];
+    private double[] apLnRange = new double[0];
+    private int apCount;
+
+    private boolean initialized = false;
+    private double motionStd;
+    private double maxLogWeight;
+    private double resampleOffset;
+    private double weightTotal;
+    private final double[] centroid = new double[2];
+
+    private double estimateX;
+    private double estimateY;
+    private double effectiveSampleSize;
+    private boolean lastResampled;
+
+    private long lastWeightNanos;
+    private long lastNormalizeNanos;
+    private long lastResampleNanos;
+    private long lastStepNanos;
+
+    private final ChunkBody weightPass = this::weightChunk;
+    private final ChunkBody normalizePass = this::normalizeChunk;
+    private final ChunkBody cumulativePass = this::cumulativeChunk;
+    private final ChunkBody resamplePass = this::resampleChunk;
+
+    public ParticleFilter() {
+        this(DEFAULT_PARTICLES, PathLossModel.DEFAULT, ForkJoinPool.commonPool(), System.nanoTime());
+    }
+
+    public ParticleFilter(int particleCount, PathLossModel model, ForkJoinPool pool, long seed) {
+        if (particleCount < MIN_PARTICLES || particleCount > MAX_PARTICLES) {
+            throw new IllegalArgumentException("Particle count must be between "
+                    + MIN_PARTICLES + " and " + MAX_PARTICLES + ": " + particleCount);
+        }
+        this.particleCount = particleCount;
+        this.chunkCount = (particleCount + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        this.pool = pool;
+        this.model = model;
+        this.dbPerLn = 10.0 * model.getExponent() / Math.log(10.0);
+
+        px = new double[particleCount];
+        py = new double[particleCount];
+        nextX = new double[particleCount];
+        nextY = new double[particleCount];
+        weight = new double[particleCount];
+        chunkMax = new double[chunkCount];
+        chunkSum = new double[chunkCount];
+        chunkSumSq = new double[chunkCount];
+        chunkMeanX = new double[chunkCount];
+        chunkMeanY = new double[chunkCount];
+
+        SplittableRandom root = new SplittableRandom(seed);
+        chunkRandom = new SplittableRandom[chunkCount];
+        for (int c = 0; c < chunkCount; c++) {
+            chunkRandom[c] = root.split();
+        }
+    }
+
+    public int getParticleCount() {
+        return particleCount;
+    }
+
+    public void reset() {
+        initialized = false;
+    }
+
+    // Spreads particles uniformly over a disc around the given point
+    public void initialize(double lat, double lon, double radiusMeters) {
+        projection.setOrigin(lat, lon);
+        SplittableRandom random = chunkRandom[0];
+        double uniform = 1.0 / particleCount;
+        for (int i = 0; i < particleCount; i++) {
+            double r = radiusMeters * Math.sqrt(random.nextDouble());
+            double theta = 2 * Math.PI * random.nextDouble();
+            px[i] = r * Math.cos(theta);
+            py[i] = r * Math.sin(theta);
+            weight[i] = uniform;
+        }
+        estimateX = 0;
+        estimateY = 0;
+        initialized = true;
+    }
+
+    // One predict/update/resample cycle for the APs heard in a scan
+    public boolean step(double[] lat, double[] lon, int[] rssi, int count, double dtSeconds) {
+        if (count <= 0) {
+            return false;
+        }
+        long start = System.nanoTime();
+
+        if (!initialized) {
+            WeightedCentroid.compute(lat, lon, rssi, count, centroid);
+            double radius = 0;
+            for (int i = 0; i < count; i++) {
+                radius = Math.max(radius, model.distanceMeters(rssi[i]));
+            }
+            initialize(centroid[0], centroid[1], radius);
+        }
+
+        loadAccessPoints(lat, lon, rssi, count);
+        motionStd = Math.max(MIN_MOTION_STD, WALKING_SPEED * Math.max(dtSeconds, 0));
+
+        runChunks(weightPass);
+        maxLogWeight = Double.NEGATIVE_INFINITY;
+        for (int c = 0; c < chunkCount; c++) {
+            maxLogWeight = Math.max(maxLogWeight, chunkMax[c]);
+        }
+        long weighted = System.nanoTime();
+
+        runChunks(normalizePass);
+        double total = 0;
+        for (int c = 0; c < chunkCount; c++) {
+            total += chunkSum[c];
+        }
+        if (!(total > 0)) {
+            // Degenerate likelihood: keep the previous cloud (the moved positions were only
+            // written to nextX/nextY) with uniform weights, so the next step starts clean
+            double uniform = 1.0 / particleCount;
+            for (int i = 0; i < particleCount; i++) {
+                weight[i] = uniform;
+            }
+            lastWeightNanos = weighted - start;
+            lastNormalizeNanos = System.nanoTime() - weighted;
+            lastResampleNanos = 0;
+            lastStepNanos = System.nanoTime() - start;
+            return false;
+        }
+        double meanX = 0, meanY = 0, sumSq = 0;
+        for (int c = 0; c < chunkCount; c++) {
+            meanX += chunkMeanX[c];
+            meanY += chunkMeanY[c];
+            sumSq += chunkSumSq[c];
+        }
+        // Accept the moved cloud; nextX/nextY become scratch for resampling
+        double[] movedX = nextX;
+        double[] movedY = nextY;
+        nextX = px;
+        nextY = py;
+        px = movedX;
+        py = movedY;
+        estimateX = meanX / total;
+        estimateY = meanY / total;
+        effectiveSampleSize = total * total / sumSq;
+        long normalized = System.nanoTime();
+
+        lastResampled = effectiveSampleSize < RESAMPLE_THRESHOLD * particleCount;
+        if (lastResampled) {
+            // Running offsets turn per-chunk sums into a global cumulative distribution
+            weightTotal = total;
+            double running = 0;
+            for (int c = 0; c < chunkCount; c++) {
+                double sum = chunkSum[c];
+                chunkSum[c] = running;
+                running += sum;
+            }
+            runChunks(cumulativePass);
+            resampleOffset = chunkRandom[0].nextDouble() / particleCount;
+            runChunks(resamplePass);
+            double[] swapX = px;
+            double[] swapY = py;
+            px = nextX;
+            py = nextY;
+            nextX = swapX;
+            nextY = swapY;
+            double uniform = 1.0 / particleCount;
+            for (int i = 0; i < particleCount; i++) {
+                weight[i] = uniform;
+            }
+        } else {
+            for (int i = 0; i < particleCount; i++) {
+                weight[i] /= total;
+            }
+        }
+        long end = System.nanoTime();
+
+        lastWeightNanos = weighted - start;
+        lastNormalizeNanos = normalized - weighted;
+        lastResampleNanos = end - normalized;
+        lastStepNanos = end - start;
+        return true;
+    }
+
+    private void loadAccessPoints(double[] lat, double[] lon, int[] rssi, int count) {
+        if (apX.length < count) {
+            apX = new double[count];
+            apY = new double[count];
+            apLnRange = new double[count];
+        }
+        for (int i = 0; i < count; i++) {
+            apX[i] = projection.toEast(lon[i]);
+            apY[i] = projection.toNorth(lat[i]);
+            apLnRange[i] = Math.log(model.distanceMeters(rssi[i]));
+        }
+        apCount = count;
+    }
+
+    // Moves each particle by the motion model into nextX/nextY and stores its
+    // log-likelihood in weight[]; px/py still hold the previous cloud afterwards
+    private void weightChunk(int chunk) {
+        int from = chunk * CHUNK_SIZE;
+        int to = Math.min(from + CHUNK_SIZE, particleCount);
+        SplittableRandom random = chunkRandom[chunk];
+        double inv2Var = 1.0 / (2 * RSSI_NOISE_DB * RSSI_NOISE_DB);
+        double max = Double.NEGATIVE_INFINITY;
+
+        for (int i = from; i < to; i++) {
+            // Box-Muller pair for the 2D random walk
+            double u1 = 1.0 - random.nextDouble();
+            double u2 = random.nextDouble();
+            double mag = motionStd * Math.sqrt(-2 * Math.log(u1));
+            double x = px[i] + mag * Math.cos(2 * Math.PI * u2);
+            double y = py[i] + mag * Math.sin(2 * Math.PI * u2);
+            nextX[i] = x;
+            nextY[i] = y;
+
+            double logLikelihood = Math.log(weight[i]);
+            for (int a = 0; a < apCount; a++) {
+                double dx = x - apX[a];
+                double dy = y - apY[a];
+                double d2 = Math.max(dx * dx + dy * dy, 1.0);
+                // Residual in dB between expected and observed path loss
+                double residual = dbPerLn * (0.5 * Math.log(d2) - apLnRange[a]);
+                logLikelihood -= residual * residual * inv2Var;
+            }
+            weight[i] = logLikelihood;
+            if (logLikelihood > max) max = logLikelihood;
+        }
+        chunkMax[chunk] = max;
+    }
+
+    private void normalizeChunk(int chunk) {
+        int from = chunk * CHUNK_SIZE;
+        int to = Math.min(from + CHUNK_SIZE, particleCount);
+        double sum = 0, sumSq = 0, mx = 0, my = 0;
+        for (int i = from; i < to; i++) {
+            double w = Math.exp(weight[i] - maxLogWeight);
+            weight[i] = w;
+            sum += w;
+            sumSq += w * w;
+            mx += w * nextX[i];
+            my += w * nextY[i];
+        }
+        chunkSum[chunk] = sum;
+        chunkSumSq[chunk] = sumSq;
+        chunkMeanX[chunk] = mx;
+        chunkMeanY[chunk] = my;
+    }
+
+    // weight[] becomes the normalized inclusive cumulative distribution
+    private void cumulativeChunk(int chunk) {
+        int from = chunk * CHUNK_SIZE;
+        int to = Math.min(from + CHUNK_SIZE, particleCount);
+        double total = weightTotal;
+        double running = chunkSum[chunk];
+        for (int i = from; i < to; i++) {
+            running += weight[i];
+            weight[i] = running / total;
+        }
+    }
+
+    // Systematic resampling: output slot i takes the particle whose CDF covers (i + u) / N
+    private void resampleChunk(int chunk) {
+        int from = chunk * CHUNK_SIZE;
+        int to = Math.min(from + CHUNK_SIZE, particleCount);
+        double step = 1.0 / particleCount;
+        double target = resampleOffset + from * step;
+        int source = lowerBound(target);
+        for (int i = from; i < to; i++) {
+            while (source < particleCount - 1 && weight[source] < target) {
+                source++;
+            }
+            nextX[i] = px[source];
+            nextY[i] = py[source];
+            target += step;
+        }
+    }
+
+    private int lowerBound(double target) {
+        int lo = 0;
+        int hi = particleCount - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (weight[mid] < target) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private void runChunks(ChunkBody body) {
+        if (chunkCount == 1) {
+            body.run(0);
+        } else {
+            pool.invoke(new ChunkTask(body, 0, chunkCount));
+        }
+    }
+
+    public boolean hasEstimate() {
+        return initialized;
+    }
+
+    public double getLatitude() {
+        return projection.toLat(estimateY);
+    }
+
+    public double getLongitude() {
+        return projection.toLon(estimateX);
+    }
+
+    public double getEffectiveSampleSize() {
+        return effectiveSampleSize;
+    }
+
+    public boolean wasLastStepResampled() {
+        return lastResampled;
+    }
+
+    public long getLastWeightNanos() {
+        return lastWeightNanos;
+    }
+
+    public long getLastNormalizeNanos() {
+        return lastNormalizeNanos;
+    }
+
+    public long getLastResampleNanos() {
+        return lastResampleNanos;
+    }
+
+    public long getLastStepNanos() {
+        return lastStepNanos;
+    }
+
+    public String getTimingSummary() {
+        return String.format(java.util.Locale.US,
+                "particles=%d aps=%d step=%.2fms (weight=%.2f normalize=%.2f resample=%.2f) ess=%.0f",
+                particleCount, apCount, lastStepNanos / 1e6, lastWeightNanos / 1e6,
+                lastNormalizeNanos / 1e6, lastResampleNanos / 1e6, effectiveSampleSize);
+    }
+
+    private interface ChunkBody {
+        void run(int chunk);
+    }
+
+    private static final class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final ChunkBody body;
+        private final int from;
+        private final int to;
+
+        ChunkTask(ChunkBody body, int from, int to) {
+            this.body = body;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                body.run(from);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new ChunkTask(body, from, mid), new ChunkTask(body, mid, to));
+        }
+    }
+}
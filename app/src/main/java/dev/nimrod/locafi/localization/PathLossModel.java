@@ -0,0 +1,46 @@
+package dev.nimrod.locafi.localization;
+
+public final class PathLossModel {
+    // Typical indoor 2.4/5 GHz values: RSSI measured at 1 m and the log-distance exponent
+    public static final double DEFAULT_REFERENCE_RSSI = -40.0;
+    public static final double DEFAULT_PATH_LOSS_EXPONENT = 2.7;
+    private static final double MIN_DISTANCE = 1.0;
+    private static final double MAX_DISTANCE = 500.0;
+
+    public static final PathLossModel DEFAULT =
+            new PathLossModel(DEFAULT_REFERENCE_RSSI, DEFAULT_PATH_LOSS_EXPONENT);
+
+    private final double referenceRssi;
+    private final double exponent;
+    private final double lnScale;
+
+    public PathLossModel(double referenceRssi, double exponent) {
+        if (exponent <= 0) {
+            throw new IllegalArgumentException("Path-loss exponent must be positive: " + exponent);
+        }
+        this.referenceRssi = referenceRssi;
+        this.exponent = exponent;
+        // 10^((ref - rssi) / (10 n)) == exp((ref - rssi) * ln(10) / (10 n))
+        this.lnScale = Math.log(10.0) / (10.0 * exponent);
+    }
+
+    public double getReferenceRssi() {
+        return referenceRssi;
+    }
+
+    public double getExponent() {
+        return exponent;
+    }
+
+    public double distanceMeters(double rssi) {
+        double distance = Math.exp((referenceRssi - rssi) * lnScale);
+        if (distance < MIN_DISTANCE) return MIN_DISTANCE;
+        if (distance > MAX_DISTANCE) return MAX_DISTANCE;
+        return distance;
+    }
+
+    public double expectedRssi(double distanceMeters) {
+        double distance = Math.max(distanceMeters, MIN_DISTANCE);
+        return referenceRssi - 10.0 * exponent * Math.log10(distance);
+    }
+}
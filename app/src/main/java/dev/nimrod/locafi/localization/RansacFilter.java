@@ -0,0 +1,134 @@
+package dev.nimrod.locafi.localization;
+
+import java.util.SplittableRandom;
+
+// Bounded-iteration RANSAC: each hypothesis is the weighted centroid of a small
+// random AP sample, and an AP is an inlier when its distance to the hypothesis
+// matches its path-loss range within tolerance. The largest consensus set wins.
+// Offline only, selectable in BatchLocalizer: the live paths use MedianConsensusFilter,
+// which is deterministic and needs no iterations.
+public class RansacFilter implements OutlierFilter {
+    private static final int DEFAULT_ITERATIONS = 32;
+    private static final int SAMPLE_SIZE = 3;
+    private static final double DEFAULT_MIN_TOLERANCE = 15.0;  // meters
+    private static final double RELATIVE_TOLERANCE = 0.75;     // fraction of the expected range
+
+    private final PathLossModel model;
+    private final int iterations;
+    private final double minTolerance;
+    private final SplittableRandom random;
+    private final GeoProjection projection = new GeoProjection();
+
+    private double[] x = new double[0];
+    private double[] y = new double[0];
+    private double[] range = new double[0];
+    private double[] tolerance = new double[0];
+    private double[] weight = new double[0];
+    private final int[] sample = new int[SAMPLE_SIZE];
+
+    public RansacFilter() {
+        this(PathLossModel.DEFAULT, DEFAULT_ITERATIONS, DEFAULT_MIN_TOLERANCE, 0x5EEDL);
+    }
+
+    public RansacFilter(PathLossModel model, int iterations, double minTolerance, long seed) {
+        this.model = model;
+        this.iterations = iterations;
+        this.minTolerance = minTolerance;
+        this.random = new SplittableRandom(seed);
+    }
+
+    @Override
+    public int filter(double[] lat, double[] lon, int[] rssi, int count, boolean[] keep) {
+        for (int i = 0; i < count; i++) keep[i] = true;
+        if (count <= SAMPLE_SIZE) {
+            return count;
+        }
+        ensureCapacity(count);
+
+        projection.setOrigin(lat[0], lon[0]);
+        for (int i = 0; i < count; i++) {
+            x[i] = projection.toEast(lon[i]);
+            y[i] = projection.toNorth(lat[i]);
+            range[i] = model.distanceMeters(rssi[i]);
+            tolerance[i] = Math.max(minTolerance, RELATIVE_TOLERANCE * range[i]);
+            weight[i] = Math.max(WeightedCentroid.weight(rssi[i]), 1e-3);
+        }
+
+        int bestInliers = -1;
+        double bestX = 0, bestY = 0, bestError = Double.MAX_VALUE;
+        for (int iter = 0; iter < iterations; iter++) {
+            drawSample(count);
+            double hx = 0, hy = 0, w = 0;
+            for (int s = 0; s < SAMPLE_SIZE; s++) {
+                int i = sample[s];
+                hx += x[i] * weight[i];
+                hy += y[i] * weight[i];
+                w += weight[i];
+            }
+            hx /= w;
+            hy /= w;
+
+            int inliers = 0;
+            double error = 0;
+            for (int i = 0; i < count; i++) {
+                double dx = x[i] - hx;
+                double dy = y[i] - hy;
+                double r = Math.abs(Math.sqrt(dx * dx + dy * dy) - range[i]);
+                if (r <= tolerance[i]) {
+                    inliers++;
+                    error += r;
+                }
+            }
+            if (inliers > bestInliers || (inliers == bestInliers && error < bestError)) {
+                bestInliers = inliers;
+                bestError = error;
+                bestX = hx;
+                bestY = hy;
+                if (inliers == count) break;
+            }
+        }
+
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            double dx = x[i] - bestX;
+            double dy = y[i] - bestY;
+            keep[i] = Math.abs(Math.sqrt(dx * dx + dy * dy) - range[i]) <= tolerance[i];
+            if (keep[i]) kept++;
+        }
+        if (kept == 0) {
+            // No consensus at all; let the estimator see everything rather than nothing
+            for (int i = 0; i < count; i++) keep[i] = true;
+            return count;
+        }
+        return kept;
+    }
+
+    // Distinct indices without allocation; SAMPLE_SIZE is tiny so rejection is cheap
+    private void drawSample(int count) {
+        for (int s = 0; s < SAMPLE_SIZE; s++) {
+            int candidate;
+            boolean duplicate;
+            do {
+                candidate = random.nextInt(count);
+                duplicate = false;
+                for (int t = 0; t < s; t++) {
+                    if (sample[t] == candidate) {
+                        duplicate = true;
+                        break;
+                    }
+                }
+            } while (duplicate);
+            sample[s] = candidate;
+        }
+    }
+
+    private void ensureCapacity(int count) {
+        if (x.length < count) {
+            x = new double[count];
+            y = new double[count];
+            range = new double[count];
+            tolerance = new double[count];
+            weight = new double[count];
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package dev.nimrod.locafi.localization;
+
+import java.util.List;
+
+import dev.nimrod.locafi.models.WiFiDevice;
+import dev.nimrod.locafi.utils.BssidUtils;
+
+// Reusable buffers for joining one live scan against an AccessPointTable.
+// Only the APs on air right now reach the estimator. Not thread-safe.
+public class ScanJoin {
+    private long[] scanBssid = new long[64];
+    private int[] scanRssi = new int[64];
+
+    private long[] bssid = new long[64];
+    private double[] latitude = new double[64];
+    private double[] longitude = new double[64];
+    private int[] rssi = new int[64];
+    private boolean[] keep = new boolean[64];
+    private long[] rejected = new long[64];
+    private int scanCount;
+    private int count;
+    private int rejectedCount;
+
+    public int join(List<WiFiDevice> scan, AccessPointTable table) {
+        ensureCapacity(scan.size());
+        int n = 0;
+        for (WiFiDevice device : scan) {
+            long key = BssidUtils.toLong(device.getBssid());
+            if (key == BssidUtils.INVALID) continue;
+            scanBssid[n] = key;
+            scanRssi[n] = device.getSignalStrength();
+            n++;
+        }
+        return join(scanBssid, scanRssi, n, table);
+    }
+
+    public int join(long[] keys, int[] levels, int n, AccessPointTable table) {
+        ensureCapacity(n);
+        scanCount = n;
+        rejectedCount = 0;
+        count = table.join(keys, levels, n, bssid, latitude, longitude, rssi);
+        return count;
+    }
+
+    // Runs the filter over the joined set and compacts it in place, remembering what was dropped
+    public int applyFilter(OutlierFilter filter) {
+        if (filter == null || count == 0) {
+            return count;
+        }
+        filter.filter(latitude, longitude, rssi, count, keep);
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (keep[i]) {
+                bssid[kept] = bssid[i];
+                latitude[kept] = latitude[i];
+                longitude[kept] = longitude[i];
+                rssi[kept] = rssi[i];
+                kept++;
+            } else {
+                rejected[rejectedCount++] = bssid[i];
+            }
+        }
+        count = kept;
+        return count;
+    }
+
+    private void ensureCapacity(int n) {
+        if (scanBssid.length < n) {
+            scanBssid = new long[n];
+            scanRssi = new int[n];
+        }
+        if (bssid.length < n) {
+            bssid = new long[n];
+            latitude = new double[n];
+            longitude = new double[n];
+            rssi = new int[n];
+            keep = new boolean[n];
+            rejected = new long[n];
+        }
+    }
+
+    // Visible APs in the last scan, matched or not
+    public int getScanCount() {
+        return scanCount;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getRejectedCount() {
+        return rejectedCount;
+    }
+
+    // BSSIDs dropped by the last applyFilter(), valid up to getRejectedCount()
+    public long[] getRejectedBssids() {
+        return rejected;
+    }
+
+    public long[] getBssids() {
+        return bssid;
+    }
+
+    public double[] getLatitudes() {
+        return latitude;
+    }
+
+    public double[] getLongitudes() {
+        return longitude;
+    }
+
+    public int[] getRssi() {
+        return rssi;
+    }
+}
@@ -0,0 +1,82 @@
+package dev.nimrod.locafi.localization;
+
+import java.util.Arrays;
+
+// Columnar store of recorded scans: one row per scan (time + reference GPS fix)
+// and a flat array of (BSSID, RSSI) pairs addressed through per-scan offsets.
+// A million scans of ~20 APs fit in a couple of hundred megabytes.
+public class ScanSession {
+    private long[] timestamp = new long[1024];
+    private double[] gpsLat = new double[1024];
+    private double[] gpsLon = new double[1024];
+    private int[] offset = new int[1025];
+    private long[] bssid = new long[16 * 1024];
+    private byte[] rssi = new byte[16 * 1024];
+    private int scanCount;
+    private int entryCount;
+
+    public int addScan(long timestampMillis, double lat, double lon, long[] bssids, int[] levels, int count) {
+        if (scanCount == timestamp.length) {
+            int capacity = scanCount * 2;
+            timestamp = Arrays.copyOf(timestamp, capacity);
+            gpsLat = Arrays.copyOf(gpsLat, capacity);
+            gpsLon = Arrays.copyOf(gpsLon, capacity);
+            offset = Arrays.copyOf(offset, capacity + 1);
+        }
+        if (entryCount + count > bssid.length) {
+            int capacity = Math.max(bssid.length * 2, entryCount + count);
+            bssid = Arrays.copyOf(bssid, capacity);
+            rssi = Arrays.copyOf(rssi, capacity);
+        }
+        int scan = scanCount++;
+        timestamp[scan] = timestampMillis;
+        gpsLat[scan] = lat;
+        gpsLon[scan] = lon;
+        for (int i = 0; i < count; i++) {
+            bssid[entryCount] = bssids[i];
+            rssi[entryCount] = (byte) Math.max(-128, Math.min(0, levels[i]));
+            entryCount++;
+        }
+        offset[scan + 1] = entryCount;
+        return scan;
+    }
+
+    public int size() {
+        return scanCount;
+    }
+
+    public long getTimestamp(int scan) {
+        return timestamp[scan];
+    }
+
+    public double getGpsLatitude(int scan) {
+        return gpsLat[scan];
+    }
+
+    public double getGpsLongitude(int scan) {
+        return gpsLon[scan];
+    }
+
+    public int getApCount(int scan) {
+        return offset[scan + 1] - offset[scan];
+    }
+
+    // Copies the APs of one scan into the caller's buffers and returns how many there are
+    public int copyScan(int scan, long[] outBssid, int[] outRssi) {
+        int from = offset[scan];
+        int count = offset[scan + 1] - from;
+        System.arraycopy(bssid, from, outBssid, 0, count);
+        for (int i = 0; i < count; i++) {
+            outRssi[i] = rssi[from + i];
+        }
+        return count;
+    }
+
+    public int getMaxApCount() {
+        int max = 0;
+        for (int scan = 0; scan < scanCount; scan++) {
+            max = Math.max(max, offset[scan + 1] - offset[scan]);
+        }
+        return max;
+    }
+}
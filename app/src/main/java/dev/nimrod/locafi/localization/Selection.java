@@ -0,0 +1,51 @@
+package dev.nimrod.locafi.localization;
+
+// In-place quickselect helpers; the input prefix is reordered
+final class Selection {
+    private Selection() {
+    }
+
+    static double median(double[] values, int count) {
+        if (count == 0) return 0;
+        int mid = count / 2;
+        double upper = select(values, count, mid);
+        if ((count & 1) == 1) {
+            return upper;
+        }
+        // After selecting mid, the lower half holds everything <= upper
+        double lower = values[0];
+        for (int i = 1; i < mid; i++) {
+            if (values[i] > lower) lower = values[i];
+        }
+        return (lower + upper) / 2;
+    }
+
+    static double select(double[] values, int count, int k) {
+        int left = 0;
+        int right = count - 1;
+        while (left < right) {
+            double pivot = values[(left + right) >>> 1];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (values[i] < pivot) i++;
+                while (values[j] > pivot) j--;
+                if (i <= j) {
+                    double tmp = values[i];
+                    values[i] = values[j];
+                    values[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                break;
+            }
+        }
+        return values[k];
+    }
+}
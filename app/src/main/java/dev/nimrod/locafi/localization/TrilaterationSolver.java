@@ -0,0 +1,158 @@
+package dev.nimrod.locafi.localization;
+
+// Levenberg-Marquardt fit of one position to log-distance path-loss ranges.
+// Buffers grow to the largest AP set seen and are reused, so steady-state calls
+// do not allocate. Not thread-safe.
+public class TrilaterationSolver {
+    public static final int OUT_LAT = 0;
+    public static final int OUT_LON = 1;
+    public static final int OUT_RMS_ERROR = 2;
+    public static final int OUT_SIZE = 3;
+
+    private static final int MAX_ITERATIONS = 30;
+    private static final double CONVERGENCE_METERS = 1e-3;
+    private static final double INITIAL_LAMBDA = 1e-3;
+    private static final double MIN_RANGE = 1e-6;
+
+    private final PathLossModel model;
+    private final GeoProjection projection = new GeoProjection();
+    private final double[] centroid = new double[2];
+
+    private double[] x = new double[0];
+    private double[] y = new double[0];
+    private double[] range = new double[0];
+    private double[] weight = new double[0];
+
+    private int lastIterations;
+
+    public TrilaterationSolver() {
+        this(PathLossModel.DEFAULT);
+    }
+
+    public TrilaterationSolver(PathLossModel model) {
+        this.model = model;
+    }
+
+    public PathLossModel getModel() {
+        return model;
+    }
+
+    public int getLastIterations() {
+        return lastIterations;
+    }
+
+    public void ensureCapacity(int count) {
+        if (x.length < count) {
+            x = new double[count];
+            y = new double[count];
+            range = new double[count];
+            weight = new double[count];
+        }
+    }
+
+    // Writes {lat, lon, rms range error in meters} into out; returns false when count is 0
+    public boolean solve(double[] lat, double[] lon, int[] rssi, int count, double[] out) {
+        lastIterations = 0;
+        if (!WeightedCentroid.compute(lat, lon, rssi, count, centroid)) {
+            return false;
+        }
+        if (count == 1) {
+            out[OUT_LAT] = centroid[0];
+            out[OUT_LON] = centroid[1];
+            out[OUT_RMS_ERROR] = model.distanceMeters(rssi[0]);
+            return true;
+        }
+
+        ensureCapacity(count);
+        projection.setOrigin(centroid[0], centroid[1]);
+        for (int i = 0; i < count; i++) {
+            x[i] = projection.toEast(lon[i]);
+            y[i] = projection.toNorth(lat[i]);
+            double r = model.distanceMeters(rssi[i]);
+            range[i] = r;
+            // Range noise grows with distance, so trust near APs more
+            weight[i] = 1.0 / (r * r);
+        }
+
+        // Start from the centroid, which is the projection origin
+        double px = 0;
+        double py = 0;
+        double cost = cost(px, py, count);
+        double lambda = INITIAL_LAMBDA;
+
+        for (int iter = 0; iter < MAX_ITERATIONS; iter++) {
+            lastIterations = iter + 1;
+            double a00 = 0, a01 = 0, a11 = 0, g0 = 0, g1 = 0;
+            for (int i = 0; i < count; i++) {
+                double dx = px - x[i];
+                double dy = py - y[i];
+                double dist = Math.sqrt(dx * dx + dy * dy);
+                if (dist < MIN_RANGE) dist = MIN_RANGE;
+                double jx = dx / dist;
+                double jy = dy / dist;
+                double r = dist - range[i];
+                double w = weight[i];
+                a00 += w * jx * jx;
+                a01 += w * jx * jy;
+                a11 += w * jy * jy;
+                g0 += w * jx * r;
+                g1 += w * jy * r;
+            }
+
+            boolean improved = false;
+            double stepX = 0, stepY = 0;
+            while (!improved && lambda < 1e12) {
+                double d00 = a00 * (1 + lambda);
+                double d11 = a11 * (1 + lambda);
+                double det = d00 * d11 - a01 * a01;
+                if (Math.abs(det) < 1e-18) {
+                    lambda *= 10;
+                    continue;
+                }
+                stepX = -(d11 * g0 - a01 * g1) / det;
+                stepY = -(d00 * g1 - a01 * g0) / det;
+                double candidate = cost(px + stepX, py + stepY, count);
+                if (candidate < cost) {
+                    px += stepX;
+                    py += stepY;
+                    cost = candidate;
+                    lambda = Math.max(lambda / 10, 1e-12);
+                    improved = true;
+                } else {
+                    lambda *= 10;
+                }
+            }
+
+            if (!improved || Math.sqrt(stepX * stepX + stepY * stepY) < CONVERGENCE_METERS) {
+                break;
+            }
+        }
+
+        out[OUT_LAT] = projection.toLat(py);
+        out[OUT_LON] = projection.toLon(px);
+        out[OUT_RMS_ERROR] = rmsError(px, py, count);
+        return true;
+    }
+
+    private double cost(double px, double py, int count) {
+        double sum = 0;
+        for (int i = 0; i < count; i++) {
+            double dx = px - x[i];
+            double dy = py - y[i];
+            double r = Math.sqrt(dx * dx + dy * dy) - range[i];
+            sum += weight[i] * r * r;
+        }
+        return sum;
+    }
+
+    private double rmsError(double px, double py, int count) {
+        double sum = 0;
+        for (int i = 0; i < count; i++) {
+            double dx = px - x[i];
+            double dy = py - y[i];
+            double r = Math.sqrt(dx * dx + dy * dy) - range[i];
+            sum += r * r;
+        }
+        return Math.sqrt(sum / count);
+    }
+}
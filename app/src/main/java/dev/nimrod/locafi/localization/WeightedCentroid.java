@@ -0,0 +1,51 @@
+package dev.nimrod.locafi.localization;
+
+public final class WeightedCentroid {
+    public static final int MIN_SIGNAL = -100; // Minimum signal strength in dBm
+
+    private WeightedCentroid() {
+    }
+
+    public static double weight(int signalStrength) {
+        // Normalize signal strength to 0-1 range and square it to emphasize stronger signals
+        double normalized = (double) (signalStrength - MIN_SIGNAL) / -MIN_SIGNAL;
+        return normalized * normalized;
+    }
+
+    // Writes {lat, lon} into out; returns false when there is nothing to average
+    public static boolean compute(double[] lat, double[] lon, int[] rssi, int count, double[] out) {
+        if (count <= 0) {
+            return false;
+        }
+        if (count == 1) {
+            out[0] = lat[0];
+            out[1] = lon[0];
+            return true;
+        }
+
+        double totalWeight = 0;
+        double weightedLat = 0;
+        double weightedLon = 0;
+        for (int i = 0; i < count; i++) {
+            double w = weight(rssi[i]);
+            weightedLat += lat[i] * w;
+            weightedLon += lon[i] * w;
+            totalWeight += w;
+        }
+
+        if (totalWeight <= 0) {
+            // Every AP at or below the noise floor: fall back to the plain mean
+            weightedLat = 0;
+            weightedLon = 0;
+            for (int i = 0; i < count; i++) {
+                weightedLat += lat[i];
+                weightedLon += lon[i];
+            }
+            totalWeight = count;
+        }
+
+        out[0] = weightedLat / totalWeight;
+        out[1] = weightedLon / totalWeight;
+        return true;
+    }
+}
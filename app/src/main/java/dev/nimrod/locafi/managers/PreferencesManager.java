@@ -8,6 +8,16 @@ public class PreferencesManager {
     private static final String KEY_FIRST_TIME_PERMISSION = "first_time_permission";
     private static final String KEY_LOCATION_ENABLED = "location_enabled";
     private static final String KEY_PERMISSION_STATE = "permission_state";
+    private static final String KEY_ESTIMATION_MODE = "estimation_mode";
+    private static final String KEY_STORAGE_LAYOUT = "storage_layout";
+    private static final String KEY_DEVICE_TTL_DAYS = "device_ttl_days";
+    private static final String KEY_LAST_COMPACTION = "last_compaction";
+    private static final String KEY_PASSIVE_SCANNING = "passive_scanning";
+    public static final int DEFAULT_DEVICE_TTL_DAYS = 90;
+    // 1: flat wifiDevices/{bssid}, 2: geohash-sharded wifiCells/{cell}/{bssid},
+    // 3: cells plus the wifiTimeIndex used for paging
+    public static final int STORAGE_LAYOUT_CELLS = 2;
+    public static final int STORAGE_LAYOUT_TIME_INDEX = 3;
 
     public static boolean isFirstTimePermissionRequest(Context context) {
         SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
@@ -38,4 +48,56 @@ public class PreferencesManager {
         SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
         return prefs.getString(KEY_PERMISSION_STATE, "NA");
     }
-}
\ No newline at end of file
+
+    public static void setEstimationMode(Context context, String mode) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        prefs.edit().putString(KEY_ESTIMATION_MODE, mode).apply();
+    }
+
+    public static String getEstimationMode(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        return prefs.getString(KEY_ESTIMATION_MODE, "WEIGHTED_CENTROID");
+    }
+
+    public static void setStorageLayout(Context context, int layout) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        prefs.edit().putInt(KEY_STORAGE_LAYOUT, layout).apply();
+    }
+
+    public static int getStorageLayout(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        return prefs.getInt(KEY_STORAGE_LAYOUT, 1);
+    }
+
+    // Devices not seen for this many days are evicted by the compaction job
+    public static void setDeviceTtlDays(Context context, int days) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        prefs.edit().putInt(KEY_DEVICE_TTL_DAYS, days).apply();
+    }
+
+    public static int getDeviceTtlDays(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        return prefs.getInt(KEY_DEVICE_TTL_DAYS, DEFAULT_DEVICE_TTL_DAYS);
+    }
+
+    public static void setLastCompactionTime(Context context, long time) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        prefs.edit().putLong(KEY_LAST_COMPACTION, time).apply();
+    }
+
+    public static long getLastCompactionTime(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        return prefs.getLong(KEY_LAST_COMPACTION, 0);
+    }
+
+    // Passive: never start scans, only harvest the ones the system or other apps run
+    public static void setPassiveScanning(Context context, boolean passive) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        prefs.edit().putBoolean(KEY_PASSIVE_SCANNING, passive).apply();
+    }
+
+    public static boolean isPassiveScanning(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        return prefs.getBoolean(KEY_PASSIVE_SCANNING, false);
+    }
+}
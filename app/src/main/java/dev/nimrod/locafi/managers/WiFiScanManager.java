@@ -8,26 +8,46 @@ import android.content.pm.PackageManager;
 import android.location.Location;
 import android.net.wifi.ScanResult;
 import android.net.wifi.WifiManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.core.app.ActivityCompat;
 
 import com.google.android.gms.location.FusedLocationProviderClient;
+import com.google.android.gms.location.LocationCallback;
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.LocationResult;
 import com.google.android.gms.location.LocationServices;
+import com.google.android.gms.location.Priority;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
+import dev.nimrod.locafi.localization.LocationHistory;
 import dev.nimrod.locafi.models.WiFiDevice;
 
 public class WiFiScanManager {
+    // Fix rate follows the scan rate: a few fixes per scan interval keep every scan
+    // between two fixes close enough to interpolate, without a 2 s high-accuracy stream
+    // while the scheduler has backed off
+    private static final int FIXES_PER_SCAN_INTERVAL = 4;
+    private static final long MIN_LOCATION_INTERVAL_MS = 2000;
+    // Half of LocationHistory's interpolation gap
+    private static final long MAX_LOCATION_INTERVAL_MS = 15000;
 
     private final Context context;
     private final WifiManager wifiManager;
     private final FusedLocationProviderClient fusedLocationClient;
 
-    private ScanCallback callback;
-    private BroadcastReceiver wifiScanReceiver;
+    private BroadcastReceiver resultsListenerReceiver;
+    private final LocationHistory locationHistory = new LocationHistory();
+    private LocationCallback locationCallback;
+    private Looper locationLooper;
+    private int locationPriority;
+    private long locationIntervalMs;
 
     public WiFiScanManager(Context context) {
         this.context = context.getApplicationContext();
@@ -46,104 +66,163 @@ public class WiFiScanManager {
         return true;
     }
 
-    public void startScan(ScanCallback callback) {
-        this.callback = callback;
-
-        if (!hasRequiredPermissions(context)) {
-            Log.e("WiFiScanManager", "Cannot start scan - missing permissions");
-            if (callback != null) {
-                callback.onScanResults(new ArrayList<>()); // Return empty list if no permissions
-            }
-            return;
-        }
-
-        if (!isWifiEnabled()) {
-            Log.e("WiFiScanManager", "Cannot start scan - WiFi is disabled");
-            if (callback != null) {
-                callback.onScanResults(new ArrayList<>()); // Return empty list if WiFi is disabled
-            }
-            return;
-        }
+    public boolean isWifiEnabled() {
+        return wifiManager != null && wifiManager.isWifiEnabled();
+    }
 
-        registerWifiScanReceiver();
-        beginScanCycle();
+    // Whether a scan request could be made at all; requestScan() refusing while this
+    // holds means the system throttled it
+    public boolean canRequestScan() {
+        return hasRequiredPermissions(context) && isWifiEnabled();
     }
-    private void beginScanCycle() {
-        if (wifiManager != null) {
-            wifiManager.startScan();
+
+    // Asks the system for a scan; results arrive through the listener registered below.
+    // False when the request was refused, typically by the scan throttle.
+    public boolean requestScan() {
+        if (!canRequestScan()) {
+            return false;
         }
-        // The BroadcastReceiver will handle the results
+        return wifiManager.startScan();
     }
 
-    public void stopScan() {
-        unregisterWifiScanReceiver();
-    }
-    public boolean isWifiEnabled() {
-        return wifiManager != null && wifiManager.isWifiEnabled();
+    // Delivers scan-results broadcasts on the handler's thread instead of the main thread.
+    // The broadcast also fires for scans started by the system or other apps, and with
+    // updated == false when a scan failed and only the old cached results are available.
+    public void setScanResultsListener(ScanResultsListener listener, Handler handler) {
+        clearScanResultsListener();
+        resultsListenerReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, android.content.Intent intent) {
+                listener.onScanResultsAvailable(
+                        intent.getBooleanExtra(WifiManager.EXTRA_RESULTS_UPDATED, false));
+            }
+        };
+        context.registerReceiver(resultsListenerReceiver,
+                new IntentFilter(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION), null, handler);
     }
 
-    private void registerWifiScanReceiver() {
-        if (wifiScanReceiver == null) {
-            wifiScanReceiver = new BroadcastReceiver() {
-                @Override
-                public void onReceive(Context context, android.content.Intent intent) {
-                    getCurrentLocationAndScanWifi();
-                }
-            };
-            context.registerReceiver(wifiScanReceiver,
-                    new IntentFilter(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION));
+    public void clearScanResultsListener() {
+        if (resultsListenerReceiver != null) {
+            context.unregisterReceiver(resultsListenerReceiver);
+            resultsListenerReceiver = null;
         }
     }
 
-    private void unregisterWifiScanReceiver() {
-        if (wifiScanReceiver != null) {
-            context.unregisterReceiver(wifiScanReceiver);
-            wifiScanReceiver = null;
+    // Raw results of the most recent system scan; a binder call, so keep it off the main thread
+    public List<ScanResult> readScanResults() {
+        if (wifiManager == null || ActivityCompat.checkSelfPermission(context,
+                Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
+            return Collections.emptyList();
         }
+        List<ScanResult> scanResults = wifiManager.getScanResults();
+        return scanResults != null ? scanResults : Collections.emptyList();
     }
 
-    private void getCurrentLocationAndScanWifi() {
-        if (ActivityCompat.checkSelfPermission(context,
+    // Streams fused fixes into the location history on the looper's thread, so scan
+    // results can be placed without asking for a location per scan. See setLocationMode
+    // for how passive and scanIntervalMs set the request.
+    public synchronized void startLocationUpdates(Looper looper, boolean passive, long scanIntervalMs) {
+        if (locationCallback != null || ActivityCompat.checkSelfPermission(context,
                 Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
             return;
         }
-
-        fusedLocationClient.getLastLocation()
-                .addOnSuccessListener(location -> {
-                    if (location != null) {
-                        processScanResults(location);
-                    }
-                });
+        locationLooper = looper;
+        locationCallback = new LocationCallback() {
+            @Override
+            public void onLocationResult(LocationResult locationResult) {
+                if (locationResult == null) return;
+                for (Location location : locationResult.getLocations()) {
+                    addFix(location);
+                }
+            }
+        };
+        locationIntervalMs = -1;
+        setLocationMode(passive, scanIntervalMs);
+        // Seeds the history so results cached before the first update can still be placed
+        fusedLocationClient.getLastLocation().addOnSuccessListener(location -> {
+            if (location != null) {
+                addFix(location);
+            }
+        });
     }
 
-    private void processScanResults(Location location) {
-        if (ActivityCompat.checkSelfPermission(context,
+    // Active scanning gets high-accuracy fixes a few times per scan interval. Passive mode
+    // only harvests other apps' scans, so it settles for balanced power at the longest
+    // interval that still interpolates. A request that would not change is not resent.
+    public synchronized void setLocationMode(boolean passive, long scanIntervalMs) {
+        if (locationCallback == null || ActivityCompat.checkSelfPermission(context,
                 Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
             return;
         }
+        int priority = passive ? Priority.PRIORITY_BALANCED_POWER_ACCURACY : Priority.PRIORITY_HIGH_ACCURACY;
+        long intervalMs = passive ? MAX_LOCATION_INTERVAL_MS : Math.max(MIN_LOCATION_INTERVAL_MS,
+                Math.min(MAX_LOCATION_INTERVAL_MS, scanIntervalMs / FIXES_PER_SCAN_INTERVAL));
+        if (priority == locationPriority && intervalMs == locationIntervalMs) return;
+        locationPriority = priority;
+        locationIntervalMs = intervalMs;
+        // Re-requesting with the same callback replaces the previous request
+        fusedLocationClient.requestLocationUpdates(new LocationRequest.Builder(intervalMs)
+                .setPriority(priority)
+                .setMinUpdateIntervalMillis(intervalMs / 2)
+                .build(), locationCallback, locationLooper);
+    }
 
-        List<ScanResult> scanResults = wifiManager.getScanResults();
+    public synchronized void stopLocationUpdates() {
+        if (locationCallback != null) {
+            fusedLocationClient.removeLocationUpdates(locationCallback);
+            locationCallback = null;
+        }
+    }
+
+    private void addFix(Location location) {
+        locationHistory.add(location.getElapsedRealtimeNanos() / 1000,
+                location.getLatitude(), location.getLongitude());
+    }
+
+    public LocationHistory getLocationHistory() {
+        return locationHistory;
+    }
+
+    // Wall-clock ms at which the AP was last heard; ScanResult.timestamp is elapsed-realtime micros
+    public static long heardAt(ScanResult sr) {
+        return System.currentTimeMillis() - SystemClock.elapsedRealtime() + sr.timestamp / 1000;
+    }
+
+    public static WiFiDevice toDevice(ScanResult sr, double latitude, double longitude, long timestamp) {
+        WiFiDevice device = new WiFiDevice();
+        device.setSsid(sr.SSID);
+        device.setBssid(sr.BSSID);
+        device.setSignalStrength(sr.level);
+        device.setLatitude(latitude);
+        device.setLongitude(longitude);
+        device.setTimestamp(timestamp);
+        return device;
+    }
+
+    // Results of the most recent system scan, without a position attached. A binder call:
+    // keep it off the main thread
+    public List<WiFiDevice> getLatestScanResults() {
         List<WiFiDevice> devices = new ArrayList<>();
+        if (wifiManager == null || ActivityCompat.checkSelfPermission(context,
+                Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
+            return devices;
+        }
 
+        List<ScanResult> scanResults = wifiManager.getScanResults();
         if (scanResults != null) {
             for (ScanResult sr : scanResults) {
                 WiFiDevice device = new WiFiDevice();
                 device.setSsid(sr.SSID);
                 device.setBssid(sr.BSSID);
                 device.setSignalStrength(sr.level);
-                device.setLatitude(location.getLatitude());
-                device.setLongitude(location.getLongitude());
                 device.setTimestamp(System.currentTimeMillis());
                 devices.add(device);
             }
         }
-
-        if (callback != null) {
-            callback.onScanResults(devices);
-        }
+        return devices;
     }
-    // Callback interface for scan results
-    public interface ScanCallback {
-        void onScanResults(List<WiFiDevice> scannedDevices);
+
+    public interface ScanResultsListener {
+        void onScanResultsAvailable(boolean updated);
     }
 }
@@ -0,0 +1,163 @@
+package dev.nimrod.locafi.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import dev.nimrod.locafi.localization.GeoProjection;
+import dev.nimrod.locafi.models.WiFiDevice;
+import dev.nimrod.locafi.utils.BssidUtils;
+import dev.nimrod.locafi.utils.LongIntHashMap;
+
+// Compares each scan with what was last reported per BSSID and keeps only what
+// downstream needs to hear about: APs that appeared, and APs whose RSSI moved by
+// RSSI_HYSTERESIS_DB or whose position moved by POSITION_MOVED_METERS since they were
+// last reported. Thresholds compare against the last reported value, not the last
+// scan, so slow drift is reported once it adds up while jitter is not. An unchanged AP
+// is re-reported every REFRESH_MS so its stored last-seen time does not go stale (and
+// get evicted).
+// An AP missing from FORGET_AFTER_SCANS scans in a row is forgotten, and reported as
+// new when it is heard again. Going out of range is not reported: the list and map
+// show every AP ever recorded, not only the ones in range.
+// Not thread-safe; ScanPipeline calls it from the filter worker only.
+public class ScanDiffer {
+    public static final int RSSI_HYSTERESIS_DB = 6;
+    public static final double POSITION_MOVED_METERS = 25.0;
+    public static final int FORGET_AFTER_SCANS = 2;
+    public static final long REFRESH_MS = 15 * 60 * 1000;
+
+    // BSSID -> slot in the arrays below; freed slots are reused
+    private final LongIntHashMap slots = new LongIntHashMap(128);
+    private long[] bssids = new long[64];
+    private int[] reportedRssi = new int[64];
+    private double[] reportedLat = new double[64];
+    private double[] reportedLon = new double[64];
+    private long[] reportedAt = new long[64];
+    private long[] lastSeenScan = new long[64];
+    private int[] freeSlots = new int[64];
+    private int freeCount = 0;
+    private int slotCount = 0;
+    private long scanNumber = 0;
+
+    private long scans = 0;
+    private long devicesIn = 0;
+    private long devicesOut = 0;
+
+    // timestamp is wall-clock ms, used for the refresh interval
+    public ScanDiff diff(List<WiFiDevice> scan, long timestamp) {
+        scanNumber++;
+        scans++;
+        devicesIn += scan.size();
+        List<WiFiDevice> added = new ArrayList<>();
+        List<WiFiDevice> changed = new ArrayList<>();
+
+        for (WiFiDevice device : scan) {
+            long key = BssidUtils.toLong(device.getBssid());
+            if (key == BssidUtils.INVALID) continue;
+            int slot = slots.get(key, -1);
+            if (slot < 0) {
+                slot = allocate(key);
+                record(slot, device, timestamp);
+                added.add(device);
+            } else {
+                lastSeenScan[slot] = scanNumber;
+                if (isSignificant(slot, device, timestamp)) {
+                    record(slot, device, timestamp);
+                    changed.add(device);
+                }
+            }
+        }
+
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (bssids[slot] != BssidUtils.INVALID && scanNumber - lastSeenScan[slot] >= FORGET_AFTER_SCANS) {
+                release(slot);
+            }
+        }
+        devicesOut += added.size() + changed.size();
+        return new ScanDiff(added, changed);
+    }
+
+    private boolean isSignificant(int slot, WiFiDevice device, long timestamp) {
+        if (Math.abs(device.getSignalStrength() - reportedRssi[slot]) >= RSSI_HYSTERESIS_DB) return true;
+        if (timestamp - reportedAt[slot] >= REFRESH_MS) return true;
+        boolean hasPosition = device.getLatitude() != null && device.getLongitude() != null;
+        if (hasPosition != !Double.isNaN(reportedLat[slot])) return true;
+        return hasPosition && GeoProjection.distanceMeters(reportedLat[slot], reportedLon[slot],
+                device.getLatitude(), device.getLongitude()) >= POSITION_MOVED_METERS;
+    }
+
+    private void record(int slot, WiFiDevice device, long timestamp) {
+        reportedRssi[slot] = device.getSignalStrength();
+        boolean hasPosition = device.getLatitude() != null && device.getLongitude() != null;
+        reportedLat[slot] = hasPosition ? device.getLatitude() : Double.NaN;
+        reportedLon[slot] = hasPosition ? device.getLongitude() : Double.NaN;
+        reportedAt[slot] = timestamp;
+        lastSeenScan[slot] = scanNumber;
+    }
+
+    private int allocate(long key) {
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            if (slotCount == bssids.length) {
+                grow(bssids.length * 2);
+            }
+            slot = slotCount++;
+        }
+        bssids[slot] = key;
+        slots.put(key, slot);
+        return slot;
+    }
+
+    private void release(int slot) {
+        slots.remove(bssids[slot]);
+        bssids[slot] = BssidUtils.INVALID;
+        freeSlots[freeCount++] = slot;
+    }
+
+    private void grow(int capacity) {
+        bssids = Arrays.copyOf(bssids, capacity);
+        reportedRssi = Arrays.copyOf(reportedRssi, capacity);
+        reportedLat = Arrays.copyOf(reportedLat, capacity);
+        reportedLon = Arrays.copyOf(reportedLon, capacity);
+        reportedAt = Arrays.copyOf(reportedAt, capacity);
+        lastSeenScan = Arrays.copyOf(lastSeenScan, capacity);
+        freeSlots = Arrays.copyOf(freeSlots, capacity);
+    }
+
+    public String getMetricsSummary() {
+        return "scans=" + scans + " devicesIn=" + devicesIn + " devicesOut=" + devicesOut
+                + " tracked=" + slots.size();
+    }
+
+    public static class ScanDiff {
+        private final List<WiFiDevice> added;
+        private final List<WiFiDevice> changed;
+
+        ScanDiff(List<WiFiDevice> added, List<WiFiDevice> changed) {
+            this.added = added;
+            this.changed = changed;
+        }
+
+        public List<WiFiDevice> getAdded() {
+            return added;
+        }
+
+        public List<WiFiDevice> getChanged() {
+            return changed;
+        }
+
+        // Added and changed devices: what needs to be written and redrawn
+        public List<WiFiDevice> getUpserted() {
+            List<WiFiDevice> upserted = new ArrayList<>(added.size() + changed.size());
+            upserted.addAll(added);
+            upserted.addAll(changed);
+            return upserted;
+        }
+
+        public boolean isEmpty() {
+            return added.isEmpty() && changed.isEmpty();
+        }
+    }
+}
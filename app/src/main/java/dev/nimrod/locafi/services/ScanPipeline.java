@@ -0,0 +1,204 @@
+package dev.nimrod.locafi.services;
+
+import android.net.wifi.ScanResult;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import dev.nimrod.locafi.LocaFiApp;
+import dev.nimrod.locafi.data.DeviceRepository;
+import dev.nimrod.locafi.localization.AccessPointTable;
+import dev.nimrod.locafi.localization.LocationHistory;
+import dev.nimrod.locafi.localization.MedianConsensusFilter;
+import dev.nimrod.locafi.localization.OutlierFilter;
+import dev.nimrod.locafi.localization.ScanJoin;
+import dev.nimrod.locafi.managers.WiFiScanManager;
+import dev.nimrod.locafi.models.WiFiDevice;
+import dev.nimrod.locafi.utils.BssidUtils;
+import dev.nimrod.locafi.utils.LongIntHashMap;
+import dev.nimrod.locafi.utils.PipelineStage;
+
+// acquire -> enrich -> filter -> persist -> notify, each stage on its own worker with
+// a small bounded queue. The main thread only receives the final broadcast.
+//   acquire: reads the system scan results (binder call)
+//   enrich:  places each result at the position interpolated for the time it was heard
+//   filter:  drops malformed and duplicate BSSIDs, updates the tracker, AP table,
+//            fingerprints and scheduler with the whole scan, then diffs it against
+//            the previous ones
+//   persist: appends the whole scan to the observation log; writes only the new and
+//            changed devices to the local store and queues their upload
+//   notify:  hands those devices to the live list and map
+// A scan in which nothing changed stops after persist.
+public class ScanPipeline {
+    private static final String TAG = "ScanPipeline";
+    private static final int QUEUE_CAPACITY = 4;
+
+    private final WiFiScanManager scanManager;
+    private final DeviceRepository deviceRepository;
+    private final AccessPointTable accessPointTable;
+    private final ScanScheduler scheduler;
+    // Only touched on the filter worker
+    private final ScanJoin scanJoin = new ScanJoin();
+    private final OutlierFilter outlierFilter = new MedianConsensusFilter();
+    private final LongIntHashMap seen = new LongIntHashMap(64);
+    private final ScanDiffer differ = new ScanDiffer();
+
+    private final AtomicLong freshResults = new AtomicLong();
+    private final AtomicLong staleResults = new AtomicLong();
+    private final AtomicLong unplacedResults = new AtomicLong();
+
+    private final PipelineStage<Long, ScanBatch> acquire;
+    private final List<PipelineStage<?, ?>> stages = new ArrayList<>();
+
+    public ScanPipeline(WiFiScanManager scanManager, DeviceRepository deviceRepository,
+                        AccessPointTable accessPointTable, ScanScheduler scheduler) {
+        this.scanManager = scanManager;
+        this.deviceRepository = deviceRepository;
+        this.accessPointTable = accessPointTable;
+        this.scheduler = scheduler;
+
+        acquire = new PipelineStage<>("acquire", QUEUE_CAPACITY, this::acquire);
+        PipelineStage<ScanBatch, ScanBatch> enrich = new PipelineStage<>("enrich", QUEUE_CAPACITY, this::enrich);
+        PipelineStage<ScanBatch, ScanBatch> filter = new PipelineStage<>("filter", QUEUE_CAPACITY, this::filter);
+        PipelineStage<ScanBatch, ScanBatch> persist = new PipelineStage<>("persist", QUEUE_CAPACITY, this::persist);
+        PipelineStage<ScanBatch, Void> notify = new PipelineStage<>("notify", QUEUE_CAPACITY, this::notifySaved);
+        acquire.then(enrich).then(filter).then(persist).then(notify);
+        stages.add(acquire);
+        stages.add(enrich);
+        stages.add(filter);
+        stages.add(persist);
+        stages.add(notify);
+    }
+
+    // Called on the scan receiver's thread for every results broadcast, whoever started
+    // the scan. Stale ones (the scan failed, the cache was not refreshed) are dropped.
+    public void onScanResultsAvailable(boolean updated) {
+        if (!updated) {
+            staleResults.incrementAndGet();
+            return;
+        }
+        freshResults.incrementAndGet();
+        acquire.submit(SystemClock.elapsedRealtime());
+    }
+
+    private ScanBatch acquire(Long triggeredAt) {
+        List<ScanResult> results = scanManager.readScanResults();
+        return results.isEmpty() ? null : new ScanBatch(triggeredAt, results);
+    }
+
+    // Results with no fix near the time they were heard are dropped; they could not be placed
+    private ScanBatch enrich(ScanBatch batch) {
+        LocationHistory history = scanManager.getLocationHistory();
+        double[] position = new double[2];
+        batch.devices = new ArrayList<>(batch.results.size());
+        for (ScanResult result : batch.results) {
+            if (!history.positionAt(result.timestamp, position)) {
+                unplacedResults.incrementAndGet();
+                continue;
+            }
+            batch.devices.add(WiFiScanManager.toDevice(result, position[0], position[1],
+                    WiFiScanManager.heardAt(result)));
+        }
+        batch.results = null;
+        return batch.devices.isEmpty() ? null : batch;
+    }
+
+    private ScanBatch filter(ScanBatch batch) {
+        // Some drivers report one BSSID more than once per scan; keep the strongest
+        seen.clear();
+        List<WiFiDevice> unique = new ArrayList<>(batch.devices.size());
+        for (WiFiDevice device : batch.devices) {
+            long key = BssidUtils.toLong(device.getBssid());
+            if (key == BssidUtils.INVALID) continue;
+            int index = seen.get(key, -1);
+            if (index < 0) {
+                seen.put(key, unique.size());
+                unique.add(device);
+            } else if (device.getSignalStrength() > unique.get(index).getSignalStrength()) {
+                unique.set(index, device);
+            }
+        }
+        if (unique.isEmpty()) return null;
+        batch.devices = unique;
+        WiFiDevice first = unique.get(0);
+        scheduler.onScanProcessed(first.getLatitude(), first.getLongitude(), unique);
+
+        updateLocationTracker(unique);
+        for (WiFiDevice device : unique) {
+            accessPointTable.observe(device);
+        }
+        LocaFiApp.getFingerprintDatabase().addScan(unique);
+
+        batch.diff = differ.diff(unique, first.getTimestamp());
+        return batch;
+    }
+
+    // Feeds the learned positions of the APs visible in this scan to the tracker. The fix is
+    // dated by when the scan was heard, not when it got here, so time spent queued between
+    // stages does not stretch the tracker's dt and skew its velocity.
+    private void updateLocationTracker(List<WiFiDevice> scannedDevices) {
+        long heardAt = 0;
+        for (WiFiDevice device : scannedDevices) {
+            heardAt = Math.max(heardAt, device.getTimestamp());
+        }
+        scanJoin.join(scannedDevices, accessPointTable);
+        int count = scanJoin.applyFilter(outlierFilter);
+        for (int i = 0; i < scanJoin.getRejectedCount(); i++) {
+            Log.d(TAG, "Rejected inconsistent AP " + BssidUtils.toString(scanJoin.getRejectedBssids()[i]));
+        }
+        if (count > 0) {
+            LocaFiApp.getLocationTracker().updateFromScan(scanJoin.getLatitudes(),
+                    scanJoin.getLongitudes(), scanJoin.getRssi(), count, heardAt);
+            LocaFiApp.getLikelihoodGrid().update(scanJoin.getLatitudes(),
+                    scanJoin.getLongitudes(), scanJoin.getRssi(), count);
+        }
+    }
+
+    // Saved locally first; the sync engine batches the upload to Firebase. The log and
+    // its rollups need every reading, the store only what changed.
+    private ScanBatch persist(ScanBatch batch) throws Exception {
+        List<WiFiDevice> upserted = batch.diff.getUpserted();
+        deviceRepository.submitScan(batch.devices, upserted).get();
+        if (batch.diff.isEmpty()) return null;
+        batch.devices = upserted;
+        return batch;
+    }
+
+    private Void notifySaved(ScanBatch batch) {
+        deviceRepository.publishLocalChanges(batch.devices);
+        return null;
+    }
+
+    public void shutdown() {
+        for (PipelineStage<?, ?> stage : stages) {
+            stage.shutdown();
+        }
+    }
+
+    public String getMetricsSummary() {
+        StringBuilder summary = new StringBuilder("fresh=" + freshResults.get()
+                + " stale=" + staleResults.get() + " unplaced=" + unplacedResults.get());
+        // The differ is owned by the filter worker; its counters are read racily here
+        summary.append(" diff[").append(differ.getMetricsSummary()).append(']');
+        for (PipelineStage<?, ?> stage : stages) {
+            summary.append(' ').append(stage.getMetricsSummary());
+        }
+        return summary.toString();
+    }
+
+    // One scan moving through the stages; each stage fills in what the next needs
+    private static class ScanBatch {
+        final long triggeredAt;
+        List<ScanResult> results;
+        List<WiFiDevice> devices;
+        ScanDiffer.ScanDiff diff;
+
+        ScanBatch(long triggeredAt, List<ScanResult> results) {
+            this.triggeredAt = triggeredAt;
+            this.results = results;
+        }
+    }
+}
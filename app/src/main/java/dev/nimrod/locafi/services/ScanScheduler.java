@@ -0,0 +1,184 @@
+package dev.nimrod.locafi.services;
+
+import java.util.Arrays;
+import java.util.List;
+
+import dev.nimrod.locafi.localization.GeoProjection;
+import dev.nimrod.locafi.models.WiFiDevice;
+import dev.nimrod.locafi.utils.BssidUtils;
+
+// Decides when to ask for the next WiFi scan. Android lets a foreground app start
+// THROTTLE_MAX_SCANS scans per THROTTLE_WINDOW_MS; requests beyond that return false
+// and deliver stale results, so the scheduler never spends more than that budget.
+// While the user moves, or the visible APs change, it scans as often as the budget
+// sustains. While stationary it doubles the interval up to MAX_INTERVAL_MS.
+// All times are elapsedRealtime milliseconds.
+public class ScanScheduler {
+    public static final int THROTTLE_MAX_SCANS = 4;
+    public static final long THROTTLE_WINDOW_MS = 2 * 60 * 1000;
+    // Spending the budget evenly: one scan per window / max scans
+    public static final long ACTIVE_INTERVAL_MS = THROTTLE_WINDOW_MS / THROTTLE_MAX_SCANS;
+    public static final long MAX_INTERVAL_MS = 5 * 60 * 1000;
+    // Moved less than this between fixes: stationary
+    private static final double STATIONARY_METERS = 20.0;
+    // Fewer shared APs than this fraction of the union: the surroundings changed
+    private static final double AP_CHANGE_SIMILARITY = 0.6;
+
+    // Start times of recent accepted scans, oldest first (ring)
+    private final long[] recentScans = new long[THROTTLE_MAX_SCANS];
+    private int recentCount = 0;
+    private int recentHead = 0;
+
+    private long intervalMs = ACTIVE_INTERVAL_MS;
+    private long lastRequestAt = -1;
+    private long acceptedScans = 0;
+    private long throttledScans = 0;
+    private long deferredScans = 0;
+    private long unavailableScans = 0;
+    private long activeScans = 0;
+    private long stationaryScans = 0;
+
+    private boolean hasFix = false;
+    private double lastLat;
+    private double lastLon;
+    private long[] lastBssids = new long[0];
+    private Listener listener;
+
+    public synchronized void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    // True when a request now stays within the throttle budget
+    public synchronized boolean canScan(long now) {
+        return budgetWaitMs(now) == 0;
+    }
+
+    // Records a startScan() call and whether the system accepted it
+    public synchronized void onScanRequested(long now, boolean accepted) {
+        lastRequestAt = now;
+        if (accepted) {
+            acceptedScans++;
+            int slot = (recentHead + recentCount) % THROTTLE_MAX_SCANS;
+            if (recentCount == THROTTLE_MAX_SCANS) {
+                recentHead = (recentHead + 1) % THROTTLE_MAX_SCANS;
+            } else {
+                recentCount++;
+            }
+            recentScans[slot] = now;
+        } else {
+            // Our count is off (another app, or a platform with a tighter limit): treat the window as spent
+            throttledScans++;
+            Arrays.fill(recentScans, now);
+            recentHead = 0;
+            recentCount = THROTTLE_MAX_SCANS;
+        }
+    }
+
+    // Our own budget held a due scan back
+    public synchronized void onScanDeferred() {
+        deferredScans++;
+    }
+
+    // A due scan was skipped because WiFi is off or a permission is missing; the
+    // throttle budget is untouched
+    public synchronized void onScanUnavailable() {
+        unavailableScans++;
+    }
+
+    // How long to wait before the next request: the current interval, but never
+    // before the throttle window has room again
+    public synchronized long getDelayMs(long now) {
+        long sinceLast = lastRequestAt < 0 ? intervalMs : now - lastRequestAt;
+        return Math.max(Math.max(0, intervalMs - sinceLast), budgetWaitMs(now));
+    }
+
+    private long budgetWaitMs(long now) {
+        if (recentCount < THROTTLE_MAX_SCANS) return 0;
+        long oldest = recentScans[recentHead];
+        return Math.max(0, oldest + THROTTLE_WINDOW_MS - now);
+    }
+
+    // Feeds one processed scan back: where it was taken and which APs it saw. A move
+    // or a changed AP set resets to the active interval, otherwise the interval backs off.
+    public void onScanProcessed(double lat, double lon, List<WiFiDevice> devices) {
+        long[] bssids = new long[devices.size()];
+        int count = 0;
+        for (WiFiDevice device : devices) {
+            long key = BssidUtils.toLong(device.getBssid());
+            if (key != BssidUtils.INVALID) {
+                bssids[count++] = key;
+            }
+        }
+        bssids = Arrays.copyOf(bssids, count);
+        Arrays.sort(bssids);
+
+        Listener notify = null;
+        synchronized (this) {
+            boolean moved = !hasFix
+                    || GeoProjection.distanceMeters(lastLat, lastLon, lat, lon) >= STATIONARY_METERS;
+            boolean apsChanged = similarity(lastBssids, bssids) < AP_CHANGE_SIMILARITY;
+            hasFix = true;
+            lastLat = lat;
+            lastLon = lon;
+            lastBssids = bssids;
+
+            long previous = intervalMs;
+            if (moved || apsChanged) {
+                activeScans++;
+                intervalMs = ACTIVE_INTERVAL_MS;
+            } else {
+                stationaryScans++;
+                intervalMs = Math.min(MAX_INTERVAL_MS, intervalMs * 2);
+            }
+            if (intervalMs < previous) {
+                notify = listener;
+            }
+        }
+        if (notify != null) {
+            notify.onScheduleShortened();
+        }
+    }
+
+    // Shared / union of two sorted BSSID sets
+    static double similarity(long[] a, long[] b) {
+        if (a.length == 0 && b.length == 0) return 1.0;
+        int i = 0;
+        int j = 0;
+        int shared = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] == b[j]) {
+                shared++;
+                i++;
+                j++;
+            } else if (a[i] < b[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return (double) shared / (a.length + b.length - shared);
+    }
+
+    public synchronized long getIntervalMs() {
+        return intervalMs;
+    }
+
+    public synchronized long getAcceptedScans() {
+        return acceptedScans;
+    }
+
+    public synchronized long getThrottledScans() {
+        return throttledScans;
+    }
+
+    public synchronized String getMetricsSummary() {
+        return "accepted=" + acceptedScans + " throttled=" + throttledScans + " deferred=" + deferredScans
+                + " unavailable=" + unavailableScans
+                + " active=" + activeScans + " stationary=" + stationaryScans + " intervalMs=" + intervalMs;
+    }
+
+    public interface Listener {
+        // The next scan is due sooner than previously scheduled
+        void onScheduleShortened();
+    }
+}
@@ -6,38 +6,72 @@ import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
+import android.content.Context;
 import android.content.Intent;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
-import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
 
 import androidx.core.app.NotificationCompat;
-import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 
 import dev.nimrod.locafi.LocaFiApp;
+import dev.nimrod.locafi.data.DeviceRepository;
 import dev.nimrod.locafi.R;
+import dev.nimrod.locafi.localization.AccessPointTable;
+import dev.nimrod.locafi.managers.PreferencesManager;
 import dev.nimrod.locafi.managers.WiFiScanManager;
 import dev.nimrod.locafi.models.WiFiDevice;
-import dev.nimrod.locafi.utils.FirebaseRepo;
 
 public class WiFiScanService extends Service {
+    private static final String TAG = "WiFiScanService";
     private static final String CHANNEL_ID = "WIFI_SCAN_CHANNEL";
     public static final String ACTION_STOP_SERVICE = "stop_service";
-    public static final String SCAN_RESULTS_UPDATE = "scan_results_update";
-    private static final int SCAN_INTERVAL = 10000; // 10 seconds
+    public static final String ACTION_SET_SCAN_MODE = "set_scan_mode";
+    public static final String EXTRA_PASSIVE = "passive";
+
+    // True between a scan start and stop, so callers can tell whether an intent would
+    // reach a running service or create one
+    private static volatile boolean running = false;
 
     private WiFiScanManager wifiScanManager;
-    private boolean isScanning = false;
-    private final Handler scanHandler = new Handler(Looper.getMainLooper());
-    private FirebaseRepo firebaseRepo;
+    private volatile boolean isScanning = false;
+    private volatile boolean passiveMode = false;
+    // Scan requests and result broadcasts are handled here, off the main thread
+    private HandlerThread scanThread;
+    private Handler scanHandler;
+    private DeviceRepository deviceRepository;
+    private AccessPointTable accessPointTable;
+    private ScanPipeline scanPipeline;
+    private final ScanScheduler scanScheduler = new ScanScheduler();
+    // Scan interval the location request was last set for; scan thread only
+    private long locationIntervalMs = -1;
 
     private final Runnable scanRunnable = new Runnable() {
         @Override
         public void run() {
-            if (isScanning) {
-                performScan();
-                // Schedule next scan
-                scanHandler.postDelayed(this, SCAN_INTERVAL);
+            // Passive mode never spends scan budget; results still arrive via the listener
+            if (isScanning && !passiveMode) {
+                long now = SystemClock.elapsedRealtime();
+                if (!wifiScanManager.canRequestScan()) {
+                    // Not a throttled request: check again after one interval
+                    scanScheduler.onScanUnavailable();
+                    scanHandler.postDelayed(this, scanScheduler.getIntervalMs());
+                    return;
+                }
+                if (scanScheduler.canScan(now)) {
+                    scanScheduler.onScanRequested(now, wifiScanManager.requestScan());
+                } else {
+                    scanScheduler.onScanDeferred();
+                }
+                // Schedule next scan; the fix rate follows the (possibly backed-off) interval
+                scanHandler.postDelayed(this, scanScheduler.getDelayMs(now));
+                long intervalMs = scanScheduler.getIntervalMs();
+                if (intervalMs != locationIntervalMs) {
+                    locationIntervalMs = intervalMs;
+                    wifiScanManager.setLocationMode(passiveMode, intervalMs);
+                }
             }
         }
     };
@@ -46,7 +80,27 @@ public class WiFiScanService extends Service {
     public void onCreate() {
         super.onCreate();
         wifiScanManager = new WiFiScanManager(this);
-        firebaseRepo = new FirebaseRepo();
+        deviceRepository = LocaFiApp.getDeviceRepository();
+        accessPointTable = LocaFiApp.getAccessPointTable();
+        scanPipeline = new ScanPipeline(wifiScanManager, deviceRepository, accessPointTable, scanScheduler);
+        scanThread = new HandlerThread("WiFiScanScheduler");
+        scanThread.start();
+        scanHandler = new Handler(scanThread.getLooper());
+        // Movement or new surroundings: bring the pending scan forward
+        scanScheduler.setListener(() -> scanHandler.post(() -> {
+            if (!isScanning || passiveMode) return;
+            scanHandler.removeCallbacks(scanRunnable);
+            scanHandler.postDelayed(scanRunnable, scanScheduler.getDelayMs(SystemClock.elapsedRealtime()));
+        }));
+        // Seed once from stored history; afterwards the table learns from our own scans
+        if (accessPointTable.size() == 0) {
+            deviceRepository.getDevices(devices -> {
+                if (devices == null) return;
+                for (WiFiDevice device : devices) {
+                    accessPointTable.observe(device);
+                }
+            });
+        }
 
         createNotificationChannel();
     }
@@ -57,32 +111,76 @@ public class WiFiScanService extends Service {
             stopService();
             return START_NOT_STICKY;
         }
+        if (intent != null && ACTION_SET_SCAN_MODE.equals(intent.getAction())) {
+            if (!isScanning) {
+                // Stopped since the intent was sent; the setting is already saved
+                stopSelf(startId);
+                return START_NOT_STICKY;
+            }
+            setPassiveMode(intent.getBooleanExtra(EXTRA_PASSIVE, false));
+            return START_STICKY;
+        }
 
         if (!isScanning) {
             isScanning = true;
+            running = true;
+            passiveMode = PreferencesManager.isPassiveScanning(this);
             startForegroundServiceNotification();
+            deviceRepository.startPeriodicSync(DeviceRepository.DEFAULT_SYNC_INTERVAL_MS);
+            wifiScanManager.startLocationUpdates(scanThread.getLooper(), passiveMode, scanScheduler.getIntervalMs());
+            wifiScanManager.setScanResultsListener(scanPipeline::onScanResultsAvailable, scanHandler);
             // Start periodic scanning
             scanHandler.post(scanRunnable);
         }
         return START_STICKY;
     }
 
-    private void performScan() {
-        wifiScanManager.startScan(scannedDevices -> {
-            // Save to Firebase
-            for (WiFiDevice device : scannedDevices) {
-                device.setTimestamp(System.currentTimeMillis());
-                firebaseRepo.saveDevice(device);
-            }
-            // Broadcast update to UI
-            Intent updateIntent = new Intent(SCAN_RESULTS_UPDATE);
-            LocalBroadcastManager.getInstance(this).sendBroadcast(updateIntent);
-        });
+    // Switches between requesting scans and only harvesting others' while running. The
+    // notification is updated here; the location request and the scan loop are switched
+    // on the scan thread, so a tick already running there cannot undo the switch.
+    private void setPassiveMode(boolean passive) {
+        if (passiveMode == passive) return;
+        passiveMode = passive;
+        Log.d(TAG, "Scan mode: " + (passive ? "passive" : "active"));
+        startForegroundServiceNotification();
+        scanHandler.post(this::applyScanMode);
+    }
+
+    private void applyScanMode() {
+        if (!isScanning) return;
+        boolean passive = passiveMode;
+        locationIntervalMs = scanScheduler.getIntervalMs();
+        wifiScanManager.setLocationMode(passive, locationIntervalMs);
+        scanHandler.removeCallbacks(scanRunnable);
+        if (!passive) {
+            scanHandler.post(scanRunnable);
+        }
+    }
+
+    // Saves the scan mode and applies it to the running service, if any. Only a running
+    // (foreground) service is sent the intent: starting one just to store a setting would
+    // be refused while the app is in the background.
+    public static void setScanMode(Context context, boolean passive) {
+        PreferencesManager.setPassiveScanning(context, passive);
+        if (!running) return;
+        Intent intent = new Intent(context, WiFiScanService.class);
+        intent.setAction(ACTION_SET_SCAN_MODE);
+        intent.putExtra(EXTRA_PASSIVE, passive);
+        context.startService(intent);
     }
 
     private void stopService() {
         isScanning = false;
+        running = false;
         scanHandler.removeCallbacks(scanRunnable);
+        wifiScanManager.clearScanResultsListener();
+        wifiScanManager.stopLocationUpdates();
+        deviceRepository.stopPeriodicSync();
+        deviceRepository.flush();
+        Log.d(TAG, "Scans: " + scanScheduler.getMetricsSummary());
+        Log.d(TAG, "Pipeline: " + scanPipeline.getMetricsSummary());
+        Log.d(TAG, "Remote: " + deviceRepository.getRemote().getMetricsSummary()
+                + " sync: " + deviceRepository.getSyncSummary());
         stopForeground(true);
         stopSelf();
     }
@@ -91,8 +189,14 @@ public class WiFiScanService extends Service {
     public void onDestroy() {
         super.onDestroy();
         isScanning = false;
+        running = false;
         scanHandler.removeCallbacks(scanRunnable);
-        wifiScanManager.stopScan();
+        wifiScanManager.stopLocationUpdates();
+        wifiScanManager.clearScanResultsListener();
+        scanPipeline.shutdown();
+        scanThread.quitSafely();
+        deviceRepository.stopPeriodicSync();
+        deviceRepository.flush();
     }
 
     @Override
@@ -128,7 +232,9 @@ public class WiFiScanService extends Service {
 
         Notification notification = new NotificationCompat.Builder(this, CHANNEL_ID)
                 .setContentTitle("WiFi Scan Service")
-                .setContentText("Scanning WiFi in the background...")
+                .setContentText(passiveMode
+                        ? "Collecting WiFi scans in the background..."
+                        : "Scanning WiFi in the background...")
                 .setSmallIcon(R.drawable.wifi_location_icon)
                 .addAction(android.R.drawable.ic_media_pause, "Stop Scanning", stopPendingIntent)
                 .setOngoing(true)
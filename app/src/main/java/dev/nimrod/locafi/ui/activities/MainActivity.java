@@ -37,15 +37,24 @@ import java.util.List;
 
 import dev.nimrod.locafi.LocaFiApp;
 import dev.nimrod.locafi.R;
+import dev.nimrod.locafi.data.DeviceChangeStream;
+import dev.nimrod.locafi.data.DeviceDelta;
+import dev.nimrod.locafi.localization.AccessPointTable;
+import dev.nimrod.locafi.localization.KalmanTracker;
+import dev.nimrod.locafi.localization.LikelihoodGrid;
+import dev.nimrod.locafi.localization.MedianConsensusFilter;
+import dev.nimrod.locafi.localization.OutlierFilter;
 import dev.nimrod.locafi.managers.PermissionManager;
+import dev.nimrod.locafi.managers.PreferencesManager;
+import dev.nimrod.locafi.managers.WiFiScanManager;
 import dev.nimrod.locafi.models.WiFiDevice;
 import dev.nimrod.locafi.ui.adapters.WiFiDevicesAdapter;
-import dev.nimrod.locafi.utils.FirebaseRepo;
 import dev.nimrod.locafi.ui.maps.WifiMapFragment;
 import dev.nimrod.locafi.utils.LocationCalculator;
 
 
 public class MainActivity extends AppCompatActivity implements WiFiDevicesAdapter.OnWiFiDeviceClickListener {
+    private static final int DEVICE_PAGE_SIZE = 100;
     private View mainLayout;
     private MaterialCardView mainMCVVisualization;
     private CircularProgressIndicator mainPGILoading;
@@ -58,7 +67,11 @@ public class MainActivity extends AppCompatActivity implements WiFiDevicesAdapte
     private boolean isCheckingPermissions = false;
 
     private WifiMapFragment wifiMapFragment;
-    private FirebaseRepo firebaseRepo;
+    private WiFiScanManager wifiScanManager;
+    // Only used on the repository thread, by live-scan estimates
+    private final OutlierFilter outlierFilter = new MedianConsensusFilter();
+    private final DeviceChangeStream.Observer deviceObserver = this::onDevicesChanged;
+    private int loadGeneration = 0;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -75,6 +88,13 @@ public class MainActivity extends AppCompatActivity implements WiFiDevicesAdapte
         initViews();
         initButtons();
         loadWiFiDevices();
+        LocaFiApp.getDeviceRepository().observeDevices(deviceObserver);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        LocaFiApp.getDeviceRepository().stopObservingDevices(deviceObserver);
     }
 
 
@@ -92,6 +112,7 @@ public class MainActivity extends AppCompatActivity implements WiFiDevicesAdapte
         if (mainVISLocation != null) {
             mainVISLocation.setVisibility(View.VISIBLE);
             wifiMapFragment = new WifiMapFragment();
+            wifiMapFragment.setViewportLoading(true);
             getSupportFragmentManager()
                     .beginTransaction()
                     .replace(R.id.main_VIS_location, wifiMapFragment)
@@ -100,7 +121,7 @@ public class MainActivity extends AppCompatActivity implements WiFiDevicesAdapte
             Log.e("MainActivity", "Error: mainVISLocation view not found!");
         }
 
-        firebaseRepo = new FirebaseRepo();
+        wifiScanManager = new WiFiScanManager(this);
     }
 
     private void initButtons() {
@@ -108,6 +129,10 @@ public class MainActivity extends AppCompatActivity implements WiFiDevicesAdapte
         findViewById(R.id.main_BTN_location).setOnClickListener(view -> {
             showEstimatedLocation();
         });
+        findViewById(R.id.main_BTN_location).setOnLongClickListener(view -> {
+            toggleEstimationMode();
+            return true;
+        });
         setupGPSLocationButton();
 
         MaterialToolbar toolbar = findViewById(R.id.toolbar);
@@ -132,31 +157,78 @@ public class MainActivity extends AppCompatActivity implements WiFiDevicesAdapte
     }
 
 
+    // Renders the first page as soon as it is read and appends the rest page by page
     private void loadWiFiDevices() {
         showLoading(true);
-        new Thread(() -> {
-            firebaseRepo.getAllDevices(devices -> {
-                runOnUiThread(() -> {
-                    showLoading(false);
-                    if (devices == null || devices.isEmpty()) {
-                        showEmptyList(true);
-                    } else {
-                        showEmptyList(false);
-                        updateRecyclerView(devices);
-                        if (mainVISLocation != null) {
-                            mainVISLocation.setVisibility(View.VISIBLE);
-                        }
-                        if (wifiMapFragment != null) {
-                            wifiMapFragment.updateWiFiDevices(devices);
-                        }
-                    }
-                });
-            });
-        }).start();
+        final int generation = ++loadGeneration;
+        LocaFiApp.getDeviceRepository().loadDevicesPaged(0, DEVICE_PAGE_SIZE, (page, first, last) -> {
+            if (generation != loadGeneration || isDestroyed()) return false;
+            if (first) {
+                showDevices(page);
+            } else if (mainRCVWifiList != null && mainRCVWifiList.getAdapter() != null) {
+                ((WiFiDevicesAdapter) mainRCVWifiList.getAdapter()).appendDevices(page);
+            }
+            return true;
+        });
+    }
+
+    private void onDevicesChanged(DeviceDelta delta) {
+        // The map draws its own viewport, so it takes the delta whatever the list shows
+        if (wifiMapFragment != null) {
+            wifiMapFragment.applyDelta(delta);
+        }
+        WiFiDevicesAdapter adapter = mainRCVWifiList != null
+                ? (WiFiDevicesAdapter) mainRCVWifiList.getAdapter() : null;
+        if (adapter == null) {
+            // Nothing rendered yet: read the store, which already has this delta merged
+            loadWiFiDevices();
+            return;
+        }
+        adapter.applyDelta(delta);
+        showEmptyList(adapter.getItemCount() == 0);
+    }
+
+    private void showDevices(List<WiFiDevice> devices) {
+        showLoading(false);
+        if (devices == null || devices.isEmpty()) {
+            showEmptyList(true);
+        } else {
+            showEmptyList(false);
+            updateRecyclerView(devices);
+            if (mainVISLocation != null) {
+                mainVISLocation.setVisibility(View.VISIBLE);
+            }
+        }
     }
 
     private void showEstimatedLocation() {
-        firebaseRepo.getAllDevices(devices -> {
+        LocationCalculator.Mode mode = getEstimationMode();
+        // Grid mode reads the grid the scan pipeline keeps up to date
+        if (mode == LocationCalculator.Mode.GRID) {
+            LikelihoodGrid grid = LocaFiApp.getLikelihoodGrid();
+            if (grid.hasEstimate()) {
+                showLocationEstimate(new LatLng(grid.getMostLikelyLatitude(), grid.getMostLikelyLongitude()));
+                return;
+            }
+        }
+        // The tracker solves by trilateration, so the fingerprint and grid modes skip it
+        KalmanTracker tracker = LocaFiApp.getLocationTracker();
+        if ((mode == LocationCalculator.Mode.WEIGHTED_CENTROID || mode == LocationCalculator.Mode.TRILATERATION)
+                && tracker.hasEstimate()) {
+            showLocationEstimate(new LatLng(tracker.getLatitude(), tracker.getLongitude()));
+            return;
+        }
+
+        AccessPointTable table = LocaFiApp.getAccessPointTable();
+        if (table.size() > 0 || LocaFiApp.getFingerprintDatabase().size() > 0) {
+            showLiveScanEstimate(table, mode, () -> showHistoryEstimate(table, mode));
+        } else {
+            showHistoryEstimate(table, mode);
+        }
+    }
+
+    private void showHistoryEstimate(AccessPointTable table, LocationCalculator.Mode mode) {
+        LocaFiApp.getDeviceRepository().getDevices(devices -> {
             if (devices == null || devices.isEmpty()) {
                 Toast.makeText(MainActivity.this,
                         "No WiFi devices available for location estimation",
@@ -164,14 +236,65 @@ public class MainActivity extends AppCompatActivity implements WiFiDevicesAdapte
                 return;
             }
 
-            LatLng estimatedLocation = LocationCalculator.calculateLocation(devices);
-            if (estimatedLocation != null && wifiMapFragment != null) {
-                wifiMapFragment.zoomToLocation(estimatedLocation);
-                updateLocationTexts(estimatedLocation, false);
+            // Nothing on air matches a known AP, fall back to the whole history
+            Runnable fromHistory = () -> showLocationEstimate(LocationCalculator.calculateLocation(devices, mode));
+            if (table.size() == 0) {
+                for (WiFiDevice device : devices) {
+                    table.observe(device);
+                }
+                showLiveScanEstimate(table, mode, fromHistory);
+            } else {
+                fromHistory.run();
+            }
+        });
+    }
+
+    // getScanResults() is a binder call, so the read and the estimate run on the repository's
+    // thread; onMissing runs on the main thread when nothing on air could be placed
+    private void showLiveScanEstimate(AccessPointTable table, LocationCalculator.Mode mode, Runnable onMissing) {
+        LocaFiApp.getDeviceRepository().runInBackground(() -> {
+            List<WiFiDevice> liveScan = wifiScanManager.getLatestScanResults();
+            LatLng estimatedLocation = null;
+            if (mode == LocationCalculator.Mode.FINGERPRINT) {
+                estimatedLocation = LocationCalculator.calculateLocation(liveScan, LocaFiApp.getFingerprintDatabase());
+            }
+            if (estimatedLocation == null) {
+                estimatedLocation = LocationCalculator.calculateLocation(liveScan, table, mode, outlierFilter);
+            }
+            return estimatedLocation;
+        }, estimatedLocation -> {
+            if (estimatedLocation == null) {
+                onMissing.run();
+            } else {
+                showLocationEstimate(estimatedLocation);
             }
         });
     }
 
+    private void showLocationEstimate(LatLng estimatedLocation) {
+        if (estimatedLocation != null && wifiMapFragment != null) {
+            wifiMapFragment.showLikelihoodGrid(LocaFiApp.getLikelihoodGrid());
+            wifiMapFragment.zoomToLocation(estimatedLocation);
+            updateLocationTexts(estimatedLocation, false);
+        }
+    }
+
+    private LocationCalculator.Mode getEstimationMode() {
+        try {
+            return LocationCalculator.Mode.valueOf(PreferencesManager.getEstimationMode(this));
+        } catch (IllegalArgumentException e) {
+            return LocationCalculator.Mode.WEIGHTED_CENTROID;
+        }
+    }
+
+    // Cycles through every mode
+    private void toggleEstimationMode() {
+        LocationCalculator.Mode[] modes = LocationCalculator.Mode.values();
+        LocationCalculator.Mode mode = modes[(getEstimationMode().ordinal() + 1) % modes.length];
+        PreferencesManager.setEstimationMode(this, mode.name());
+        Toast.makeText(this, "Estimation mode: " + mode.name(), Toast.LENGTH_SHORT).show();
+    }
+
     private void showLoading(boolean isLoading) {
         if (mainPGILoading != null) {
             mainPGILoading.setVisibility(isLoading ? View.VISIBLE : View.GONE);
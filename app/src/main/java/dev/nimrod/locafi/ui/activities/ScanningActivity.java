@@ -7,10 +7,7 @@ import static dev.nimrod.locafi.managers.PermissionManager.PermissionState.NO_BA
 import static dev.nimrod.locafi.managers.PermissionManager.PermissionState.NO_REGULAR_PERMISSION;
 
 import android.Manifest;
-import android.content.BroadcastReceiver;
-import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.location.Location;
 import android.os.Build;
@@ -26,7 +23,6 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.graphics.Insets;
 import androidx.core.view.ViewCompat;
 import androidx.core.view.WindowInsetsCompat;
-import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
@@ -38,10 +34,12 @@ import com.google.android.gms.location.LocationServices;
 import com.google.android.gms.maps.model.LatLng;
 import com.google.android.material.button.MaterialButton;
 
-import java.util.ArrayList;
+import java.util.List;
 
 import dev.nimrod.locafi.LocaFiApp;
 import dev.nimrod.locafi.R;
+import dev.nimrod.locafi.data.DeviceChangeStream;
+import dev.nimrod.locafi.data.DeviceDelta;
 import dev.nimrod.locafi.managers.PermissionManager;
 import dev.nimrod.locafi.models.WiFiDevice;
 import dev.nimrod.locafi.services.WiFiScanService;
@@ -51,6 +49,7 @@ import dev.nimrod.locafi.ui.maps.WifiMapFragment;
 
 
 public class ScanningActivity extends AppCompatActivity implements WiFiDevicesAdapter.OnWiFiDeviceClickListener {
+    private static final int DEVICE_PAGE_SIZE = 100;
     private boolean isCheckingPermissions = false;
     private PermissionManager permissionManager;
     private RecyclerView recyclerView;
@@ -62,15 +61,9 @@ public class ScanningActivity extends AppCompatActivity implements WiFiDevicesAd
     private boolean isServiceRunning = false;
     private WifiMapFragment wifiMapFragment;
     private LocationCallback locationCallback;
-
-    private final BroadcastReceiver updateReceiver = new BroadcastReceiver() {
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            if (WiFiScanService.SCAN_RESULTS_UPDATE.equals(intent.getAction())) {
-                loadWiFiDevices();
-            }
-        }
-    };
+    private WiFiDevicesAdapter adapter;
+    private final DeviceChangeStream.Observer deviceObserver = this::onDevicesChanged;
+    private int loadGeneration = 0;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -88,10 +81,9 @@ public class ScanningActivity extends AppCompatActivity implements WiFiDevicesAd
         setupButtons();
         firebaseRepo = new FirebaseRepo();
 
-        LocalBroadcastManager.getInstance(this)
-                .registerReceiver(updateReceiver, new IntentFilter(WiFiScanService.SCAN_RESULTS_UPDATE));
-
+        // Scans reach the list and map as deltas through the observer, not as reloads
         loadWiFiDevices();
+        LocaFiApp.getDeviceRepository().observeDevices(deviceObserver);
     }
 
     private void setupViews() {
@@ -118,7 +110,7 @@ public class ScanningActivity extends AppCompatActivity implements WiFiDevicesAd
         clearButton.setOnClickListener(v -> showClearConfirmationDialog());
 
         findViewById(R.id.scanning_BTN_add_test).setOnClickListener(v -> {
-            firebaseRepo.addTestData();
+            LocaFiApp.getDeviceRepository().saveDevices(firebaseRepo.createTestDevices(), this::loadWiFiDevices);
             Toast.makeText(this, "Added test WiFi devices", Toast.LENGTH_SHORT).show();
         });
 
@@ -212,12 +204,16 @@ public class ScanningActivity extends AppCompatActivity implements WiFiDevicesAd
     }
 
     private void clearAllData() {
-        firebaseRepo.clearAllDevices(success -> {
+        LocaFiApp.getDeviceRepository().clearAllDevices(success -> {
             if (success) {
+                LocaFiApp.getAccessPointTable().clear();
+                LocaFiApp.getFingerprintDatabase().clear();
+                LocaFiApp.getLocationTracker().reset();
+                LocaFiApp.getLikelihoodGrid().reset();
                 Toast.makeText(this, "All data cleared", Toast.LENGTH_SHORT).show();
                 // Clear the map markers
                 if (wifiMapFragment != null) {
-                    wifiMapFragment.updateWiFiDevices(new ArrayList<>());
+                    wifiMapFragment.clearDevices();
                 }
             } else {
                 Toast.makeText(this, "Failed to clear data", Toast.LENGTH_SHORT).show();
@@ -226,6 +222,7 @@ public class ScanningActivity extends AppCompatActivity implements WiFiDevicesAd
     }
     private void setupMap() {
         wifiMapFragment = new WifiMapFragment();
+        wifiMapFragment.setViewportLoading(true);
         wifiMapFragment.setIsScanning(true);
         wifiMapFragment.setMapMode(WifiMapFragment.MapMode.SCANNING);
         wifiMapFragment.setShowUserLocation(true);
@@ -273,26 +270,49 @@ public class ScanningActivity extends AppCompatActivity implements WiFiDevicesAd
         }
     }
 
+    // Renders the first page as soon as it is read and appends the rest page by page
     private void loadWiFiDevices() {
-        firebaseRepo.getAllDevices(devices -> {
-            if (devices != null && !devices.isEmpty()) {
-                recyclerView.setVisibility(View.VISIBLE);
-                emptyView.setVisibility(View.GONE);
-                WiFiDevicesAdapter adapter = new WiFiDevicesAdapter(devices);
-                adapter.setOnWiFiDeviceClickListener(this);
-                recyclerView.setAdapter(adapter);
-
-                // Update map with devices
-                if (wifiMapFragment != null) {
-                    wifiMapFragment.updateWiFiDevices(devices);
-                }
-            } else {
-                recyclerView.setVisibility(View.GONE);
-                emptyView.setVisibility(View.VISIBLE);
+        final int generation = ++loadGeneration;
+        LocaFiApp.getDeviceRepository().loadDevicesPaged(0, DEVICE_PAGE_SIZE, (page, first, last) -> {
+            if (generation != loadGeneration || isDestroyed()) return false;
+            if (first) {
+                showDevices(page);
+            } else if (adapter != null) {
+                adapter.appendDevices(page);
             }
+            return true;
         });
     }
 
+    private void showDevices(List<WiFiDevice> devices) {
+        if (devices != null && !devices.isEmpty()) {
+            recyclerView.setVisibility(View.VISIBLE);
+            emptyView.setVisibility(View.GONE);
+            adapter = new WiFiDevicesAdapter(devices);
+            adapter.setOnWiFiDeviceClickListener(this);
+            recyclerView.setAdapter(adapter);
+        } else {
+            recyclerView.setVisibility(View.GONE);
+            emptyView.setVisibility(View.VISIBLE);
+        }
+    }
+
+    private void onDevicesChanged(DeviceDelta delta) {
+        // The map draws its own viewport, so it takes the delta whatever the list shows
+        if (wifiMapFragment != null) {
+            wifiMapFragment.applyDelta(delta);
+        }
+        if (adapter == null) {
+            // Nothing rendered yet: read the store, which already has this delta merged
+            loadWiFiDevices();
+            return;
+        }
+        adapter.applyDelta(delta);
+        boolean hasDevices = adapter.getItemCount() > 0;
+        recyclerView.setVisibility(hasDevices ? View.VISIBLE : View.GONE);
+        emptyView.setVisibility(hasDevices ? View.GONE : View.VISIBLE);
+    }
+
     @Override
     public void onWiFiDeviceClick(WiFiDevice device) {
         if (wifiMapFragment != null) {
@@ -308,6 +328,6 @@ public class ScanningActivity extends AppCompatActivity implements WiFiDevicesAd
             LocationServices.getFusedLocationProviderClient(this)
                     .removeLocationUpdates(locationCallback);
         }
-        LocalBroadcastManager.getInstance(this).unregisterReceiver(updateReceiver);
+        LocaFiApp.getDeviceRepository().stopObservingDevices(deviceObserver);
     }
 }
\ No newline at end of file
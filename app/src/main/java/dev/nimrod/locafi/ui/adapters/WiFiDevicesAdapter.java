@@ -10,14 +10,22 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.android.material.progressindicator.LinearProgressIndicator;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import dev.nimrod.locafi.R;
+import dev.nimrod.locafi.data.DeviceDelta;
 import dev.nimrod.locafi.models.WiFiDevice;
 import dev.nimrod.locafi.utils.SignalStrengthHelper;
 
 public class WiFiDevicesAdapter extends RecyclerView.Adapter<WiFiDevicesAdapter.ViewHolder> {
     private List<WiFiDevice> devices;
+    // BSSID -> row in devices, so paging and deltas never scan the list
+    private final Map<String, Integer> positions = new HashMap<>();
     private OnWiFiDeviceClickListener listener;
 
     public interface OnWiFiDeviceClickListener {
@@ -26,6 +34,71 @@ public class WiFiDevicesAdapter extends RecyclerView.Adapter<WiFiDevicesAdapter.
 
     public WiFiDevicesAdapter(List<WiFiDevice> devices) {
         this.devices = devices;
+        reindex();
+    }
+
+    public List<WiFiDevice> getDevices() {
+        return devices;
+    }
+
+    // Appends the next page; rows a delta already inserted are skipped
+    public void appendDevices(List<WiFiDevice> page) {
+        int start = devices.size();
+        for (WiFiDevice device : page) {
+            if (!positions.containsKey(device.getBssid())) {
+                positions.put(device.getBssid(), devices.size());
+                devices.add(device);
+            }
+        }
+        notifyItemRangeInserted(start, devices.size() - start);
+    }
+
+    // Applies a remote delta in place instead of rebinding the whole list. Pages arrive
+    // newest first, so devices the list has not seen yet go on top.
+    public void applyDelta(DeviceDelta delta) {
+        if (!delta.getRemoved().isEmpty()) {
+            List<Integer> removed = new ArrayList<>();
+            for (String bssid : delta.getRemoved()) {
+                Integer index = positions.get(bssid);
+                if (index != null) {
+                    removed.add(index);
+                }
+            }
+            // From the bottom up, so the remaining indices stay valid
+            Collections.sort(removed, Collections.reverseOrder());
+            for (int index : removed) {
+                devices.remove(index);
+                notifyItemRemoved(index);
+            }
+            if (!removed.isEmpty()) {
+                reindex();
+            }
+        }
+
+        Map<String, WiFiDevice> inserted = new LinkedHashMap<>();
+        for (WiFiDevice device : delta.getUpserted()) {
+            Integer index = positions.get(device.getBssid());
+            if (index != null) {
+                devices.set(index, device);
+                notifyItemChanged(index);
+            } else {
+                inserted.put(device.getBssid(), device);
+            }
+        }
+        if (!inserted.isEmpty()) {
+            List<WiFiDevice> newest = new ArrayList<>(inserted.values());
+            Collections.sort(newest, (a, b) -> Long.compare(b.getTimestamp(), a.getTimestamp()));
+            devices.addAll(0, newest);
+            notifyItemRangeInserted(0, newest.size());
+            reindex();
+        }
+    }
+
+    private void reindex() {
+        positions.clear();
+        for (int i = 0; i < devices.size(); i++) {
+            positions.put(devices.get(i).getBssid(), i);
+        }
     }
 
     public void setOnWiFiDeviceClickListener(OnWiFiDeviceClickListener listener) {
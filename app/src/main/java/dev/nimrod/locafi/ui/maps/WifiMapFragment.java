@@ -22,17 +22,27 @@ import com.google.android.gms.maps.model.BitmapDescriptor;
 import com.google.android.gms.maps.model.BitmapDescriptorFactory;
 import com.google.android.gms.maps.model.Circle;
 import com.google.android.gms.maps.model.CircleOptions;
+import com.google.android.gms.maps.model.GroundOverlay;
+import com.google.android.gms.maps.model.GroundOverlayOptions;
 import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.android.gms.maps.model.Marker;
 import com.google.android.gms.maps.model.MarkerOptions;
 import com.google.android.gms.maps.model.Polyline;
 import com.google.android.gms.maps.model.PolylineOptions;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import dev.nimrod.locafi.LocaFiApp;
 import dev.nimrod.locafi.R;
+import dev.nimrod.locafi.data.DeviceDelta;
+import dev.nimrod.locafi.localization.LikelihoodGrid;
 import dev.nimrod.locafi.models.WiFiDevice;
+import dev.nimrod.locafi.utils.FirebaseRepo;
+import dev.nimrod.locafi.utils.Geohash;
 import dev.nimrod.locafi.utils.SignalStrengthHelper;
 
 public class WifiMapFragment extends Fragment implements OnMapReadyCallback {
@@ -52,6 +62,18 @@ public class WifiMapFragment extends Fragment implements OnMapReadyCallback {
     private Map<String, Marker> deviceMarkers = new HashMap<>();
     private MapMode currentMode = MapMode.HISTORY;
     private boolean showUserLocation = false;
+    private GroundOverlay likelihoodOverlay;
+    // Reused across estimates: the grid is up to 1M pixels
+    private int[] likelihoodPixels;
+    private Bitmap likelihoodBitmap;
+    private final double[] likelihoodBounds = new double[4];
+    private Map<String, Polyline> deviceLines = new HashMap<>();
+    // Viewport loading: only the geohash cells under the camera are read, on camera idle
+    private static final int MAX_VIEWPORT_CELLS = 48;
+    private static final int MIN_VIEWPORT_PRECISION = 4;
+    private boolean viewportLoading = false;
+    private List<String> loadedCells;
+    private int viewportRequest = 0;
     public enum MapMode {
         HISTORY,    // For MainActivity
         SCANNING    // For ScanningActivity
@@ -81,7 +103,12 @@ public class WifiMapFragment extends Fragment implements OnMapReadyCallback {
         mMap.getUiSettings().setZoomControlsEnabled(true);
         mMap.getUiSettings().setMyLocationButtonEnabled(true);
 //        mMap.setMapType(GoogleMap.MAP_TYPE_HYBRID);
-        updateMapWithDevices();
+        if (viewportLoading) {
+            mMap.setOnCameraIdleListener(this::loadVisibleCells);
+            centerOnLatestDevice();
+        } else {
+            updateMapWithDevices();
+        }
 
         if (showUserLocation) {
             try {
@@ -98,6 +125,97 @@ public class WifiMapFragment extends Fragment implements OnMapReadyCallback {
             updateMapWithDevices();
         }
     }
+
+    // Let the fragment load devices for the visible area itself instead of being handed a list
+    public void setViewportLoading(boolean enabled) {
+        this.viewportLoading = enabled;
+    }
+
+    // Applies one batch of changes to the drawn devices: removed and moved-away devices
+    // are taken off the map, the rest are updated in place or added, so a scan only
+    // touches the devices it changed instead of reloading the viewport
+    public void applyDelta(DeviceDelta delta) {
+        if (mMap == null || (viewportLoading && loadedCells == null)) return;
+        for (String bssid : delta.getRemoved()) {
+            removeDevice(bssid);
+        }
+        for (WiFiDevice device : delta.getUpserted()) {
+            if (isInLoadedCells(device)) {
+                drawDevice(device);
+            } else {
+                removeDevice(device.getBssid());
+            }
+        }
+    }
+
+    // Drops every drawn device, e.g. after the stored data was cleared
+    public void clearDevices() {
+        wifiDevices = null;
+        clearDeviceGraphics();
+    }
+
+    private boolean isInLoadedCells(WiFiDevice device) {
+        if (device.getLatitude() == null || device.getLongitude() == null) return false;
+        if (!viewportLoading) return true;
+        String cell = Geohash.encode(device.getLatitude(), device.getLongitude(), loadedCells.get(0).length());
+        return loadedCells.contains(cell);
+    }
+
+    private void centerOnLatestDevice() {
+        LocaFiApp.getDeviceRepository().getLatestDevice(device -> {
+            if (mMap == null) return;
+            if (device != null && device.getLatitude() != null && device.getLongitude() != null) {
+                mMap.moveCamera(CameraUpdateFactory.newLatLngZoom(
+                        new LatLng(device.getLatitude(), device.getLongitude()), DEFAULT_ZOOM));
+            } else {
+                loadVisibleCells();
+            }
+        });
+    }
+
+    private void loadVisibleCells() {
+        if (mMap == null || !viewportLoading) return;
+        LatLngBounds bounds = mMap.getProjection().getVisibleRegion().latLngBounds;
+        double minLat = bounds.southwest.latitude, minLon = bounds.southwest.longitude;
+        double maxLat = bounds.northeast.latitude, maxLon = bounds.northeast.longitude;
+        List<String> cells = Geohash.coveringCells(minLat, minLon, maxLat, maxLon,
+                MIN_VIEWPORT_PRECISION, FirebaseRepo.CELL_PRECISION, MAX_VIEWPORT_CELLS);
+        if (cells == null) {
+            // Zoomed out too far to load by area
+            loadedCells = null;
+            viewportRequest++;
+            wifiDevices = null;
+            clearDeviceGraphics();
+            LocaFiApp.getDeviceRepository().watchCells(Collections.emptyList());
+            return;
+        }
+        if (cells.equals(loadedCells)) return;
+        loadedCells = cells;
+        // Remote changes are followed for the same cells, attached and detached as the camera moves
+        LocaFiApp.getDeviceRepository().watchCells(cells);
+
+        // Query the union of the covering cells, so panning inside them needs no reload
+        double[] cellBounds = new double[4];
+        double[] union = {90, 180, -90, -180};
+        for (String cell : cells) {
+            Geohash.decodeBounds(cell, cellBounds);
+            union[0] = Math.min(union[0], cellBounds[0]);
+            union[1] = Math.min(union[1], cellBounds[1]);
+            union[2] = Math.max(union[2], cellBounds[2]);
+            union[3] = Math.max(union[3], cellBounds[3]);
+        }
+        final int request = ++viewportRequest;
+        LocaFiApp.getDeviceRepository().getDevicesInViewport(union[0], union[1], union[2], union[3], cells,
+                devices -> showViewportDevices(request, devices));
+    }
+
+    private void showViewportDevices(int request, List<WiFiDevice> devices) {
+        if (request != viewportRequest || mMap == null) return;
+        wifiDevices = devices;
+        clearDeviceGraphics();
+        drawDevices();
+    }
+
     public void setMapMode(MapMode mode) {
         this.currentMode = mode;
     }
@@ -239,70 +357,145 @@ public class WifiMapFragment extends Fragment implements OnMapReadyCallback {
             mMap.animateCamera(CameraUpdateFactory.newLatLngZoom(location, DETAIL_ZOOM));
         }
     }
+
+    // Renders into the same pixel buffer and mutable bitmap every time and updates the
+    // existing overlay in place; only the first call (or a cleared map) adds one
+    public void showLikelihoodGrid(LikelihoodGrid grid) {
+        if (mMap == null || grid == null || !grid.hasEstimate()) return;
+
+        int width = grid.getWidth();
+        int height = grid.getHeight();
+        if (likelihoodPixels == null || likelihoodPixels.length != width * height) {
+            likelihoodPixels = new int[width * height];
+        }
+        if (likelihoodBitmap == null || likelihoodBitmap.getWidth() != width
+                || likelihoodBitmap.getHeight() != height) {
+            likelihoodBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
+        grid.render(likelihoodPixels, Color.BLUE);
+        likelihoodBitmap.setPixels(likelihoodPixels, 0, width, 0, 0, width, height);
+        BitmapDescriptor image = BitmapDescriptorFactory.fromBitmap(likelihoodBitmap);
+
+        grid.getBounds(likelihoodBounds);
+        LatLngBounds latLngBounds = new LatLngBounds(
+                new LatLng(likelihoodBounds[0], likelihoodBounds[1]),
+                new LatLng(likelihoodBounds[2], likelihoodBounds[3]));
+
+        if (likelihoodOverlay != null) {
+            likelihoodOverlay.setImage(image);
+            likelihoodOverlay.setPositionFromBounds(latLngBounds);
+            return;
+        }
+        likelihoodOverlay = mMap.addGroundOverlay(new GroundOverlayOptions()
+                .image(image)
+                .positionFromBounds(latLngBounds)
+                .transparency(0.3f)
+                .zIndex(1.0f));
+    }
+
     private void updateMapWithDevices() {
         if (mMap == null || wifiDevices == null) return;
 
         clearMarkersAndCircles();
+        LatLng firstPosition = drawDevices();
 
-        LatLng defaultLocation = new LatLng(37.422131, -122.084801);
-        boolean hasValidDevice = false;
+        if (firstPosition != null && !viewportLoading) {
+            mMap.moveCamera(CameraUpdateFactory.newLatLngZoom(firstPosition, DEFAULT_ZOOM));
+        }
+    }
+
+    // Draws wifiDevices and returns the position of the first one with a location
+    private LatLng drawDevices() {
+        if (wifiDevices == null) return null;
+        LatLng firstPosition = null;
 
         for (WiFiDevice device : wifiDevices) {
-            if (device.getLatitude() != null && device.getLongitude() != null) {
-                LatLng position = new LatLng(device.getLatitude(), device.getLongitude());
-                int color = SignalStrengthHelper.getColorForSignalStrength(device.getSignalStrength());
-                float radius = SignalStrengthHelper.getCircleRadius(device.getSignalStrength());
-
-                // Add circle with transparent fill
-                Circle circle = mMap.addCircle(new CircleOptions()
-                        .center(position)
-                        .radius(radius)
-                        .strokeColor(color)
-                        .fillColor(Color.TRANSPARENT) // Make fill transparent
-                        .strokeWidth(4)
-                        .zIndex(2.0f));
-                deviceCircles.put(device.getBssid(), circle);
-
-                // Add marker
-                Marker marker = mMap.addMarker(new MarkerOptions()
-                        .position(position)
-                        .title(device.getSsid())
-                        .snippet("Signal: " + device.getSignalStrength() + " dBm")
-                        .icon(getBitmapDescriptor(color))
-                        .zIndex(3.0f));
-
-                if (marker != null) {
-                    deviceMarkers.put(device.getBssid(), marker);
-
-                    // Add connecting line between circle edge and marker
-                    addConnectingLine(position, radius, color);
-                }
-
-                if (!hasValidDevice) {
-                    defaultLocation = position;
-                    hasValidDevice = true;
-                }
+            LatLng position = drawDevice(device);
+            if (firstPosition == null) {
+                firstPosition = position;
             }
         }
+        return firstPosition;
+    }
+
+    // Adds the circle, marker and connecting line for one device, or moves and recolors
+    // the ones already drawn for its BSSID. Returns null when the device has no location.
+    private LatLng drawDevice(WiFiDevice device) {
+        if (device.getLatitude() == null || device.getLongitude() == null) return null;
+        LatLng position = new LatLng(device.getLatitude(), device.getLongitude());
+        int color = SignalStrengthHelper.getColorForSignalStrength(device.getSignalStrength());
+        float radius = SignalStrengthHelper.getCircleRadius(device.getSignalStrength());
+        String snippet = "Signal: " + device.getSignalStrength() + " dBm";
+
+        Circle circle = deviceCircles.get(device.getBssid());
+        if (circle != null) {
+            circle.setCenter(position);
+            circle.setRadius(radius);
+            circle.setStrokeColor(color);
+        } else {
+            // Add circle with transparent fill
+            deviceCircles.put(device.getBssid(), mMap.addCircle(new CircleOptions()
+                    .center(position)
+                    .radius(radius)
+                    .strokeColor(color)
+                    .fillColor(Color.TRANSPARENT) // Make fill transparent
+                    .strokeWidth(4)
+                    .zIndex(2.0f)));
+        }
+
+        Marker marker = deviceMarkers.get(device.getBssid());
+        if (marker != null) {
+            marker.setPosition(position);
+            marker.setTitle(device.getSsid());
+            marker.setSnippet(snippet);
+            marker.setIcon(getBitmapDescriptor(color));
+        } else {
+            marker = mMap.addMarker(new MarkerOptions()
+                    .position(position)
+                    .title(device.getSsid())
+                    .snippet(snippet)
+                    .icon(getBitmapDescriptor(color))
+                    .zIndex(3.0f));
+            if (marker == null) return position;
+            deviceMarkers.put(device.getBssid(), marker);
+        }
 
-        if (hasValidDevice) {
-            mMap.moveCamera(CameraUpdateFactory.newLatLngZoom(defaultLocation, DEFAULT_ZOOM));
+        // Add connecting line between circle edge and marker
+        Polyline line = deviceLines.get(device.getBssid());
+        if (line != null) {
+            line.setPoints(connectingLine(position, radius));
+            line.setColor(color);
+        } else {
+            deviceLines.put(device.getBssid(), mMap.addPolyline(new PolylineOptions()
+                    .addAll(connectingLine(position, radius))
+                    .color(color)
+                    .width(4)));
         }
+        return position;
     }
 
-    // Add new method to create connecting line
-    private void addConnectingLine(LatLng center, float radius, int color) {
-        // Calculate point on circle's edge (we'll use a point to the right of center)
+    // Line from a point on the circle's edge (to the right of center) to the center
+    private static List<LatLng> connectingLine(LatLng center, float radius) {
         double lat = center.latitude;
         double lng = center.longitude + (radius / 111000); // Convert meters to degrees (approximate)
 
         LatLng circleEdge = new LatLng(lat, lng);
+        return Arrays.asList(circleEdge, center);
+    }
 
-        // Draw line from circle edge to center
-        mMap.addPolyline(new PolylineOptions()
-                .add(circleEdge, center)
-                .color(color)
-                .width(4));
+    private void removeDevice(String bssid) {
+        Circle circle = deviceCircles.remove(bssid);
+        if (circle != null) {
+            circle.remove();
+        }
+        Marker marker = deviceMarkers.remove(bssid);
+        if (marker != null) {
+            marker.remove();
+        }
+        Polyline line = deviceLines.remove(bssid);
+        if (line != null) {
+            line.remove();
+        }
     }
 
     // Update the clearMarkersAndCircles method to also clear polylines
@@ -318,6 +511,7 @@ public class WifiMapFragment extends Fragment implements OnMapReadyCallback {
         deviceMarkers.clear();
 
         // Clear existing polylines
+        deviceLines.clear();
         if (mMap != null) {
             mMap.clear();
         }
@@ -326,7 +520,24 @@ public class WifiMapFragment extends Fragment implements OnMapReadyCallback {
             estimatedLocationMarker.remove();
             estimatedLocationMarker = null;
         }
+        likelihoodOverlay = null;
+    }
+    // Removes only the device circles, markers and lines, keeping GPS/estimate overlays
+    private void clearDeviceGraphics() {
+        for (Circle circle : deviceCircles.values()) {
+            circle.remove();
+        }
+        deviceCircles.clear();
+        for (Marker marker : deviceMarkers.values()) {
+            marker.remove();
+        }
+        deviceMarkers.clear();
+        for (Polyline line : deviceLines.values()) {
+            line.remove();
+        }
+        deviceLines.clear();
     }
+
     public boolean isGpsLocationVisible() {
         return isGpsLocationVisible;
     }
@@ -0,0 +1,35 @@
+package dev.nimrod.locafi.utils;
+
+public class BssidUtils {
+    public static final long INVALID = -1L;
+
+    // Packs "aa:bb:cc:dd:ee:ff" into the low 48 bits of a long; INVALID when malformed
+    public static long toLong(String bssid) {
+        if (bssid == null || bssid.length() != 17) {
+            return INVALID;
+        }
+        long value = 0;
+        for (int i = 0; i < 17; i++) {
+            char c = bssid.charAt(i);
+            if (i % 3 == 2) {
+                if (c != ':' && c != '-') return INVALID;
+                continue;
+            }
+            int digit = Character.digit(c, 16);
+            if (digit < 0) return INVALID;
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    public static String toString(long bssid) {
+        char[] chars = new char[17];
+        for (int i = 0; i < 6; i++) {
+            int octet = (int) (bssid >>> (8 * (5 - i))) & 0xFF;
+            chars[i * 3] = Character.forDigit(octet >>> 4, 16);
+            chars[i * 3 + 1] = Character.forDigit(octet & 0xF, 16);
+            if (i < 5) chars[i * 3 + 2] = ':';
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,233 @@
+package dev.nimrod.locafi.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import dev.nimrod.locafi.models.WiFiDevice;
+
+// Compact binary form of WiFiDevice streams. After a 4-byte header ("LFD" + version)
+// each record is:
+//   flags        1 byte  (bit 0: has position, bit 1: literal SSID follows)
+//   bssid        6 bytes (packed, BssidUtils)
+//   lat, lon     4 + 4 bytes E7 fixed point, only with a position
+//   rssi         1 byte, clamped to [-128, 127]
+//   timestamp    zigzag varint delta from the previous record's timestamp
+//   ssid         varint: 0 = none, n = dictionary entry n - 1; an index equal to the
+//                dictionary size introduces a new entry (varint length + UTF-8).
+//                Once the dictionary is full, new SSIDs are written as literals.
+// A typical record is 18-25 bytes. Both ends build the same dictionary, so a stream
+// is read in one pass with memory bounded by the dictionary.
+public class DeviceCodec {
+    private static final byte[] MAGIC = {'L', 'F', 'D'};
+    private static final int VERSION = 1;
+    public static final int MAX_DICTIONARY_SIZE = 4096;
+    private static final double E7 = 1e7;
+
+    private static final int FLAG_POSITION = 1;
+    private static final int FLAG_LITERAL_SSID = 1 << 1;
+
+    public static byte[] encode(List<WiFiDevice> devices) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(4 + devices.size() * 24);
+        try {
+            Writer writer = new Writer(out);
+            for (WiFiDevice device : devices) {
+                writer.write(device);
+            }
+        } catch (IOException e) {
+            // ByteArrayOutputStream does not throw
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    public static List<WiFiDevice> decode(byte[] data) throws IOException {
+        List<WiFiDevice> devices = new ArrayList<>();
+        Reader reader = new Reader(new ByteArrayInputStream(data));
+        WiFiDevice device;
+        while ((device = reader.read()) != null) {
+            devices.add(device);
+        }
+        return devices;
+    }
+
+    // Devices with a malformed BSSID cannot be packed and are skipped; see getSkipped()
+    public static class Writer {
+        private final OutputStream out;
+        private final Map<String, Integer> dictionary = new HashMap<>();
+        private final byte[] buffer = new byte[32];
+        private long previousTimestamp = 0;
+        private int written = 0;
+        private int skipped = 0;
+
+        public Writer(OutputStream out) throws IOException {
+            this.out = out;
+            out.write(MAGIC);
+            out.write(VERSION);
+        }
+
+        public boolean write(WiFiDevice device) throws IOException {
+            long bssid = BssidUtils.toLong(device.getBssid());
+            if (bssid == BssidUtils.INVALID) {
+                skipped++;
+                return false;
+            }
+            String ssid = device.getSsid();
+            Integer index = ssid == null ? null : dictionary.get(ssid);
+            boolean literal = ssid != null && index == null && dictionary.size() >= MAX_DICTIONARY_SIZE;
+            boolean hasPosition = device.getLatitude() != null && device.getLongitude() != null;
+
+            int pos = 0;
+            buffer[pos++] = (byte) ((hasPosition ? FLAG_POSITION : 0) | (literal ? FLAG_LITERAL_SSID : 0));
+            for (int shift = 40; shift >= 0; shift -= 8) {
+                buffer[pos++] = (byte) (bssid >>> shift);
+            }
+            if (hasPosition) {
+                pos = putInt(buffer, pos, (int) Math.round(device.getLatitude() * E7));
+                pos = putInt(buffer, pos, (int) Math.round(device.getLongitude() * E7));
+            }
+            buffer[pos++] = (byte) Math.max(-128, Math.min(127, device.getSignalStrength()));
+            long delta = device.getTimestamp() - previousTimestamp;
+            pos = putVarLong(buffer, pos, (delta << 1) ^ (delta >> 63));
+            previousTimestamp = device.getTimestamp();
+
+            if (literal) {
+                out.write(buffer, 0, pos);
+                writeString(ssid);
+            } else if (ssid == null) {
+                buffer[pos++] = 0;
+                out.write(buffer, 0, pos);
+            } else if (index != null) {
+                pos = putVarLong(buffer, pos, index + 1);
+                out.write(buffer, 0, pos);
+            } else {
+                int added = dictionary.size();
+                dictionary.put(ssid, added);
+                pos = putVarLong(buffer, pos, added + 1);
+                out.write(buffer, 0, pos);
+                writeString(ssid);
+            }
+            written++;
+            return true;
+        }
+
+        private void writeString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            int pos = putVarLong(buffer, 0, bytes.length);
+            out.write(buffer, 0, pos);
+            out.write(bytes);
+        }
+
+        public int getWritten() {
+            return written;
+        }
+
+        public int getSkipped() {
+            return skipped;
+        }
+    }
+
+    public static class Reader {
+        private final DataInputStream in;
+        private final List<String> dictionary = new ArrayList<>();
+        private long previousTimestamp = 0;
+
+        public Reader(InputStream in) throws IOException {
+            this.in = new DataInputStream(in);
+            byte[] header = new byte[4];
+            this.in.readFully(header);
+            if (header[0] != MAGIC[0] || header[1] != MAGIC[1] || header[2] != MAGIC[2]) {
+                throw new IOException("Not a device stream");
+            }
+            if (header[3] != VERSION) {
+                throw new IOException("Unsupported device stream version " + header[3]);
+            }
+        }
+
+        // Next device, or null at the end of the stream
+        public WiFiDevice read() throws IOException {
+            int flags = in.read();
+            if (flags < 0) return null;
+            try {
+                WiFiDevice device = new WiFiDevice();
+                long bssid = 0;
+                for (int i = 0; i < 6; i++) {
+                    bssid = (bssid << 8) | in.readUnsignedByte();
+                }
+                device.setBssid(BssidUtils.toString(bssid));
+                if ((flags & FLAG_POSITION) != 0) {
+                    device.setLatitude(in.readInt() / E7);
+                    device.setLongitude(in.readInt() / E7);
+                }
+                device.setSignalStrength(in.readByte());
+                long zigzag = readVarLong();
+                previousTimestamp += (zigzag >>> 1) ^ -(zigzag & 1);
+                device.setTimestamp(previousTimestamp);
+
+                if ((flags & FLAG_LITERAL_SSID) != 0) {
+                    device.setSsid(readString());
+                } else {
+                    long code = readVarLong();
+                    if (code > 0) {
+                        int index = (int) (code - 1);
+                        if (index == dictionary.size()) {
+                            dictionary.add(readString());
+                        } else if (index > dictionary.size()) {
+                            throw new IOException("Bad SSID reference " + index);
+                        }
+                        device.setSsid(dictionary.get(index));
+                    }
+                }
+                return device;
+            } catch (EOFException e) {
+                throw new IOException("Truncated device record", e);
+            }
+        }
+
+        private String readString() throws IOException {
+            long length = readVarLong();
+            if (length > 1024) {
+                throw new IOException("SSID too long: " + length);
+            }
+            byte[] bytes = new byte[(int) length];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = in.readUnsignedByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new IOException("Malformed varint");
+        }
+    }
+
+    private static int putInt(byte[] buffer, int pos, int value) {
+        buffer[pos++] = (byte) (value >>> 24);
+        buffer[pos++] = (byte) (value >>> 16);
+        buffer[pos++] = (byte) (value >>> 8);
+        buffer[pos++] = (byte) value;
+        return pos;
+    }
+
+    private static int putVarLong(byte[] buffer, int pos, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[pos++] = (byte) value;
+        return pos;
+    }
+}
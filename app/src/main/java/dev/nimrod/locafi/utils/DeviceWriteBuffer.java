@@ -0,0 +1,216 @@
+package dev.nimrod.locafi.utils;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.firebase.database.DatabaseReference;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import dev.nimrod.locafi.data.DeviceRemote;
+import dev.nimrod.locafi.models.WiFiDevice;
+
+// Write-behind buffer for device records. Writes are coalesced per BSSID (newest
+// timestamp wins) and flushed as one multi-path updateChildren() either every
+// flush interval or as soon as the batch reaches its size threshold. Entries
+// older than what the LastWriteIndex says we already wrote are dropped up front.
+public class DeviceWriteBuffer {
+    private static final String TAG = "DeviceWriteBuffer";
+    public static final long DEFAULT_FLUSH_INTERVAL_MS = 10000;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 200;
+
+    private final DatabaseReference userRootRef;
+    private final LastWriteIndex lastWriteIndex;
+    private final long flushIntervalMs;
+    private final int maxBatchSize;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable flushRunnable = this::flush;
+
+    private final Map<String, WiFiDevice> pending = new LinkedHashMap<>();
+    private boolean flushScheduled = false;
+    private DeviceRemote.OnDevicesWrittenListener onDevicesWrittenListener;
+
+    // Metrics
+    private long enqueuedCount;
+    private long coalescedCount;
+    private long staleCount;
+    private long flushCount;
+    private long failedFlushCount;
+    private long writtenCount;
+    private int lastBatchSize;
+    private long lastFlushLatencyMs;
+    private long totalFlushLatencyMs;
+    private long maxFlushLatencyMs;
+
+    public DeviceWriteBuffer(DatabaseReference userRootRef, LastWriteIndex lastWriteIndex) {
+        this(userRootRef, lastWriteIndex, DEFAULT_FLUSH_INTERVAL_MS, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    public DeviceWriteBuffer(DatabaseReference userRootRef, LastWriteIndex lastWriteIndex,
+                             long flushIntervalMs, int maxBatchSize) {
+        this.userRootRef = userRootRef;
+        this.lastWriteIndex = lastWriteIndex;
+        this.flushIntervalMs = flushIntervalMs;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public synchronized void enqueue(WiFiDevice device) {
+        if (device.getBssid() == null || device.getBssid().isEmpty()) {
+            Log.e(TAG, "Cannot queue device: BSSID is null or empty");
+            return;
+        }
+        enqueuedCount++;
+        long key = BssidUtils.toLong(device.getBssid());
+        if (key != BssidUtils.INVALID && !lastWriteIndex.isNewer(key, device.getTimestamp())) {
+            staleCount++;
+            return;
+        }
+        WiFiDevice existing = pending.get(device.getBssid());
+        if (existing != null) {
+            coalescedCount++;
+            if (existing.getTimestamp() > device.getTimestamp()) {
+                return;
+            }
+        }
+        pending.put(device.getBssid(), device);
+
+        if (pending.size() >= maxBatchSize) {
+            flush();
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            handler.postDelayed(flushRunnable, flushIntervalMs);
+        }
+    }
+
+    public synchronized void flush() {
+        handler.removeCallbacks(flushRunnable);
+        flushScheduled = false;
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        // One multi-path update relative to users/{uid}: each device in its cell plus its
+        // time index entry, and a null at the previous cell of every device that moved
+        final Map<String, WiFiDevice> batch = new HashMap<>(pending);
+        final Map<String, String> batchCells = new HashMap<>();
+        Map<String, Object> updates = new HashMap<>();
+        for (WiFiDevice device : batch.values()) {
+            String cell = FirebaseRepo.cellOf(device);
+            batchCells.put(device.getBssid(), cell);
+            FirebaseRepo.putDeviceUpdates(updates, device, cell,
+                    lastWriteIndex.getLastCell(BssidUtils.toLong(device.getBssid())));
+        }
+        pending.clear();
+
+        final int batchSize = batch.size();
+        final long startedAt = SystemClock.elapsedRealtime();
+        userRootRef.updateChildren(updates).addOnCompleteListener(task -> {
+            long latency = SystemClock.elapsedRealtime() - startedAt;
+            if (task.isSuccessful()) {
+                for (WiFiDevice device : batch.values()) {
+                    lastWriteIndex.recordWrite(BssidUtils.toLong(device.getBssid()), device.getTimestamp(),
+                            batchCells.get(device.getBssid()));
+                }
+                lastWriteIndex.saveIfDue();
+                recordFlush(batchSize, latency);
+                DeviceRemote.OnDevicesWrittenListener listener = getOnDevicesWrittenListener();
+                if (listener != null) {
+                    listener.onDevicesWritten(batch.values());
+                }
+                Log.d(TAG, "Flushed " + batchSize + " devices in " + latency + " ms");
+            } else {
+                Log.e(TAG, "Failed to flush " + batchSize + " devices", task.getException());
+                requeue(batch);
+            }
+        });
+    }
+
+    public synchronized void setOnDevicesWrittenListener(DeviceRemote.OnDevicesWrittenListener listener) {
+        onDevicesWrittenListener = listener;
+    }
+
+    private synchronized DeviceRemote.OnDevicesWrittenListener getOnDevicesWrittenListener() {
+        return onDevicesWrittenListener;
+    }
+
+    private synchronized void recordFlush(int batchSize, long latencyMs) {
+        flushCount++;
+        writtenCount += batchSize;
+        lastBatchSize = batchSize;
+        lastFlushLatencyMs = latencyMs;
+        totalFlushLatencyMs += latencyMs;
+        maxFlushLatencyMs = Math.max(maxFlushLatencyMs, latencyMs);
+    }
+
+    // Puts a failed batch back unless a newer observation arrived in the meantime
+    private synchronized void requeue(Map<String, WiFiDevice> batch) {
+        failedFlushCount++;
+        for (Map.Entry<String, WiFiDevice> entry : batch.entrySet()) {
+            WiFiDevice newer = pending.get(entry.getKey());
+            if (newer == null || newer.getTimestamp() < entry.getValue().getTimestamp()) {
+                pending.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (!flushScheduled && !pending.isEmpty()) {
+            flushScheduled = true;
+            handler.postDelayed(flushRunnable, flushIntervalMs);
+        }
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    public synchronized long getEnqueuedCount() {
+        return enqueuedCount;
+    }
+
+    public synchronized long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    public synchronized long getStaleCount() {
+        return staleCount;
+    }
+
+    public synchronized long getFlushCount() {
+        return flushCount;
+    }
+
+    public synchronized long getFailedFlushCount() {
+        return failedFlushCount;
+    }
+
+    public synchronized int getLastBatchSize() {
+        return lastBatchSize;
+    }
+
+    public synchronized double getAverageBatchSize() {
+        return flushCount > 0 ? (double) writtenCount / flushCount : 0;
+    }
+
+    public synchronized long getLastFlushLatencyMs() {
+        return lastFlushLatencyMs;
+    }
+
+    public synchronized double getAverageFlushLatencyMs() {
+        return flushCount > 0 ? (double) totalFlushLatencyMs / flushCount : 0;
+    }
+
+    public synchronized long getMaxFlushLatencyMs() {
+        return maxFlushLatencyMs;
+    }
+
+    public synchronized String getMetricsSummary() {
+        return "enqueued=" + enqueuedCount + " coalesced=" + coalescedCount
+                + " stale=" + staleCount + " flushes=" + flushCount + " failed=" + failedFlushCount
+                + " avgBatch=" + String.format(java.util.Locale.US, "%.1f", getAverageBatchSize())
+                + " lastLatencyMs=" + lastFlushLatencyMs
+                + " avgLatencyMs=" + String.format(java.util.Locale.US, "%.1f", getAverageFlushLatencyMs())
+                + " pending=" + pending.size();
+    }
+}
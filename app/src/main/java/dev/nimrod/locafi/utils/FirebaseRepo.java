@@ -1,65 +1,407 @@
 package dev.nimrod.locafi.utils;
 
 import android.util.Log;
+import com.google.firebase.database.ChildEventListener;
 import com.google.firebase.database.DataSnapshot;
 import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.MutableData;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.Transaction;
 import com.google.firebase.database.ValueEventListener;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import dev.nimrod.locafi.LocaFiApp;
+import dev.nimrod.locafi.data.DevicePageCursor;
+import dev.nimrod.locafi.data.DeviceRemote;
 import dev.nimrod.locafi.models.WiFiDevice;
 
-public class FirebaseRepo {
+public class FirebaseRepo implements DeviceRemote {
     private static final String TAG = "FirebaseRepo";
     private static final String USERS_PATH = "users";
+    // Legacy flat layout: users/{uid}/wifiDevices/{bssid}
     private static final String WIFI_DEVICES_PATH = "wifiDevices";
-    private final DatabaseReference userDbRef;
+    // Sharded layout: users/{uid}/wifiCells/{geohash}/{bssid}
+    private static final String WIFI_CELLS_PATH = "wifiCells";
+    // Flat users/{uid}/wifiTimeIndex/{bssid} = {timestamp, cell, ssid, signalStrength,
+    // latitude, longitude}, for time-ordered queries across cells; needs ".indexOn":
+    // "timestamp" in the database rules. The entry carries the whole device so a page or
+    // pull is one query; entries written before that hold only timestamp and cell.
+    private static final String WIFI_TIME_INDEX_PATH = "wifiTimeIndex";
+    private static final String INDEX_TIMESTAMP = "timestamp";
+    private static final String INDEX_CELL = "cell";
+    private static final String INDEX_SSID = "ssid";
+    private static final String INDEX_SIGNAL = "signalStrength";
+    private static final String INDEX_LATITUDE = "latitude";
+    private static final String INDEX_LONGITUDE = "longitude";
+    public static final int CELL_PRECISION = 6;
+    // Bucket for devices saved without a location
+    public static final String NO_CELL = "_";
+    private static final int MIGRATION_BATCH_SIZE = 500;
+    // Index entries read, and deleted in one multi-path update, per eviction round
+    private static final int EVICTION_BATCH_SIZE = 500;
+    private final DatabaseReference userRootRef;
+    private final DatabaseReference cellsRef;
+    private final DatabaseReference timeIndexRef;
     private final String userId;
+    private DeviceWriteBuffer writeBuffer;
+    private OnDevicesWrittenListener devicesWrittenListener;
+    private final Map<ChangeListener, CellChangeListener> changeListeners = new HashMap<>();
+    // Cells (or cell prefixes) the change listeners follow; set from the map viewport
+    private List<String> watchedCells = new ArrayList<>();
 
     public FirebaseRepo() {
         FirebaseDatabase database = FirebaseDatabase.getInstance();
         this.userId = LocaFiApp.getCurrentUser().getUserId();
-        this.userDbRef = database.getReference(USERS_PATH).child(userId).child(WIFI_DEVICES_PATH);
+        this.userRootRef = database.getReference(USERS_PATH).child(userId);
+        this.cellsRef = userRootRef.child(WIFI_CELLS_PATH);
+        this.timeIndexRef = userRootRef.child(WIFI_TIME_INDEX_PATH);
     }
 
+    public static String cellOf(WiFiDevice device) {
+        if (device.getLatitude() == null || device.getLongitude() == null) {
+            return NO_CELL;
+        }
+        return Geohash.encode(device.getLatitude(), device.getLongitude(), CELL_PRECISION);
+    }
+
+    // Adds everything one device write touches, relative to users/{uid}: the device in its
+    // cell, its time index entry and, if it moved, a null at the cell it left
+    public static void putDeviceUpdates(Map<String, Object> updates, WiFiDevice device, String cell,
+                                        String previousCell) {
+        updates.put(WIFI_CELLS_PATH + "/" + cell + "/" + device.getBssid(), device);
+        updates.put(WIFI_TIME_INDEX_PATH + "/" + device.getBssid(), indexEntry(device, cell));
+        if (previousCell != null && !previousCell.equals(cell)) {
+            updates.put(WIFI_CELLS_PATH + "/" + previousCell + "/" + device.getBssid(), null);
+        }
+    }
+
+    private static Map<String, Object> indexEntry(WiFiDevice device, String cell) {
+        Map<String, Object> entry = new HashMap<>();
+        entry.put(INDEX_TIMESTAMP, device.getTimestamp());
+        entry.put(INDEX_CELL, cell);
+        entry.put(INDEX_SSID, device.getSsid());
+        entry.put(INDEX_SIGNAL, device.getSignalStrength());
+        entry.put(INDEX_LATITUDE, device.getLatitude());
+        entry.put(INDEX_LONGITUDE, device.getLongitude());
+        return entry;
+    }
+
+    // The device an index entry describes, or null for an entry from before the entries
+    // carried the device fields
+    private static WiFiDevice deviceFromIndex(String bssid, DataSnapshot entry) {
+        Integer signalStrength = entry.child(INDEX_SIGNAL).getValue(Integer.class);
+        Long timestamp = entry.child(INDEX_TIMESTAMP).getValue(Long.class);
+        if (signalStrength == null || timestamp == null) return null;
+        WiFiDevice device = new WiFiDevice();
+        device.setBssid(bssid);
+        device.setSsid(entry.child(INDEX_SSID).getValue(String.class));
+        device.setSignalStrength(signalStrength);
+        device.setLatitude(entry.child(INDEX_LATITUDE).getValue(Double.class));
+        device.setLongitude(entry.child(INDEX_LONGITUDE).getValue(Double.class));
+        device.setTimestamp(timestamp);
+        return device;
+    }
 
     public void saveDevice(WiFiDevice wifiDevice) {
         if (wifiDevice.getBssid() == null || wifiDevice.getBssid().isEmpty()) {
             Log.e(TAG, "Cannot save device: BSSID is null or empty");
             return;
         }
-        DatabaseReference deviceRef = userDbRef.child(wifiDevice.getBssid());
+        String cell = cellOf(wifiDevice);
+        LastWriteIndex lastWriteIndex = LocaFiApp.getLastWriteIndex();
+        long key = BssidUtils.toLong(wifiDevice.getBssid());
+        long lastWritten = key == BssidUtils.INVALID ? LastWriteIndex.UNKNOWN : lastWriteIndex.getLastWritten(key);
 
-        deviceRef.get().addOnCompleteListener(task -> {
-            if (task.isSuccessful()) {
-                DataSnapshot snapshot = task.getResult();
-                WiFiDevice existingDevice = snapshot.getValue(WiFiDevice.class);
+        if (lastWritten == LastWriteIndex.UNKNOWN) {
+            // Never written from this install: let the server compare timestamps
+            saveDeviceIfNewer(wifiDevice, key, cell);
+            return;
+        }
+        // This install is the only writer under users/{uid}, so the local index is authoritative
+        if (wifiDevice.getTimestamp() <= lastWritten) {
+            Log.d(TAG, "Skipping stale write for device: " + wifiDevice.getBssid());
+            return;
+        }
+        // One multi-path update also drops the copy left in the previous cell
+        Map<String, Object> updates = new HashMap<>();
+        putDeviceUpdates(updates, wifiDevice, cell, lastWriteIndex.getLastCell(key));
+        userRootRef.updateChildren(updates)
+                .addOnSuccessListener(aVoid -> {
+                    lastWriteIndex.recordWrite(key, wifiDevice.getTimestamp(), cell);
+                    lastWriteIndex.saveIfDue();
+                    Log.d(TAG, "Successfully saved device: " + wifiDevice.getBssid());
+                })
+                .addOnFailureListener(e -> Log.e(TAG, "Failed to save device: " + wifiDevice.getBssid(), e));
+    }
 
-                if (existingDevice == null || existingDevice.getTimestamp() < wifiDevice.getTimestamp()) {
-                    deviceRef.setValue(wifiDevice)
-                            .addOnSuccessListener(aVoid -> Log.d(TAG, "Successfully saved device: " + wifiDevice.getBssid()))
-                            .addOnFailureListener(e -> Log.e(TAG, "Failed to save device: " + wifiDevice.getBssid(), e));
+    // Conditional write without a separate read: a transaction on the device's time index
+    // entry claims the write only when ours is newer and yields the cell the current copy
+    // is in, then one multi-path update stores the device and drops that older copy
+    private void saveDeviceIfNewer(WiFiDevice wifiDevice, long key, String cell) {
+        final String[] previousCell = new String[1];
+        timeIndexRef.child(wifiDevice.getBssid()).runTransaction(new Transaction.Handler() {
+            @Override
+            public Transaction.Result doTransaction(MutableData currentData) {
+                Long existing = currentData.child(INDEX_TIMESTAMP).getValue(Long.class);
+                // Equal timestamps go through so a retry after a failed update completes it
+                if (existing != null && existing > wifiDevice.getTimestamp()) {
+                    return Transaction.abort();
                 }
-            } else {
-                Log.e(TAG, "Error checking existing device", task.getException());
+                previousCell[0] = currentData.child(INDEX_CELL).getValue(String.class);
+                currentData.setValue(indexEntry(wifiDevice, cell));
+                return Transaction.success(currentData);
+            }
+
+            @Override
+            public void onComplete(DatabaseError error, boolean committed, DataSnapshot currentData) {
+                if (error != null) {
+                    Log.e(TAG, "Failed to save device: " + wifiDevice.getBssid(), error.toException());
+                    return;
+                }
+                if (!committed) {
+                    // The server already holds something newer; remember it so we skip next time
+                    Long existing = currentData != null ? currentData.child(INDEX_TIMESTAMP).getValue(Long.class) : null;
+                    if (existing != null) {
+                        LocaFiApp.getLastWriteIndex().recordWrite(key, existing,
+                                currentData.child(INDEX_CELL).getValue(String.class));
+                    }
+                    return;
+                }
+                Map<String, Object> updates = new HashMap<>();
+                putDeviceUpdates(updates, wifiDevice, cell, previousCell[0]);
+                userRootRef.updateChildren(updates)
+                        .addOnSuccessListener(aVoid -> {
+                            LocaFiApp.getLastWriteIndex().recordWrite(key, wifiDevice.getTimestamp(), cell);
+                            LocaFiApp.getLastWriteIndex().saveIfDue();
+                            Log.d(TAG, "Successfully saved device: " + wifiDevice.getBssid());
+                        })
+                        .addOnFailureListener(e -> Log.e(TAG, "Failed to save device: " + wifiDevice.getBssid(), e));
             }
         });
     }
 
-    public void getAllDevices(final GetAllDevicesCallback callback) {
-        userDbRef.addValueEventListener(new ValueEventListener() {
-            @Override
-            public void onDataChange(DataSnapshot dataSnapshot) {
-                List<WiFiDevice> devices = new ArrayList<>();
-                for (DataSnapshot snapshot : dataSnapshot.getChildren()) {
+    // Batched alternative to saveDevice() for scan results: coalesced per BSSID and
+    // written with one multi-path update per flush
+    public void queueDevice(WiFiDevice wifiDevice) {
+        getWriteBuffer().enqueue(wifiDevice);
+    }
+
+    @Override
+    public void pushDevices(Collection<WiFiDevice> devices) {
+        DeviceWriteBuffer buffer = getWriteBuffer();
+        for (WiFiDevice device : devices) {
+            buffer.enqueue(device);
+        }
+    }
+
+    @Override
+    public void flush() {
+        flushQueuedDevices();
+    }
+
+    @Override
+    public synchronized void setOnDevicesWrittenListener(OnDevicesWrittenListener listener) {
+        devicesWrittenListener = listener;
+        if (writeBuffer != null) {
+            writeBuffer.setOnDevicesWrittenListener(listener);
+        }
+    }
+
+    @Override
+    public String getMetricsSummary() {
+        return getWriteBuffer().getMetricsSummary();
+    }
+
+    public void flushQueuedDevices() {
+        if (writeBuffer != null) {
+            writeBuffer.flush();
+        }
+        LocaFiApp.getLastWriteIndex().save();
+    }
+
+    public synchronized DeviceWriteBuffer getWriteBuffer() {
+        if (writeBuffer == null) {
+            writeBuffer = new DeviceWriteBuffer(userRootRef, LocaFiApp.getLastWriteIndex());
+            writeBuffer.setOnDevicesWrittenListener(devicesWrittenListener);
+        }
+        return writeBuffer;
+    }
+
+    @Override
+    public synchronized void addChangeListener(ChangeListener listener) {
+        if (changeListeners.containsKey(listener)) return;
+        CellChangeListener cellListener = new CellChangeListener(cellsRef, listener);
+        changeListeners.put(listener, cellListener);
+        cellListener.watch(watchedCells);
+    }
+
+    @Override
+    public synchronized void removeChangeListener(ChangeListener listener) {
+        CellChangeListener cellListener = changeListeners.remove(listener);
+        if (cellListener != null) {
+            cellListener.watch(Collections.emptyList());
+        }
+    }
+
+    @Override
+    public synchronized void setChangeCells(List<String> cells) {
+        watchedCells = new ArrayList<>(cells);
+        for (CellChangeListener cellListener : changeListeners.values()) {
+            cellListener.watch(watchedCells);
+        }
+    }
+
+    // One child listener per watched cell (or cell prefix), so only the cells on screen
+    // are synced. Child events arrive per cell; device-level changes are derived by
+    // comparing each device's timestamp with the cell's previous snapshot. A device that
+    // moved cells is only reported removed if the cell it left is still the last one it
+    // was seen in. Cells that stop being watched are dropped without reporting removals.
+    private static class CellChangeListener implements ChildEventListener {
+        private final DatabaseReference cellsRef;
+        private final ChangeListener listener;
+        private final Map<String, Query> queries = new HashMap<>();
+        private final Map<String, Map<String, Long>> cellMembers = new HashMap<>();
+        private final Map<String, String> deviceCells = new HashMap<>();
+
+        CellChangeListener(DatabaseReference cellsRef, ChangeListener listener) {
+            this.cellsRef = cellsRef;
+            this.listener = listener;
+        }
+
+        void watch(List<String> cells) {
+            List<String> dropped = new ArrayList<>();
+            for (Map.Entry<String, Query> entry : queries.entrySet()) {
+                if (!cells.contains(entry.getKey())) {
+                    entry.getValue().removeEventListener(this);
+                    dropped.add(entry.getKey());
+                }
+            }
+            for (String prefix : dropped) {
+                queries.remove(prefix);
+                forget(prefix);
+            }
+            for (String cell : cells) {
+                if (queries.containsKey(cell)) continue;
+                Query query = cell.length() >= CELL_PRECISION
+                        ? cellsRef.orderByKey().equalTo(cell)
+                        : cellsRef.orderByKey().startAt(cell).endAt(cell + "~");
+                queries.put(cell, query);
+                query.addChildEventListener(this);
+            }
+        }
+
+        private void forget(String prefix) {
+            List<String> cells = new ArrayList<>();
+            for (String cell : cellMembers.keySet()) {
+                if (cell.startsWith(prefix) && !isWatched(cell)) {
+                    cells.add(cell);
+                }
+            }
+            for (String cell : cells) {
+                for (String bssid : cellMembers.remove(cell).keySet()) {
+                    if (cell.equals(deviceCells.get(bssid))) {
+                        deviceCells.remove(bssid);
+                    }
+                }
+            }
+        }
+
+        private boolean isWatched(String cell) {
+            for (String prefix : queries.keySet()) {
+                if (cell.startsWith(prefix)) return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void onChildAdded(DataSnapshot cellSnapshot, String previousChildName) {
+            onCellChanged(cellSnapshot.getKey(), cellSnapshot);
+        }
+
+        @Override
+        public void onChildChanged(DataSnapshot cellSnapshot, String previousChildName) {
+            onCellChanged(cellSnapshot.getKey(), cellSnapshot);
+        }
+
+        @Override
+        public void onChildRemoved(DataSnapshot cellSnapshot) {
+            onCellChanged(cellSnapshot.getKey(), null);
+        }
+
+        @Override
+        public void onChildMoved(DataSnapshot cellSnapshot, String previousChildName) {
+        }
+
+        @Override
+        public void onCancelled(DatabaseError error) {
+            Log.w(TAG, "deviceChanges:onCancelled", error.toException());
+        }
+
+        private void onCellChanged(String cell, DataSnapshot cellSnapshot) {
+            Map<String, Long> previous = cellMembers.remove(cell);
+            Map<String, Long> current = new HashMap<>();
+            if (cellSnapshot != null) {
+                for (DataSnapshot snapshot : cellSnapshot.getChildren()) {
                     WiFiDevice device = snapshot.getValue(WiFiDevice.class);
-                    if (device != null) {
-                        devices.add(device);
+                    if (device == null) continue;
+                    String bssid = device.getBssid();
+                    current.put(bssid, device.getTimestamp());
+                    String knownCell = deviceCells.get(bssid);
+                    if (knownCell != null && !knownCell.equals(cell)) {
+                        // A stale copy left behind here does not replace the newer one elsewhere
+                        Map<String, Long> other = cellMembers.get(knownCell);
+                        Long otherAt = other != null ? other.get(bssid) : null;
+                        if (otherAt != null && otherAt >= device.getTimestamp()) continue;
+                    } else {
+                        Long before = previous != null ? previous.get(bssid) : null;
+                        if (before != null && before == device.getTimestamp()) continue;
                     }
+                    deviceCells.put(bssid, cell);
+                    listener.onDeviceUpserted(device);
+                }
+            }
+            if (!current.isEmpty()) {
+                cellMembers.put(cell, current);
+            }
+            if (previous == null) return;
+            for (String bssid : previous.keySet()) {
+                if (!current.containsKey(bssid) && cell.equals(deviceCells.get(bssid))) {
+                    deviceCells.remove(bssid);
+                    listener.onDeviceRemoved(bssid);
                 }
+            }
+        }
+    }
+
+    private static List<WiFiDevice> readCells(DataSnapshot cellsSnapshot, List<WiFiDevice> out) {
+        for (DataSnapshot cellSnapshot : cellsSnapshot.getChildren()) {
+            readCell(cellSnapshot, out);
+        }
+        return out;
+    }
+
+    private static void readCell(DataSnapshot cellSnapshot, List<WiFiDevice> out) {
+        for (DataSnapshot snapshot : cellSnapshot.getChildren()) {
+            WiFiDevice device = snapshot.getValue(WiFiDevice.class);
+            if (device != null) {
+                out.add(device);
+            }
+        }
+    }
+
+    @Override
+    public void getDevicesOnce(final GetAllDevicesCallback callback) {
+        cellsRef.addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot dataSnapshot) {
+                List<WiFiDevice> devices = readCells(dataSnapshot, new ArrayList<>());
                 if (callback != null) {
                     callback.onComplete(devices);
                 }
@@ -67,7 +409,7 @@ public class FirebaseRepo {
 
             @Override
             public void onCancelled(DatabaseError error) {
-                Log.w(TAG, "getAllDevices:onCancelled", error.toException());
+                Log.w(TAG, "getDevicesOnce:onCancelled", error.toException());
                 if (callback != null) {
                     callback.onComplete(null);
                 }
@@ -75,9 +417,514 @@ public class FirebaseRepo {
         });
     }
 
+    // Loads only the given cells. Full-precision cells are read directly; shorter
+    // hashes are prefix ranges over the cell keys. Null only if every read failed.
+    @Override
+    public void getDevicesInCells(List<String> cells, final GetAllDevicesCallback callback) {
+        if (cells.isEmpty()) {
+            callback.onComplete(new ArrayList<>());
+            return;
+        }
+        final List<WiFiDevice> devices = new ArrayList<>();
+        final int[] remaining = {cells.size()};
+        final int[] failures = {0};
+        for (String cell : cells) {
+            boolean exact = cell.length() >= CELL_PRECISION;
+            Query query = exact ? cellsRef.child(cell) : cellsRef.orderByKey().startAt(cell).endAt(cell + "~");
+            query.addListenerForSingleValueEvent(new ValueEventListener() {
+                @Override
+                public void onDataChange(DataSnapshot dataSnapshot) {
+                    if (exact) {
+                        readCell(dataSnapshot, devices);
+                    } else {
+                        readCells(dataSnapshot, devices);
+                    }
+                    onCellLoaded();
+                }
+
+                @Override
+                public void onCancelled(DatabaseError error) {
+                    Log.w(TAG, "getDevicesInCells:onCancelled " + cell, error.toException());
+                    failures[0]++;
+                    onCellLoaded();
+                }
+
+                private void onCellLoaded() {
+                    if (--remaining[0] == 0) {
+                        callback.onComplete(failures[0] == cells.size() ? null : devices);
+                    }
+                }
+            });
+        }
+    }
+
+    // Index entries in newest-first order: one query on the flat time index, which holds
+    // the devices themselves; only old-style entries are followed into their cells
+    @Override
+    public void getDevicesPage(long sinceMs, DevicePageCursor cursor, int limit, final PageCallback callback) {
+        Query query = timeIndexRef.orderByChild(INDEX_TIMESTAMP);
+        if (sinceMs > 0) {
+            query = query.startAt(sinceMs);
+        }
+        // endAt is inclusive, so ask for one extra and drop the cursor entry itself
+        if (cursor != null) {
+            query = query.endAt(cursor.getTimestamp(), cursor.getBssid());
+        }
+        final int requested = cursor != null ? limit + 1 : limit;
+        query.limitToLast(requested).addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot dataSnapshot) {
+                List<String> bssids = new ArrayList<>();
+                List<String> cells = new ArrayList<>();
+                List<Long> timestamps = new ArrayList<>();
+                List<WiFiDevice> indexed = new ArrayList<>();
+                readIndexEntries(dataSnapshot, cursor, bssids, cells, timestamps, indexed);
+                // Children come oldest first
+                Collections.reverse(bssids);
+                Collections.reverse(cells);
+                Collections.reverse(timestamps);
+                Collections.reverse(indexed);
+                while (bssids.size() > limit) {
+                    int last = bssids.size() - 1;
+                    bssids.remove(last);
+                    cells.remove(last);
+                    timestamps.remove(last);
+                    indexed.remove(last);
+                }
+                DevicePageCursor next = null;
+                if (dataSnapshot.getChildrenCount() == requested && !bssids.isEmpty()) {
+                    int last = bssids.size() - 1;
+                    next = new DevicePageCursor(timestamps.get(last), bssids.get(last));
+                }
+                final DevicePageCursor nextCursor = next;
+                loadIndexedDevices(bssids, cells, indexed, devices -> callback.onPage(devices, nextCursor));
+            }
+
+            @Override
+            public void onCancelled(DatabaseError error) {
+                Log.w(TAG, "getDevicesPage:onCancelled", error.toException());
+                callback.onPage(null, null);
+            }
+        });
+    }
+
+    @Override
+    public void getDevicesSince(long sinceMs, final GetAllDevicesCallback callback) {
+        timeIndexRef.orderByChild(INDEX_TIMESTAMP).startAt(sinceMs)
+                .addListenerForSingleValueEvent(new ValueEventListener() {
+                    @Override
+                    public void onDataChange(DataSnapshot dataSnapshot) {
+                        List<String> bssids = new ArrayList<>();
+                        List<String> cells = new ArrayList<>();
+                        List<WiFiDevice> indexed = new ArrayList<>();
+                        readIndexEntries(dataSnapshot, null, bssids, cells, new ArrayList<>(), indexed);
+                        loadIndexedDevices(bssids, cells, indexed, callback);
+                    }
+
+                    @Override
+                    public void onCancelled(DatabaseError error) {
+                        Log.w(TAG, "getDevicesSince:onCancelled", error.toException());
+                        callback.onComplete(null);
+                    }
+                });
+    }
+
+    // The database has no server-side count, so this reads only the small index entries
+    // in the window and never the device records
+    @Override
+    public void countDevices(long sinceMs, final CountCallback callback) {
+        timeIndexRef.orderByChild(INDEX_TIMESTAMP).startAt(sinceMs)
+                .addListenerForSingleValueEvent(new ValueEventListener() {
+                    @Override
+                    public void onDataChange(DataSnapshot dataSnapshot) {
+                        callback.onCount(dataSnapshot.getChildrenCount());
+                    }
+
+                    @Override
+                    public void onCancelled(DatabaseError error) {
+                        Log.w(TAG, "countDevices:onCancelled", error.toException());
+                        callback.onCount(-1);
+                    }
+                });
+    }
+
+    // indexed, if given, gets the device read from each entry, or null where it has to be loaded
+    private static void readIndexEntries(DataSnapshot indexSnapshot, DevicePageCursor skip,
+                                         List<String> bssids, List<String> cells, List<Long> timestamps,
+                                         List<WiFiDevice> indexed) {
+        for (DataSnapshot entry : indexSnapshot.getChildren()) {
+            String bssid = entry.getKey();
+            Long timestamp = entry.child(INDEX_TIMESTAMP).getValue(Long.class);
+            String cell = entry.child(INDEX_CELL).getValue(String.class);
+            if (bssid == null || timestamp == null || cell == null) continue;
+            if (skip != null && bssid.equals(skip.getBssid()) && timestamp == skip.getTimestamp()) continue;
+            bssids.add(bssid);
+            cells.add(cell);
+            timestamps.add(timestamp);
+            if (indexed != null) {
+                indexed.add(deviceFromIndex(bssid, entry));
+            }
+        }
+    }
+
+    // Reads the devices the index entries did not carry in parallel, keeping the given order
+    private void loadIndexedDevices(List<String> bssids, List<String> cells, List<WiFiDevice> indexed,
+                                    GetAllDevicesCallback callback) {
+        final WiFiDevice[] loaded = indexed.toArray(new WiFiDevice[0]);
+        int missing = 0;
+        for (WiFiDevice device : loaded) {
+            if (device == null) missing++;
+        }
+        if (missing == 0) {
+            callback.onComplete(new ArrayList<>(indexed));
+            return;
+        }
+        final int[] remaining = {missing};
+        for (int i = 0; i < bssids.size(); i++) {
+            if (loaded[i] != null) continue;
+            final int position = i;
+            cellsRef.child(cells.get(i)).child(bssids.get(i))
+                    .addListenerForSingleValueEvent(new ValueEventListener() {
+                        @Override
+                        public void onDataChange(DataSnapshot snapshot) {
+                            loaded[position] = snapshot.getValue(WiFiDevice.class);
+                            onDeviceLoaded();
+                        }
+
+                        @Override
+                        public void onCancelled(DatabaseError error) {
+                            onDeviceLoaded();
+                        }
+
+                        private void onDeviceLoaded() {
+                            if (--remaining[0] > 0) return;
+                            List<WiFiDevice> devices = new ArrayList<>(loaded.length);
+                            for (WiFiDevice device : loaded) {
+                                if (device != null) {
+                                    devices.add(device);
+                                }
+                            }
+                            callback.onComplete(devices);
+                        }
+                    });
+        }
+    }
+
+    // Works through the time index oldest first, EVICTION_BATCH_SIZE expired entries per
+    // round: one query, then one multi-path update that nulls both the index entry and
+    // the copy in its cell. An entry LastWriteIndex shows this install rewrote at or
+    // after the cutoff is skipped, so a device saved after the query is kept.
+    @Override
+    public void evictDevicesOlderThan(long cutoffMs, final CountCallback callback) {
+        evictBatch(cutoffMs, 0, callback);
+    }
+
+    private void evictBatch(long cutoffMs, long evictedSoFar, CountCallback callback) {
+        timeIndexRef.orderByChild(INDEX_TIMESTAMP).endAt(cutoffMs - 1).limitToFirst(EVICTION_BATCH_SIZE)
+                .addListenerForSingleValueEvent(new ValueEventListener() {
+                    @Override
+                    public void onDataChange(DataSnapshot dataSnapshot) {
+                        List<String> bssids = new ArrayList<>();
+                        List<String> cells = new ArrayList<>();
+                        readIndexEntries(dataSnapshot, null, bssids, cells, new ArrayList<>(), null);
+                        LastWriteIndex lastWriteIndex = LocaFiApp.getLastWriteIndex();
+                        Map<String, Object> updates = new HashMap<>();
+                        int evicted = 0;
+                        for (int i = 0; i < bssids.size(); i++) {
+                            long key = BssidUtils.toLong(bssids.get(i));
+                            if (key != BssidUtils.INVALID && lastWriteIndex.getLastWritten(key) >= cutoffMs) continue;
+                            updates.put(WIFI_TIME_INDEX_PATH + "/" + bssids.get(i), null);
+                            updates.put(WIFI_CELLS_PATH + "/" + cells.get(i) + "/" + bssids.get(i), null);
+                            evicted++;
+                        }
+                        if (evicted == 0) {
+                            Log.d(TAG, "Evicted " + evictedSoFar + " devices");
+                            callback.onCount(evictedSoFar);
+                            return;
+                        }
+                        // A round that only found skipped entries ends the run, so they are not read forever
+                        boolean more = dataSnapshot.getChildrenCount() >= EVICTION_BATCH_SIZE;
+                        long total = evictedSoFar + evicted;
+                        userRootRef.updateChildren(updates)
+                                .addOnSuccessListener(aVoid -> {
+                                    if (more) {
+                                        evictBatch(cutoffMs, total, callback);
+                                    } else {
+                                        Log.d(TAG, "Evicted " + total + " devices");
+                                        callback.onCount(total);
+                                    }
+                                })
+                                .addOnFailureListener(e -> {
+                                    // Rounds already applied stay applied; the next run continues
+                                    Log.e(TAG, "Eviction failed after " + evictedSoFar + " devices", e);
+                                    callback.onCount(-1);
+                                });
+                    }
+
+                    @Override
+                    public void onCancelled(DatabaseError error) {
+                        Log.w(TAG, "evictDevicesOlderThan:onCancelled", error.toException());
+                        callback.onCount(-1);
+                    }
+                });
+    }
+
+    private interface GuardedDeleteCallback {
+        void onComplete(boolean removed, boolean failed);
+    }
+
+    // Removes the device node unless it has been rewritten at or after notBeforeMs
+    private static void deleteIfOlder(DatabaseReference deviceRef, long notBeforeMs, GuardedDeleteCallback callback) {
+        deviceRef.runTransaction(new Transaction.Handler() {
+            @Override
+            public Transaction.Result doTransaction(MutableData currentData) {
+                WiFiDevice device = currentData.getValue(WiFiDevice.class);
+                if (device == null || device.getTimestamp() >= notBeforeMs) {
+                    return Transaction.abort();
+                }
+                currentData.setValue(null);
+                return Transaction.success(currentData);
+            }
+
+            @Override
+            public void onComplete(DatabaseError error, boolean committed, DataSnapshot currentData) {
+                if (error != null) {
+                    Log.w(TAG, "Deleting " + deviceRef.getKey() + " failed", error.toException());
+                }
+                callback.onComplete(committed, error != null);
+            }
+        });
+    }
+
+    // A move written from another install cannot drop the copy it did not know about,
+    // so the last cell this install wrote a device to is compared with the cell the
+    // time index names. Where the index is newer and points elsewhere, our old copy is
+    // removed, unless it has been rewritten since. Only index entries from sinceMs on
+    // are read; older ones were checked by an earlier run.
+    @Override
+    public void mergeDuplicateCopies(long sinceMs, final CountCallback callback) {
+        timeIndexRef.orderByChild(INDEX_TIMESTAMP).startAt(sinceMs).addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot dataSnapshot) {
+                List<String> bssids = new ArrayList<>();
+                List<String> cells = new ArrayList<>();
+                List<Long> timestamps = new ArrayList<>();
+                readIndexEntries(dataSnapshot, null, bssids, cells, timestamps, null);
+                LastWriteIndex lastWriteIndex = LocaFiApp.getLastWriteIndex();
+                List<Integer> stale = new ArrayList<>();
+                List<String> staleCells = new ArrayList<>();
+                for (int i = 0; i < bssids.size(); i++) {
+                    long key = BssidUtils.toLong(bssids.get(i));
+                    if (key == BssidUtils.INVALID || !lastWriteIndex.isNewer(key, timestamps.get(i))) continue;
+                    String ownCell = lastWriteIndex.getLastCell(key);
+                    if (ownCell != null && !ownCell.equals(cells.get(i))) {
+                        stale.add(i);
+                        staleCells.add(ownCell);
+                    }
+                }
+                if (stale.isEmpty()) {
+                    callback.onCount(0);
+                    return;
+                }
+                final int[] remaining = {stale.size()};
+                final int[] removed = {0};
+                final int[] failures = {0};
+                for (int n = 0; n < stale.size(); n++) {
+                    final int i = stale.get(n);
+                    deleteIfOlder(cellsRef.child(staleCells.get(n)).child(bssids.get(i)), timestamps.get(i),
+                            (deleted, failed) -> {
+                                if (deleted) removed[0]++;
+                                if (failed) {
+                                    failures[0]++;
+                                } else {
+                                    // Follow the index so the copy is not looked for again
+                                    lastWriteIndex.recordWrite(BssidUtils.toLong(bssids.get(i)),
+                                            timestamps.get(i), cells.get(i));
+                                }
+                                if (--remaining[0] > 0) return;
+                                lastWriteIndex.saveIfDue();
+                                if (failures[0] > 0) {
+                                    Log.e(TAG, "Removing duplicate copies failed for " + failures[0] + " devices");
+                                    callback.onCount(-1);
+                                } else {
+                                    Log.d(TAG, "Removed " + removed[0] + " duplicate device copies");
+                                    callback.onCount(removed[0]);
+                                }
+                            });
+                }
+            }
+
+            @Override
+            public void onCancelled(DatabaseError error) {
+                Log.w(TAG, "mergeDuplicateCopies:onCancelled", error.toException());
+                callback.onCount(-1);
+            }
+        });
+    }
+
+    // Moves devices from the flat legacy layout into geohash cells, one atomic
+    // multi-path update per batch (new path set, legacy path nulled). The time index is
+    // read first so a legacy record never overwrites a newer copy already in the cells,
+    // and a device that is moved drops the copy in the cell the index names.
+    public void migrateLegacyLayout(final ClearAllDevicesCallback callback) {
+        userRootRef.child(WIFI_DEVICES_PATH).addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot dataSnapshot) {
+                List<WiFiDevice> legacy = new ArrayList<>();
+                readCell(dataSnapshot, legacy);
+                if (legacy.isEmpty()) {
+                    callback.onComplete(true);
+                    return;
+                }
+                timeIndexRef.addListenerForSingleValueEvent(new ValueEventListener() {
+                    @Override
+                    public void onDataChange(DataSnapshot indexSnapshot) {
+                        List<String> bssids = new ArrayList<>();
+                        List<String> cells = new ArrayList<>();
+                        List<Long> timestamps = new ArrayList<>();
+                        readIndexEntries(indexSnapshot, null, bssids, cells, timestamps, null);
+                        Map<String, Long> indexedAt = new HashMap<>();
+                        Map<String, String> indexedCell = new HashMap<>();
+                        for (int i = 0; i < bssids.size(); i++) {
+                            indexedAt.put(bssids.get(i), timestamps.get(i));
+                            indexedCell.put(bssids.get(i), cells.get(i));
+                        }
+                        Log.d(TAG, "Migrating " + legacy.size() + " devices to geohash cells");
+                        migrateBatch(legacy, 0, indexedAt, indexedCell, callback);
+                    }
+
+                    @Override
+                    public void onCancelled(DatabaseError error) {
+                        Log.w(TAG, "migrateLegacyLayout:onCancelled", error.toException());
+                        callback.onComplete(false);
+                    }
+                });
+            }
+
+            @Override
+            public void onCancelled(DatabaseError error) {
+                Log.w(TAG, "migrateLegacyLayout:onCancelled", error.toException());
+                callback.onComplete(false);
+            }
+        });
+    }
+
+    // For data already in cells from before the time index existed. Only
+    // wifiTimeIndex/{bssid} is written; device bodies are left as they are. A device
+    // found in more than one cell is indexed at its newest copy.
+    public void rebuildTimeIndex(final ClearAllDevicesCallback callback) {
+        cellsRef.addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot dataSnapshot) {
+                Map<String, Map<String, Object>> entries = new HashMap<>();
+                for (DataSnapshot cellSnapshot : dataSnapshot.getChildren()) {
+                    for (DataSnapshot snapshot : cellSnapshot.getChildren()) {
+                        WiFiDevice device = snapshot.getValue(WiFiDevice.class);
+                        if (device == null || device.getBssid() == null || device.getBssid().isEmpty()) continue;
+                        Map<String, Object> entry = entries.get(device.getBssid());
+                        if (entry == null || (long) entry.get(INDEX_TIMESTAMP) < device.getTimestamp()) {
+                            entries.put(device.getBssid(), indexEntry(device, cellSnapshot.getKey()));
+                        }
+                    }
+                }
+                if (entries.isEmpty()) {
+                    callback.onComplete(true);
+                    return;
+                }
+                Log.d(TAG, "Indexing " + entries.size() + " devices by timestamp");
+                indexBatch(new ArrayList<>(entries.entrySet()), 0, callback);
+            }
+
+            @Override
+            public void onCancelled(DatabaseError error) {
+                Log.w(TAG, "rebuildTimeIndex:onCancelled", error.toException());
+                callback.onComplete(false);
+            }
+        });
+    }
+
+    private void indexBatch(List<Map.Entry<String, Map<String, Object>>> entries, int from,
+                            ClearAllDevicesCallback callback) {
+        int to = Math.min(entries.size(), from + MIGRATION_BATCH_SIZE);
+        Map<String, Object> updates = new HashMap<>();
+        for (int i = from; i < to; i++) {
+            updates.put(entries.get(i).getKey(), entries.get(i).getValue());
+        }
+        timeIndexRef.updateChildren(updates)
+                .addOnSuccessListener(aVoid -> {
+                    if (to < entries.size()) {
+                        indexBatch(entries, to, callback);
+                    } else {
+                        Log.d(TAG, "Time index rebuilt");
+                        callback.onComplete(true);
+                    }
+                })
+                .addOnFailureListener(e -> {
+                    Log.e(TAG, "Rebuilding the time index failed at entry " + from, e);
+                    callback.onComplete(false);
+                });
+    }
+
+    // indexedAt/indexedCell hold the time index as read when the migration started
+    private void migrateBatch(List<WiFiDevice> devices, int from, Map<String, Long> indexedAt, Map<String, String> indexedCell,
+                              ClearAllDevicesCallback callback) {
+        int to = Math.min(devices.size(), from + MIGRATION_BATCH_SIZE);
+        LastWriteIndex lastWriteIndex = LocaFiApp.getLastWriteIndex();
+        Map<String, Object> updates = new HashMap<>();
+        List<WiFiDevice> written = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            WiFiDevice device = devices.get(i);
+            if (device.getBssid() == null || device.getBssid().isEmpty()) continue;
+            updates.put(WIFI_DEVICES_PATH + "/" + device.getBssid(), null);
+            long key = BssidUtils.toLong(device.getBssid());
+            String previousCell = key == BssidUtils.INVALID ? null : lastWriteIndex.getLastCell(key);
+            Long indexed = indexedAt.get(device.getBssid());
+            if (indexed != null) {
+                // Something at least as new is already in the cells
+                if (indexed >= device.getTimestamp()) continue;
+                previousCell = indexedCell.get(device.getBssid());
+            }
+            if (key != BssidUtils.INVALID && !lastWriteIndex.isNewer(key, device.getTimestamp())) continue;
+            putDeviceUpdates(updates, device, cellOf(device), previousCell);
+            written.add(device);
+        }
+        Runnable next = () -> {
+            if (to < devices.size()) {
+                migrateBatch(devices, to, indexedAt, indexedCell, callback);
+            } else {
+                lastWriteIndex.save();
+                Log.d(TAG, "Storage migration complete");
+                callback.onComplete(true);
+            }
+        };
+        if (updates.isEmpty()) {
+            next.run();
+            return;
+        }
+        userRootRef.updateChildren(updates)
+                .addOnSuccessListener(aVoid -> {
+                    for (WiFiDevice device : written) {
+                        lastWriteIndex.recordWrite(BssidUtils.toLong(device.getBssid()),
+                                device.getTimestamp(), cellOf(device));
+                    }
+                    next.run();
+                })
+                .addOnFailureListener(e -> {
+                    // Already-moved batches stay moved; a rerun picks up the rest
+                    Log.e(TAG, "Migration failed at device " + from, e);
+                    callback.onComplete(false);
+                });
+    }
+
+    @Override
     public void clearAllDevices(final ClearAllDevicesCallback callback) {
-        userDbRef.removeValue()
+        Map<String, Object> updates = new HashMap<>();
+        updates.put(WIFI_CELLS_PATH, null);
+        updates.put(WIFI_TIME_INDEX_PATH, null);
+        updates.put(WIFI_DEVICES_PATH, null);
+        userRootRef.updateChildren(updates)
                 .addOnSuccessListener(aVoid -> {
+                    LocaFiApp.getLastWriteIndex().clear();
                     if (callback != null) {
                         callback.onComplete(true);
                     }
@@ -90,6 +937,14 @@ public class FirebaseRepo {
     }
 
     public void addTestData() {
+        Log.d(TAG, "Starting to add test data...");
+        for (WiFiDevice device : createTestDevices()) {
+            saveDevice(device);
+        }
+        Log.d(TAG, "Finished adding test data");
+    }
+
+    public List<WiFiDevice> createTestDevices() {
         // Original devices
         WiFiDevice device1 = new WiFiDevice();
         device1.setBssid("00:11:22:33:44:55");
@@ -149,17 +1004,15 @@ public class FirebaseRepo {
         device7.setLatitude(37.421982);  // Very close to device2 and device6
         device7.setLongitude(-122.083460);
 
-        Log.d(TAG, "Starting to add test data...");
-
-        saveDevice(device1);
-        saveDevice(device2);
-        saveDevice(device3);
-        saveDevice(device4);
-        saveDevice(device5);
-        saveDevice(device6);
-        saveDevice(device7);
-
-        Log.d(TAG, "Finished adding test data");
+        List<WiFiDevice> devices = new ArrayList<>();
+        devices.add(device1);
+        devices.add(device2);
+        devices.add(device3);
+        devices.add(device4);
+        devices.add(device5);
+        devices.add(device6);
+        devices.add(device7);
+        return devices;
     }
 
     public interface ClearAllDevicesCallback {
@@ -0,0 +1,165 @@
+package dev.nimrod.locafi.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Standard base32 geohash: interleaved lon/lat bits, 5 bits per character
+public class Geohash {
+    private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+    private static final int[] DECODE = new int[128];
+    public static final int MAX_PACKED_PRECISION = 11;
+
+    static {
+        java.util.Arrays.fill(DECODE, -1);
+        for (int i = 0; i < BASE32.length; i++) {
+            DECODE[BASE32[i]] = i;
+        }
+    }
+
+    public static String encode(double lat, double lon, int precision) {
+        char[] hash = new char[precision];
+        double minLat = -90, maxLat = 90, minLon = -180, maxLon = 180;
+        boolean evenBit = true;
+        int bit = 0, ch = 0, length = 0;
+        while (length < precision) {
+            if (evenBit) {
+                double mid = (minLon + maxLon) / 2;
+                if (lon >= mid) {
+                    ch = (ch << 1) | 1;
+                    minLon = mid;
+                } else {
+                    ch = ch << 1;
+                    maxLon = mid;
+                }
+            } else {
+                double mid = (minLat + maxLat) / 2;
+                if (lat >= mid) {
+                    ch = (ch << 1) | 1;
+                    minLat = mid;
+                } else {
+                    ch = ch << 1;
+                    maxLat = mid;
+                }
+            }
+            evenBit = !evenBit;
+            if (++bit == 5) {
+                hash[length++] = BASE32[ch];
+                bit = 0;
+                ch = 0;
+            }
+        }
+        return new String(hash);
+    }
+
+    // out = {minLat, minLon, maxLat, maxLon}; false when the hash is not valid base32
+    public static boolean decodeBounds(String hash, double[] out) {
+        double minLat = -90, maxLat = 90, minLon = -180, maxLon = 180;
+        boolean evenBit = true;
+        for (int i = 0; i < hash.length(); i++) {
+            char c = hash.charAt(i);
+            int value = c < 128 ? DECODE[c] : -1;
+            if (value < 0) return false;
+            for (int b = 4; b >= 0; b--) {
+                int bitValue = (value >> b) & 1;
+                if (evenBit) {
+                    double mid = (minLon + maxLon) / 2;
+                    if (bitValue == 1) minLon = mid; else maxLon = mid;
+                } else {
+                    double mid = (minLat + maxLat) / 2;
+                    if (bitValue == 1) minLat = mid; else maxLat = mid;
+                }
+                evenBit = !evenBit;
+            }
+        }
+        out[0] = minLat;
+        out[1] = minLon;
+        out[2] = maxLat;
+        out[3] = maxLon;
+        return true;
+    }
+
+    public static double cellHeightDegrees(int precision) {
+        return 180.0 / (1L << ((5 * precision) / 2));
+    }
+
+    public static double cellWidthDegrees(int precision) {
+        return 360.0 / (1L << ((5 * precision + 1) / 2));
+    }
+
+    // Cells covering the box at the finest precision (<= maxPrecision) that needs at most
+    // maxCells of them; null when even minPrecision would need more. A box with
+    // minLon > maxLon crosses the antimeridian.
+    public static List<String> coveringCells(double minLat, double minLon, double maxLat, double maxLon,
+                                             int minPrecision, int maxPrecision, int maxCells) {
+        for (int precision = maxPrecision; precision >= minPrecision; precision--) {
+            double height = cellHeightDegrees(precision);
+            double width = cellWidthDegrees(precision);
+            long rows = rowIndex(maxLat, height) - rowIndex(minLat, height) + 1;
+            long columns = minLon <= maxLon
+                    ? columnIndex(maxLon, width) - columnIndex(minLon, width) + 1
+                    : (columnIndex(180.0, width) - columnIndex(minLon, width) + 1)
+                    + (columnIndex(maxLon, width) - columnIndex(-180.0, width) + 1);
+            if (rows * columns > maxCells) continue;
+
+            List<String> cells = new ArrayList<>((int) (rows * columns));
+            if (minLon <= maxLon) {
+                addCells(cells, minLat, minLon, maxLat, maxLon, precision);
+            } else {
+                addCells(cells, minLat, minLon, maxLat, 180.0, precision);
+                addCells(cells, minLat, -180.0, maxLat, maxLon, precision);
+            }
+            return cells;
+        }
+        return null;
+    }
+
+    private static void addCells(List<String> cells, double minLat, double minLon, double maxLat,
+                                 double maxLon, int precision) {
+        double height = cellHeightDegrees(precision);
+        double width = cellWidthDegrees(precision);
+        long rowFrom = rowIndex(minLat, height), rowTo = rowIndex(maxLat, height);
+        long colFrom = columnIndex(minLon, width), colTo = columnIndex(maxLon, width);
+        for (long row = rowFrom; row <= rowTo; row++) {
+            double lat = -90.0 + (row + 0.5) * height;
+            for (long col = colFrom; col <= colTo; col++) {
+                double lon = -180.0 + (col + 0.5) * width;
+                cells.add(encode(lat, lon, precision));
+            }
+        }
+    }
+
+    private static long rowIndex(double lat, double height) {
+        long max = Math.round(180.0 / height) - 1;
+        return Math.min(max, (long) Math.floor((lat + 90.0) / height));
+    }
+
+    private static long columnIndex(double lon, double width) {
+        long max = Math.round(360.0 / width) - 1;
+        return Math.min(max, (long) Math.floor((lon + 180.0) / width));
+    }
+
+    // Packs up to 11 characters into a long (5 bits each, length in the low 4 bits)
+    // so cells can live in primitive maps; -1 when the hash is invalid
+    public static long toLong(String hash) {
+        if (hash == null || hash.isEmpty() || hash.length() > MAX_PACKED_PRECISION) return -1L;
+        long value = 0;
+        for (int i = 0; i < hash.length(); i++) {
+            char c = hash.charAt(i);
+            int digit = c < 128 ? DECODE[c] : -1;
+            if (digit < 0) return -1L;
+            value = (value << 5) | digit;
+        }
+        return (value << 4) | hash.length();
+    }
+
+    public static String fromLong(long packed) {
+        int length = (int) (packed & 0xF);
+        long value = packed >>> 4;
+        char[] hash = new char[length];
+        for (int i = length - 1; i >= 0; i--) {
+            hash[i] = BASE32[(int) (value & 0x1F)];
+            value >>>= 5;
+        }
+        return new String(hash);
+    }
+}
@@ -0,0 +1,208 @@
+package dev.nimrod.locafi.utils;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Local BSSID -> last written timestamp (and geohash cell) index, so newest-wins
+// writes can be decided without reading the remote node first, and a device that
+// moved to another cell can have its old copy removed. Persisted as a flat binary
+// file (count, then bssid/timestamp/cell triples) and replaced atomically on save.
+// File I/O runs on a private thread: callers sit on the main thread (Application
+// start, Firebase completion callbacks), so load and save only touch memory there.
+public class LastWriteIndex {
+    private static final String TAG = "LastWriteIndex";
+    public static final long UNKNOWN = -1L;
+    private static final int FILE_VERSION = 2;
+    private static final int FILE_VERSION_NO_CELLS = 1;
+    private static final long SAVE_INTERVAL_MS = 30000;
+
+    private final File file;
+    private final LongLongHashMap timestamps = new LongLongHashMap(256);
+    // Packed geohash (Geohash.toLong) of the cell the last write went to
+    private final LongLongHashMap cells = new LongLongHashMap(256);
+    private final ExecutorService io = Executors.newSingleThreadExecutor(r -> new Thread(r, TAG));
+    private boolean dirty = false;
+    private long lastSaveTime = 0;
+    // Bumped by clear() so a load still in flight does not bring old entries back
+    private int generation = 0;
+
+    public LastWriteIndex(File file) {
+        this.file = file;
+    }
+
+    // Reads in the background; until it lands, unknown BSSIDs fall back to guarded writes
+    public static LastWriteIndex load(File file) {
+        LastWriteIndex index = new LastWriteIndex(file);
+        index.io.execute(index::read);
+        return index;
+    }
+
+    // Timestamp of the newest write made from this install, UNKNOWN if never written
+    public synchronized long getLastWritten(long bssid) {
+        return timestamps.get(bssid, UNKNOWN);
+    }
+
+    // True when a write with this timestamp would not be older than what we already wrote
+    public synchronized boolean isNewer(long bssid, long timestamp) {
+        return timestamp > timestamps.get(bssid, UNKNOWN);
+    }
+
+    // Cell the newest write for this BSSID went to, null if unknown
+    public synchronized String getLastCell(long bssid) {
+        long packed = cells.get(bssid, UNKNOWN);
+        return packed == UNKNOWN ? null : Geohash.fromLong(packed);
+    }
+
+    // cell may be null when the write location is unknown; the previous cell is then kept
+    public synchronized void recordWrite(long bssid, long timestamp, String cell) {
+        if (bssid < 0) {
+            return;
+        }
+        if (timestamp > timestamps.get(bssid, UNKNOWN)) {
+            timestamps.put(bssid, timestamp);
+            long packed = Geohash.toLong(cell);
+            if (packed >= 0) {
+                cells.put(bssid, packed);
+            }
+            dirty = true;
+        }
+    }
+
+    public synchronized int size() {
+        return timestamps.size();
+    }
+
+    public synchronized void clear() {
+        timestamps.clear();
+        cells.clear();
+        generation++;
+        dirty = true;
+        save();
+    }
+
+    // Runs on the io thread. Parsed outside the lock, then merged so that writes
+    // recorded since startup win over older entries from the file.
+    private void read() {
+        int startGeneration;
+        synchronized (this) {
+            startGeneration = generation;
+        }
+        if (!file.exists()) {
+            return;
+        }
+        LongLongHashMap loadedTimestamps = new LongLongHashMap(256);
+        LongLongHashMap loadedCells = new LongLongHashMap(256);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int version = in.readInt();
+            if (version != FILE_VERSION && version != FILE_VERSION_NO_CELLS) {
+                Log.w(TAG, "Ignoring index with unknown version");
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long bssid = in.readLong();
+                long timestamp = in.readLong();
+                loadedTimestamps.put(bssid, timestamp);
+                if (version == FILE_VERSION) {
+                    long cell = in.readLong();
+                    if (cell >= 0) {
+                        loadedCells.put(bssid, cell);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // A torn or corrupt file only costs us guarded writes until the next save
+            Log.e(TAG, "Failed to load index, starting empty", e);
+            return;
+        }
+        synchronized (this) {
+            if (generation != startGeneration) return;
+            for (int s = 0; s < loadedTimestamps.capacity(); s++) {
+                if (!loadedTimestamps.isUsed(s)) continue;
+                long bssid = loadedTimestamps.keyAt(s);
+                if (loadedTimestamps.valueAt(s) <= timestamps.get(bssid, UNKNOWN)) continue;
+                timestamps.put(bssid, loadedTimestamps.valueAt(s));
+                long cell = loadedCells.get(bssid, UNKNOWN);
+                if (cell >= 0) {
+                    cells.put(bssid, cell);
+                }
+            }
+        }
+        Log.d(TAG, "Loaded " + loadedTimestamps.size() + " entries");
+    }
+
+    // Called after every batch of writes; only touches the disk every SAVE_INTERVAL_MS
+    public synchronized void saveIfDue() {
+        if (dirty && System.currentTimeMillis() - lastSaveTime >= SAVE_INTERVAL_MS) {
+            save();
+        }
+    }
+
+    // Snapshots the entries under the lock and writes them on the io thread
+    public synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+        lastSaveTime = System.currentTimeMillis();
+        int count = timestamps.size();
+        long[] snapshot = new long[count * 3];
+        int n = 0;
+        for (int s = 0; s < timestamps.capacity(); s++) {
+            if (timestamps.isUsed(s)) {
+                long bssid = timestamps.keyAt(s);
+                snapshot[n++] = bssid;
+                snapshot[n++] = timestamps.valueAt(s);
+                snapshot[n++] = cells.get(bssid, UNKNOWN);
+            }
+        }
+        dirty = false;
+        io.execute(() -> {
+            if (!write(snapshot)) {
+                synchronized (this) {
+                    dirty = true;
+                }
+            }
+        });
+    }
+
+    private boolean write(long[] snapshot) {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(FILE_VERSION);
+            out.writeInt(snapshot.length / 3);
+            for (long value : snapshot) {
+                out.writeLong(value);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to save index", e);
+            return false;
+        }
+        if (!tmp.renameTo(file)) {
+            Log.e(TAG, "Failed to replace index file");
+            return false;
+        }
+        return true;
+    }
+
+    // Blocks until queued loads and saves have finished
+    public void awaitIdle(long timeoutMs) throws InterruptedException {
+        try {
+            io.submit(() -> { }).get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            Log.w(TAG, "Index I/O did not finish", e);
+        }
+    }
+}
@@ -2,44 +2,140 @@ package dev.nimrod.locafi.utils;
 
 import com.google.android.gms.maps.model.LatLng;
 import java.util.List;
+import dev.nimrod.locafi.localization.AccessPointTable;
+import dev.nimrod.locafi.localization.FingerprintDatabase;
+import dev.nimrod.locafi.localization.LikelihoodGrid;
+import dev.nimrod.locafi.localization.OutlierFilter;
+import dev.nimrod.locafi.localization.ScanJoin;
+import dev.nimrod.locafi.localization.TrilaterationSolver;
+import dev.nimrod.locafi.localization.WeightedCentroid;
 import dev.nimrod.locafi.models.WiFiDevice;
 
 public class LocationCalculator {
-    private static final int MIN_SIGNAL = -100; // Minimum signal strength in dBm
+
+    public enum Mode {
+        WEIGHTED_CENTROID,
+        TRILATERATION,
+        // Matches the scan against recorded ones; needs a FingerprintDatabase, so callers
+        // with only AP positions get the weighted centroid
+        FINGERPRINT,
+        // Most likely cell of a likelihood grid built from the scan's coverage circles
+        GRID
+    }
+
+    // 400 m square at 2 m: room for the 50 m coverage circles of APs spread over a few hundred meters
+    private static final int SCAN_GRID_SIZE = 200;
+    private static final double SCAN_GRID_CELL_METERS = 2.0;
+
+    private static final ThreadLocal<TrilaterationSolver> SOLVER =
+            ThreadLocal.withInitial(TrilaterationSolver::new);
+    private static final ThreadLocal<ScanJoin> JOIN =
+            ThreadLocal.withInitial(ScanJoin::new);
+    // One scan's evidence only, so nothing is forgotten between updates
+    private static final ThreadLocal<LikelihoodGrid> SCAN_GRID = ThreadLocal.withInitial(
+            () -> new LikelihoodGrid(SCAN_GRID_SIZE, SCAN_GRID_SIZE, SCAN_GRID_CELL_METERS, 1.0));
 
     public static LatLng calculateLocation(List<WiFiDevice> devices) {
+        return calculateLocation(devices, Mode.WEIGHTED_CENTROID);
+    }
+
+    public static LatLng calculateLocation(List<WiFiDevice> devices, Mode mode) {
         if (devices == null || devices.isEmpty()) {
             return null;
         }
 
-        // For single device, return its location
-        if (devices.size() == 1) {
-            WiFiDevice device = devices.get(0);
-            return new LatLng(device.getLatitude(), device.getLongitude());
+        double[] lat = new double[devices.size()];
+        double[] lon = new double[devices.size()];
+        int[] rssi = new int[devices.size()];
+        int count = 0;
+        for (WiFiDevice device : devices) {
+            if (device.getLatitude() == null || device.getLongitude() == null) {
+                continue;
+            }
+            lat[count] = device.getLatitude();
+            lon[count] = device.getLongitude();
+            rssi[count] = device.getSignalStrength();
+            count++;
         }
 
-        // For multiple devices, calculate weighted average
-        double totalWeight = 0;
-        double weightedLat = 0;
-        double weightedLon = 0;
+        double[] out = new double[TrilaterationSolver.OUT_SIZE];
+        if (!calculateLocation(lat, lon, rssi, count, mode, out)) {
+            return null;
+        }
+        return new LatLng(out[0], out[1]);
+    }
 
-        for (WiFiDevice device : devices) {
-            double weight = calculateWeight(device.getSignalStrength());
-            weightedLat += device.getLatitude() * weight;
-            weightedLon += device.getLongitude() * weight;
-            totalWeight += weight;
+    // Estimates from a live scan: only visible APs with a learned position are used
+    public static LatLng calculateLocation(List<WiFiDevice> scan, AccessPointTable table, Mode mode) {
+        return calculateLocation(scan, table, mode, null);
+    }
+
+    public static LatLng calculateLocation(List<WiFiDevice> scan, AccessPointTable table, Mode mode,
+                                           OutlierFilter filter) {
+        if (scan == null || scan.isEmpty() || table == null) {
+            return null;
         }
+        ScanJoin join = JOIN.get();
+        join.join(scan, table);
+        int count = join.applyFilter(filter);
+        double[] out = new double[TrilaterationSolver.OUT_SIZE];
+        if (!calculateLocation(join.getLatitudes(), join.getLongitudes(), join.getRssi(), count, mode, out)) {
+            return null;
+        }
+        return new LatLng(out[0], out[1]);
+    }
+
+    // Estimates from a live scan by weighted kNN over the fingerprints recorded at known positions
+    public static LatLng calculateLocation(List<WiFiDevice> scan, FingerprintDatabase fingerprints) {
+        if (scan == null || scan.isEmpty() || fingerprints == null) {
+            return null;
+        }
+        long[] bssids = new long[scan.size()];
+        int[] rssi = new int[scan.size()];
+        int count = 0;
+        for (WiFiDevice device : scan) {
+            long key = BssidUtils.toLong(device.getBssid());
+            if (key == BssidUtils.INVALID) continue;
+            bssids[count] = key;
+            rssi[count] = device.getSignalStrength();
+            count++;
+        }
+        double[] out = new double[FingerprintDatabase.OUT_SIZE];
+        if (!fingerprints.match(bssids, rssi, count, FingerprintDatabase.DEFAULT_K, out)) {
+            return null;
+        }
+        return new LatLng(out[FingerprintDatabase.OUT_LAT], out[FingerprintDatabase.OUT_LON]);
+    }
 
-        return new LatLng(
-                weightedLat / totalWeight,
-                weightedLon / totalWeight
-        );
+    // Allocation-free variant for callers that keep their own buffers. out needs
+    // TrilaterationSolver.OUT_SIZE slots: {lat, lon, rms error}; the centroid leaves the error unset.
+    public static boolean calculateLocation(double[] lat, double[] lon, int[] rssi, int count,
+                                            Mode mode, double[] out) {
+        if (out.length < TrilaterationSolver.OUT_SIZE) {
+            throw new IllegalArgumentException("out needs " + TrilaterationSolver.OUT_SIZE + " slots");
+        }
+        if (mode == Mode.TRILATERATION) {
+            return SOLVER.get().solve(lat, lon, rssi, count, out);
+        }
+        if (mode == Mode.GRID) {
+            return locateOnGrid(lat, lon, rssi, count, out);
+        }
+        return WeightedCentroid.compute(lat, lon, rssi, count, out);
     }
 
-    private static double calculateWeight(int signalStrength) {
-        // Convert signal strength to a weight (stronger signal = higher weight)
-        // Normalize signal strength to 0-1 range
-        double normalizedSignal = Math.abs((double) (signalStrength - MIN_SIGNAL) / MIN_SIGNAL);
-        return Math.pow(normalizedSignal, 2); // Square it to emphasize stronger signals
+    // Centers a fresh grid on the weighted centroid and takes the cell most circles agree on
+    private static boolean locateOnGrid(double[] lat, double[] lon, int[] rssi, int count, double[] out) {
+        if (!WeightedCentroid.compute(lat, lon, rssi, count, out)) {
+            return false;
+        }
+        LikelihoodGrid grid = SCAN_GRID.get();
+        grid.reset(out[0], out[1]);
+        grid.update(lat, lon, rssi, count);
+        if (!grid.hasEstimate()) {
+            return false;
+        }
+        out[0] = grid.getMostLikelyLatitude();
+        out[1] = grid.getMostLikelyLongitude();
+        return true;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,37 @@
+package dev.nimrod.locafi.utils;
+
+// long -> int map without boxing; see LongKeyedHashMap for the key rules
+public class LongIntHashMap extends LongKeyedHashMap<int[]> {
+    public LongIntHashMap() {
+        this(16);
+    }
+
+    public LongIntHashMap(int expectedSize) {
+        super(expectedSize);
+    }
+
+    @Override
+    int[] newValues(int capacity) {
+        return new int[capacity];
+    }
+
+    @Override
+    void copyValue(int[] from, int fromSlot, int[] to, int toSlot) {
+        to[toSlot] = from[fromSlot];
+    }
+
+    public int get(long key, int defaultValue) {
+        int slot = find(key);
+        return slot < 0 ? defaultValue : values[slot];
+    }
+
+    public void put(long key, int value) {
+        // insert() may rehash, so read the values array only afterwards
+        int slot = insert(key);
+        values[slot] = value;
+    }
+
+    public int valueAt(int slot) {
+        return values[slot];
+    }
+}
@@ -0,0 +1,133 @@
+package dev.nimrod.locafi.utils;
+
+import java.util.Arrays;
+
+// Open-addressing hash over long keys, shared by the primitive maps; subclasses keep
+// the values in a parallel array of type V (int[], long[]). Keys must be non-negative
+// (BSSIDs and grid keys are), -1 marks an empty slot.
+abstract class LongKeyedHashMap<V> {
+    private static final long EMPTY = -1L;
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private long[] keys;
+    protected V values;
+    private int size;
+    private int mask;
+    private int resizeAt;
+
+    LongKeyedHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    abstract V newValues(int capacity);
+
+    abstract void copyValue(V from, int fromSlot, V to, int toSlot);
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = newValues(capacity);
+        Arrays.fill(keys, EMPTY);
+        mask = capacity - 1;
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    // Slot holding the key, or -1
+    final int find(long key) {
+        int slot = hash(key) & mask;
+        while (true) {
+            long k = keys[slot];
+            if (k == key) return slot;
+            if (k == EMPTY) return -1;
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    // Slot holding the key, claimed if it was absent; the caller writes the value
+    final int insert(long key) {
+        if (key < 0) {
+            throw new IllegalArgumentException("Negative keys are not supported: " + key);
+        }
+        int slot = hash(key) & mask;
+        while (true) {
+            long k = keys[slot];
+            if (k == key) return slot;
+            if (k == EMPTY) {
+                keys[slot] = key;
+                if (++size >= resizeAt) {
+                    rehash(keys.length << 1);
+                    return find(key);
+                }
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    public boolean containsKey(long key) {
+        return find(key) >= 0;
+    }
+
+    public boolean remove(long key) {
+        int slot = find(key);
+        if (slot < 0) return false;
+        // Backward-shift deletion keeps probe chains intact without tombstones
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        while (keys[next] != EMPTY) {
+            int ideal = hash(keys[next]) & mask;
+            if (((next - ideal) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                copyValue(values, next, values, gap);
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[gap] = EMPTY;
+        size--;
+        return true;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        V oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key == EMPTY) continue;
+            int slot = hash(key) & mask;
+            while (keys[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            copyValue(oldValues, i, values, slot);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    // Iteration by slot: for (int s = 0; s < capacity(); s++) if (isUsed(s)) ...
+    public int capacity() {
+        return keys.length;
+    }
+
+    public boolean isUsed(int slot) {
+        return keys[slot] != EMPTY;
+    }
+
+    public long keyAt(int slot) {
+        return keys[slot];
+    }
+}
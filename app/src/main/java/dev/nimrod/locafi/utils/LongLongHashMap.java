@@ -0,0 +1,37 @@
+package dev.nimrod.locafi.utils;
+
+// long -> long map without boxing; see LongKeyedHashMap for the key rules
+public class LongLongHashMap extends LongKeyedHashMap<long[]> {
+    public LongLongHashMap() {
+        this(16);
+    }
+
+    public LongLongHashMap(int expectedSize) {
+        super(expectedSize);
+    }
+
+    @Override
+    long[] newValues(int capacity) {
+        return new long[capacity];
+    }
+
+    @Override
+    void copyValue(long[] from, int fromSlot, long[] to, int toSlot) {
+        to[toSlot] = from[fromSlot];
+    }
+
+    public long get(long key, long defaultValue) {
+        int slot = find(key);
+        return slot < 0 ? defaultValue : values[slot];
+    }
+
+    public void put(long key, long value) {
+        // insert() may rehash, so read the values array only afterwards
+        int slot = insert(key);
+        values[slot] = value;
+    }
+
+    public long valueAt(int slot) {
+        return values[slot];
+    }
+}
@@ -0,0 +1,124 @@
+package dev.nimrod.locafi.utils;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// One stage of a processing pipeline: a single worker thread behind a bounded queue.
+// Each result is handed to the next stage's queue, so a slow stage only backs up its
+// own queue. When the queue is full the oldest waiting item is dropped, since a newer
+// scan supersedes an older one. Latency is measured from enqueue to hand-off.
+public class PipelineStage<I, O> {
+    private static final String TAG = "PipelineStage";
+
+    private final String name;
+    private final Step<I, O> step;
+    private final ThreadPoolExecutor executor;
+    private Sink<O> next;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong totalLatencyMs = new AtomicLong();
+    private volatile long lastLatencyMs;
+    private volatile long maxLatencyMs;
+    private volatile int maxQueueDepth;
+
+    public PipelineStage(String name, int queueCapacity, Step<I, O> step) {
+        this.name = name;
+        this.step = step;
+        this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> new Thread(r, "pipeline-" + name),
+                (r, pool) -> {
+                    if (pool.isShutdown()) return;
+                    if (pool.getQueue().poll() != null) {
+                        dropped.incrementAndGet();
+                    }
+                    pool.execute(r);
+                });
+    }
+
+    // Wires the output to another stage (or any sink); returns that stage for chaining
+    public <N> PipelineStage<O, N> then(PipelineStage<O, N> stage) {
+        next = stage::submit;
+        return stage;
+    }
+
+    public void then(Sink<O> sink) {
+        next = sink;
+    }
+
+    public void submit(I input) {
+        final long enqueuedAt = SystemClock.elapsedRealtime();
+        submitted.incrementAndGet();
+        executor.execute(() -> run(input, enqueuedAt));
+        int depth = executor.getQueue().size();
+        if (depth > maxQueueDepth) {
+            maxQueueDepth = depth;
+        }
+    }
+
+    private void run(I input, long enqueuedAt) {
+        O output;
+        try {
+            output = step.process(input);
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            Log.e(TAG, name + " failed", e);
+            return;
+        }
+        long latency = SystemClock.elapsedRealtime() - enqueuedAt;
+        processed.incrementAndGet();
+        totalLatencyMs.addAndGet(latency);
+        lastLatencyMs = latency;
+        if (latency > maxLatencyMs) {
+            maxLatencyMs = latency;
+        }
+        // A null result means the item stops here (filtered out or nothing to do)
+        if (output != null && next != null) {
+            next.accept(output);
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getAverageLatencyMs() {
+        long count = processed.get();
+        return count == 0 ? 0 : totalLatencyMs.get() / count;
+    }
+
+    public String getMetricsSummary() {
+        return name + "[in=" + submitted.get() + " out=" + processed.get() + " dropped=" + dropped.get()
+                + " failed=" + failed.get() + " depth=" + getQueueDepth() + " maxDepth=" + maxQueueDepth
+                + " lastMs=" + lastLatencyMs + " avgMs=" + getAverageLatencyMs()
+                + " maxMs=" + maxLatencyMs + "]";
+    }
+
+    public interface Step<I, O> {
+        // Runs on the stage's worker; return null to end this item here
+        O process(I input) throws Exception;
+    }
+
+    public interface Sink<T> {
+        void accept(T item);
+    }
+}
@@ -0,0 +1,212 @@
+package dev.nimrod.locafi.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.app.Application;
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import dev.nimrod.locafi.models.WiFiDevice;
+import dev.nimrod.locafi.utils.BssidUtils;
+import dev.nimrod.locafi.utils.DeviceCodec;
+import dev.nimrod.locafi.utils.FirebaseRepo;
+
+// Plain Application: LocaFiApp would bring up Firebase
+@RunWith(RobolectricTestRunner.class)
+@Config(application = Application.class)
+public class DeviceRepositoryTest {
+    private static final String BSSID_A = "aa:bb:cc:dd:ee:01";
+    private static final String BSSID_B = "aa:bb:cc:dd:ee:02";
+
+    private DeviceStore store;
+    private ObservationLog observations;
+    private FakeDeviceRemote remote;
+    private DeviceRepository repository;
+
+    @Before
+    public void setUp() {
+        Application context = RuntimeEnvironment.getApplication();
+        store = new DeviceStore(context, null);
+        observations = new ObservationLog(context, null);
+        remote = new FakeDeviceRemote();
+        repository = new DeviceRepository(store, observations, remote);
+    }
+
+    @After
+    public void tearDown() {
+        store.close();
+        observations.close();
+    }
+
+    @Test
+    public void upsertKeepsTheNewestCopy() throws Exception {
+        repository.saveDevices(Collections.singletonList(device(BSSID_A, -50, 200)), null);
+        repository.saveDevices(Collections.singletonList(device(BSSID_A, -90, 100)), null);
+        settle();
+        assertEquals(200, store.get(BSSID_A).getTimestamp());
+        assertEquals(-50, store.get(BSSID_A).getSignalStrength());
+
+        // An older remote copy loses, a device only the remote knows is merged
+        remote.putRemote(device(BSSID_A, -80, 150));
+        remote.putRemote(device(BSSID_B, -60, 150));
+        repository.sync(null);
+        settle();
+        assertEquals(200, store.get(BSSID_A).getTimestamp());
+        assertNotNull(store.get(BSSID_B));
+
+        // A newer remote copy wins
+        remote.putRemote(device(BSSID_A, -70, 300));
+        repository.sync(null);
+        settle();
+        assertEquals(300, store.get(BSSID_A).getTimestamp());
+        assertEquals(-70, store.get(BSSID_A).getSignalStrength());
+    }
+
+    @Test
+    public void offlineSyncFallsBackToLocalData() throws Exception {
+        remote.setOffline(true);
+        repository.saveDevices(Collections.singletonList(device(BSSID_A, -50, 200)), null);
+        settle();
+
+        AtomicInteger changed = new AtomicInteger(-1);
+        repository.sync(changed::set);
+        AtomicReference<List<WiFiDevice>> loaded = new AtomicReference<>();
+        repository.getDevices(loaded::set);
+        settle();
+
+        assertEquals(0, changed.get());
+        assertEquals(1, loaded.get().size());
+        assertEquals(BSSID_A, loaded.get().get(0).getBssid());
+        assertEquals(0, remote.getRemoteCount());
+    }
+
+    @Test
+    public void dirtyRowsArePushedOnceOnline() throws Exception {
+        remote.setOffline(true);
+        repository.saveDevices(Collections.singletonList(device(BSSID_A, -50, 200)), null);
+        settle();
+        repository.pushPending();
+        settle();
+        assertEquals(1, store.getDirty(10).size());
+        assertEquals(0, remote.getRemoteCount());
+
+        remote.setOffline(false);
+        repository.pushPending();
+        settle();
+        assertNotNull(remote.getRemote(BSSID_A));
+        assertEquals(200, remote.getRemote(BSSID_A).getTimestamp());
+        assertTrue(store.getDirty(10).isEmpty());
+    }
+
+    @Test
+    public void coldStartSyncResumesFromTheStore() throws Exception {
+        // Rows already in sync from an earlier session
+        store.upsert(Collections.singletonList(device(BSSID_A, -50, 500)), false);
+        repository.sync(null);
+        settle();
+        assertEquals(500, remote.getLastSinceMs());
+
+        remote.putRemote(device(BSSID_B, -60, 700));
+        repository.sync(null);
+        settle();
+        assertEquals(700, remote.getLastSinceMs());
+        assertNotNull(store.get(BSSID_B));
+    }
+
+    @Test
+    public void scansAreLoggedInFullButStoredAsDeltas() throws Exception {
+        WiFiDevice changed = device(BSSID_A, -50, 200);
+        List<WiFiDevice> scan = Arrays.asList(changed, device(BSSID_B, -70, 200));
+        assertEquals(Integer.valueOf(1), repository.submitScan(scan, Collections.singletonList(changed))
+                .get(5, TimeUnit.SECONDS));
+        settle();
+
+        assertEquals(2, observations.countObservations());
+        assertNotNull(store.get(BSSID_A));
+        assertNull(store.get(BSSID_B));
+        assertEquals(1, remote.getPendingCount());
+    }
+
+    @Test
+    public void importSpansSeveralBatches() throws Exception {
+        List<WiFiDevice> devices = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            devices.add(device(BssidUtils.toString(0x02_00_00_00_00_00L + i), -60, 1000 + i));
+        }
+        // Offline, so the upload after the import leaves the rows dirty
+        remote.setOffline(true);
+        AtomicReference<Long> imported = new AtomicReference<>();
+        repository.importDevices(new ByteArrayInputStream(DeviceCodec.encode(devices)), DeviceExportFormat.BINARY,
+                (success, count, skipped) -> imported.set(success ? count : -1));
+        // One round per batch
+        settle();
+        settle();
+
+        assertEquals(Long.valueOf(2500), imported.get());
+        assertEquals(2500, store.getDirty(5000).size());
+    }
+
+    @Test
+    public void snapshotKeepsOnlyTheWatchedCells() throws Exception {
+        WiFiDevice near = device(BSSID_A, -50, 100);
+        WiFiDevice far = device(BSSID_B, -60, 100);
+        far.setLatitude(40.0);
+        far.setLongitude(-74.0);
+        remote.putRemote(near);
+        remote.putRemote(far);
+
+        List<DeviceDelta> received = new ArrayList<>();
+        repository.observeDevices(received::add);
+        repository.watchCells(Arrays.asList(FirebaseRepo.cellOf(near), FirebaseRepo.cellOf(far)));
+        settle();
+        assertEquals(2, repository.getChangeStream().getSnapshotSize());
+
+        // Panning away from the far cell drops it, so a late observer is not replayed it
+        repository.watchCells(Collections.singletonList(FirebaseRepo.cellOf(near)));
+        assertEquals(1, repository.getChangeStream().getSnapshotSize());
+        List<DeviceDelta> late = new ArrayList<>();
+        repository.observeDevices(late::add);
+        assertEquals(1, late.size());
+        assertEquals(Collections.singletonList(near), late.get(0).getUpserted());
+    }
+
+    // Runs queued store work and main-thread callbacks until both are quiet; each
+    // round covers one executor -> main -> executor hop
+    private void settle() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            repository.submitDevices(Collections.emptyList()).get(5, TimeUnit.SECONDS);
+            shadowOf(Looper.getMainLooper()).idle();
+        }
+    }
+
+    private static WiFiDevice device(String bssid, int rssi, long timestamp) {
+        WiFiDevice device = new WiFiDevice();
+        device.setBssid(bssid);
+        device.setSsid("net");
+        device.setSignalStrength(rssi);
+        device.setLatitude(32.0);
+        device.setLongitude(34.0);
+        device.setTimestamp(timestamp);
+        return device;
+    }
+}
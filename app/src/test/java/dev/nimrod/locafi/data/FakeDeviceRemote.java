@@ -0,0 +1,278 @@
+package dev.nimrod.locafi.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import dev.nimrod.locafi.models.WiFiDevice;
+import dev.nimrod.locafi.utils.FirebaseRepo;
+
+// In-memory DeviceRemote with the same newest-wins semantics as Firebase. Writes
+// are held until flush() so tests can observe pending vs. acknowledged state, and
+// setOffline(true) makes every call fail like an unreachable server.
+public class FakeDeviceRemote implements DeviceRemote {
+    private final Map<String, WiFiDevice> devices = new LinkedHashMap<>();
+    private final List<WiFiDevice> pending = new ArrayList<>();
+    private OnDevicesWrittenListener listener;
+    private final List<ChangeListener> changeListeners = new ArrayList<>();
+    private List<String> changeCells = new ArrayList<>();
+    private boolean offline = false;
+    private int flushCount = 0;
+    private long lastSinceMs = -1;
+
+    @Override
+    public synchronized void pushDevices(Collection<WiFiDevice> batch) {
+        pending.addAll(batch);
+    }
+
+    @Override
+    public void flush() {
+        List<WiFiDevice> written;
+        List<WiFiDevice> changed = new ArrayList<>();
+        synchronized (this) {
+            if (offline || pending.isEmpty()) return;
+            written = new ArrayList<>(pending);
+            pending.clear();
+            for (WiFiDevice device : written) {
+                WiFiDevice existing = devices.get(device.getBssid());
+                if (existing == null || existing.getTimestamp() < device.getTimestamp()) {
+                    devices.put(device.getBssid(), device);
+                    changed.add(device);
+                }
+            }
+            flushCount++;
+        }
+        if (listener != null) {
+            listener.onDevicesWritten(written);
+        }
+        for (WiFiDevice device : changed) {
+            notifyUpserted(device);
+        }
+    }
+
+    @Override
+    public synchronized void addChangeListener(ChangeListener changeListener) {
+        changeListeners.add(changeListener);
+        // Like a child listener, replay everything currently stored in the watched cells
+        for (WiFiDevice device : devices.values()) {
+            if (isWatched(device, changeCells)) {
+                changeListener.onDeviceUpserted(device);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void setChangeCells(List<String> cells) {
+        List<String> previous = changeCells;
+        changeCells = new ArrayList<>(cells);
+        // Newly watched cells replay what they hold
+        for (WiFiDevice device : devices.values()) {
+            if (isWatched(device, changeCells) && !isWatched(device, previous)) {
+                for (ChangeListener changeListener : changeListeners) {
+                    changeListener.onDeviceUpserted(device);
+                }
+            }
+        }
+    }
+
+    private static boolean isWatched(WiFiDevice device, List<String> cells) {
+        String deviceCell = FirebaseRepo.cellOf(device);
+        for (String cell : cells) {
+            if (deviceCell.startsWith(cell)) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized void removeChangeListener(ChangeListener changeListener) {
+        changeListeners.remove(changeListener);
+    }
+
+    private synchronized void notifyUpserted(WiFiDevice device) {
+        if (!isWatched(device, changeCells)) return;
+        for (ChangeListener changeListener : changeListeners) {
+            changeListener.onDeviceUpserted(device);
+        }
+    }
+
+    @Override
+    public synchronized void setOnDevicesWrittenListener(OnDevicesWrittenListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void getDevicesOnce(FirebaseRepo.GetAllDevicesCallback callback) {
+        List<WiFiDevice> snapshot;
+        synchronized (this) {
+            snapshot = offline ? null : new ArrayList<>(devices.values());
+        }
+        callback.onComplete(snapshot);
+    }
+
+    @Override
+    public void getDevicesInCells(List<String> cells, FirebaseRepo.GetAllDevicesCallback callback) {
+        List<WiFiDevice> result = null;
+        synchronized (this) {
+            if (!offline) {
+                result = new ArrayList<>();
+                for (WiFiDevice device : devices.values()) {
+                    String deviceCell = FirebaseRepo.cellOf(device);
+                    for (String cell : cells) {
+                        if (deviceCell.startsWith(cell)) {
+                            result.add(device);
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        callback.onComplete(result);
+    }
+
+    // Newest first, ties broken by BSSID descending, same as the time index order reversed
+    private synchronized List<WiFiDevice> sortedSince(long sinceMs) {
+        List<WiFiDevice> sorted = new ArrayList<>();
+        for (WiFiDevice device : devices.values()) {
+            if (device.getTimestamp() >= sinceMs) {
+                sorted.add(device);
+            }
+        }
+        sorted.sort((a, b) -> a.getTimestamp() != b.getTimestamp()
+                ? Long.compare(b.getTimestamp(), a.getTimestamp())
+                : b.getBssid().compareTo(a.getBssid()));
+        return sorted;
+    }
+
+    @Override
+    public void getDevicesPage(long sinceMs, DevicePageCursor cursor, int limit, PageCallback callback) {
+        if (isOffline()) {
+            callback.onPage(null, null);
+            return;
+        }
+        List<WiFiDevice> page = new ArrayList<>();
+        boolean more = false;
+        for (WiFiDevice device : sortedSince(sinceMs)) {
+            if (cursor != null && (device.getTimestamp() > cursor.getTimestamp()
+                    || (device.getTimestamp() == cursor.getTimestamp()
+                    && device.getBssid().compareTo(cursor.getBssid()) >= 0))) {
+                continue;
+            }
+            if (page.size() == limit) {
+                more = true;
+                break;
+            }
+            page.add(device);
+        }
+        WiFiDevice last = page.isEmpty() ? null : page.get(page.size() - 1);
+        callback.onPage(page, more && last != null
+                ? new DevicePageCursor(last.getTimestamp(), last.getBssid()) : null);
+    }
+
+    @Override
+    public void getDevicesSince(long sinceMs, FirebaseRepo.GetAllDevicesCallback callback) {
+        synchronized (this) {
+            lastSinceMs = sinceMs;
+        }
+        callback.onComplete(isOffline() ? null : sortedSince(sinceMs));
+    }
+
+    @Override
+    public void countDevices(long sinceMs, CountCallback callback) {
+        callback.onCount(isOffline() ? -1 : sortedSince(sinceMs).size());
+    }
+
+    @Override
+    public void evictDevicesOlderThan(long cutoffMs, CountCallback callback) {
+        List<String> evicted = new ArrayList<>();
+        synchronized (this) {
+            if (offline) {
+                evicted = null;
+            } else {
+                for (WiFiDevice device : devices.values()) {
+                    if (device.getTimestamp() < cutoffMs) {
+                        evicted.add(device.getBssid());
+                    }
+                }
+                for (String bssid : evicted) {
+                    devices.remove(bssid);
+                    for (ChangeListener changeListener : changeListeners) {
+                        changeListener.onDeviceRemoved(bssid);
+                    }
+                }
+            }
+        }
+        callback.onCount(evicted == null ? -1 : evicted.size());
+    }
+
+    // One copy per BSSID by construction
+    @Override
+    public void mergeDuplicateCopies(long sinceMs, CountCallback callback) {
+        callback.onCount(isOffline() ? -1 : 0);
+    }
+
+    private synchronized boolean isOffline() {
+        return offline;
+    }
+
+    @Override
+    public void clearAllDevices(FirebaseRepo.ClearAllDevicesCallback callback) {
+        boolean success;
+        synchronized (this) {
+            success = !offline;
+            if (success) {
+                for (String bssid : devices.keySet()) {
+                    for (ChangeListener changeListener : changeListeners) {
+                        changeListener.onDeviceRemoved(bssid);
+                    }
+                }
+                devices.clear();
+                pending.clear();
+            }
+        }
+        if (callback != null) {
+            callback.onComplete(success);
+        }
+    }
+
+    @Override
+    public synchronized String getMetricsSummary() {
+        return "flushes=" + flushCount + " pending=" + pending.size() + " remote=" + devices.size();
+    }
+
+    // Seeds the remote as if another session had written these
+    public synchronized void putRemote(WiFiDevice device) {
+        devices.put(device.getBssid(), device);
+        notifyUpserted(device);
+    }
+
+    public synchronized WiFiDevice getRemote(String bssid) {
+        return devices.get(bssid);
+    }
+
+    public synchronized int getRemoteCount() {
+        return devices.size();
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    public synchronized int getChangeListenerCount() {
+        return changeListeners.size();
+    }
+
+    public synchronized int getFlushCount() {
+        return flushCount;
+    }
+
+    // sinceMs of the last getDevicesSince call, -1 if there was none
+    public synchronized long getLastSinceMs() {
+        return lastSinceMs;
+    }
+
+    public synchronized void setOffline(boolean offline) {
+        this.offline = offline;
+    }
+}
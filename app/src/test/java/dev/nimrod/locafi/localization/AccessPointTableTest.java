@@ -0,0 +1,116 @@
+package dev.nimrod.locafi.localization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import dev.nimrod.locafi.models.WiFiDevice;
+import dev.nimrod.locafi.utils.BssidUtils;
+
+public class AccessPointTableTest {
+    private static final long AP = 0x02_00_00_00_00_01L;
+    private static final double METERS_PER_DEGREE = GeoProjection.EARTH_RADIUS_METERS * Math.PI / 180.0;
+
+    @Test
+    public void positionIsTheSignalWeightedMean() {
+        AccessPointTable table = new AccessPointTable();
+        table.observe(AP, -50, 32.0, 34.0, 1000);
+        table.observe(AP, -80, 32.001, 34.002, 2000);
+
+        // weight((rssi + 100) / 100)^2: 0.25 at -50 dBm, 0.04 at -80 dBm
+        int row = table.indexOf(AP);
+        assertEquals((0.25 * 32.0 + 0.04 * 32.001) / 0.29, table.getLatitude(row), 1e-12);
+        assertEquals((0.25 * 34.0 + 0.04 * 34.002) / 0.29, table.getLongitude(row), 1e-12);
+    }
+
+    @Test
+    public void varianceMatchesTheWeightedDefinition() {
+        AccessPointTable table = new AccessPointTable();
+        double[] lat = {32.0, 32.0002, 31.9999, 32.0004};
+        int[] rssi = {-50, -60, -70, -55};
+        double weightSum = 0, mean = 0;
+        for (int i = 0; i < lat.length; i++) {
+            table.observe(AP, rssi[i], lat[i], 34.0, i);
+            weightSum += WeightedCentroid.weight(rssi[i]);
+            mean += WeightedCentroid.weight(rssi[i]) * lat[i];
+        }
+        mean /= weightSum;
+        double variance = 0;
+        for (int i = 0; i < lat.length; i++) {
+            double d = (lat[i] - mean) * METERS_PER_DEGREE;
+            variance += WeightedCentroid.weight(rssi[i]) * d * d;
+        }
+        variance /= weightSum;
+
+        // Longitude never moved, so all the variance is north-south
+        assertEquals(variance, table.getVarianceMeters2(table.indexOf(AP)), 1e-6);
+    }
+
+    @Test
+    public void rowKeepsCountMaxRssiAndNewestTime() {
+        AccessPointTable table = new AccessPointTable();
+        table.observe(AP, -70, 32.0, 34.0, 5000);
+        table.observe(AP, -55, 32.0, 34.0, 3000);
+        table.observe(AP, -90, 32.0, 34.0, 4000);
+
+        int row = table.indexOf(AP);
+        assertEquals(3, table.getObservationCount(row));
+        assertEquals(-55, table.getMaxRssi(row));
+        assertEquals(5000, table.getLastSeen(row));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void unplacedAndInvalidObservationsAreIgnored() {
+        AccessPointTable table = new AccessPointTable();
+        assertFalse(table.observe(BssidUtils.INVALID, -50, 32.0, 34.0, 0));
+        WiFiDevice unplaced = new WiFiDevice();
+        unplaced.setBssid(BssidUtils.toString(AP));
+        unplaced.setSignalStrength(-50);
+        assertFalse(table.observe(unplaced));
+        assertEquals(0, table.size());
+        assertEquals(-1, table.indexOf(AP));
+    }
+
+    @Test
+    public void copiesAreIndependentAndGrowPastTheInitialCapacity() {
+        AccessPointTable table = new AccessPointTable();
+        for (int i = 0; i < 100; i++) {
+            assertTrue(table.observe(AP + i, -60, 32.0 + i * 1e-4, 34.0, i));
+        }
+        AccessPointTable copy = table.copy();
+        copy.observe(AP + 1000, -60, 32.0, 34.0, 0);
+        table.observe(AP, -40, 33.0, 34.0, 0);
+
+        assertEquals(100, table.size());
+        assertEquals(101, copy.size());
+        assertEquals(32.0, copy.getLatitude(copy.indexOf(AP)), 1e-12);
+        assertEquals(32.0 + 99e-4, copy.getLatitude(copy.indexOf(AP + 99)), 1e-12);
+
+        table.clear();
+        assertEquals(0, table.size());
+        assertEquals(-1, table.indexOf(AP));
+        assertEquals(100, copy.indexOf(AP + 1000));
+    }
+
+    @Test
+    public void joinReturnsOnlyKnownAps() {
+        AccessPointTable table = new AccessPointTable();
+        table.observe(AP, -50, 32.0, 34.0, 0);
+        table.observe(AP + 2, -50, 32.1, 34.1, 0);
+
+        long[] keys = {AP, AP + 1, AP + 2};
+        int[] rssi = {-61, -62, -63};
+        long[] outBssid = new long[3];
+        double[] outLat = new double[3];
+        double[] outLon = new double[3];
+        int[] outRssi = new int[3];
+        assertEquals(2, table.join(keys, rssi, 3, outBssid, outLat, outLon, outRssi));
+        assertEquals(AP + 2, outBssid[1]);
+        assertEquals(32.1, outLat[1], 1e-12);
+        // The live reading, not the learned one
+        assertEquals(-63, outRssi[1]);
+    }
+}
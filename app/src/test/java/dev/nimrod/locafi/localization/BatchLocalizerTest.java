@@ -0,0 +1,108 @@
+package dev.nimrod.locafi.localization;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import dev.nimrod.locafi.utils.LocationCalculator;
+
+public class BatchLocalizerTest {
+    private static final GeoProjection PROJECTION = new GeoProjection(32.0853, 34.7818);
+    private static final long FIRST_BSSID = 0x02_00_00_00_00_00L;
+    private static final int WALK_SCANS = 50;
+
+    private final AccessPointTable table = new AccessPointTable();
+    private final ScanSession session = new ScanSession();
+
+    // Nine APs on a 40 m grid and a walk along its diagonal, plus one scan of unknown APs
+    public BatchLocalizerTest() {
+        double[] apEast = new double[9];
+        double[] apNorth = new double[9];
+        for (int i = 0; i < 9; i++) {
+            apEast[i] = 40 * (i % 3);
+            apNorth[i] = 40 * (i / 3);
+            table.observe(FIRST_BSSID + i, -50, PROJECTION.toLat(apNorth[i]), PROJECTION.toLon(apEast[i]), 0);
+        }
+
+        long[] bssids = new long[9];
+        int[] levels = new int[9];
+        for (int scan = 0; scan < WALK_SCANS; scan++) {
+            double east = 10 + 60.0 * scan / WALK_SCANS;
+            double north = 10 + 60.0 * scan / WALK_SCANS;
+            for (int i = 0; i < 9; i++) {
+                bssids[i] = FIRST_BSSID + i;
+                double d = Math.hypot(apEast[i] - east, apNorth[i] - north);
+                levels[i] = (int) Math.round(PathLossModel.DEFAULT.expectedRssi(d));
+            }
+            session.addScan(scan * 1000L, PROJECTION.toLat(north), PROJECTION.toLon(east), bssids, levels, 9);
+        }
+        session.addScan(WALK_SCANS * 1000L, PROJECTION.toLat(0), PROJECTION.toLon(0),
+                new long[]{0x0a_00_00_00_00_01L}, new int[]{-60}, 1);
+    }
+
+    @Test
+    public void reportsThroughputAndErrorStatistics() {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            BatchLocalizer.Result result = new BatchLocalizer(pool, LocationCalculator.Mode.TRILATERATION,
+                    MedianConsensusFilter::new).run(session, table);
+
+            assertEquals(WALK_SCANS + 1, result.getScanCount());
+            assertEquals(WALK_SCANS, result.getEstimatedCount());
+            assertTrue(Double.isNaN(result.getErrors()[WALK_SCANS]));
+            assertTrue(Double.isNaN(result.getLatitudes()[WALK_SCANS]));
+            assertTrue(result.getElapsedNanos() > 0);
+            assertEquals(WALK_SCANS * 1e9 / result.getElapsedNanos(), result.getEstimatesPerSecond(), 1e-6);
+
+            // The summary statistics agree with the per-scan errors
+            double sum = 0, max = 0;
+            for (int scan = 0; scan < WALK_SCANS; scan++) {
+                sum += result.getErrors()[scan];
+                max = Math.max(max, result.getErrors()[scan]);
+            }
+            assertEquals(sum / WALK_SCANS, result.getMeanError(), 1e-9);
+            assertEquals(max, result.getMaxError(), 0);
+            assertTrue(result.getMedianError() <= result.getP95Error());
+            assertTrue(result.getP95Error() <= result.getMaxError());
+            // Rounded readings from exact AP positions keep every fix close
+            assertTrue(result.toString(), result.getMaxError() < 10);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void parallelRunMatchesASingleWorker() {
+        ForkJoinPool one = new ForkJoinPool(1);
+        ForkJoinPool four = new ForkJoinPool(4);
+        try {
+            BatchLocalizer.Result sequential = new BatchLocalizer(one, LocationCalculator.Mode.TRILATERATION,
+                    MedianConsensusFilter::new).run(session, table);
+            BatchLocalizer.Result parallel = new BatchLocalizer(four, LocationCalculator.Mode.TRILATERATION,
+                    MedianConsensusFilter::new).run(session, table);
+            assertArrayEquals(sequential.getLatitudes(), parallel.getLatitudes(), 0);
+            assertArrayEquals(sequential.getLongitudes(), parallel.getLongitudes(), 0);
+        } finally {
+            one.shutdown();
+            four.shutdown();
+        }
+    }
+
+    @Test
+    public void centroidIsWorseThanTrilaterationOnTheWalk() {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            double centroid = new BatchLocalizer(pool, LocationCalculator.Mode.WEIGHTED_CENTROID, null)
+                    .run(session, table).getMeanError();
+            double trilateration = new BatchLocalizer(pool, LocationCalculator.Mode.TRILATERATION, null)
+                    .run(session, table).getMeanError();
+            assertTrue(trilateration + " vs " + centroid, trilateration < centroid);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
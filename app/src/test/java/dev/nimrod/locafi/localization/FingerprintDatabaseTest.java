@@ -0,0 +1,73 @@
+package dev.nimrod.locafi.localization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import dev.nimrod.locafi.models.WiFiDevice;
+import dev.nimrod.locafi.utils.BssidUtils;
+
+public class FingerprintDatabaseTest {
+    private static final long AP_A = 0x02_00_00_00_00_01L;
+    private static final long AP_B = 0x02_00_00_00_00_02L;
+    private static final long AP_C = 0x02_00_00_00_00_03L;
+
+    private final double[] out = new double[FingerprintDatabase.OUT_SIZE];
+
+    @Test
+    public void nearestFingerprintWins() {
+        FingerprintDatabase db = new FingerprintDatabase();
+        db.add(32.0, 34.0, new long[]{AP_A, AP_B}, new int[]{-40, -80}, 2);
+        db.add(32.001, 34.0, new long[]{AP_A, AP_B}, new int[]{-80, -40}, 2);
+
+        assertTrue(db.match(new long[]{AP_A, AP_B}, new int[]{-42, -79}, 2, 1, out));
+        assertEquals(32.0, out[FingerprintDatabase.OUT_LAT], 1e-9);
+        assertEquals(Math.sqrt(2 * 2 + 1 * 1), out[FingerprintDatabase.OUT_DISTANCE], 1e-9);
+        assertEquals(2, db.getLastCandidateCount());
+    }
+
+    @Test
+    public void repeatedQueryBssidsAreScoredOnce() {
+        FingerprintDatabase db = new FingerprintDatabase();
+        db.add(32.0, 34.0, new long[]{AP_A, AP_B}, new int[]{-50, -60}, 2);
+
+        assertTrue(db.match(new long[]{AP_A, AP_B}, new int[]{-50, -70}, 2, 1, out));
+        double single = out[FingerprintDatabase.OUT_DISTANCE];
+        // The weaker repeat of AP_B is dropped, the stronger reading is the one compared
+        assertTrue(db.match(new long[]{AP_A, AP_B, AP_B}, new int[]{-50, -90, -70}, 3, 1, out));
+        assertEquals(single, out[FingerprintDatabase.OUT_DISTANCE], 1e-9);
+        assertEquals(10, single, 1e-9);
+    }
+
+    @Test
+    public void scansBecomeOneFingerprintAtTheirMeanPosition() {
+        FingerprintDatabase db = new FingerprintDatabase();
+        assertEquals(0, db.addScan(Arrays.asList(
+                device(AP_A, -50, 32.0000, 34.0), device(AP_B, -60, 32.0002, 34.0),
+                device(AP_C, -70, null, null))));
+        assertEquals(1, db.size());
+        assertEquals(2, db.getAccessPointCount());
+
+        assertTrue(db.match(new long[]{AP_A}, new int[]{-50}, 1, 1, out));
+        assertEquals(32.0001, out[FingerprintDatabase.OUT_LAT], 1e-9);
+
+        assertEquals(-1, db.addScan(Arrays.asList(device(AP_C, -70, null, null))));
+        db.clear();
+        assertEquals(0, db.size());
+        assertFalse(db.match(new long[]{AP_A}, new int[]{-50}, 1, 1, out));
+    }
+
+    private static WiFiDevice device(long bssid, int rssi, Double lat, Double lon) {
+        WiFiDevice device = new WiFiDevice();
+        device.setBssid(BssidUtils.toString(bssid));
+        device.setSignalStrength(rssi);
+        device.setLatitude(lat);
+        device.setLongitude(lon);
+        device.setTimestamp(1000);
+        return device;
+    }
+}
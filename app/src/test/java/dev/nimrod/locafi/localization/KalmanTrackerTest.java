@@ -0,0 +1,101 @@
+package dev.nimrod.locafi.localization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class KalmanTrackerTest {
+    private static final double LAT = 32.0853;
+    private static final double LON = 34.7818;
+    private static final double EPS = 1e-9;
+
+    private final double[] p = new double[KalmanTracker.STATE_SIZE * KalmanTracker.STATE_SIZE];
+
+    @Test
+    public void firstFixSetsTheInitialCovariance() {
+        KalmanTracker tracker = new KalmanTracker(1.0, new TrilaterationSolver());
+        assertFalse(tracker.hasEstimate());
+        tracker.update(LAT, LON, 9, 0);
+
+        assertTrue(tracker.hasEstimate());
+        assertEquals(LAT, tracker.getLatitude(), 1e-12);
+        assertEquals(LON, tracker.getLongitude(), 1e-12);
+        tracker.getCovariance(p);
+        assertAxis(9, 0, 4);
+        assertEquals(3, tracker.getPositionStdMeters(), EPS);
+    }
+
+    @Test
+    public void predictAndUpdateMatchHandComputedCovariance() {
+        KalmanTracker tracker = new KalmanTracker(1.0, new TrilaterationSolver());
+        tracker.update(LAT, LON, 9, 0);
+        tracker.update(LAT, LON, 9, 1000);
+
+        // Predict, dt = 1 s, q = 1: F P F^T + Q per axis gives
+        //   pp = 9 + 4 + 1/4 = 13.25, pv = 4 + 1/2 = 4.5, vv = 4 + 1 = 5
+        // Update with R = 9, S = 22.25:
+        //   pp = 13.25 * 9 / 22.25, pv = 4.5 * 9 / 22.25, vv = 5 - 4.5^2 / 22.25
+        tracker.getCovariance(p);
+        assertAxis(13.25 * 9 / 22.25, 4.5 * 9 / 22.25, 5 - 4.5 * 4.5 / 22.25);
+        // No coupling between the east and north axes
+        assertEquals(0, p[1], EPS);
+        assertEquals(0, p[3], EPS);
+        assertEquals(0, p[6], EPS);
+        assertEquals(2, tracker.getUpdateCount());
+    }
+
+    @Test
+    public void velocityFollowsTheInnovation() {
+        KalmanTracker tracker = new KalmanTracker(1.0, new TrilaterationSolver());
+        GeoProjection projection = new GeoProjection(LAT, LON);
+        tracker.update(LAT, LON, 9, 0);
+        tracker.update(LAT, projection.toLon(10), 9, 1000);
+
+        // K for the velocity is pv / S = 4.5 / 22.25 of the 10 m innovation
+        assertEquals(10 * 4.5 / 22.25, tracker.getVelocityEast(), 1e-6);
+        assertEquals(0, tracker.getVelocityNorth(), 1e-6);
+    }
+
+    @Test
+    public void sameTimestampSkipsThePredict() {
+        KalmanTracker tracker = new KalmanTracker(1.0, new TrilaterationSolver());
+        tracker.update(LAT, LON, 9, 5000);
+        tracker.update(LAT, LON, 9, 5000);
+
+        // Pure update of pp = 9 with R = 9; the velocity only sees the zero cross term
+        tracker.getCovariance(p);
+        assertAxis(4.5, 0, 4);
+    }
+
+    @Test
+    public void longGapsAreCappedAtOneMinute() {
+        KalmanTracker capped = new KalmanTracker(1.0, new TrilaterationSolver());
+        KalmanTracker minute = new KalmanTracker(1.0, new TrilaterationSolver());
+        capped.update(LAT, LON, 9, 0);
+        minute.update(LAT, LON, 9, 0);
+        capped.update(LAT, LON, 9, 10 * 60_000);
+        minute.update(LAT, LON, 9, 60_000);
+
+        double[] expected = new double[p.length];
+        minute.getCovariance(expected);
+        capped.getCovariance(p);
+        for (int i = 0; i < p.length; i++) {
+            assertEquals(expected[i], p[i], EPS);
+        }
+        assertEquals(10 * 60_000, capped.getLastTimestamp());
+    }
+
+    // Both axes hold the same position, cross and velocity variances
+    private void assertAxis(double pos, double cross, double vel) {
+        for (int axis = 0; axis < 2; axis++) {
+            int posIndex = axis;
+            int velIndex = axis + 2;
+            assertEquals(pos, p[posIndex * 4 + posIndex], EPS);
+            assertEquals(cross, p[posIndex * 4 + velIndex], EPS);
+            assertEquals(cross, p[velIndex * 4 + posIndex], EPS);
+            assertEquals(vel, p[velIndex * 4 + velIndex], EPS);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package dev.nimrod.locafi.localization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import dev.nimrod.locafi.utils.LocationCalculator;
+
+public class LikelihoodGridTest {
+    private static final GeoProjection PROJECTION = new GeoProjection(32.0853, 34.7818);
+
+    @Test
+    public void singleApPeaksAtItsOwnCell() {
+        LikelihoodGrid grid = new LikelihoodGrid(100, 100, 1.0, 0.9);
+        assertFalse(grid.hasEstimate());
+        update(grid, new double[]{3}, new double[]{-4}, new int[]{-65});
+
+        assertTrue(grid.hasEstimate());
+        assertTrue(errorMeters(grid, 3, -4) < 1.0);
+        assertEquals(1, grid.getUpdateCount());
+    }
+
+    @Test
+    public void newerEvidenceOutweighsOlder() {
+        LikelihoodGrid grid = new LikelihoodGrid(200, 200, 1.0, 0.5);
+        // With half the weight kept per scan, each scan counts twice the one before it
+        update(grid, new double[]{-30}, new double[]{0}, new int[]{-45});
+        update(grid, new double[]{-30}, new double[]{0}, new int[]{-45});
+        assertTrue(errorMeters(grid, -30, 0) < 1.0);
+        update(grid, new double[]{30}, new double[]{0}, new int[]{-45});
+        update(grid, new double[]{30}, new double[]{0}, new int[]{-45});
+        assertTrue(errorMeters(grid, 30, 0) < 1.0);
+    }
+
+    @Test
+    public void recentersWhenTheScanDriftsAway() {
+        LikelihoodGrid grid = new LikelihoodGrid(100, 100, 1.0, 0.9);
+        update(grid, new double[]{0}, new double[]{0}, new int[]{-45});
+        double[] before = new double[4];
+        grid.getBounds(before);
+
+        // 40 m east is past half of the 50 m half-size
+        update(grid, new double[]{40}, new double[]{0}, new int[]{-45});
+        double[] after = new double[4];
+        grid.getBounds(after);
+        assertTrue(after[1] > before[1]);
+        assertEquals(before[0], after[0], 1e-9);
+        assertTrue(errorMeters(grid, 40, 0) < 1.0);
+    }
+
+    @Test
+    public void renderIsRelativeToTheMaximum() {
+        LikelihoodGrid grid = new LikelihoodGrid(60, 60, 1.0, 0.9);
+        update(grid, new double[]{0}, new double[]{0}, new int[]{-45});
+        int[] argb = new int[60 * 60];
+        grid.render(argb, 0x123456);
+
+        int maxAlpha = 0;
+        for (int pixel : argb) {
+            assertEquals(0x123456, pixel & 0xFFFFFF);
+            maxAlpha = Math.max(maxAlpha, pixel >>> 24);
+        }
+        assertEquals(255, maxAlpha);
+        // Corners are outside the 10 m circle
+        assertEquals(0, argb[0] >>> 24);
+    }
+
+    @Test
+    public void gridModeLandsWhereTheCirclesOverlap() {
+        // Three strong APs whose 10 m circles only overlap around (5, 2)
+        double[] east = {-3, 13, 5};
+        double[] north = {0, 0, 8};
+        double[] lat = new double[3];
+        double[] lon = new double[3];
+        for (int i = 0; i < 3; i++) {
+            lat[i] = PROJECTION.toLat(north[i]);
+            lon[i] = PROJECTION.toLon(east[i]);
+        }
+        double[] out = new double[TrilaterationSolver.OUT_SIZE];
+        assertTrue(LocationCalculator.calculateLocation(lat, lon, new int[]{-45, -45, -45}, 3,
+                LocationCalculator.Mode.GRID, out));
+        double error = GeoProjection.distanceMeters(out[0], out[1], PROJECTION.toLat(2), PROJECTION.toLon(5));
+        assertTrue("error " + error, error < 4);
+
+        assertFalse(LocationCalculator.calculateLocation(lat, lon, new int[0], 0,
+                LocationCalculator.Mode.GRID, out));
+    }
+
+    private static void update(LikelihoodGrid grid, double[] east, double[] north, int[] rssi) {
+        double[] lat = new double[east.length];
+        double[] lon = new double[east.length];
+        for (int i = 0; i < east.length; i++) {
+            lat[i] = PROJECTION.toLat(north[i]);
+            lon[i] = PROJECTION.toLon(east[i]);
+        }
+        grid.update(lat, lon, rssi, east.length);
+    }
+
+    private static double errorMeters(LikelihoodGrid grid, double east, double north) {
+        return GeoProjection.distanceMeters(grid.getMostLikelyLatitude(), grid.getMostLikelyLongitude(),
+                PROJECTION.toLat(north), PROJECTION.toLon(east));
+    }
+}
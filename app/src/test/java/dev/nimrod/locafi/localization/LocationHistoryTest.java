@@ -0,0 +1,92 @@
+package dev.nimrod.locafi.localization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LocationHistoryTest {
+    private static final long SECOND_US = 1000 * 1000L;
+
+    @Test
+    public void interpolatesBetweenNeighbouringFixes() {
+        LocationHistory history = new LocationHistory();
+        history.add(10 * SECOND_US, 32.0, 34.0);
+        history.add(20 * SECOND_US, 32.001, 34.002);
+
+        double[] out = new double[2];
+        assertTrue(history.positionAt(12 * SECOND_US, out));
+        assertEquals(32.0002, out[0], 1e-9);
+        assertEquals(34.0004, out[1], 1e-9);
+        // A time exactly on a fix gets that fix
+        assertTrue(history.positionAt(20 * SECOND_US, out));
+        assertEquals(32.001, out[0], 1e-12);
+    }
+
+    @Test
+    public void fixesTooFarApartAreHeldNotBlended() {
+        LocationHistory history = new LocationHistory();
+        history.add(0, 32.0, 34.0);
+        history.add(40 * SECOND_US, 33.0, 35.0);
+
+        double[] out = new double[2];
+        // Nearer the first fix and within the hold
+        assertTrue(history.positionAt(8 * SECOND_US, out));
+        assertEquals(32.0, out[0], 0);
+        assertTrue(history.positionAt(31 * SECOND_US, out));
+        assertEquals(33.0, out[0], 0);
+        // In the middle of the gap neither fix is close enough
+        assertFalse(history.positionAt(20 * SECOND_US, out));
+    }
+
+    @Test
+    public void timesOutsideTheHistoryAreHeldForTenSeconds() {
+        LocationHistory history = new LocationHistory();
+        double[] out = new double[2];
+        assertFalse(history.positionAt(0, out));
+
+        history.add(100 * SECOND_US, 32.0, 34.0);
+        history.add(105 * SECOND_US, 32.1, 34.1);
+        assertTrue(history.positionAt(90 * SECOND_US, out));
+        assertEquals(32.0, out[0], 0);
+        assertFalse(history.positionAt(90 * SECOND_US - 1, out));
+        assertTrue(history.positionAt(115 * SECOND_US, out));
+        assertEquals(32.1, out[0], 0);
+        assertFalse(history.positionAt(115 * SECOND_US + 1, out));
+    }
+
+    @Test
+    public void lateAndDuplicateFixesAreIgnored() {
+        LocationHistory history = new LocationHistory();
+        history.add(10 * SECOND_US, 32.0, 34.0);
+        history.add(20 * SECOND_US, 32.002, 34.0);
+        history.add(15 * SECOND_US, 40.0, 40.0);
+        history.add(20 * SECOND_US, 40.0, 40.0);
+        assertEquals(2, history.size());
+
+        double[] out = new double[2];
+        assertTrue(history.positionAt(15 * SECOND_US, out));
+        assertEquals(32.001, out[0], 1e-9);
+    }
+
+    @Test
+    public void ringKeepsTheNewestFixes() {
+        LocationHistory history = new LocationHistory();
+        int total = LocationHistory.CAPACITY + 50;
+        for (int i = 0; i < total; i++) {
+            history.add(i * SECOND_US, 32.0 + i * 1e-4, 34.0);
+        }
+        assertEquals(LocationHistory.CAPACITY, history.size());
+
+        double[] out = new double[2];
+        // The oldest kept fix is number 50; fix 20 is gone and more than ten seconds older
+        assertFalse(history.positionAt(20 * SECOND_US, out));
+        assertTrue(history.positionAt((total - 2) * SECOND_US + SECOND_US / 2, out));
+        assertEquals(32.0 + (total - 1.5) * 1e-4, out[0], 1e-9);
+
+        history.clear();
+        assertEquals(0, history.size());
+        assertFalse(history.positionAt((total - 1) * SECOND_US, out));
+    }
+}
@@ -0,0 +1,93 @@
+package dev.nimrod.locafi.localization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class OutlierFilterTest {
+    private static final GeoProjection PROJECTION = new GeoProjection(32.0853, 34.7818);
+    private static final int AP_COUNT = 30;
+    private static final int MOVED = 5;
+    private static final double MOVED_METERS = 800;
+
+    private final double[] lat = new double[AP_COUNT];
+    private final double[] lon = new double[AP_COUNT];
+    private final int[] rssi = new int[AP_COUNT];
+
+    // 30 APs within 60 m of a phone at the origin; the first 5 were moved 800 m since their
+    // positions were learned, so they are heard at their real range but recorded far away
+    public OutlierFilterTest() {
+        Random random = new Random(7);
+        for (int i = 0; i < AP_COUNT; i++) {
+            double distance = 5 + 55 * random.nextDouble();
+            double bearing = 2 * Math.PI * random.nextDouble();
+            rssi[i] = (int) Math.round(PathLossModel.DEFAULT.expectedRssi(distance));
+            double recorded = i < MOVED ? distance + MOVED_METERS : distance;
+            lat[i] = PROJECTION.toLat(recorded * Math.cos(bearing));
+            lon[i] = PROJECTION.toLon(recorded * Math.sin(bearing));
+        }
+    }
+
+    @Test
+    public void medianConsensusRejectsEveryMovedAp() {
+        assertRejectsMoved(new MedianConsensusFilter());
+    }
+
+    @Test
+    public void ransacRejectsEveryMovedAp() {
+        assertRejectsMoved(new RansacFilter());
+    }
+
+    @Test
+    public void filteringRestoresTrilateration() {
+        TrilaterationSolver solver = new TrilaterationSolver();
+        double[] out = new double[TrilaterationSolver.OUT_SIZE];
+        assertTrue(solver.solve(lat, lon, rssi, AP_COUNT, out));
+        double unfiltered = errorMeters(out);
+
+        boolean[] keep = new boolean[AP_COUNT];
+        int kept = new MedianConsensusFilter().filter(lat, lon, rssi, AP_COUNT, keep);
+        double[] keptLat = new double[kept];
+        double[] keptLon = new double[kept];
+        int[] keptRssi = new int[kept];
+        for (int i = 0, j = 0; i < AP_COUNT; i++) {
+            if (!keep[i]) continue;
+            keptLat[j] = lat[i];
+            keptLon[j] = lon[i];
+            keptRssi[j] = rssi[i];
+            j++;
+        }
+        assertTrue(solver.solve(keptLat, keptLon, keptRssi, kept, out));
+        double filtered = errorMeters(out);
+
+        assertTrue("unfiltered " + unfiltered, unfiltered > 50);
+        assertTrue("filtered " + filtered, filtered < 5);
+    }
+
+    @Test
+    public void smallScansAreKeptWhole() {
+        boolean[] keep = new boolean[3];
+        assertEquals(2, new MedianConsensusFilter().filter(lat, lon, rssi, 2, keep));
+        assertEquals(3, new RansacFilter().filter(lat, lon, rssi, 3, keep));
+        assertTrue(keep[0] && keep[1] && keep[2]);
+    }
+
+    private void assertRejectsMoved(OutlierFilter filter) {
+        boolean[] keep = new boolean[AP_COUNT];
+        int kept = filter.filter(lat, lon, rssi, AP_COUNT, keep);
+        for (int i = 0; i < MOVED; i++) {
+            assertFalse("kept moved AP " + i, keep[i]);
+        }
+        // Some honest APs may go too, but most of the scan survives
+        assertTrue("kept " + kept, kept >= AP_COUNT - MOVED - 3);
+    }
+
+    private static double errorMeters(double[] out) {
+        return GeoProjection.distanceMeters(out[TrilaterationSolver.OUT_LAT], out[TrilaterationSolver.OUT_LON],
+                PROJECTION.getOriginLat(), PROJECTION.getOriginLon());
+    }
+}
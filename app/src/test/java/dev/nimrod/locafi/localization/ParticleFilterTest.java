@@ -0,0 +1,83 @@
+package dev.nimrod.locafi.localization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+public class ParticleFilterTest {
+    private static final GeoProjection PROJECTION = new GeoProjection(32.0853, 34.7818);
+    private static final double TRUTH_EAST = 12;
+    private static final double TRUTH_NORTH = 9;
+
+    private final double[] lat = new double[5];
+    private final double[] lon = new double[5];
+    private final int[] rssi = new int[5];
+
+    public ParticleFilterTest() {
+        // A 60 m square of APs plus one in the middle, read from a stationary phone
+        double[] east = {0, 60, 0, 60, 30};
+        double[] north = {0, 0, 60, 60, 30};
+        for (int i = 0; i < east.length; i++) {
+            lat[i] = PROJECTION.toLat(north[i]);
+            lon[i] = PROJECTION.toLon(east[i]);
+            double d = Math.hypot(east[i] - TRUTH_EAST, north[i] - TRUTH_NORTH);
+            rssi[i] = (int) Math.round(PathLossModel.DEFAULT.expectedRssi(d));
+        }
+    }
+
+    @Test
+    public void convergesOnAStationaryPhone() {
+        ParticleFilter filter = new ParticleFilter(5_000, PathLossModel.DEFAULT, ForkJoinPool.commonPool(), 7);
+        assertFalse(filter.hasEstimate());
+        for (int step = 0; step < 20; step++) {
+            assertTrue(filter.step(lat, lon, rssi, rssi.length, 1.0));
+        }
+        double error = GeoProjection.distanceMeters(filter.getLatitude(), filter.getLongitude(),
+                PROJECTION.toLat(TRUTH_NORTH), PROJECTION.toLon(TRUTH_EAST));
+        assertTrue("error " + error, error < 8);
+        assertTrue(filter.getEffectiveSampleSize() > 0);
+    }
+
+    @Test
+    public void resultDoesNotDependOnPoolSize() {
+        // Each chunk has its own random stream, so the split across threads does not matter
+        ForkJoinPool one = new ForkJoinPool(1);
+        ForkJoinPool four = new ForkJoinPool(4);
+        try {
+            ParticleFilter a = new ParticleFilter(10_000, PathLossModel.DEFAULT, one, 42);
+            ParticleFilter b = new ParticleFilter(10_000, PathLossModel.DEFAULT, four, 42);
+            for (int step = 0; step < 5; step++) {
+                a.step(lat, lon, rssi, rssi.length, 1.0);
+                b.step(lat, lon, rssi, rssi.length, 1.0);
+            }
+            assertEquals(a.getLatitude(), b.getLatitude(), 0);
+            assertEquals(a.getLongitude(), b.getLongitude(), 0);
+        } finally {
+            one.shutdown();
+            four.shutdown();
+        }
+    }
+
+    @Test
+    public void emptyScanIsNotAStep() {
+        ParticleFilter filter = new ParticleFilter(1_000, PathLossModel.DEFAULT, ForkJoinPool.commonPool(), 1);
+        assertFalse(filter.step(lat, lon, rssi, 0, 1.0));
+        assertFalse(filter.hasEstimate());
+    }
+
+    @Test
+    public void particleCountIsBounded() {
+        for (int count : new int[]{ParticleFilter.MIN_PARTICLES - 1, ParticleFilter.MAX_PARTICLES + 1}) {
+            try {
+                new ParticleFilter(count, PathLossModel.DEFAULT, ForkJoinPool.commonPool(), 1);
+                fail("Accepted " + count + " particles");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package dev.nimrod.locafi.localization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TrilaterationSolverTest {
+    private static final double ORIGIN_LAT = 32.0853;
+    private static final double ORIGIN_LON = 34.7818;
+
+    private final GeoProjection projection = new GeoProjection(ORIGIN_LAT, ORIGIN_LON);
+    private final double[] out = new double[TrilaterationSolver.OUT_SIZE];
+
+    @Test
+    public void convergesOnExactRanges() {
+        // n = 2 puts -60/-70/-80 dBm at exactly 10, 31.62 and 100 m, so the ranges carry no rounding
+        PathLossModel model = new PathLossModel(-40, 2.0);
+        double far = Math.sqrt(1000);
+        double[] east = {10, 0, -far, 0};
+        double[] north = {0, 10, 0, -100};
+        int[] rssi = {-60, -60, -70, -80};
+
+        TrilaterationSolver solver = new TrilaterationSolver(model);
+        assertTrue(solve(solver, east, north, rssi));
+        // The weighted centroid starts well away from the answer
+        assertTrue(errorMeters(0, 0) < 0.05);
+        assertTrue(out[TrilaterationSolver.OUT_RMS_ERROR] < 0.05);
+        assertTrue(solver.getLastIterations() > 1);
+    }
+
+    @Test
+    public void beatsTheCentroidOnRoundedReadings() {
+        // Truth near one corner of a 60 m square of APs
+        double truthEast = 12, truthNorth = 9;
+        double[] east = {0, 60, 0, 60, 30};
+        double[] north = {0, 0, 60, 60, 30};
+        int[] rssi = new int[east.length];
+        for (int i = 0; i < rssi.length; i++) {
+            double d = Math.hypot(east[i] - truthEast, north[i] - truthNorth);
+            rssi[i] = (int) Math.round(PathLossModel.DEFAULT.expectedRssi(d));
+        }
+
+        double[] lat = new double[east.length];
+        double[] lon = new double[east.length];
+        toLatLon(east, north, lat, lon);
+        double[] centroid = new double[2];
+        assertTrue(WeightedCentroid.compute(lat, lon, rssi, rssi.length, centroid));
+        double centroidError = GeoProjection.distanceMeters(centroid[0], centroid[1],
+                projection.toLat(truthNorth), projection.toLon(truthEast));
+
+        assertTrue(solve(new TrilaterationSolver(), east, north, rssi));
+        double error = errorMeters(truthEast, truthNorth);
+        assertTrue("error " + error, error < 3);
+        assertTrue(error < centroidError / 3);
+    }
+
+    @Test
+    public void singleApIsItsOwnPosition() {
+        TrilaterationSolver solver = new TrilaterationSolver();
+        assertTrue(solve(solver, new double[]{20}, new double[]{-5}, new int[]{-67}));
+        assertTrue(errorMeters(20, -5) < 1e-6);
+        assertEquals(PathLossModel.DEFAULT.distanceMeters(-67), out[TrilaterationSolver.OUT_RMS_ERROR], 1e-9);
+    }
+
+    @Test
+    public void emptyScanHasNoSolution() {
+        assertFalse(new TrilaterationSolver().solve(new double[0], new double[0], new int[0], 0, out));
+    }
+
+    private boolean solve(TrilaterationSolver solver, double[] east, double[] north, int[] rssi) {
+        double[] lat = new double[east.length];
+        double[] lon = new double[east.length];
+        toLatLon(east, north, lat, lon);
+        return solver.solve(lat, lon, rssi, rssi.length, out);
+    }
+
+    private void toLatLon(double[] east, double[] north, double[] lat, double[] lon) {
+        for (int i = 0; i < east.length; i++) {
+            lat[i] = projection.toLat(north[i]);
+            lon[i] = projection.toLon(east[i]);
+        }
+    }
+
+    private double errorMeters(double east, double north) {
+        return GeoProjection.distanceMeters(out[TrilaterationSolver.OUT_LAT], out[TrilaterationSolver.OUT_LON],
+                projection.toLat(north), projection.toLon(east));
+    }
+}
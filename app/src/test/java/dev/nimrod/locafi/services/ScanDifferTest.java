@@ -0,0 +1,108 @@
+package dev.nimrod.locafi.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import dev.nimrod.locafi.localization.GeoProjection;
+import dev.nimrod.locafi.models.WiFiDevice;
+import dev.nimrod.locafi.utils.BssidUtils;
+
+public class ScanDifferTest {
+    private static final GeoProjection PROJECTION = new GeoProjection(32.0853, 34.7818);
+
+    @Test
+    public void rssiJitterIsHeldBackUntilDriftAddsUp() {
+        ScanDiffer differ = new ScanDiffer();
+        assertEquals(1, differ.diff(scan(ap(1, -60, 0)), 0).getAdded().size());
+
+        assertTrue(differ.diff(scan(ap(1, -63, 0)), 1000).isEmpty());
+        assertTrue(differ.diff(scan(ap(1, -57, 0)), 2000).isEmpty());
+        assertTrue(differ.diff(scan(ap(1, -65, 0)), 3000).isEmpty());
+        // Six dB from the last reported -60, though only one from the previous scan
+        ScanDiffer.ScanDiff diff = differ.diff(scan(ap(1, -66, 0)), 4000);
+        assertEquals(1, diff.getChanged().size());
+        assertEquals(-66, diff.getChanged().get(0).getSignalStrength());
+        assertTrue(differ.diff(scan(ap(1, -62, 0)), 5000).isEmpty());
+    }
+
+    @Test
+    public void positionChangesAreReportedPastTheThreshold() {
+        ScanDiffer differ = new ScanDiffer();
+        differ.diff(scan(ap(1, -60, 0)), 0);
+        assertTrue(differ.diff(scan(ap(1, -60, 20)), 1000).isEmpty());
+        assertEquals(1, differ.diff(scan(ap(1, -60, 30)), 2000).getChanged().size());
+
+        // Losing the position is a change too
+        WiFiDevice unplaced = ap(1, -60, 30);
+        unplaced.setLatitude(null);
+        unplaced.setLongitude(null);
+        assertEquals(1, differ.diff(scan(unplaced), 3000).getChanged().size());
+    }
+
+    @Test
+    public void apsMissingForSeveralScansAreForgottenAndReportedAgain() {
+        ScanDiffer differ = new ScanDiffer();
+        differ.diff(scan(ap(1, -60, 0), ap(2, -70, 0)), 0);
+
+        // One scan without AP 2 keeps it
+        assertTrue(differ.diff(scan(ap(1, -60, 0)), 1000).isEmpty());
+        assertTrue(differ.diff(scan(ap(1, -60, 0), ap(2, -70, 0)), 2000).isEmpty());
+
+        for (int i = 0; i < ScanDiffer.FORGET_AFTER_SCANS; i++) {
+            assertTrue(differ.diff(scan(ap(1, -60, 0)), 3000 + i * 1000).isEmpty());
+        }
+        ScanDiffer.ScanDiff diff = differ.diff(scan(ap(1, -60, 0), ap(2, -70, 0)), 9000);
+        assertEquals(1, diff.getAdded().size());
+        assertEquals(BssidUtils.toString(0x02_00_00_00_00_02L), diff.getAdded().get(0).getBssid());
+        assertTrue(diff.getChanged().isEmpty());
+    }
+
+    @Test
+    public void unchangedApsAreRefreshed() {
+        ScanDiffer differ = new ScanDiffer();
+        differ.diff(scan(ap(1, -60, 0)), 0);
+        assertTrue(differ.diff(scan(ap(1, -60, 0)), ScanDiffer.REFRESH_MS - 1).isEmpty());
+        assertEquals(1, differ.diff(scan(ap(1, -60, 0)), ScanDiffer.REFRESH_MS).getChanged().size());
+        // The refresh restarts the interval
+        assertTrue(differ.diff(scan(ap(1, -60, 0)), ScanDiffer.REFRESH_MS + 1000).isEmpty());
+    }
+
+    @Test
+    public void manyApsAndMalformedBssids() {
+        ScanDiffer differ = new ScanDiffer();
+        List<WiFiDevice> devices = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            devices.add(ap(i, -60, 0));
+        }
+        WiFiDevice malformed = ap(0, -60, 0);
+        malformed.setBssid("not a bssid");
+        devices.add(malformed);
+
+        ScanDiffer.ScanDiff diff = differ.diff(devices, 0);
+        assertEquals(200, diff.getAdded().size());
+        assertEquals(200, diff.getUpserted().size());
+        assertTrue(differ.diff(devices, 1000).isEmpty());
+        assertTrue(differ.diff(Collections.emptyList(), 2000).isEmpty());
+    }
+
+    private static List<WiFiDevice> scan(WiFiDevice... devices) {
+        return Arrays.asList(devices);
+    }
+
+    // An AP placed the given distance north of the origin
+    private static WiFiDevice ap(int id, int rssi, double northMeters) {
+        WiFiDevice device = new WiFiDevice();
+        device.setBssid(BssidUtils.toString(0x02_00_00_00_00_00L + id));
+        device.setSignalStrength(rssi);
+        device.setLatitude(PROJECTION.toLat(northMeters));
+        device.setLongitude(PROJECTION.toLon(0));
+        return device;
+    }
+}
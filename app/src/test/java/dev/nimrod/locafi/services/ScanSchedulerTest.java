@@ -0,0 +1,122 @@
+package dev.nimrod.locafi.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import dev.nimrod.locafi.localization.GeoProjection;
+import dev.nimrod.locafi.models.WiFiDevice;
+import dev.nimrod.locafi.utils.BssidUtils;
+
+public class ScanSchedulerTest {
+    private static final GeoProjection PROJECTION = new GeoProjection(32.0853, 34.7818);
+
+    @Test
+    public void fourAcceptedScansFillTheWindow() {
+        ScanScheduler scheduler = new ScanScheduler();
+        for (int i = 0; i < ScanScheduler.THROTTLE_MAX_SCANS; i++) {
+            assertTrue(scheduler.canScan(i * 10_000L));
+            scheduler.onScanRequested(i * 10_000L, true);
+        }
+        assertFalse(scheduler.canScan(40_000));
+        // The oldest scan leaves the window two minutes after it started
+        assertEquals(80_000, scheduler.getDelayMs(40_000));
+        assertFalse(scheduler.canScan(ScanScheduler.THROTTLE_WINDOW_MS - 1));
+        assertTrue(scheduler.canScan(ScanScheduler.THROTTLE_WINDOW_MS));
+
+        scheduler.onScanRequested(ScanScheduler.THROTTLE_WINDOW_MS, true);
+        assertFalse(scheduler.canScan(ScanScheduler.THROTTLE_WINDOW_MS + 9_999));
+        assertTrue(scheduler.canScan(ScanScheduler.THROTTLE_WINDOW_MS + 10_000));
+        assertEquals(5, scheduler.getAcceptedScans());
+    }
+
+    @Test
+    public void refusedRequestSpendsTheWholeWindow() {
+        ScanScheduler scheduler = new ScanScheduler();
+        scheduler.onScanRequested(0, true);
+        scheduler.onScanRequested(10_000, false);
+
+        assertEquals(1, scheduler.getThrottledScans());
+        assertFalse(scheduler.canScan(10_000 + ScanScheduler.THROTTLE_WINDOW_MS - 1));
+        assertTrue(scheduler.canScan(10_000 + ScanScheduler.THROTTLE_WINDOW_MS));
+    }
+
+    @Test
+    public void stationaryScansBackOffToTheCap() {
+        ScanScheduler scheduler = new ScanScheduler();
+        List<WiFiDevice> aps = aps(1, 2, 3, 4, 5);
+        // The first fix always counts as a move
+        scheduler.onScanProcessed(PROJECTION.toLat(0), PROJECTION.toLon(0), aps);
+        assertEquals(30_000, scheduler.getIntervalMs());
+
+        long[] expected = {60_000, 120_000, 240_000, 300_000, 300_000};
+        for (long interval : expected) {
+            scheduler.onScanProcessed(PROJECTION.toLat(0), PROJECTION.toLon(5), aps);
+            assertEquals(interval, scheduler.getIntervalMs());
+        }
+        scheduler.onScanRequested(0, true);
+        assertEquals(ScanScheduler.MAX_INTERVAL_MS, scheduler.getDelayMs(0));
+        assertEquals(0, scheduler.getDelayMs(ScanScheduler.MAX_INTERVAL_MS));
+    }
+
+    @Test
+    public void movingResetsTheIntervalAndNotifies() {
+        ScanScheduler scheduler = new ScanScheduler();
+        int[] shortened = {0};
+        scheduler.setListener(() -> shortened[0]++);
+        List<WiFiDevice> aps = aps(1, 2, 3, 4, 5);
+        scheduler.onScanProcessed(PROJECTION.toLat(0), PROJECTION.toLon(0), aps);
+        scheduler.onScanProcessed(PROJECTION.toLat(0), PROJECTION.toLon(0), aps);
+        scheduler.onScanProcessed(PROJECTION.toLat(0), PROJECTION.toLon(0), aps);
+        assertEquals(120_000, scheduler.getIntervalMs());
+
+        // 15 m from the last fix is still stationary
+        scheduler.onScanProcessed(PROJECTION.toLat(15), PROJECTION.toLon(0), aps);
+        assertEquals(240_000, scheduler.getIntervalMs());
+        assertEquals(0, shortened[0]);
+
+        scheduler.onScanProcessed(PROJECTION.toLat(40), PROJECTION.toLon(0), aps);
+        assertEquals(ScanScheduler.ACTIVE_INTERVAL_MS, scheduler.getIntervalMs());
+        assertEquals(1, shortened[0]);
+    }
+
+    @Test
+    public void changedApsResetTheInterval() {
+        ScanScheduler scheduler = new ScanScheduler();
+        double lat = PROJECTION.toLat(0), lon = PROJECTION.toLon(0);
+        scheduler.onScanProcessed(lat, lon, aps(1, 2, 3, 4, 5));
+        scheduler.onScanProcessed(lat, lon, aps(1, 2, 3, 4, 5));
+        assertEquals(60_000, scheduler.getIntervalMs());
+
+        // 4 shared of 6 seen: 0.67, same surroundings
+        scheduler.onScanProcessed(lat, lon, aps(1, 2, 3, 4, 6));
+        assertEquals(120_000, scheduler.getIntervalMs());
+
+        // 3 shared of 7 seen: 0.43, somewhere else
+        scheduler.onScanProcessed(lat, lon, aps(1, 2, 3, 7, 8));
+        assertEquals(ScanScheduler.ACTIVE_INTERVAL_MS, scheduler.getIntervalMs());
+    }
+
+    @Test
+    public void similarityIsSharedOverUnion() {
+        assertEquals(1.0, ScanScheduler.similarity(new long[0], new long[0]), 0);
+        assertEquals(0.0, ScanScheduler.similarity(new long[]{1}, new long[0]), 0);
+        assertEquals(2.0 / 4, ScanScheduler.similarity(new long[]{1, 2, 3}, new long[]{2, 3, 4}), 1e-12);
+    }
+
+    private static List<WiFiDevice> aps(int... ids) {
+        List<WiFiDevice> devices = new ArrayList<>();
+        for (int id : ids) {
+            WiFiDevice device = new WiFiDevice();
+            device.setBssid(BssidUtils.toString(0x02_00_00_00_00_00L + id));
+            device.setSignalStrength(-60);
+            devices.add(device);
+        }
+        return devices;
+    }
+}
@@ -0,0 +1,126 @@
+package dev.nimrod.locafi.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import dev.nimrod.locafi.models.WiFiDevice;
+
+public class DeviceCodecTest {
+    private static final String BSSID = "aa:bb:cc:dd:ee:01";
+    private static final int HEADER_SIZE = 4;
+
+    @Test
+    public void nullSsidRoundTrips() throws IOException {
+        List<WiFiDevice> decoded = DeviceCodec.decode(DeviceCodec.encode(
+                Collections.singletonList(device(BSSID, null, 1000))));
+        assertEquals(1, decoded.size());
+        assertNull(decoded.get(0).getSsid());
+        assertEquals(BSSID, decoded.get(0).getBssid());
+    }
+
+    @Test
+    public void ssidsAfterAFullDictionaryAreWrittenAsLiterals() throws IOException {
+        List<WiFiDevice> devices = new ArrayList<>();
+        for (int i = 0; i < DeviceCodec.MAX_DICTIONARY_SIZE + 50; i++) {
+            devices.add(device(bssid(i), "net-" + i, 1000 + i));
+        }
+        // Dictionary entries are still referenced once it is full
+        devices.add(device(bssid(1), "net-0", 9000));
+        devices.add(device(bssid(2), "net-" + (DeviceCodec.MAX_DICTIONARY_SIZE + 10), 9001));
+
+        List<WiFiDevice> decoded = DeviceCodec.decode(DeviceCodec.encode(devices));
+        assertEquals(devices.size(), decoded.size());
+        for (int i = 0; i < devices.size(); i++) {
+            assertEquals(devices.get(i).getSsid(), decoded.get(i).getSsid());
+            assertEquals(devices.get(i).getBssid(), decoded.get(i).getBssid());
+        }
+    }
+
+    @Test
+    public void negativeTimestampDeltasRoundTrip() throws IOException {
+        long[] timestamps = {1_700_000_000_000L, 1_600_000_000_000L, 1_700_000_000_500L, 0, 42};
+        List<WiFiDevice> devices = new ArrayList<>();
+        for (int i = 0; i < timestamps.length; i++) {
+            devices.add(device(bssid(i), "net", timestamps[i]));
+        }
+        List<WiFiDevice> decoded = DeviceCodec.decode(DeviceCodec.encode(devices));
+        for (int i = 0; i < timestamps.length; i++) {
+            assertEquals(timestamps[i], decoded.get(i).getTimestamp());
+        }
+    }
+
+    @Test
+    public void truncatedInputIsRejected() {
+        byte[] data = DeviceCodec.encode(Arrays.asList(device(bssid(0), "net", 1000),
+                device(bssid(1), "other", 2000)));
+        int firstRecord = recordSize(device(bssid(0), "net", 1000));
+        for (int length = 0; length < data.length; length++) {
+            // Cutting exactly between records is a shorter, valid stream
+            if (length == HEADER_SIZE || length == HEADER_SIZE + firstRecord) continue;
+            try {
+                DeviceCodec.decode(Arrays.copyOf(data, length));
+                fail("Decoded a stream cut at " + length + " of " + data.length);
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void recordsStayWithinTheSizeBound() {
+        WiFiDevice first = device(bssid(0), "net", 1_700_000_000_000L);
+        List<WiFiDevice> devices = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            WiFiDevice device = device(bssid(i), "net", first.getTimestamp() + i * 5000L);
+            device.setSignalStrength(-200 + i * 4);
+            devices.add(device);
+        }
+        byte[] data = DeviceCodec.encode(devices);
+        // Only the first record carries the SSID text; the rest reference it
+        assertTrue(recordSize(first) <= 25 + "net".length());
+        assertTrue((data.length - HEADER_SIZE - recordSize(first)) / 99.0 <= 25);
+    }
+
+    @Test
+    public void oversizedSsidLengthIsRejected() {
+        byte[] data = {'L', 'F', 'D', 1,
+                2, (byte) 0xaa, (byte) 0xbb, (byte) 0xcc, (byte) 0xdd, (byte) 0xee, 1,
+                -60, 0,
+                // literal SSID length 5000 as a varint, with no bytes behind it
+                (byte) 0x88, 0x27};
+        try {
+            DeviceCodec.decode(data);
+            fail("Accepted an SSID longer than the reader allows");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("too long"));
+        }
+    }
+
+    private static int recordSize(WiFiDevice device) {
+        return DeviceCodec.encode(Collections.singletonList(device)).length - HEADER_SIZE;
+    }
+
+    private static String bssid(int i) {
+        return BssidUtils.toString(0x02_00_00_00_00_00L + i);
+    }
+
+    private static WiFiDevice device(String bssid, String ssid, long timestamp) {
+        WiFiDevice device = new WiFiDevice();
+        device.setBssid(bssid);
+        device.setSsid(ssid);
+        device.setSignalStrength(-60);
+        device.setLatitude(32.0853);
+        device.setLongitude(34.7818);
+        device.setTimestamp(timestamp);
+        return device;
+    }
+}
@@ -0,0 +1,86 @@
+package dev.nimrod.locafi.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.List;
+
+public class GeohashTest {
+    @Test
+    public void encodesKnownHashes() {
+        assertEquals("ezs42", Geohash.encode(42.605, -5.603, 5));
+        assertEquals("u4pruydqqvj", Geohash.encode(57.64911, 10.40744, 11));
+    }
+
+    @Test
+    public void decodedBoundsContainThePoint() {
+        double[] bounds = new double[4];
+        assertTrue(Geohash.decodeBounds(Geohash.encode(-33.8688, 151.2093, 7), bounds));
+        assertTrue(bounds[0] <= -33.8688 && -33.8688 <= bounds[2]);
+        assertTrue(bounds[1] <= 151.2093 && 151.2093 <= bounds[3]);
+        assertEquals(Geohash.cellHeightDegrees(7), bounds[2] - bounds[0], 1e-12);
+        assertEquals(Geohash.cellWidthDegrees(7), bounds[3] - bounds[1], 1e-12);
+
+        assertFalse(Geohash.decodeBounds("ezs4a", bounds));
+        assertFalse(Geohash.decodeBounds("\u00e9zs42", bounds));
+    }
+
+    @Test
+    public void packedHashesRoundTrip() {
+        for (String hash : new String[]{"e", "ezs42", "sv8wrq", "u4pruydqqvj"}) {
+            long packed = Geohash.toLong(hash);
+            assertTrue(packed >= 0);
+            assertEquals(hash, Geohash.fromLong(packed));
+        }
+        // Same digits, different length
+        assertTrue(Geohash.toLong("0") != Geohash.toLong("00"));
+
+        assertEquals(-1L, Geohash.toLong(null));
+        assertEquals(-1L, Geohash.toLong(""));
+        assertEquals(-1L, Geohash.toLong("u4pruydqqvjx"));
+        assertEquals(-1L, Geohash.toLong("ezsa2"));
+    }
+
+    @Test
+    public void coveringCellsCoverTheBox() {
+        double minLat = 32.08, minLon = 34.77, maxLat = 32.09, maxLon = 34.79;
+        List<String> cells = Geohash.coveringCells(minLat, minLon, maxLat, maxLon, 4, 6, 48);
+        assertNotNull(cells);
+        assertTrue(cells.size() <= 48);
+        for (double lat = minLat; lat <= maxLat; lat += 0.001) {
+            for (double lon = minLon; lon <= maxLon; lon += 0.001) {
+                String cell = Geohash.encode(lat, lon, cells.get(0).length());
+                assertTrue(cell + " not covered", cells.contains(cell));
+            }
+        }
+    }
+
+    @Test
+    public void coveringCellsFallBackToCoarserCells() {
+        // Too many precision 6 cells for the limit, so the covering is coarser
+        List<String> cells = Geohash.coveringCells(32.0, 34.7, 32.2, 34.9, 4, 6, 48);
+        assertNotNull(cells);
+        assertTrue(cells.get(0).length() < 6);
+
+        assertNull(Geohash.coveringCells(30.0, 30.0, 40.0, 40.0, 4, 6, 48));
+    }
+
+    @Test
+    public void coveringCellsSplitAtTheAntimeridian() {
+        List<String> cells = Geohash.coveringCells(-17.1, 179.99, -17.0, -179.99, 4, 6, 48);
+        assertNotNull(cells);
+        boolean east = false, west = false;
+        double[] bounds = new double[4];
+        for (String cell : cells) {
+            Geohash.decodeBounds(cell, bounds);
+            east |= bounds[3] == 180.0;
+            west |= bounds[1] == -180.0;
+        }
+        assertTrue(east && west);
+    }
+}
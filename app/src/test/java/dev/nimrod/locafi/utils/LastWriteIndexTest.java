@@ -0,0 +1,87 @@
+package dev.nimrod.locafi.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import android.app.Application;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+
+// Robolectric only for android.util.Log
+@RunWith(RobolectricTestRunner.class)
+@Config(application = Application.class)
+public class LastWriteIndexTest {
+    private static final long BSSID_A = 0xaabbccddee01L;
+    private static final long BSSID_B = 0xaabbccddee02L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void loadsVersionOneFilesWithoutCells() throws Exception {
+        File file = folder.newFile("last_writes.bin");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeInt(1);
+            out.writeInt(2);
+            out.writeLong(BSSID_A);
+            out.writeLong(1000);
+            out.writeLong(BSSID_B);
+            out.writeLong(2000);
+        }
+
+        LastWriteIndex index = load(file);
+        assertEquals(2, index.size());
+        assertEquals(1000, index.getLastWritten(BSSID_A));
+        assertEquals(2000, index.getLastWritten(BSSID_B));
+        assertNull(index.getLastCell(BSSID_A));
+    }
+
+    @Test
+    public void versionOneFilesAreRewrittenAsVersionTwo() throws Exception {
+        File file = folder.newFile("last_writes.bin");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeInt(1);
+            out.writeInt(1);
+            out.writeLong(BSSID_A);
+            out.writeLong(1000);
+        }
+
+        LastWriteIndex index = load(file);
+        index.recordWrite(BSSID_B, 3000, "sv8wrq");
+        index.save();
+        index.awaitIdle(5000);
+
+        LastWriteIndex reloaded = load(file);
+        assertEquals(1000, reloaded.getLastWritten(BSSID_A));
+        assertNull(reloaded.getLastCell(BSSID_A));
+        assertEquals(3000, reloaded.getLastWritten(BSSID_B));
+        assertEquals("sv8wrq", reloaded.getLastCell(BSSID_B));
+    }
+
+    @Test
+    public void unknownVersionsAreIgnored() throws Exception {
+        File file = folder.newFile("last_writes.bin");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeInt(99);
+            out.writeInt(1);
+            out.writeLong(BSSID_A);
+            out.writeLong(1000);
+        }
+        assertEquals(0, load(file).size());
+    }
+
+    private static LastWriteIndex load(File file) throws InterruptedException {
+        LastWriteIndex index = LastWriteIndex.load(file);
+        index.awaitIdle(5000);
+        return index;
+    }
+}
@@ -0,0 +1,74 @@
+package dev.nimrod.locafi.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class LongIntHashMapTest {
+    @Test
+    public void removedKeysAreGoneAndOthersStayReachable() {
+        LongIntHashMap map = new LongIntHashMap(16);
+        // Probe chains form well below the load limit; removals must backward-shift them
+        for (int i = 0; i < 12; i++) {
+            map.put(i * 1024L, i);
+        }
+        assertTrue(map.remove(0));
+        assertTrue(map.remove(5 * 1024L));
+        assertFalse(map.remove(5 * 1024L));
+        assertFalse(map.remove(99));
+
+        assertEquals(10, map.size());
+        assertEquals(-1, map.get(0, -1));
+        assertEquals(-1, map.get(5 * 1024L, -1));
+        for (int i = 1; i < 12; i++) {
+            if (i == 5) continue;
+            assertEquals(i, map.get(i * 1024L, -1));
+        }
+    }
+
+    @Test
+    public void removedKeysCanBeInsertedAgain() {
+        LongIntHashMap map = new LongIntHashMap();
+        map.put(7, 1);
+        assertTrue(map.remove(7));
+        assertFalse(map.containsKey(7));
+        map.put(7, 2);
+        assertEquals(2, map.get(7, -1));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void matchesHashMapUnderMixedPutsAndRemoves() {
+        LongIntHashMap map = new LongIntHashMap(4);
+        Map<Long, Integer> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int step = 0; step < 20000; step++) {
+            long key = random.nextInt(500) * 31L;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key) != null, map.remove(key));
+            } else {
+                int value = random.nextInt();
+                map.put(key, value);
+                expected.put(key, value);
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+            assertEquals((int) entry.getValue(), map.get(entry.getKey(), -1));
+        }
+        int used = 0;
+        for (int slot = 0; slot < map.capacity(); slot++) {
+            if (map.isUsed(slot)) {
+                used++;
+                assertEquals((int) expected.get(map.keyAt(slot)), map.valueAt(slot));
+            }
+        }
+        assertEquals(expected.size(), used);
+    }
+}
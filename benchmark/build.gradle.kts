@@ -0,0 +1,46 @@
+// Pure-JVM JMH harness for the localization math. The Android-free sources are
+// compiled straight from :app; the two Android types they touch come from src/shim.
+plugins {
+    `java-library`
+    alias(libs.plugins.jmh)
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+val appSources = "../app/src/main/java"
+
+sourceSets {
+    main {
+        java {
+            srcDir(appSources)
+            srcDir("src/shim/java")
+            setIncludes(
+                listOf(
+                    "dev/nimrod/locafi/localization/**",
+                    "dev/nimrod/locafi/models/WiFiDevice.java",
+                    "dev/nimrod/locafi/utils/BssidUtils.java",
+                    "dev/nimrod/locafi/utils/LongKeyedHashMap.java",
+                    "dev/nimrod/locafi/utils/LongIntHashMap.java",
+                    "dev/nimrod/locafi/utils/LocationCalculator.java",
+                    "dev/nimrod/locafi/utils/SignalStrengthHelper.java",
+                    "android/**",
+                    "com/google/android/gms/maps/model/**"
+                )
+            )
+        }
+    }
+}
+
+jmh {
+    jmhVersion.set(libs.versions.jmh)
+    profilers.add("gc")
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file("results/jmh/results.json"))
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+    (project.findProperty("jmhInclude") as String?)?.let { includes.add(it) }
+}
@@ -0,0 +1,97 @@
+package dev.nimrod.locafi.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import dev.nimrod.locafi.localization.AccessPointTable;
+import dev.nimrod.locafi.localization.FingerprintDatabase;
+import dev.nimrod.locafi.localization.KalmanTracker;
+import dev.nimrod.locafi.localization.LikelihoodGrid;
+import dev.nimrod.locafi.localization.MedianConsensusFilter;
+import dev.nimrod.locafi.localization.RansacFilter;
+import dev.nimrod.locafi.localization.ScanJoin;
+
+// Stateful estimators fed with the same synthetic AP sets as LocationCalculatorBenchmark
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class EstimatorBenchmark {
+    @Param({"10", "1000", "100000"})
+    public int apCount;
+
+    private SyntheticScans scans;
+    private final KalmanTracker tracker = new KalmanTracker();
+    private final AccessPointTable table = new AccessPointTable();
+    private final ScanJoin join = new ScanJoin();
+    private final MedianConsensusFilter medianFilter = new MedianConsensusFilter();
+    private final RansacFilter ransacFilter = new RansacFilter();
+    private final FingerprintDatabase fingerprints = new FingerprintDatabase();
+    private LikelihoodGrid grid;
+    private boolean[] keep;
+    private long timestamp;
+    private final double[] out = new double[FingerprintDatabase.OUT_SIZE];
+
+    @Setup
+    public void setUp() {
+        scans = new SyntheticScans(apCount, 100, 42);
+        for (int i = 0; i < scans.count; i++) {
+            table.observe(scans.bssid[i], scans.rssi[i], scans.lat[i], scans.lon[i], i);
+        }
+        // One fingerprint per AP position, hearing that AP and its neighbours in index order
+        int width = Math.min(8, scans.count);
+        long[] bssids = new long[width];
+        int[] levels = new int[width];
+        for (int i = 0; i < scans.count; i++) {
+            for (int j = 0; j < width; j++) {
+                int ap = (i + j) % scans.count;
+                bssids[j] = scans.bssid[ap];
+                levels[j] = scans.rssi[ap];
+            }
+            fingerprints.add(scans.lat[i], scans.lon[i], bssids, levels, width);
+        }
+        grid = new LikelihoodGrid(1000, 1000, 1.0, 0.9);
+        grid.reset(SyntheticScans.ORIGIN_LAT, SyntheticScans.ORIGIN_LON);
+        keep = new boolean[scans.count];
+    }
+
+    @Benchmark
+    public double kalmanUpdateFromScan() {
+        tracker.updateFromScan(scans.lat, scans.lon, scans.rssi, scans.count, timestamp += 1000);
+        return tracker.getLatitude();
+    }
+
+    @Benchmark
+    public int accessPointJoin() {
+        return join.join(scans.bssid, scans.rssi, scans.count, table);
+    }
+
+    @Benchmark
+    public int medianConsensusFilter() {
+        return medianFilter.filter(scans.lat, scans.lon, scans.rssi, scans.count, keep);
+    }
+
+    @Benchmark
+    public int ransacFilter() {
+        return ransacFilter.filter(scans.lat, scans.lon, scans.rssi, scans.count, keep);
+    }
+
+    @Benchmark
+    public double[] fingerprintMatch() {
+        fingerprints.match(scans.bssid, scans.rssi, Math.min(scans.count, 50), FingerprintDatabase.DEFAULT_K, out);
+        return out;
+    }
+
+    @Benchmark
+    public int likelihoodGridUpdate() {
+        grid.update(scans.lat, scans.lon, scans.rssi, Math.min(scans.count, 50));
+        return grid.getLastTouchedCells();
+    }
+}
@@ -0,0 +1,62 @@
+package dev.nimrod.locafi.benchmark;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import dev.nimrod.locafi.localization.TrilaterationSolver;
+import dev.nimrod.locafi.localization.WeightedCentroid;
+import dev.nimrod.locafi.models.WiFiDevice;
+import dev.nimrod.locafi.utils.LocationCalculator;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class LocationCalculatorBenchmark {
+    @Param({"10", "1000", "100000"})
+    public int apCount;
+
+    private SyntheticScans scans;
+    private List<WiFiDevice> devices;
+    private final TrilaterationSolver solver = new TrilaterationSolver();
+    private final double[] out = new double[TrilaterationSolver.OUT_SIZE];
+
+    @Setup
+    public void setUp() {
+        scans = new SyntheticScans(apCount, 100, 42);
+        devices = scans.toDevices();
+        solver.ensureCapacity(apCount);
+    }
+
+    @Benchmark
+    public LatLng centroidFromDevices() {
+        return LocationCalculator.calculateLocation(devices, LocationCalculator.Mode.WEIGHTED_CENTROID);
+    }
+
+    @Benchmark
+    public LatLng trilaterationFromDevices() {
+        return LocationCalculator.calculateLocation(devices, LocationCalculator.Mode.TRILATERATION);
+    }
+
+    @Benchmark
+    public double[] centroidPrimitive() {
+        WeightedCentroid.compute(scans.lat, scans.lon, scans.rssi, scans.count, out);
+        return out;
+    }
+
+    @Benchmark
+    public double[] trilaterationPrimitive() {
+        solver.solve(scans.lat, scans.lon, scans.rssi, scans.count, out);
+        return out;
+    }
+}
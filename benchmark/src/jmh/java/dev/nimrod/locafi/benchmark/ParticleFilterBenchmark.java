@@ -0,0 +1,52 @@
+package dev.nimrod.locafi.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import dev.nimrod.locafi.localization.ParticleFilter;
+import dev.nimrod.locafi.localization.PathLossModel;
+
+// A step costs particles x APs, so this sweeps particle counts at realistic scan sizes
+// instead of the 100k-AP set the stateless estimators use
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ParticleFilterBenchmark {
+    @Param({"10", "50"})
+    public int apCount;
+
+    @Param({"1000", "10000", "100000"})
+    public int particles;
+
+    private SyntheticScans scans;
+    private ForkJoinPool pool;
+    private ParticleFilter filter;
+
+    @Setup
+    public void setUp() {
+        scans = new SyntheticScans(apCount, 100, 42);
+        pool = new ForkJoinPool();
+        filter = new ParticleFilter(particles, PathLossModel.DEFAULT, pool, 42);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public double step() {
+        filter.step(scans.lat, scans.lon, scans.rssi, scans.count, 1.0);
+        return filter.getLatitude();
+    }
+}
@@ -0,0 +1,47 @@
+package dev.nimrod.locafi.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import dev.nimrod.locafi.utils.SignalStrengthHelper;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SignalStrengthHelperBenchmark {
+    @Param({"10", "1000", "100000"})
+    public int apCount;
+
+    private int[] rssi;
+
+    @Setup
+    public void setUp() {
+        rssi = new SyntheticScans(apCount, 100, 7).rssi;
+    }
+
+    @Benchmark
+    public int signalLevels() {
+        int sum = 0;
+        for (int level : rssi) {
+            sum += SignalStrengthHelper.calculateSignalLevel(level);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public float circleRadii() {
+        float sum = 0;
+        for (int level : rssi) {
+            sum += SignalStrengthHelper.getCircleRadius(level);
+        }
+        return sum;
+    }
+}
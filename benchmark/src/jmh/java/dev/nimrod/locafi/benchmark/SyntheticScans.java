@@ -0,0 +1,59 @@
+package dev.nimrod.locafi.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import dev.nimrod.locafi.localization.GeoProjection;
+import dev.nimrod.locafi.localization.PathLossModel;
+import dev.nimrod.locafi.models.WiFiDevice;
+import dev.nimrod.locafi.utils.BssidUtils;
+
+// Deterministic AP sets scattered around a user at the projection origin, with
+// RSSI drawn from the default path-loss model plus shadowing noise
+final class SyntheticScans {
+    static final double ORIGIN_LAT = 32.0853;
+    static final double ORIGIN_LON = 34.7818;
+    private static final double SHADOWING_DB = 4.0;
+
+    final long[] bssid;
+    final double[] lat;
+    final double[] lon;
+    final int[] rssi;
+    final int count;
+
+    SyntheticScans(int count, double spreadMeters, long seed) {
+        this.count = count;
+        bssid = new long[count];
+        lat = new double[count];
+        lon = new double[count];
+        rssi = new int[count];
+
+        Random random = new Random(seed);
+        GeoProjection projection = new GeoProjection(ORIGIN_LAT, ORIGIN_LON);
+        for (int i = 0; i < count; i++) {
+            double east = (random.nextDouble() * 2 - 1) * spreadMeters;
+            double north = (random.nextDouble() * 2 - 1) * spreadMeters;
+            bssid[i] = 0x02_00_00_00_00_00L | i;
+            lat[i] = projection.toLat(north);
+            lon[i] = projection.toLon(east);
+            double expected = PathLossModel.DEFAULT.expectedRssi(Math.hypot(east, north));
+            rssi[i] = (int) Math.max(-100, Math.min(-30, Math.round(expected + random.nextGaussian() * SHADOWING_DB)));
+        }
+    }
+
+    List<WiFiDevice> toDevices() {
+        List<WiFiDevice> devices = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            WiFiDevice device = new WiFiDevice();
+            device.setBssid(BssidUtils.toString(bssid[i]));
+            device.setSsid("ap-" + i);
+            device.setSignalStrength(rssi[i]);
+            device.setLatitude(lat[i]);
+            device.setLongitude(lon[i]);
+            device.setTimestamp(i);
+            devices.add(device);
+        }
+        return devices;
+    }
+}
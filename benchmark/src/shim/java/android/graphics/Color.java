@@ -0,0 +1,10 @@
+package android.graphics;
+
+// JVM stand-in for the one android.graphics.Color call SignalStrengthHelper makes
+public class Color {
+    public static final int BLUE = 0xFF0000FF;
+
+    public static int rgb(int red, int green, int blue) {
+        return 0xFF000000 | (red << 16) | (green << 8) | blue;
+    }
+}
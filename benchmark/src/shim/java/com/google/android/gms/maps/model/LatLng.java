@@ -0,0 +1,12 @@
+package com.google.android.gms.maps.model;
+
+// JVM stand-in for the Maps SDK value type returned by LocationCalculator
+public final class LatLng {
+    public final double latitude;
+    public final double longitude;
+
+    public LatLng(double latitude, double longitude) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+}
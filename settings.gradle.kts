@@ -21,3 +21,4 @@ dependencyResolutionManagement {
 
 rootProject.name = "LocaFI"
 include(":app")
+include(":benchmark")